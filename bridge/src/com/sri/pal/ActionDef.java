@@ -55,9 +55,6 @@ import com.sri.pal.jaxb.ParamClassType;
 import com.sri.pal.jaxb.ParamType;
 import com.sri.pal.jaxb.TypeRef;
 import com.sri.tasklearning.spine.SpineException;
-import com.sri.tasklearning.spine.messages.Message;
-import com.sri.tasklearning.spine.messages.SerialNumberRequest;
-import com.sri.tasklearning.spine.messages.SerialNumberResponse;
 import com.sri.tasklearning.spine.messages.contents.ActionCategory;
 import com.sri.tasklearning.spine.messages.contents.ParamClass;
 import com.sri.tasklearning.spine.messages.contents.TransactionUID;
@@ -553,12 +550,7 @@ public class ActionDef
         long serial = 0;
         if (parent == null) {
             try {
-                TransactionUID uid = getSpine().getNextUid();
-                Message msg = new SerialNumberRequest(getSpine().getClientId(),
-                        uid);
-                SerialNumberResponse result = getBridge().getSerialGetter()
-                        .sendAndGetReply(msg);
-                serial = result.getSerialNumber();
+                serial = getBridge().getSerialGetter().nextSerialNumber();
             } catch (SpineException e) {
                 throw new PALException("Unable to get serial number", e);
             }
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.pal;
+
+/**
+ * A snapshot of how notifications have been delivered to one
+ * {@link GlobalActionListener}.
+ *
+ * @see Bridge#getActionListenerStats
+ */
+public class ActionListenerStats {
+    private final GlobalActionListener.Delivery delivery;
+    private final int queueDepth;
+    private final int maxQueueDepth;
+    private final long delivered;
+    private final long dropped;
+    private final long totalLatency;
+    private final long maxLatency;
+
+    ActionListenerStats(GlobalActionListener.Delivery delivery,
+                        int queueDepth,
+                        int maxQueueDepth,
+                        long delivered,
+                        long dropped,
+                        long totalLatency,
+                        long maxLatency) {
+        this.delivery = delivery;
+        this.queueDepth = queueDepth;
+        this.maxQueueDepth = maxQueueDepth;
+        this.delivered = delivered;
+        this.dropped = dropped;
+        this.totalLatency = totalLatency;
+        this.maxLatency = maxLatency;
+    }
+
+    public GlobalActionListener.Delivery getDelivery() {
+        return delivery;
+    }
+
+    /**
+     * @return the number of notifications waiting to be delivered
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * @return the largest number of notifications which have been waiting at
+     *         once
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * @return the number of notifications the listener has received
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * @return the number of notifications discarded because the listener's
+     *         queue was full
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return the mean time (ms) from queueing a notification to the
+     *         listener returning from it
+     */
+    public double getMeanLatency() {
+        if (delivered == 0) {
+            return 0;
+        }
+        return totalLatency / (delivered * 1e6);
+    }
+
+    /**
+     * @return the longest time (ms) from queueing a notification to the
+     *         listener returning from it
+     */
+    public double getMaxLatency() {
+        return maxLatency / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + delivery + ", depth "
+                + queueDepth + " (max " + maxQueueDepth + "), delivered "
+                + delivered + ", dropped " + dropped + ", latency "
+                + getMeanLatency() + " ms (max " + getMaxLatency() + " ms)]";
+    }
+}
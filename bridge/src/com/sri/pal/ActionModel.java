@@ -18,6 +18,7 @@
 package com.sri.pal;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.net.MalformedURLException;
@@ -41,6 +42,10 @@ import javax.xml.bind.Unmarshaller;
 import javax.xml.bind.ValidationEvent;
 import javax.xml.bind.ValidationEventLocator;
 import javax.xml.bind.util.ValidationEventCollector;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 
@@ -104,15 +109,22 @@ public class ActionModel {
     static final String AGAVE_NAMESPACE = LapdogClientCallServiceImpl.AGAVE_NAMESPACE;
     static final String AGAVE_VERSION = LapdogClientCallServiceImpl.AGAVE_VERSION;
     private static final String METADATA_NAME = "_";
+    private static final String ACTION_MODEL_ELEMENT = "actionModel";
 
-    private Unmarshaller unmarshaller;
+    /** Validating unmarshallers for whole documents. */
+    private UnmarshallerPool unmarshallers;
+    /** Non-validating unmarshallers for single elements of a stream. */
+    private UnmarshallerPool fragmentUnmarshallers;
+    private XMLInputFactory xmlInputFactory;
 
     private final Bridge bridge;
     private final Map<SimpleTypeName, CustomTypeFactory> customFactories;
     private final Executor threadPool;
+    private final CoalescingTypeLoader typeLoader;
 
     ActionModel(Bridge bridge) {
         this.bridge = bridge;
+        typeLoader = new CoalescingTypeLoader(bridge);
         customFactories = new HashMap<SimpleTypeName, CustomTypeFactory>();
         ThreadFactory tf = new NamedThreadFactory(getClass());
         threadPool = Executors.newCachedThreadPool(tf);
@@ -134,6 +146,18 @@ public class ActionModel {
         return bridge.getActionModelFactory();
     }
 
+    /**
+     * Caches the given type's ATR, along with the type itself so that lookups
+     * return this same object until the type changes or is evicted.
+     */
+    private void cache(ActionModelDef type) {
+        ATR atr = type.getAtr();
+        if (atr != null) {
+            getTypeCache().add(atr);
+            getTypeCache().attach(atr, type);
+        }
+    }
+
     /**
      * Factory method used to get an action model object when the PAL system is
      * offline. The resulting action model will be crippled because it can't
@@ -155,27 +179,53 @@ public class ActionModel {
     }
 
     private synchronized void initJaxb() {
-        if (unmarshaller == null) {
+        if (unmarshallers == null) {
+            JAXBContext jc;
             try {
-                JAXBContext jc = JAXBContext.newInstance(ActionModelType.class
+                jc = JAXBContext.newInstance(ActionModelType.class
                         .getPackage().getName());
-                unmarshaller = jc.createUnmarshaller();
             } catch (JAXBException e) {
-                String msg = "Cannot create JAXB context or unmarshaller";
+                String msg = "Cannot create JAXB context";
                 log.error(msg, e);
                 throw new RuntimeException(msg, e);
             }
             SchemaFactory schemaFactory = SchemaFactory
                     .newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
             URL schemaUrl = ActionModel.class.getResource(XSD_NAME);
+            Schema schema = null;
             try {
-                Schema schema = schemaFactory.newSchema(schemaUrl);
-                unmarshaller.setSchema(schema);
+                schema = schemaFactory.newSchema(schemaUrl);
             } catch (SAXException e) {
                 log.warn(
                         "Cannot load ActionModel.xsd schema from " + schemaUrl,
                         e);
             }
+            unmarshallers = new UnmarshallerPool(jc, schema);
+            fragmentUnmarshallers = new UnmarshallerPool(jc, null);
+            xmlInputFactory = XMLInputFactory.newInstance();
+        }
+    }
+
+    /**
+     * Provides this thread's validating unmarshaller. Each thread gets its own,
+     * so concurrent loads don't wait for each other.
+     */
+    private Unmarshaller getUnmarshaller() {
+        return getUnmarshaller(false);
+    }
+
+    private Unmarshaller getUnmarshaller(boolean fragment) {
+        initJaxb();
+        try {
+            if (fragment) {
+                return fragmentUnmarshallers.get();
+            } else {
+                return unmarshallers.get();
+            }
+        } catch (JAXBException e) {
+            String msg = "Cannot create JAXB unmarshaller";
+            log.error(msg, e);
+            throw new RuntimeException(msg, e);
         }
     }
 
@@ -205,32 +255,30 @@ public class ActionModel {
                                      String namespace,
                                      Set<String> loadedUrls)
             throws PALException {
-        initJaxb();
         JAXBElement<?> ele;
-        synchronized (unmarshaller) {
-            ValidationEventCollector vec = new ValidationEventCollector();
-            try {
-                unmarshaller.setEventHandler(vec);
-            } catch (JAXBException e) {
-                log.warn("Cannot set validation event handler for schema", e);
-            }
+        Unmarshaller unmarshaller = getUnmarshaller();
+        ValidationEventCollector vec = new ValidationEventCollector();
+        try {
+            unmarshaller.setEventHandler(vec);
+        } catch (JAXBException e) {
+            log.warn("Cannot set validation event handler for schema", e);
+        }
 
-            try {
-                ele = (JAXBElement<?>) unmarshaller.unmarshal(source);
-            } catch (JAXBException e) {
-                String msg = "XML parse error in " + source
-                        + " (see log for details)";
-                log.info(msg, e);
-                throw new PALException(msg, e);
-            } finally {
-                for (ValidationEvent ve : vec.getEvents()) {
-                    String msg = ve.getMessage();
-                    ValidationEventLocator vel = ve.getLocator();
-                    int line = vel.getLineNumber();
-                    int column = vel.getColumnNumber();
-                    log.warn("XML parse error detail: line " + line + ", col "
-                            + column + ": " + msg);
-                }
+        try {
+            ele = (JAXBElement<?>) unmarshaller.unmarshal(source);
+        } catch (JAXBException e) {
+            String msg = "XML parse error in " + source
+                    + " (see log for details)";
+            log.info(msg, e);
+            throw new PALException(msg, e);
+        } finally {
+            for (ValidationEvent ve : vec.getEvents()) {
+                String msg = ve.getMessage();
+                ValidationEventLocator vel = ve.getLocator();
+                int line = vel.getLineNumber();
+                int column = vel.getColumnNumber();
+                log.warn("XML parse error detail: line " + line + ", col "
+                        + column + ": " + msg);
             }
         }
         ActionModelType amXml = (ActionModelType) ele.getValue();
@@ -255,44 +303,47 @@ public class ActionModel {
     Set<ActionModelDef> read(String sourceStr,
                              String namespace)
             throws PALException {
-        initJaxb();
         JAXBElement<?> ele;
 
-        synchronized (unmarshaller) {
-            ValidationEventCollector vec = new ValidationEventCollector();
-            try {
-                unmarshaller.setEventHandler(vec);
-            } catch (JAXBException e) {
-                log.warn("Cannot set validation event handler for schema", e);
+        Unmarshaller unmarshaller = getUnmarshaller();
+        ValidationEventCollector vec = new ValidationEventCollector();
+        try {
+            unmarshaller.setEventHandler(vec);
+        } catch (JAXBException e) {
+            log.warn("Cannot set validation event handler for schema", e);
+        }
+
+        Reader in = new StringReader(sourceStr);
+        try {
+            ele = (JAXBElement<?>) unmarshaller.unmarshal(in);
+        } catch (Exception e) {
+            String msg = "XML parse error in " + sourceStr
+                    + " (see log for details)";
+            log.info(msg, e);
+            throw new PALException(msg, e);
+        } finally {
+            for (ValidationEvent ve : vec.getEvents()) {
+                String msg = ve.getMessage();
+                ValidationEventLocator vel = ve.getLocator();
+                int line = vel.getLineNumber();
+                int column = vel.getColumnNumber();
+                log.info("XML parse error detail: line " + line + ", col "
+                        + column + ": " + msg);
             }
 
-            Reader in = new StringReader(sourceStr);
             try {
-                ele = (JAXBElement<?>) unmarshaller.unmarshal(in);
-            } catch (Exception e) {
-                String msg = "XML parse error in " + sourceStr
-                        + " (see log for details)";
-                log.info(msg, e);
-                throw new PALException(msg, e);
-            } finally {
-                for (ValidationEvent ve : vec.getEvents()) {
-                    String msg = ve.getMessage();
-                    ValidationEventLocator vel = ve.getLocator();
-                    int line = vel.getLineNumber();
-                    int column = vel.getColumnNumber();
-                    log.info("XML parse error detail: line " + line + ", col "
-                            + column + ": " + msg);
-                }
-
-                try {
-                    in.close();
-                } catch (IOException e) {
-                    log.warn("Unable to close StringReader " + in, e);
-                }
+                in.close();
+            } catch (IOException e) {
+                log.warn("Unable to close StringReader " + in, e);
             }
         }
         ActionModelType amXml = (ActionModelType) ele.getValue();
-        return load(null, amXml, namespace, false, new HashSet<String>());
+        typeLoader.beginBuild();
+        try {
+            return load(null, amXml, namespace, false, new HashSet<String>());
+        } finally {
+            typeLoader.endBuild();
+        }
     }
 
     /**
@@ -313,32 +364,30 @@ public class ActionModel {
     public Set<ActionModelDef> load(String source,
                                     String namespace)
             throws PALException {
-        initJaxb();
         JAXBElement<?> ele;
-        synchronized (unmarshaller) {
-            ValidationEventCollector vec = new ValidationEventCollector();
-            try {
-                unmarshaller.setEventHandler(vec);
-            } catch (JAXBException e) {
-                log.warn("Cannot set validation event handler for schema", e);
-            }
+        Unmarshaller unmarshaller = getUnmarshaller();
+        ValidationEventCollector vec = new ValidationEventCollector();
+        try {
+            unmarshaller.setEventHandler(vec);
+        } catch (JAXBException e) {
+            log.warn("Cannot set validation event handler for schema", e);
+        }
 
-            Reader in = new StringReader(source);
-            try {
-                ele = (JAXBElement<?>) unmarshaller.unmarshal(in);
-            } catch (JAXBException e) {
-                String msg = "XML parse error in supplied string";
-                log.info(msg + ": " + source, e);
-                throw new PALException(msg, e);
-            } finally {
-                for (ValidationEvent ve : vec.getEvents()) {
-                    String msg = ve.getMessage();
-                    ValidationEventLocator vel = ve.getLocator();
-                    int line = vel.getLineNumber();
-                    int column = vel.getColumnNumber();
-                    log.warn("XML parse error detail: line " + line + ", col "
-                            + column + ": " + msg);
-                }
+        Reader in = new StringReader(source);
+        try {
+            ele = (JAXBElement<?>) unmarshaller.unmarshal(in);
+        } catch (JAXBException e) {
+            String msg = "XML parse error in supplied string";
+            log.info(msg + ": " + source, e);
+            throw new PALException(msg, e);
+        } finally {
+            for (ValidationEvent ve : vec.getEvents()) {
+                String msg = ve.getMessage();
+                ValidationEventLocator vel = ve.getLocator();
+                int line = vel.getLineNumber();
+                int column = vel.getColumnNumber();
+                log.warn("XML parse error detail: line " + line + ", col "
+                        + column + ": " + msg);
             }
         }
         ActionModelType amXml = (ActionModelType) ele.getValue();
@@ -373,18 +422,192 @@ public class ActionModel {
                                      boolean storeTypes,
                                      Set<String> loadedUrls)
             throws PALException {
-        List<ActionModelDef> result = new ArrayList<ActionModelDef>();
+        DocumentLoader loader = new DocumentLoader(contextUrl,
+                source.getVersion(), namespace, storeTypes, loadedUrls, false);
+        for (RequireType require : source.getRequire()) {
+            loader.require(require);
+        }
+        for (MetadataType metaXml : source.getMetadata()) {
+            loader.metadata(metaXml);
+        }
+        for (TypeType typeXml : source.getType()) {
+            loader.type(typeXml);
+        }
+        for (ConstraintDeclarationType cdt : source.getConstraintDecl()) {
+            loader.constraintDecl(cdt);
+        }
+        for (FamilyType ft : source.getFamily()) {
+            loader.family(ft);
+        }
+        for (ActionType actionXml : source.getAction()) {
+            loader.action(actionXml);
+        }
+        for (IdiomType it : source.getIdiom()) {
+            loader.idiom(it);
+        }
+        return loader.finish();
+    }
 
-        if (namespace == null) {
-            throw new IllegalArgumentException("Namespace must not be null");
+    /**
+     * Loads a set of types and actions from an XML-formatted file, like
+     * {@link #load(URL, String)}, but without building the whole document in
+     * memory first. Each definition is converted and added to the action model
+     * as soon as it has been read, which suits very large files better. Unlike
+     * {@code load}, this method doesn't validate the file against the action
+     * model schema.
+     *
+     * @param source
+     *            the location from which to load the new definitions
+     * @param namespace
+     *            the namespace in which to load the actions
+     * @return the new types and actions which were loaded from the given
+     *         resource
+     * @throws PALException
+     *             if an error occurs in parsing the XML
+     */
+    public Set<ActionModelDef> loadStreaming(URL source,
+                                             String namespace)
+            throws PALException {
+        return loadStreaming(source, namespace, new HashSet<String>());
+    }
+
+    private Set<ActionModelDef> loadStreaming(URL source,
+                                              String namespace,
+                                              Set<String> loadedUrls)
+            throws PALException {
+        Unmarshaller unmarshaller = getUnmarshaller(true);
+        InputStream in = null;
+        XMLStreamReader reader = null;
+        try {
+            in = source.openStream();
+            reader = xmlInputFactory.createXMLStreamReader(
+                    source.toExternalForm(), in);
+            reader.nextTag();
+            if (!ACTION_MODEL_ELEMENT.equals(reader.getLocalName())) {
+                throw new PALException("Expected <" + ACTION_MODEL_ELEMENT
+                        + "> in " + source + ", got <" + reader.getLocalName()
+                        + ">");
+            }
+            String version = reader.getAttributeValue(null, "version");
+            if (version == null) {
+                throw new PALException("No version attribute in " + source);
+            }
+            DocumentLoader loader = new DocumentLoader(source, version,
+                    namespace, true, loadedUrls, true);
+
+            /*
+             * Unmarshalling an element leaves the reader just past its end tag,
+             * so only advance the reader ourselves when it isn't on a start tag.
+             */
+            reader.next();
+            while (reader.getEventType() != XMLStreamConstants.END_ELEMENT) {
+                if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+                    reader.next();
+                    continue;
+                }
+                String element = reader.getLocalName();
+                if ("require".equals(element)) {
+                    loader.require(unmarshaller.unmarshal(reader,
+                            RequireType.class).getValue());
+                } else if ("metadata".equals(element)) {
+                    loader.metadata(unmarshaller.unmarshal(reader,
+                            MetadataType.class).getValue());
+                } else if ("type".equals(element)) {
+                    loader.type(unmarshaller.unmarshal(reader, TypeType.class)
+                            .getValue());
+                } else if ("constraintDecl".equals(element)) {
+                    loader.constraintDecl(unmarshaller.unmarshal(reader,
+                            ConstraintDeclarationType.class).getValue());
+                } else if ("family".equals(element)) {
+                    loader.family(unmarshaller.unmarshal(reader,
+                            FamilyType.class).getValue());
+                } else if ("action".equals(element)) {
+                    loader.action(unmarshaller.unmarshal(reader,
+                            ActionType.class).getValue());
+                } else if ("idiom".equals(element)) {
+                    loader.idiom(unmarshaller.unmarshal(reader,
+                            IdiomType.class).getValue());
+                } else {
+                    throw new PALException("Unexpected <" + element + "> in "
+                            + source);
+                }
+            }
+            return loader.finish();
+        } catch (IOException e) {
+            String msg = "Unable to read " + source;
+            log.info(msg, e);
+            throw new PALException(msg, e);
+        } catch (XMLStreamException e) {
+            String msg = "XML parse error in " + source
+                    + " (see log for details)";
+            log.info(msg, e);
+            throw new PALException(msg, e);
+        } catch (JAXBException e) {
+            String msg = "XML parse error in " + source
+                    + " (see log for details)";
+            log.info(msg, e);
+            throw new PALException(msg, e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    log.warn("Unable to close XMLStreamReader for " + source, e);
+                }
+            }
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    log.warn("Unable to close stream for " + source, e);
+                }
+            }
         }
+    }
 
-        String version = source.getVersion();
-        log.debug("Loading action model {} version {} with context {}",
-                new Object[] { namespace, version, contextUrl });
+    /**
+     * Converts the parts of one action model document into definitions, adding
+     * each to the action model as it goes. The schema fixes the order of the
+     * parts, so callers present all the elements of one kind before moving on
+     * to the next kind, and then call {@link #finish}.
+     */
+    private class DocumentLoader {
+        private final URL contextUrl;
+        private final String version;
+        private final String namespace;
+        private final boolean storeTypes;
+        private final Set<String> loadedUrls;
+        private final boolean streaming;
+        private final List<ActionModelDef> result;
+        private final Map<String, String> metadata;
+        private boolean metadataDone;
+        private boolean typesDone;
+
+        DocumentLoader(URL contextUrl,
+                       String version,
+                       String namespace,
+                       boolean storeTypes,
+                       Set<String> loadedUrls,
+                       boolean streaming) {
+            if (namespace == null) {
+                throw new IllegalArgumentException(
+                        "Namespace must not be null");
+            }
+            this.contextUrl = contextUrl;
+            this.version = version;
+            this.namespace = namespace;
+            this.storeTypes = storeTypes;
+            this.loadedUrls = loadedUrls;
+            this.streaming = streaming;
+            result = new ArrayList<ActionModelDef>();
+            metadata = new HashMap<String, String>();
+            log.debug("Loading action model {} version {} with context {}",
+                    new Object[] { namespace, version, contextUrl });
+        }
 
-        /* Handle required (#included) action model files. */
-        for (RequireType require : source.getRequire()) {
+        /** Handle required (#included) action model files. */
+        void require(RequireType require)
+                throws PALException {
             String relativeUrl = require.getUrl();
             String requiredNameStr = require.getName();
 
@@ -412,7 +635,12 @@ public class ActionModel {
                     log.debug("Skipping already-loaded file {}", url);
                 } else {
                     loadedUrls.add(url.toExternalForm());
-                    Set<ActionModelDef> subTypes = load(url, namespace, loadedUrls);
+                    Set<ActionModelDef> subTypes;
+                    if (streaming) {
+                        subTypes = loadStreaming(url, namespace, loadedUrls);
+                    } else {
+                        subTypes = load(url, namespace, loadedUrls);
+                    }
                     log.debug("Loaded {} types from context URL {}",
                             subTypes.size(), relativeUrl);
                     result.addAll(subTypes);
@@ -437,52 +665,71 @@ public class ActionModel {
             }
         }
 
-        /* Action model metadata */
-        Map<String, String> metadata = new HashMap<String, String>();
-        for (MetadataType metaXml : source.getMetadata()) {
+        /** Action model metadata */
+        void metadata(MetadataType metaXml) {
             String key = metaXml.getKey();
             String value = metaXml.getValue();
             metadata.put(key, value);
         }
-        if (!metadata.isEmpty()) {
-            addNamespaceMetadata(namespace, version, metadata);
+
+        private void endMetadata()
+                throws PALException {
+            if (metadataDone) {
+                return;
+            }
+            metadataDone = true;
+            if (!metadata.isEmpty()) {
+                addNamespaceMetadata(namespace, version, metadata);
+            }
         }
 
-        /* Types */
-        for (TypeType typeXml : source.getType()) {
+        /** Types */
+        void type(TypeType typeXml)
+                throws PALException {
+            endMetadata();
             TypeDef type = loadType(typeXml, version, namespace);
             result.add(type);
             if (storeTypes) {
                 storeType((SimpleTypeName) type.getName(), type);
             }
-            getTypeCache().add(type.getAtr());
+            cache(type);
         }
 
-        /* Check these types for equivalence problems. */
-        for (ActionModelDef def : result) {
-            if (!(def instanceof TypeDef)) {
-                continue;
+        /** Check these types for equivalence problems. */
+        private void endTypes()
+                throws PALException {
+            endMetadata();
+            if (typesDone) {
+                return;
             }
-            TypeDef type = (TypeDef) def;
-            for (TypeName equivTypeName : type.getEquivalentTypeNames()) {
-                ActionModelDef equivType = getType(equivTypeName);
-                if (equivType == null) {
-                    log.warn("Type {} is equivalent to unknown type {}",
-                            type.getName(), equivTypeName);
-                } else {
-                    if (!type.getClass().equals(equivType.getClass())) {
-                        log.warn("Type {} ({}) is equivalent"
-                                + " to {} ({}) -- expect"
-                                + " execution errors converting between types",
-                                new Object[] { type.getName(), type.getClass(),
-                                        equivTypeName, equivType.getClass() });
+            typesDone = true;
+            for (ActionModelDef def : result) {
+                if (!(def instanceof TypeDef)) {
+                    continue;
+                }
+                TypeDef type = (TypeDef) def;
+                for (TypeName equivTypeName : type.getEquivalentTypeNames()) {
+                    ActionModelDef equivType = getType(equivTypeName);
+                    if (equivType == null) {
+                        log.warn("Type {} is equivalent to unknown type {}",
+                                type.getName(), equivTypeName);
+                    } else {
+                        if (!type.getClass().equals(equivType.getClass())) {
+                            log.warn("Type {} ({}) is equivalent"
+                                    + " to {} ({}) -- expect"
+                                    + " execution errors converting between types",
+                                    new Object[] { type.getName(), type.getClass(),
+                                            equivTypeName, equivType.getClass() });
+                        }
                     }
                 }
             }
         }
 
-        /* Constraint declarations */
-        for (ConstraintDeclarationType cdt : source.getConstraintDecl()) {
+        /** Constraint declarations */
+        void constraintDecl(ConstraintDeclarationType cdt)
+                throws PALException {
+            endTypes();
             ATRFunctionDeclaration atr = getFactory().toAtr(cdt, version,
                     namespace);
             ConstraintDef cd = (ConstraintDef) getFactory().makeActionModelDef(
@@ -491,11 +738,13 @@ public class ActionModel {
             if (storeTypes) {
                 storeType(cd.getName(), cd);
             }
-            getTypeCache().add(cd.getAtr());
+            cache(cd);
         }
 
-        /* Action families */
-        for (FamilyType ft : source.getFamily()) {
+        /** Action families */
+        void family(FamilyType ft)
+                throws PALException {
+            endTypes();
             ATRActionDeclaration atr = getFactory().toAtr(ft, version,
                     namespace);
             ActionFamilyDef fam = (ActionFamilyDef) getFactory()
@@ -504,11 +753,13 @@ public class ActionModel {
             if (storeTypes) {
                 storeType(fam.getName(), fam);
             }
-            getTypeCache().add(atr);
+            cache(fam);
         }
 
-        /* Actions */
-        for (ActionType actionXml : source.getAction()) {
+        /** Actions */
+        void action(ActionType actionXml)
+                throws PALException {
+            endTypes();
             ATRActionDeclaration atr = getFactory().toAtr(actionXml, version,
                     namespace);
             ActionDef action = (ActionDef) getFactory().makeActionModelDef(atr,
@@ -517,11 +768,13 @@ public class ActionModel {
             if (storeTypes) {
                 storeType(action.getName(), action);
             }
-            getTypeCache().add(action.getAtr());
+            cache(action);
         }
 
-        /* Idioms */
-        for (IdiomType it : source.getIdiom()) {
+        /** Idioms */
+        void idiom(IdiomType it)
+                throws PALException {
+            endTypes();
             ATRActionDeclaration atr = getFactory().toAtr(it, version,
                     namespace);
             IdiomDef idiom = (IdiomDef) getFactory().makeActionModelDef(atr,
@@ -530,23 +783,27 @@ public class ActionModel {
             if (storeTypes) {
                 storeType(idiom.getName(), idiom);
             }
-            getTypeCache().add(idiom.getAtr());
+            cache(idiom);
         }
 
-        Set<TypeName> names = new HashSet<TypeName>();
-        for (ActionModelDef def : result) {
-            TypeName name = def.getName();
-            if (names.contains(name)) {
-                throw new PALException("Duplicate definitions named " + name
-                        + " in " + contextUrl);
+        Set<ActionModelDef> finish()
+                throws PALException {
+            endTypes();
+            Set<TypeName> names = new HashSet<TypeName>();
+            for (ActionModelDef def : result) {
+                TypeName name = def.getName();
+                if (names.contains(name)) {
+                    throw new PALException("Duplicate definitions named "
+                            + name + " in " + contextUrl);
+                }
+                names.add(name);
             }
-            names.add(name);
-        }
 
-        log.debug("Added {} types: {}", result.size(), result);
-        Set<ActionModelDef> resultSet = new HashSet<ActionModelDef>();
-        resultSet.addAll(result);
-        return resultSet;
+            log.debug("Added {} types: {}", result.size(), result);
+            Set<ActionModelDef> resultSet = new HashSet<ActionModelDef>();
+            resultSet.addAll(result);
+            return resultSet;
+        }
     }
 
     private TypeDef loadType(TypeType xml,
@@ -673,6 +930,7 @@ public class ActionModel {
             if (getExecutorMap() != null) {
                 getExecutorMap().remove(name);
             }
+            getTypeCache().unpin(name);
             getTypeCache().remove(name);
             typeStr = null;
         } else {
@@ -684,7 +942,7 @@ public class ActionModel {
 
             /* Should we try to store all its dependent types also? */
 
-            getTypeCache().add(type.getAtr());
+            cache(type);
             typeStr = type.getXml();
         }
 
@@ -701,11 +959,6 @@ public class ActionModel {
      *            the name of the type to retrieve
      * @return the requested type, or null
      */
-    /*
-     * TODO Exclude any other threads from calling this method to fetch the same
-     * type. When this thread finishes, the desired item will be in the cache
-     * and any blocked threads can pick it up from there.
-     */
     public ActionModelDef getType(TypeName typeName)
             throws PALException {
 
@@ -748,16 +1001,19 @@ public class ActionModel {
             return PrimitiveTypeDef.getPrimitive(predef, bridge);
         }
 
-        ATR atr = getTypeCache().get(typeName);
         try {
-            if (atr != null) {
-                return getFactory().makeActionModelDef(atr,
-                        typeName.getVersion(), typeName.getNamespace());
+            ActionModelDef cached = getCachedType(typeName);
+            if (cached != null) {
+                return cached;
             }
         } catch (PALActionMissingException e) {
             throw new RuntimeException("Unable to create type " + typeName, e);
         }
-        ActionModelDef type = getLoaderPublisher().getType(typeName);
+        /*
+         * Threads asking for the same type at the same time share one load.
+         * Once it finishes, the type will be in the cache for everybody else.
+         */
+        ActionModelDef type = typeLoader.getType(typeName);
 
         /*
          * If it's an idiom name with template, try to retrieve just the base
@@ -771,8 +1027,8 @@ public class ActionModel {
         }
 
         /* Add it to the cache and return it. */
-        if (type != null && type.getAtr() != null) {
-            getTypeCache().add(type.getAtr());
+        if (type != null) {
+            cache(type);
         }
         return type;
     }
@@ -828,11 +1084,9 @@ public class ActionModel {
             };
         }
 
-        ATR atr = getTypeCache().get(typeName);
         try {
-            if (atr != null) {
-                ActionModelDef result = getFactory().makeActionModelDef(atr,
-                        typeName.getVersion(), typeName.getNamespace());
+            ActionModelDef result = getCachedType(typeName);
+            if (result != null) {
                 callbackHandler.result(result);
                 return new RequestCanceler() {
                     @Override
@@ -850,7 +1104,7 @@ public class ActionModel {
             public void results(ActionModelDef result) {
                 /* Add it to the cache and return it. */
                 if (result != null) {
-                    getTypeCache().add(result.getAtr());
+                    cache(result);
                 }
                 callbackHandler.result(result);
             }
@@ -884,10 +1138,33 @@ public class ActionModel {
                 }
             }
         };
-        getLoaderPublisher().load(chain, typeName);
+        chain.addCanceler(typeLoader.load(chain, typeName));
         return chain;
     }
 
+    /**
+     * Retrieves a type from the cache. The first lookup after the type is
+     * cached builds its {@code ActionModelDef}; later ones return that same
+     * object, until the type changes or is evicted from the cache.
+     *
+     * @return the cached type, or {@code null} if it isn't cached
+     */
+    private ActionModelDef getCachedType(SimpleTypeName typeName)
+            throws PALException {
+        Object canonical = getTypeCache().getAttachment(typeName);
+        if (canonical != null) {
+            return (ActionModelDef) canonical;
+        }
+        ATR atr = getTypeCache().get(typeName);
+        if (atr == null) {
+            return null;
+        }
+        ActionModelDef type = getFactory().makeActionModelDef(atr,
+                typeName.getVersion(), typeName.getNamespace());
+        getTypeCache().attach(atr, type);
+        return type;
+    }
+
     RequestCanceler getTypes(CallbackHandler<Set<ActionModelDef>> callbackHandler,
                              Set<SimpleTypeName> typeNames,
                              boolean allowPartial) {
@@ -925,6 +1202,8 @@ public class ActionModel {
                     "Unable to determine if an executor already exists for "
                             + name);
         }
+        // It will be looked up every time we're asked to execute it.
+        getTypeCache().pin(name);
     }
 
     /**
@@ -936,6 +1215,7 @@ public class ActionModel {
      */
     public void unregisterExecutor(SimpleTypeName name) {
         getExecutorMap().remove(name);
+        getTypeCache().unpin(name);
     }
 
     /**
@@ -1151,40 +1431,38 @@ public class ActionModel {
                                           String version,
                                           String namespace)
             throws PALException {
-        initJaxb();
         JAXBElement<?> ele;
 
-        synchronized (unmarshaller) {
-            ValidationEventCollector vec = new ValidationEventCollector();
-            try {
-                unmarshaller.setEventHandler(vec);
-            } catch (JAXBException e) {
-                log.warn("Cannot set validation event handler for schema", e);
+        Unmarshaller unmarshaller = getUnmarshaller();
+        ValidationEventCollector vec = new ValidationEventCollector();
+        try {
+            unmarshaller.setEventHandler(vec);
+        } catch (JAXBException e) {
+            log.warn("Cannot set validation event handler for schema", e);
+        }
+
+        Reader in = new StringReader(constraints);
+        try {
+            ele = (JAXBElement<?>) unmarshaller.unmarshal(in);
+        } catch (Exception e) {
+            String msg = "XML parse error in " + constraints
+                    + " (see log for details)";
+            log.info(msg, e);
+            throw new PALException(msg, e);
+        } finally {
+            for (ValidationEvent ve : vec.getEvents()) {
+                String msg = ve.getMessage();
+                ValidationEventLocator vel = ve.getLocator();
+                int line = vel.getLineNumber();
+                int column = vel.getColumnNumber();
+                log.info("XML parse error detail: line " + line + ", col "
+                        + column + ": " + msg);
             }
 
-            Reader in = new StringReader(constraints);
             try {
-                ele = (JAXBElement<?>) unmarshaller.unmarshal(in);
-            } catch (Exception e) {
-                String msg = "XML parse error in " + constraints
-                        + " (see log for details)";
-                log.info(msg, e);
-                throw new PALException(msg, e);
-            } finally {
-                for (ValidationEvent ve : vec.getEvents()) {
-                    String msg = ve.getMessage();
-                    ValidationEventLocator vel = ve.getLocator();
-                    int line = vel.getLineNumber();
-                    int column = vel.getColumnNumber();
-                    log.info("XML parse error detail: line " + line + ", col "
-                            + column + ": " + msg);
-                }
-
-                try {
-                    in.close();
-                } catch (IOException e) {
-                    log.warn("Unable to close StringReader " + in, e);
-                }
+                in.close();
+            } catch (IOException e) {
+                log.warn("Unable to close StringReader " + in, e);
             }
         }
         ConstraintsType jaxb = (ConstraintsType) ele.getValue();
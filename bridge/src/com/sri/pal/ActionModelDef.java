@@ -49,7 +49,7 @@ public abstract class ActionModelDef {
             .getLogger(ActionModelDef.class);
     // Static variable for JAXB Marshaller - drastically improves performance
     private static Marshaller jaxbMarsh = null;
-    private static Unmarshaller jaxbUnmarsh;
+    private static UnmarshallerPool jaxbUnmarsh;
 
     private final ATR atr;
     private final Bridge bridge;
@@ -182,10 +182,8 @@ public abstract class ActionModelDef {
         initJaxb();
         Reader in = new StringReader(xmlText);
         try {
-            synchronized (jaxbUnmarsh) {
-                JAXBElement<?> ele = (JAXBElement<?>) jaxbUnmarsh.unmarshal(in);
-                return ele;
-            }
+            Unmarshaller unmarshaller = jaxbUnmarsh.get();
+            return (JAXBElement<?>) unmarshaller.unmarshal(in);
         } finally {
             try {
                 in.close();
@@ -203,7 +201,7 @@ public abstract class ActionModelDef {
             jaxbMarsh = jc.createMarshaller();
             jaxbMarsh.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT,
                     Boolean.TRUE);
-            jaxbUnmarsh = jc.createUnmarshaller();
+            jaxbUnmarsh = new UnmarshallerPool(jc, null);
         }
     }
 
@@ -48,13 +48,14 @@ import com.sri.tasklearning.spine.messages.PingReply;
 import com.sri.tasklearning.spine.messages.PingRequest;
 import com.sri.tasklearning.spine.messages.PrivilegedMessageType;
 import com.sri.tasklearning.spine.messages.ProcessDemoMessage;
-import com.sri.tasklearning.spine.messages.SerialNumberResponse;
 import com.sri.tasklearning.spine.messages.SystemMessageType;
+import com.sri.tasklearning.spine.messages.TypeBatchResult;
 import com.sri.tasklearning.spine.messages.TypeListResult;
 import com.sri.tasklearning.spine.messages.TypeResult;
 import com.sri.tasklearning.spine.messages.TypeStoreResult;
 import com.sri.tasklearning.spine.messages.UserMessageType;
 import com.sri.tasklearning.spine.util.ReplyWatcher;
+import com.sri.tasklearning.spine.util.SerialNumberAllocator;
 import com.sri.tasklearning.spine.util.TypeCache;
 
 /**
@@ -70,6 +71,12 @@ public class Bridge {
 
     public static final String STORAGE_DIR_PROP = "PAL.storageDir";
 
+    /**
+     * Set this system property to {@code pack} to make the default type
+     * storage a {@link PackTypeStorage} instead of a {@link FileTypeStorage}.
+     */
+    public static final String STORAGE_FORMAT_PROP = "PAL.storageFormat";
+
     private static final String PAL_DIR = "AdeptTaskLearning";
 
     /**
@@ -100,13 +107,14 @@ public class Bridge {
     private TypeLoaderPublisher loaderPublisher;
     private PALInstrumentationControl palInstrumentation;
     private ListRunningModulesListener runningModulesListener;
-    private ReplyWatcher<SerialNumberResponse> serialGetter;
+    private SerialNumberAllocator serialGetter;
     private LumenProcedureExecutor sparkExecutor;
     private Spine spine;
     private ReplyWatcher<TypeStoreResult> storageWatcher;
     private TypeCache typeCache;
     private ReplyWatcher<TypeListResult> typeListWatcher;
     private ReplyWatcher<TypeResult> typeQueryWatcher;
+    private ReplyWatcher<TypeBatchResult> typeBatchWatcher;
     private ReplyWatcher<LearnResult> learnReceiver;
     private ReplyWatcher<OptionLearnResult> learnOptionReceiver;
     private ReplyWatcher<ConstraintResult> constraintReceiver;
@@ -175,14 +183,15 @@ public class Bridge {
 
         bridge.invocationCache = new InvocationCache();
 
-        bridge.serialGetter = new ReplyWatcher<SerialNumberResponse>(
-                SerialNumberResponse.class, spine);
+        bridge.serialGetter = new SerialNumberAllocator(spine);
         bridge.storageWatcher = new ReplyWatcher<TypeStoreResult>(
                 TypeStoreResult.class, spine);
         bridge.typeListWatcher = new ReplyWatcher<TypeListResult>(
                 TypeListResult.class, spine);
         bridge.typeQueryWatcher = new ReplyWatcher<TypeResult>(
                 TypeResult.class, spine);
+        bridge.typeBatchWatcher = new ReplyWatcher<TypeBatchResult>(
+                TypeBatchResult.class, spine);
 
         bridge.executorMap = new ExecutorMap(bridge);
         bridge.actionModel = new ActionModel(bridge);
@@ -222,6 +231,8 @@ public class Bridge {
             spine.subscribe(bridge.typeListWatcher,
                     UserMessageType.TYPE_LIST_RESULT);
             spine.subscribe(bridge.typeQueryWatcher, UserMessageType.TYPE_RESULT);
+            spine.subscribe(bridge.typeBatchWatcher,
+                    UserMessageType.TYPE_BATCH_RESULT);
             spine.subscribe(bridge.storageWatcher,
                     UserMessageType.TYPE_STORE_RESULT);
             spine.subscribe(bridge.serialGetter,
@@ -376,7 +387,12 @@ public class Bridge {
 
     /**
      * Registers a listener to receive notifications of all actions performed in
-     * the PAL system.
+     * the PAL system. Notifications are delivered as specified by the
+     * {@code PAL.GlobalListenerDelivery} system property, which defaults to
+     * {@link GlobalActionListener.Delivery#SYNCHRONOUS}: the listener sees each
+     * action before its children start. Listeners which don't need that can
+     * ask for a queued delivery mode with
+     * {@link #addActionListener(GlobalActionListener, GlobalActionListener.Delivery)}.
      *
      * @param listener
      *            the listener to register
@@ -385,6 +401,34 @@ public class Bridge {
         globalNotifier.addListener(listener);
     }
 
+    /**
+     * Registers a listener to receive notifications of all actions performed in
+     * the PAL system, delivered as specified.
+     *
+     * @param listener
+     *            the listener to register
+     * @param delivery
+     *            how notifications should be delivered to the listener. Use
+     *            {@link GlobalActionListener.Delivery#SYNCHRONOUS} if the
+     *            listener must see each action before its children start.
+     */
+    public void addActionListener(GlobalActionListener listener,
+                                  GlobalActionListener.Delivery delivery) {
+        globalNotifier.addListener(listener, delivery);
+    }
+
+    /**
+     * Reports how notifications have been delivered to a listener.
+     *
+     * @param listener
+     *            a listener registered with {@link #addActionListener}
+     * @return statistics for the listener, or {@code null} if it isn't
+     *         registered
+     */
+    public ActionListenerStats getActionListenerStats(GlobalActionListener listener) {
+        return globalNotifier.getStats(listener);
+    }
+
     /**
      * Registers a persistence mechanism which can store types, actions, and/or
      * procedures. Only one {@code TypeStorage} may be registered at a time
@@ -416,6 +460,7 @@ public class Bridge {
                     PrivilegedMessageType.TYPE_STORE_REQUEST);
             if (result) {
                 spine.subscribe(tqr, UserMessageType.TYPE_QUERY);
+                spine.subscribe(tqr, UserMessageType.TYPE_BATCH_QUERY);
                 spine.subscribe(tqr, UserMessageType.TYPE_LIST_QUERY);
             }
         } catch (SpineException e) {
@@ -468,6 +513,15 @@ public class Bridge {
             }
             TypeStorage storage = new FileTypeStorage(storageDir,
                     spine.getClientId());
+            if ("pack".equals(System.getProperty(STORAGE_FORMAT_PROP))) {
+                log.debug("{} is pack", STORAGE_FORMAT_PROP);
+                PackTypeStorage packStorage = new PackTypeStorage(storageDir,
+                        spine.getClientId());
+                if (!packStorage.isImported()) {
+                    packStorage.importFrom(storage);
+                }
+                storage = packStorage;
+            }
             boolean success = setTypeStorage(storage);
             if (success) {
                 log.info("Default type storage will use {}",
@@ -489,7 +543,7 @@ public class Bridge {
         return actionModel;
     }
 
-    ReplyWatcher<SerialNumberResponse> getSerialGetter() {
+    SerialNumberAllocator getSerialGetter() {
         return serialGetter;
     }
 
@@ -534,6 +588,10 @@ public class Bridge {
         return typeQueryWatcher;
     }
 
+    ReplyWatcher<TypeBatchResult> getTypeBatchWatcher() {
+        return typeBatchWatcher;
+    }
+
     ReplyWatcher<LearnResult> getLearnReceiver() {
         return learnReceiver;
     }
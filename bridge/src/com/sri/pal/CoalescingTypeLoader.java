@@ -0,0 +1,268 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.pal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.sri.pal.common.CallbackHandler;
+import com.sri.pal.common.ErrorInfo;
+import com.sri.pal.common.RequestCanceler;
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.tasklearning.spine.util.ErrorType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Makes sure that only one load of any given type is outstanding at a time.
+ * The first request for a type which isn't in the cache goes to the
+ * {@link TypeLoaderPublisher}; requests for the same type which arrive while
+ * that load is still running wait for it and receive the same result, rather
+ * than each doing their own storage I/O or remote query. Once the load
+ * finishes, the next request starts a new one. In practice the loaded type will
+ * be in the cache by then, so there won't be a next request.
+ * <p>
+ * Building a type can load its dependencies synchronously, and other threads
+ * may be waiting for that type. So a thread which is building types never
+ * waits on a load another thread started; it loads the type itself instead.
+ * Otherwise two threads each building a type which depends on the other's
+ * would wait for each other forever, and a thread could wait on its own load.
+ * Threads are marked as building while they start a synchronous load and
+ * while {@link ActionModel} parses loaded types. Procedures are built by the
+ * executor, which loads their dependencies asynchronously and so never waits.
+ */
+class CoalescingTypeLoader {
+    private static final Logger log = LoggerFactory
+            .getLogger(CoalescingTypeLoader.class);
+
+    private final Bridge bridge;
+    private final ConcurrentMap<SimpleTypeName, Load> loads;
+    /**
+     * How deeply the current thread is nested in starting synchronous loads
+     * and building the types they return. While this is non-zero the thread
+     * must not wait on other threads' loads.
+     */
+    private final ThreadLocal<int[]> building;
+
+    CoalescingTypeLoader(Bridge bridge) {
+        this.bridge = bridge;
+        loads = new ConcurrentHashMap<SimpleTypeName, Load>();
+        building = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[1];
+            }
+        };
+    }
+
+    private TypeLoaderPublisher getLoaderPublisher() {
+        return bridge.getActionLoaderPublisher();
+    }
+
+    /**
+     * Asynchronously load the requested type, joining a load of the same type
+     * if one is already in progress.
+     *
+     * @param callbackHandler
+     *            receives the loaded type or an error
+     * @param name
+     *            the type to load
+     * @return a canceler which withdraws this request; the underlying load is
+     *         only canceled once every request waiting on it is withdrawn
+     */
+    RequestCanceler load(CallbackHandler<ActionModelDef> callbackHandler,
+                         SimpleTypeName name) {
+        return load(callbackHandler, name, true);
+    }
+
+    private RequestCanceler load(CallbackHandler<ActionModelDef> callbackHandler,
+                                 SimpleTypeName name,
+                                 boolean mayJoin) {
+        while (true) {
+            Load load = loads.get(name);
+            if (load == null) {
+                Load newLoad = new Load(name);
+                load = loads.putIfAbsent(name, newLoad);
+                if (load == null) {
+                    newLoad.join(callbackHandler);
+                    newLoad.start();
+                    return newLoad.canceler(callbackHandler);
+                }
+            }
+            if (!mayJoin) {
+                log.debug("Building types on this thread, loading {} separately", name);
+                return getLoaderPublisher().load(callbackHandler, name);
+            }
+            if (load.join(callbackHandler)) {
+                log.debug("Waiting for load of {} already in progress", name);
+                return load.canceler(callbackHandler);
+            }
+            // That load finished while we were looking at it. Try again.
+        }
+    }
+
+    /**
+     * Synchronously load a single type. Like
+     * {@link TypeLoaderPublisher#getType}, but coalesced with any other loads
+     * of the same type.
+     *
+     * @param name
+     *            the type to load
+     * @return the requested type, or {@code null} if it's not found
+     * @throws PALException
+     *             if an error occurs loading the type
+     */
+    ActionModelDef getType(SimpleTypeName name)
+            throws PALException {
+        SynchronousCallbackHandler<ActionModelDef> sch = new SynchronousCallbackHandler<ActionModelDef>();
+        int[] depth = building.get();
+        boolean mayJoin = depth[0] == 0;
+        depth[0]++;
+        try {
+            load(sch, name, mayJoin);
+        } finally {
+            depth[0]--;
+        }
+        try {
+            return sch.waitForResult();
+        } catch (PALException e) {
+            if (sch.getError().getErrorId() == ErrorType.NOT_ALL_LOADED.ordinal()) {
+                return null;
+            } else {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Marks the current thread as building types, until the matching call to
+     * {@link #endBuild}. Dependencies it loads in the meantime won't wait on
+     * other threads' loads.
+     */
+    void beginBuild() {
+        building.get()[0]++;
+    }
+
+    void endBuild() {
+        building.get()[0]--;
+    }
+
+    /**
+     * A single outstanding load of one type, and the callback handlers waiting
+     * for its result.
+     */
+    private class Load
+            implements CallbackHandler<ActionModelDef> {
+        private final SimpleTypeName name;
+        private final List<CallbackHandler<ActionModelDef>> waiters;
+        private RequestCanceler canceler;
+        private boolean done = false;
+
+        Load(SimpleTypeName name) {
+            this.name = name;
+            waiters = new ArrayList<CallbackHandler<ActionModelDef>>();
+        }
+
+        synchronized boolean join(CallbackHandler<ActionModelDef> waiter) {
+            if (done) {
+                return false;
+            }
+            waiters.add(waiter);
+            return true;
+        }
+
+        void start() {
+            RequestCanceler rc = getLoaderPublisher().load(this, name);
+            boolean abandoned;
+            synchronized (this) {
+                canceler = rc;
+                abandoned = done && waiters.isEmpty();
+            }
+            if (abandoned) {
+                rc.cancel();
+            }
+        }
+
+        RequestCanceler canceler(final CallbackHandler<ActionModelDef> waiter) {
+            return new RequestCanceler() {
+                @Override
+                public void cancel() {
+                    leave(waiter);
+                }
+            };
+        }
+
+        private void leave(CallbackHandler<ActionModelDef> waiter) {
+            RequestCanceler rc;
+            synchronized (this) {
+                if (done || !waiters.remove(waiter) || !waiters.isEmpty()) {
+                    return;
+                }
+                done = true;
+                rc = canceler;
+            }
+            loads.remove(name, this);
+            log.debug("Canceling load of {}", name);
+            if (rc != null) {
+                rc.cancel();
+            }
+        }
+
+        /**
+         * Stops accepting new waiters and returns the ones which need to hear
+         * the outcome. The load is removed from the map first, so anybody who
+         * joins in between still gets this outcome.
+         */
+        private List<CallbackHandler<ActionModelDef>> finish() {
+            loads.remove(name, this);
+            synchronized (this) {
+                if (done) {
+                    log.debug("Ignoring extra answer for {}", name);
+                    return Collections.emptyList();
+                }
+                done = true;
+                return new ArrayList<CallbackHandler<ActionModelDef>>(waiters);
+            }
+        }
+
+        @Override
+        public void result(ActionModelDef result) {
+            for (CallbackHandler<ActionModelDef> waiter : finish()) {
+                try {
+                    waiter.result(result);
+                } catch (RuntimeException e) {
+                    log.warn("Callback " + waiter + " failed on " + name, e);
+                }
+            }
+        }
+
+        @Override
+        public void error(ErrorInfo error) {
+            for (CallbackHandler<ActionModelDef> waiter : finish()) {
+                try {
+                    waiter.error(error);
+                } catch (RuntimeException e) {
+                    log.warn("Callback " + waiter + " failed on " + name, e);
+                }
+            }
+        }
+    }
+}
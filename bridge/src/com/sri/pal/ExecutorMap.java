@@ -27,6 +27,7 @@ import com.sri.tasklearning.spine.MessageHandler;
 import com.sri.tasklearning.spine.MessageHandlerException;
 import com.sri.tasklearning.spine.Spine;
 import com.sri.tasklearning.spine.SpineException;
+import com.sri.tasklearning.spine.messages.ExecutorChange;
 import com.sri.tasklearning.spine.messages.ExecutorListQuery;
 import com.sri.tasklearning.spine.messages.ExecutorListResult;
 import com.sri.tasklearning.spine.messages.Message;
@@ -58,8 +59,12 @@ class ExecutorMap
             return;
         }
 
+        ActionExecutor old;
         synchronized (this) {
-            executors.remove(name);
+            old = executors.remove(name);
+        }
+        if (old != null) {
+            announce(name, false);
         }
     }
 
@@ -95,6 +100,22 @@ class ExecutorMap
         }
 
         executors.put(name, executor);
+        announce(name, true);
+    }
+
+    /**
+     * Tells the other clients that we've started or stopped executing an
+     * action, so they can drop whatever they remember about its executor.
+     */
+    private void announce(SimpleTypeName name,
+                          boolean registered) {
+        ExecutorChange msg = new ExecutorChange(getSpine().getClientId(),
+                getSpine().getNextUid(), name, registered);
+        try {
+            getSpine().send(msg);
+        } catch (SpineException e) {
+            log.warn("Unable to send executor change " + msg, e);
+        }
     }
 
     /**
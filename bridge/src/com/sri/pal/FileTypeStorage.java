@@ -27,16 +27,23 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Arrays;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.sri.pal.common.CallbackHandler;
 import com.sri.pal.common.ErrorInfo;
 import com.sri.pal.common.RequestCanceler;
 import com.sri.pal.common.SimpleTypeName;
-import com.sri.pal.common.TypeNameFactory;
+import com.sri.tasklearning.spine.messages.TypeListQuery;
 import com.sri.tasklearning.spine.util.ErrorFactory;
 import com.sri.tasklearning.spine.util.ErrorType;
 import com.sri.tasklearning.spine.util.TypeUtil;
@@ -47,6 +54,16 @@ import org.slf4j.LoggerFactory;
 /**
  * Implementation of {@code TypeStorage} that stores procedures in a directory,
  * with one file per stored procedure.
+ * <p>
+ * The first time it's used, this class scans the directory and builds an index
+ * of which file holds which type. After that, lookups and listings are answered
+ * from the index, which {@link #putType} keeps up to date. Changes made to the
+ * directory by anybody else won't be noticed.
+ * <p>
+ * Types are read and written without holding this object's lock. A type's
+ * file is written to a temporary file first and then renamed into place, so a
+ * concurrent read sees either the old contents or the new ones. Only the
+ * properties files and the index are updated under the lock.
  *
  * @author chris
  */
@@ -62,6 +79,8 @@ public class FileTypeStorage
     private static final String FAMILY_EXT = ".family";
     private static final String IDIOM_EXT = ".idiom";
     private static final String CONSTRAINT_EXT = ".constraint";
+    /* Suffix of a type's file while it is being written */
+    private static final String TMP_EXT = ".tmp";
 
     /**
      * Truncate names longer than this.
@@ -84,6 +103,13 @@ public class FileTypeStorage
     private final File rootDir;
     private final ErrorFactory errorFactory;
 
+    /** Which file holds each stored type, or {@code null} until first use. */
+    private volatile Map<SimpleTypeName, File> index;
+    /** The names in {@link #index}, by subset. */
+    private final Map<Subset, Set<SimpleTypeName>> bySubset;
+    /** Contents of each version directory's properties file. */
+    private final Map<File, Properties> dirProps;
+
     public FileTypeStorage(File storageDir,
                            String clientId)
             throws PALException {
@@ -95,6 +121,13 @@ public class FileTypeStorage
         }
         rootDir = storageDir;
         errorFactory = new ErrorFactory(clientId);
+        bySubset = new EnumMap<Subset, Set<SimpleTypeName>>(Subset.class);
+        for (Subset subset : Subset.values()) {
+            Set<SimpleTypeName> names = Collections
+                    .newSetFromMap(new ConcurrentHashMap<SimpleTypeName, Boolean>());
+            bySubset.put(subset, names);
+        }
+        dirProps = new HashMap<File, Properties>();
     }
 
     /**
@@ -117,15 +150,16 @@ public class FileTypeStorage
         if(file == null) {
             // What file extension will this file use?
             String extension;
-            if (TypeUtil.isProcedureString(typeStr)) {
+            TypeListQuery.Subset subset = TypeUtil.getSubset(typeStr);
+            if (subset == TypeListQuery.Subset.PROCEDURE) {
                 extension = PROC_EXT;
-            } else if (TypeUtil.isActionString(typeStr)) {
+            } else if (subset == TypeListQuery.Subset.ACTION) {
                 extension = ACTION_EXT;
-            } else if (TypeUtil.isActionFamilyString(typeStr)) {
+            } else if (subset == TypeListQuery.Subset.FAMILY) {
                 extension = FAMILY_EXT;
-            } else if (TypeUtil.isIdiomString(typeStr)) {
+            } else if (subset == TypeListQuery.Subset.IDIOM) {
                 extension = IDIOM_EXT;
-            } else if (TypeUtil.isConstraintString(typeStr)) {
+            } else if (subset == TypeListQuery.Subset.CONSTRAINT) {
                 extension = CONSTRAINT_EXT;
             } else {
                 extension = TYPE_EXT;
@@ -142,10 +176,10 @@ public class FileTypeStorage
             synchronized (this) {
                 try {
                     result = file.delete();
-                    File propFile = new File(file.getParent(), PROPERTIES);
-                    Properties props = readProps(propFile);
+                    unindex(name);
+                    Properties props = getProps(dir);
                     props.remove(NAME + "." + file.getName());
-                    writeProps(propFile, props);
+                    writeProps(new File(dir, PROPERTIES), props);
                 } catch (IOException e) {
                     log.warn("Unable to delete " + file + " for " + name, e);
                 }
@@ -194,81 +228,14 @@ public class FileTypeStorage
 
     @Override
     public Set<SimpleTypeName> listTypes(Subset... subsets) throws PALException {
-        Set<SimpleTypeName> result = new HashSet<SimpleTypeName>();
-
-        Set<Subset> subsetsSet = new HashSet<Subset>();
+        getIndex();
         if (subsets == null || subsets.length == 0) {
-            for (Subset item : Subset.values()) {
-                subsetsSet.add(item);
-            }
-        } else {
-            subsetsSet.addAll(Arrays.asList(subsets));
+            subsets = Subset.values();
         }
-
-        for(File nsDir : rootDir.listFiles()) {
-            if (!nsDir.isDirectory())
-                continue;
-            for(File versDir : nsDir.listFiles()) {
-                Properties props = null;
-                File propsFile = new File(versDir, PROPERTIES);
-                try {
-                    props = readProps(propsFile);
-                } catch (Exception e) {
-                    throw new PALException("Couldn't read properties file "
-                            + propsFile.getAbsolutePath(), e);
-                }
-                for(File file : versDir.listFiles()) {
-                    String fname = file.getName();
-                    boolean include = false;
-                    if (fname.endsWith(PROC_EXT)) {
-                        if (subsetsSet.contains(Subset.PROCEDURE)) {
-                            include = true;
-                        }
-                    } else if (fname.endsWith(ACTION_EXT)) {
-                        if (subsetsSet.contains(Subset.ACTION)) {
-                            include = true;
-                        }
-                    } else if (fname.endsWith(TYPE_EXT)) {
-                        if (subsetsSet.contains(Subset.TYPE)) {
-                            include = true;
-                        }
-                    } else if (fname.endsWith(FAMILY_EXT)) {
-                        if (subsetsSet.contains(Subset.FAMILY)) {
-                            include = true;
-                        }
-                    } else if (fname.endsWith(IDIOM_EXT)) {
-                        if (subsetsSet.contains(Subset.IDIOM)) {
-                            include = true;
-                        }
-                    } else if (fname.endsWith(CONSTRAINT_EXT)) {
-                        if (subsetsSet.contains(Subset.CONSTRAINT)) {
-                            include = true;
-                        }
-                    } else if (fname.equals(PROPERTIES)) {
-                        /* Do nothing. */
-                    } else {
-                        log.warn("Unknown file in storage directory: {}",
-                                file.getAbsolutePath());
-                    }
-
-                    if (include) {
-                        String simpleName = props.getProperty(NAME + "."
-                                + file.getName());
-                        String version = props.getProperty(VERSION);
-                        String namespace = props.getProperty(NAMESPACE);
-                        if (simpleName == null || version == null
-                                || namespace == null) {
-                            throw new PALException("Consistency error with "
-                                    + file.getAbsolutePath());
-                        }
-                        SimpleTypeName name = new SimpleTypeName(simpleName,
-                                version, namespace);
-                        result.add(name);
-                    }
-                }
-            }
+        Set<SimpleTypeName> result = new HashSet<SimpleTypeName>();
+        for (Subset subset : subsets) {
+            result.addAll(bySubset.get(subset));
         }
-
         return result;
     }
 
@@ -279,35 +246,100 @@ public class FileTypeStorage
      * @param name
      * @return the file, or {@code null} if none exists
      * @throws PALException
-     * @throws IOException
      */
     private File getExistingFile(SimpleTypeName name)
             throws PALException {
-        // Find the dir this file exists in.
-        File nsDir = new File(rootDir, mangle(name.getNamespace()));
-        System.out.println("Loading " + rootDir + " name " + name); 
-        File versDir = new File(nsDir, mangle(name.getVersion()));
-        if (!versDir.exists()) {
-            return null;
-        }
+        return getIndex().get(name);
+    }
 
-        // Get the truncated name of the file.
-        String truncName = name.getSimpleName();
-        if (truncName.length() > TRUNCATE_LEN) {
-            truncName = truncName.substring(0, TRUNCATE_LEN);
+    private Map<SimpleTypeName, File> getIndex()
+            throws PALException {
+        Map<SimpleTypeName, File> result = index;
+        if (result == null) {
+            result = buildIndex();
         }
+        return result;
+    }
 
-        // Look for files that start with truncName.
-        for (File candidate : versDir.listFiles()) {
-            if (candidate.getName().startsWith(truncName)) {
-                SimpleTypeName candidateName = getName(candidate);
-                if (candidateName.equals(name)) {
-                    return candidate;
+    /**
+     * Scans the storage directory to find out which file holds each type.
+     */
+    private synchronized Map<SimpleTypeName, File> buildIndex()
+            throws PALException {
+        if (index != null) {
+            return index;
+        }
+        log.debug("Indexing {}", rootDir);
+        Map<SimpleTypeName, File> newIndex = new ConcurrentHashMap<SimpleTypeName, File>();
+        for (File nsDir : rootDir.listFiles()) {
+            if (!nsDir.isDirectory())
+                continue;
+            for (File versDir : nsDir.listFiles()) {
+                Properties props = getProps(versDir);
+                for (File file : versDir.listFiles()) {
+                    String fname = file.getName();
+                    Subset subset = getSubset(fname);
+                    if (subset == null) {
+                        if (!fname.equals(PROPERTIES) && !fname.endsWith(TMP_EXT)) {
+                            log.warn("Unknown file in storage directory: {}",
+                                    file.getAbsolutePath());
+                        }
+                        continue;
+                    }
+                    String simpleName = props.getProperty(NAME + "." + fname);
+                    String version = props.getProperty(VERSION);
+                    String namespace = props.getProperty(NAMESPACE);
+                    if (simpleName == null || version == null
+                            || namespace == null) {
+                        throw new PALException("Consistency error with "
+                                + file.getAbsolutePath());
+                    }
+                    SimpleTypeName name = new SimpleTypeName(simpleName,
+                            version, namespace);
+                    newIndex.put(name, file);
+                    bySubset.get(subset).add(name);
                 }
             }
         }
+        log.debug("Indexed {} types in {}", newIndex.size(), rootDir);
+        index = newIndex;
+        return newIndex;
+    }
+
+    private void index(SimpleTypeName name,
+                       File file)
+            throws PALException {
+        getIndex().put(name, file);
+        Subset subset = getSubset(file.getName());
+        if (subset != null) {
+            bySubset.get(subset).add(name);
+        }
+    }
+
+    private void unindex(SimpleTypeName name)
+            throws PALException {
+        getIndex().remove(name);
+        for (Set<SimpleTypeName> names : bySubset.values()) {
+            names.remove(name);
+        }
+    }
 
-        return null;
+    private static Subset getSubset(String filename) {
+        if (filename.endsWith(PROC_EXT)) {
+            return Subset.PROCEDURE;
+        } else if (filename.endsWith(ACTION_EXT)) {
+            return Subset.ACTION;
+        } else if (filename.endsWith(TYPE_EXT)) {
+            return Subset.TYPE;
+        } else if (filename.endsWith(FAMILY_EXT)) {
+            return Subset.FAMILY;
+        } else if (filename.endsWith(IDIOM_EXT)) {
+            return Subset.IDIOM;
+        } else if (filename.endsWith(CONSTRAINT_EXT)) {
+            return Subset.CONSTRAINT;
+        } else {
+            return null;
+        }
     }
 
     /**
@@ -346,41 +378,11 @@ public class FileTypeStorage
         }
     }
 
-    /**
-     * Given a file containing a serialized TypeDef, return the name of the
-     * thing it contains.
-     *
-     * @param file
-     * @return
-     * @throws PALException
-     */
-    private SimpleTypeName getName(File file)
-            throws PALException {
-        File propFile = new File(file.getParent(), PROPERTIES);
-        Properties props;
-        try {
-            props = readProps(propFile);
-        } catch (IOException e) {
-            throw new PALException("Couldn't read properties file "
-                    + propFile.getAbsolutePath(), e);
-        }
-        String namespace = props.getProperty(NAMESPACE);
-        String version = props.getProperty(VERSION);
-        String name = props.getProperty(NAME + "." + file.getName());
-        if(name == null) {
-            throw new PALException("No name for " + file);
-        }
-
-        SimpleTypeName result = (SimpleTypeName) TypeNameFactory.makeName(name,
-                version, namespace);
-        return result;
-    }
-
     private String mangle(String name) {
         return name.replaceAll("[^A-Za-z0-9_]", "_");
     }
 
-    private synchronized String readFile(File file)
+    private String readFile(File file)
             throws IOException {
         StringBuffer buffer = new StringBuffer();
         BufferedReader in = new BufferedReader(new FileReader(file));
@@ -398,38 +400,85 @@ public class FileTypeStorage
         return buffer.toString();
     }
 
-    private synchronized void writeFile(File file,
-                                        SimpleTypeName typeName,
-                                        String contents)
+    private void writeFile(File file,
+                           SimpleTypeName typeName,
+                           String contents)
             throws IOException,
             PALException {
-        FileWriter out = new FileWriter(file);
+        File dir = file.getParentFile();
+        File tmp = File.createTempFile(file.getName(), TMP_EXT, dir);
         try {
-            out.write(contents);
+            FileWriter out = new FileWriter(tmp);
+            try {
+                out.write(contents);
+            } finally {
+                out.close();
+            }
+            replace(tmp, file);
         } finally {
-            out.close();
+            tmp.delete();
         }
 
         /* Now update the properties file so we have accurate name info. */
-        File propFile = new File(file.getParent(), PROPERTIES);
-        Properties props = readProps(propFile);
-        String namespace = props.getProperty(NAMESPACE);
-        String version = props.getProperty(VERSION);
-
-        if (namespace != null && !namespace.equals(typeName.getNamespace())) {
-            throw new PALException("Namespace for " + file + " is " + namespace
-                    + ", expected " + typeName.getNamespace());
-        }
-        if (version != null && !version.equals(typeName.getVersion())) {
-            throw new PALException("Version for " + file + " is " + version
-                    + ", expected " + typeName.getVersion());
+        synchronized (this) {
+            Properties props = getProps(dir);
+            String namespace = props.getProperty(NAMESPACE);
+            String version = props.getProperty(VERSION);
+
+            if (namespace != null && !namespace.equals(typeName.getNamespace())) {
+                throw new PALException("Namespace for " + file + " is " + namespace
+                        + ", expected " + typeName.getNamespace());
+            }
+            if (version != null && !version.equals(typeName.getVersion())) {
+                throw new PALException("Version for " + file + " is " + version
+                        + ", expected " + typeName.getVersion());
+            }
+
+            props.setProperty(NAMESPACE, typeName.getNamespace());
+            props.setProperty(VERSION, typeName.getVersion());
+            props.setProperty(NAME + "." + file.getName(), typeName.getSimpleName());
+
+            writeProps(new File(dir, PROPERTIES), props);
+            index(typeName, file);
         }
+    }
 
-        props.setProperty(NAMESPACE, typeName.getNamespace());
-        props.setProperty(VERSION, typeName.getVersion());
-        props.setProperty(NAME + "." + file.getName(), typeName.getSimpleName());
+    /**
+     * Renames a freshly written file over the one it replaces, atomically
+     * where the file system allows it.
+     */
+    private static void replace(File source,
+                                File target)
+            throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
 
-        writeProps(propFile, props);
+    /**
+     * Provides the contents of the given version directory's properties file,
+     * reading it only the first time. Callers who modify the result must hold
+     * our lock and write it back with {@link #writeProps}.
+     */
+    private synchronized Properties getProps(File versDir)
+            throws PALException {
+        Properties props = dirProps.get(versDir);
+        if (props == null) {
+            File propFile = new File(versDir, PROPERTIES);
+            try {
+                props = readProps(propFile);
+            } catch (IOException e) {
+                throw new PALException("Couldn't read properties file "
+                        + propFile.getAbsolutePath(), e);
+            }
+            dirProps.put(versDir, props);
+        }
+        return props;
     }
 
     private synchronized Properties readProps(File propFile)
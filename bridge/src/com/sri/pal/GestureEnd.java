@@ -19,9 +19,6 @@ package com.sri.pal;
 
 import com.sri.tasklearning.spine.Spine;
 import com.sri.tasklearning.spine.SpineException;
-import com.sri.tasklearning.spine.messages.Message;
-import com.sri.tasklearning.spine.messages.SerialNumberRequest;
-import com.sri.tasklearning.spine.messages.SerialNumberResponse;
 import com.sri.tasklearning.spine.messages.contents.TransactionUID;
 
 public class GestureEnd
@@ -43,12 +40,7 @@ public class GestureEnd
         Bridge bridge = start.getBridge();
         Spine spine = bridge.getSpine();
         try {
-            TransactionUID uid = spine.getNextUid();
-            Message msg = new SerialNumberRequest(spine.getClientId(),
-                    uid);
-            SerialNumberResponse result = bridge.getSerialGetter()
-                    .sendAndGetReply(msg);
-            serialNum = result.getSerialNumber();
+            serialNum = bridge.getSerialGetter().nextSerialNumber();
         } catch (SpineException e) {
             throw new PALException("Unable to get serial number", e);
         }
@@ -23,9 +23,6 @@ import java.util.List;
 import com.sri.pal.common.TypeName;
 import com.sri.tasklearning.spine.Spine;
 import com.sri.tasklearning.spine.SpineException;
-import com.sri.tasklearning.spine.messages.Message;
-import com.sri.tasklearning.spine.messages.SerialNumberRequest;
-import com.sri.tasklearning.spine.messages.SerialNumberResponse;
 import com.sri.tasklearning.spine.messages.contents.TransactionUID;
 
 /**
@@ -67,12 +64,7 @@ public class GestureStart
         long serialNum;
         Spine spine = bridge.getSpine();
         try {
-            TransactionUID uid = spine.getNextUid();
-            Message msg = new SerialNumberRequest(spine.getClientId(),
-                    uid);
-            SerialNumberResponse result = bridge.getSerialGetter()
-                    .sendAndGetReply(msg);
-            serialNum = result.getSerialNumber();
+            serialNum = bridge.getSerialGetter().nextSerialNumber();
         } catch (SpineException e) {
             throw new PALException("Unable to get serial number", e);
         }
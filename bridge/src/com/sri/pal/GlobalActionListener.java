@@ -35,4 +35,35 @@ public interface GlobalActionListener {
      *            the recently started action
      */
     public void actionStarted(ActionStreamEvent action);
+
+    /**
+     * How notifications are handed to a listener. Except for
+     * {@link #SYNCHRONOUS}, each listener has its own bounded queue and is
+     * called from a pool thread, so a slow listener doesn't hold up actions
+     * or other listeners. The constants other than {@code SYNCHRONOUS} say
+     * what happens when the listener's queue is full.
+     *
+     * @see Bridge#addActionListener(GlobalActionListener, Delivery)
+     */
+    public enum Delivery {
+        /**
+         * The listener is called directly, and a started action's children
+         * can't start until it returns.
+         */
+        SYNCHRONOUS,
+        /**
+         * Wait for room in the queue. Nothing is lost, but a listener which
+         * falls far enough behind will delay other listeners.
+         */
+        BLOCK,
+        /**
+         * Discard the oldest queued notification.
+         */
+        DROP_OLDEST,
+        /**
+         * Discard a queued notification for the same action definition if
+         * there is one, or else the oldest queued notification.
+         */
+        COALESCE
+    }
 }
@@ -17,16 +17,31 @@
 // $Id: GlobalActionNotifier.java 7401 2016-03-25 20:18:20Z Chris Jones (E24486) $
 package com.sri.pal;
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.sri.pal.GlobalActionListener.Delivery;
+import com.sri.tasklearning.util.NamedThreadFactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Responsible for sending events to the GlobalActionListeners.
+ * <p>
+ * A single thread takes new invocations off a queue and hands each one to
+ * every listener. Synchronous listeners are called right there; the others get
+ * the invocation added to their own bounded queue, which is drained by a pool
+ * thread. Once every listener has been called or has the invocation queued,
+ * the invocation's children are allowed to start. Each listener sees
+ * invocations in the order they started.
  *
  * @author chris
  */
@@ -35,20 +50,67 @@ class GlobalActionNotifier
     private static final Logger log = LoggerFactory
             .getLogger(GlobalActionNotifier.class);
 
-    private final List<ActionStreamEvent> queue;
-    private final Set<GlobalActionListener> listeners;
+    /**
+     * System property which determines how notifications are delivered to
+     * listeners which don't ask for anything in particular. The value is the
+     * name of one of the {@link Delivery} constants.
+     */
+    public static final String DELIVERY = "PAL.GlobalListenerDelivery";
+    public static final Delivery DEFAULT_DELIVERY = Delivery.SYNCHRONOUS;
+
+    /**
+     * System property which determines how many notifications can wait in
+     * each listener's queue.
+     */
+    public static final String QUEUE_SIZE = "PAL.GlobalListenerQueueSize";
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    private final BlockingQueue<ActionStreamEvent> queue;
+    private final List<Subscription> listeners;
+    private final Delivery defaultDelivery;
+    private final int queueSize;
+    private final Executor listenerPool;
 
     GlobalActionNotifier() {
-        queue = new LinkedList<ActionStreamEvent>();
-        listeners = new CopyOnWriteArraySet<GlobalActionListener>();
+        queue = new LinkedBlockingQueue<ActionStreamEvent>();
+        listeners = new CopyOnWriteArrayList<Subscription>();
+        defaultDelivery = getDefaultDelivery();
+        queueSize = getQueueSize();
+        listenerPool = Executors.newCachedThreadPool(new NamedThreadFactory(
+                GlobalActionListener.class));
+    }
+
+    private static Delivery getDefaultDelivery() {
+        Delivery result = DEFAULT_DELIVERY;
+        String str = System.getProperty(DELIVERY);
+        if (str != null) {
+            try {
+                result = Delivery.valueOf(str);
+            } catch (IllegalArgumentException e) {
+                log.warn("Couldn't parse {} value {}", DELIVERY, str);
+            }
+        }
+        log.debug("Default listener delivery is {}", result);
+        return result;
+    }
+
+    private static int getQueueSize() {
+        int result = DEFAULT_QUEUE_SIZE;
+        String str = System.getProperty(QUEUE_SIZE);
+        if (str != null) {
+            try {
+                result = Math.max(1, Integer.parseInt(str));
+            } catch (NumberFormatException e) {
+                log.warn("Couldn't parse {} value {}", QUEUE_SIZE, str);
+            }
+        }
+        log.debug("Listener queue size is {}", result);
+        return result;
     }
 
     public void newInvocation(ActionStreamEvent invocation) {
         log.debug("Adding invocation of {}", invocation.getDefinition());
-        synchronized (this) {
-            queue.add(invocation);
-            notifyAll();
-        }
+        queue.add(invocation);
     }
 
     @Override
@@ -63,32 +125,273 @@ class GlobalActionNotifier
     private void innerRun() {
         while (true) {
             ActionStreamEvent invocation;
+            try {
+                log.debug("Sleeping");
+                invocation = queue.take();
+                log.debug("Woke up");
+            } catch (InterruptedException e) {
+                log.warn("Interrupted", e);
+                continue;
+            }
+            log.debug("Notifying for {}", invocation.getDefinition());
+            for (Subscription sub : listeners) {
+                sub.offer(invocation);
+            }
+            invocation.finishedStartNotify();
+        }
+    }
+
+    public void addListener(GlobalActionListener listener) {
+        addListener(listener, defaultDelivery);
+    }
+
+    /**
+     * Registers a listener, or changes how an already registered listener's
+     * notifications are delivered. Registering a listener again with the same
+     * delivery does nothing. When the delivery changes, notifications still
+     * queued for the listener are moved to its new subscription, ahead of any
+     * new ones.
+     */
+    public synchronized void addListener(GlobalActionListener listener,
+                                         Delivery delivery) {
+        Subscription old = getSubscription(listener);
+        if (old == null) {
+            listeners.add(new Subscription(listener, delivery));
+            return;
+        }
+        if (old.delivery == delivery) {
+            return;
+        }
+        Subscription sub = new Subscription(listener, delivery);
+        old.handOver(sub);
+        listeners.set(listeners.indexOf(old), sub);
+    }
+
+    /**
+     * @return delivery statistics for the given listener, or {@code null} if
+     *         it isn't registered
+     */
+    public ActionListenerStats getStats(GlobalActionListener listener) {
+        Subscription sub = getSubscription(listener);
+        if (sub == null) {
+            return null;
+        }
+        return sub.getStats();
+    }
+
+    private Subscription getSubscription(GlobalActionListener listener) {
+        for (Subscription sub : listeners) {
+            if (sub.listener.equals(listener)) {
+                return sub;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * One registered listener, with its queue of notifications and their
+     * statistics. At most one pool thread drains the queue at a time.
+     * <p>
+     * When the listener's delivery changes, the old subscription hands its
+     * queue to the new one and passes on anything offered to it afterwards.
+     * If the old queue was still being drained, the new subscription doesn't
+     * start delivering until that drain has finished, so the listener is never
+     * called by both at once. A synchronous subscription queues notifications
+     * while it has any handed over ones left, to keep them in order.
+     */
+    private class Subscription
+            implements Runnable {
+        private final GlobalActionListener listener;
+        private final Delivery delivery;
+        /* The rest are guarded by this. */
+        private final Deque<Pending> pending;
+        private boolean scheduled;
+        private int maxDepth;
+        private long delivered;
+        private long dropped;
+        private long totalLatency;
+        private long maxLatency;
+        private Subscription replacement;
+
+        Subscription(GlobalActionListener listener,
+                     Delivery delivery) {
+            this.listener = listener;
+            this.delivery = delivery;
+            pending = new ArrayDeque<Pending>();
+        }
+
+        void offer(ActionStreamEvent invocation) {
+            offer(new Pending(invocation));
+        }
+
+        private void offer(Pending item) {
+            Subscription next;
             synchronized (this) {
-                while (queue.isEmpty()) {
+                if (replacement == null
+                        && (delivery != Delivery.SYNCHRONOUS || scheduled)
+                        && enqueue(item)) {
+                    return;
+                }
+                next = replacement;
+            }
+            if (next != null) {
+                next.offer(item);
+            } else {
+                deliver(item);
+            }
+        }
+
+        /**
+         * Adds a notification to the queue. Must hold this subscription's lock.
+         *
+         * @return false if the subscription was replaced while waiting for
+         *         room in the queue
+         */
+        private boolean enqueue(Pending item) {
+            while (delivery != Delivery.SYNCHRONOUS
+                    && pending.size() >= queueSize) {
+                if (delivery == Delivery.BLOCK) {
                     try {
-                        log.debug("Sleeping");
                         wait();
                     } catch (InterruptedException e) {
-                        log.warn("Interrupted", e);
+                        log.warn("Interrupted waiting for " + listener, e);
+                        break;
+                    }
+                    if (replacement != null) {
+                        return false;
                     }
-                    log.debug("Woke up");
+                } else if (delivery == Delivery.COALESCE
+                        && removeSameAction(item.invocation)) {
+                    dropped++;
+                } else {
+                    pending.removeFirst();
+                    dropped++;
                 }
-                invocation = queue.remove(0);
             }
-            log.debug("Notifying for {}", invocation.getDefinition());
-            for (GlobalActionListener listener : listeners) {
-                try {
-                    listener.actionStarted(invocation);
-                } catch (Exception e) {
-                    log.info("GlobalActionListener " + listener
-                            + " threw exception", e);
+            pending.addLast(item);
+            maxDepth = Math.max(maxDepth, pending.size());
+            if (!scheduled) {
+                scheduled = true;
+                listenerPool.execute(this);
+            }
+            return true;
+        }
+
+        /**
+         * Moves this subscription's queue to its replacement, and sends it
+         * anything offered here from now on.
+         */
+        synchronized void handOver(Subscription next) {
+            replacement = next;
+            next.adopt(pending, scheduled);
+            pending.clear();
+            notifyAll();
+        }
+
+        /**
+         * Takes over the queue of the subscription this one replaces.
+         *
+         * @param held
+         *            true if the old queue is still being drained; its pool
+         *            thread calls {@link #release} when it is done
+         */
+        private synchronized void adopt(Deque<Pending> items,
+                                        boolean held) {
+            pending.addAll(items);
+            maxDepth = Math.max(maxDepth, pending.size());
+            if (held) {
+                scheduled = true;
+            } else if (!pending.isEmpty()) {
+                scheduled = true;
+                listenerPool.execute(this);
+            }
+        }
+
+        /**
+         * Called when the drain this subscription was waiting for is done.
+         * If this subscription has itself been replaced in the meantime, the
+         * wait passes on to its replacement.
+         */
+        private void release() {
+            Subscription next;
+            synchronized (this) {
+                next = replacement;
+                if (next == null && !pending.isEmpty()) {
+                    listenerPool.execute(this);
+                    return;
                 }
+                scheduled = false;
+            }
+            if (next != null) {
+                next.release();
             }
-            invocation.finishedStartNotify();
+        }
+
+        private boolean removeSameAction(ActionStreamEvent invocation) {
+            Iterator<Pending> iter = pending.iterator();
+            while (iter.hasNext()) {
+                Pending item = iter.next();
+                if (item.invocation.getDefinition().equals(
+                        invocation.getDefinition())) {
+                    iter.remove();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Pending item;
+                Subscription next;
+                synchronized (this) {
+                    item = pending.pollFirst();
+                    next = replacement;
+                    if (item == null) {
+                        scheduled = false;
+                    } else {
+                        notifyAll();
+                    }
+                }
+                if (item == null) {
+                    if (next != null) {
+                        next.release();
+                    }
+                    return;
+                }
+                deliver(item);
+            }
+        }
+
+        private void deliver(Pending item) {
+            try {
+                listener.actionStarted(item.invocation);
+            } catch (Exception e) {
+                log.info("GlobalActionListener " + listener
+                        + " threw exception", e);
+            }
+            long latency = System.nanoTime() - item.queued;
+            synchronized (this) {
+                delivered++;
+                totalLatency += latency;
+                maxLatency = Math.max(maxLatency, latency);
+            }
+        }
+
+        synchronized ActionListenerStats getStats() {
+            return new ActionListenerStats(delivery, pending.size(), maxDepth,
+                    delivered, dropped, totalLatency, maxLatency);
         }
     }
 
-    public void addListener(GlobalActionListener listener) {
-        listeners.add(listener);
+    private static class Pending {
+        private final ActionStreamEvent invocation;
+        private final long queued;
+
+        Pending(ActionStreamEvent invocation) {
+            this.invocation = invocation;
+            queued = System.nanoTime();
+        }
     }
 }
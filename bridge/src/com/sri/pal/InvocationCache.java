@@ -17,9 +17,12 @@
 // $Id: InvocationCache.java 7401 2016-03-25 20:18:20Z Chris Jones (E24486) $
 package com.sri.pal;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.sri.pal.ActionStreamEvent.Status;
 import com.sri.pal.common.ErrorInfo;
@@ -37,40 +40,119 @@ import org.slf4j.LoggerFactory;
  * messages are handled by thread pools, so race conditions are possible where,
  * for example, a called invocation might be processed before its caller. This
  * class provides a point of synchronization for those situations.
+ * <p>
+ * Each UID which is known, watched for, or waited for has its own slot, and
+ * threads waiting for a UID wait on that slot alone. Once an invocation ends or
+ * fails it stays in the cache until it's pushed out by more recently finished
+ * invocations or has been finished for too long, whichever comes first.
  */
 class InvocationCache {
     private static final Logger log = LoggerFactory
             .getLogger(InvocationCache.class);
 
     /**
-     * For a given UID, what's the corresponding invocation?
+     * System property which determines how many finished invocations to keep.
      */
-    private final Map<TransactionUID, ActionStreamEvent> map;
+    public static final String RETAIN = "PAL.InvocationCacheRetain";
+    public static final int DEFAULT_RETAIN = 100;
+
+    /**
+     * System property which determines how long (in ms) to keep a finished
+     * invocation. It's checked whenever an invocation is added or finishes.
+     */
+    public static final String TTL = "PAL.InvocationCacheTtl";
+    public static final long DEFAULT_TTL = 60 * 1000;
+
+    /**
+     * For a given UID, what's the corresponding invocation, and who's waiting
+     * for it?
+     */
+    private final ConcurrentMap<UID, Slot> slots;
     /**
-     * This map is used to coordinate the adding of an Invocation when Lumen
-     * sends an StartExecutionStatus message and any subsequent subtasks that
-     * have this uid as its parent. A problem arises if the invocation has not
-     * been added for the parent before an execution request arrives for its
-     * child as the child will want to get a handle to its parents invocation.
-     * When a StartExecutionStatus message arrives in the ITLExecutionListener,
-     * it adds the uid of that task to this watcher list by calling watchFor
-     * below. When the invocation for that new task is added, the uid will be
-     * removed from the watchers list. If, before then, a task execution request
-     * comes in from Lumen with this uid set as its parent it will consult this
-     * watchers object and if the uid is present it will wait until it is
-     * notified that the invocation has been fully added.
+     * Finished invocations, oldest first.
      */
-    private final Map<TransactionUID, ActionStreamEvent> watchers;
+    private final Queue<Slot> finished;
+    private final AtomicInteger finishedCount;
+    private final int retain;
+    private final long ttl;
 
     /**
      * Builds the cache. The cache will always retain every live invocation,
-     * plus a specified number of recently dead invocations.
-     *
-     * @param size the number of dead invocations to retain
+     * plus a configurable number of recently dead invocations.
      */
     InvocationCache() {
-        map = new HashMap<TransactionUID, ActionStreamEvent>();
-        watchers = new HashMap<TransactionUID, ActionStreamEvent>();
+        this(getRetain(), getTtl());
+    }
+
+    /**
+     * @param retain
+     *            the number of dead invocations to retain
+     * @param ttl
+     *            how long (ms) to retain a dead invocation
+     */
+    InvocationCache(int retain,
+                    long ttl) {
+        slots = new ConcurrentHashMap<UID, Slot>();
+        finished = new ConcurrentLinkedQueue<Slot>();
+        finishedCount = new AtomicInteger();
+        this.retain = retain;
+        this.ttl = ttl;
+    }
+
+    private static int getRetain() {
+        int result = DEFAULT_RETAIN;
+        String str = System.getProperty(RETAIN);
+        if (str != null) {
+            try {
+                result = Integer.parseInt(str);
+            } catch (NumberFormatException e) {
+                log.warn("Couldn't parse {} value {}", RETAIN, str);
+            }
+        }
+        log.debug("Retaining {} finished invocations", result);
+        return result;
+    }
+
+    private static long getTtl() {
+        long result = DEFAULT_TTL;
+        String str = System.getProperty(TTL);
+        if (str != null) {
+            try {
+                result = Long.parseLong(str);
+            } catch (NumberFormatException e) {
+                log.warn("Couldn't parse {} value {}", TTL, str);
+            }
+        }
+        log.debug("Retaining finished invocations for {} ms", result);
+        return result;
+    }
+
+    /**
+     * Provides the slot for the given UID, creating it if needed. The caller
+     * must lock the slot and check that it's still in use before relying on
+     * it.
+     */
+    private Slot getSlot(UID uid) {
+        Slot slot = slots.get(uid);
+        if (slot == null) {
+            Slot newSlot = new Slot(uid);
+            slot = slots.putIfAbsent(uid, newSlot);
+            if (slot == null) {
+                slot = newSlot;
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Drops the slot if nobody needs it any more. The caller must hold the
+     * slot's lock.
+     */
+    private void maybeDiscard(Slot slot) {
+        if (slot.invocation == null && !slot.watched && slot.waiters == 0) {
+            slot.discarded = true;
+            slots.remove(slot.uid, slot);
+        }
     }
 
     /**
@@ -86,36 +168,61 @@ class InvocationCache {
      * @throws TimeoutException
      *             if the requested UID can't be found in the time allotted
      */
-    synchronized ActionStreamEvent get(UID uid,
-                                       long timeout)
+    ActionStreamEvent get(UID uid,
+                          long timeout)
             throws TimeoutException {
         log.debug("Requesting live uid: " + uid);
         if (uid == null) {
             return null;
         }
 
-        boolean waited = false;
+        Slot existing = slots.get(uid);
+        if (existing != null) {
+            ActionStreamEvent result = existing.invocation;
+            if (result != null) {
+                return result;
+            }
+        }
+        if (timeout <= 0) {
+            throw new TimeoutException("Didn't find UID " + uid);
+        }
+
         ActionStreamEvent result = null;
+        boolean waited = false;
         long startTime = System.currentTimeMillis();
-        while (result == null) {
-            result = map.get(uid);
-            if (result == null) {
-                log.debug("Nothing (yet) for {}", uid);
-                long timeElapsed = System.currentTimeMillis() - startTime;
-                long timeRemaining = timeout - timeElapsed;
-                if (timeRemaining <= 0) {
-                    break;
+        while (true) {
+            Slot slot = getSlot(uid);
+            synchronized (slot) {
+                if (slot.discarded) {
+                    continue;
                 }
-                waited = true;
+                slot.waiters++;
                 try {
-                    wait(timeRemaining);
-                } catch (InterruptedException e) {
-                    // Ignore
+                    while (slot.invocation == null) {
+                        log.debug("Nothing (yet) for {}", uid);
+                        long timeElapsed = System.currentTimeMillis()
+                                - startTime;
+                        long timeRemaining = timeout - timeElapsed;
+                        if (timeRemaining <= 0) {
+                            break;
+                        }
+                        waited = true;
+                        try {
+                            slot.wait(timeRemaining);
+                        } catch (InterruptedException e) {
+                            // Ignore
+                        }
+                    }
+                    result = slot.invocation;
+                } finally {
+                    slot.waiters--;
+                    maybeDiscard(slot);
                 }
             }
+            break;
         }
 
-        if(waited) {
+        if (waited) {
             long waitTime = System.currentTimeMillis() - startTime;
             log.warn("Waited {} ms for UID {}, and got {}", new Object[] {
                     waitTime, uid, result });
@@ -129,27 +236,87 @@ class InvocationCache {
         return result;
     }
 
-    synchronized void add(ActionStreamEvent invocation) {
+    void add(ActionStreamEvent invocation) {
         TransactionUID uid = invocation.getUid();
         log.debug("Adding live uid: " + uid);
-        map.put(uid, invocation);
-        /*
-         * Inform any watchers that the invocation they have been waiting on is
-         * ready.
-         */
-        if (watchers.keySet().contains(uid)) {
-            watchers.put(uid, invocation);
+        while (true) {
+            Slot slot = getSlot(uid);
+            synchronized (slot) {
+                if (slot.discarded) {
+                    continue;
+                }
+                slot.invocation = invocation;
+                /*
+                 * Inform any waiters and watchers that the invocation they
+                 * have been waiting on is ready.
+                 */
+                slot.notifyAll();
+            }
+            Listener listener = new Listener(slot, invocation);
+            invocation.addListener(listener);
+            break;
         }
-        Listener listener = new Listener(invocation);
-        invocation.addListener(listener);
-        notifyAll();
+        evictFinished();
     }
 
-    private synchronized void remove(ActionStreamEvent invocation) {
-        TransactionUID uid = invocation.getUid();
-        log.debug("Removing dead uid: " + uid);
-        map.remove(uid);
-        watchers.remove(uid);
+    /**
+     * Called when an invocation ends or fails. It stays retrievable until
+     * it's evicted.
+     */
+    private void finished(Slot slot,
+                          ActionStreamEvent invocation) {
+        log.debug("Finished uid: " + slot.uid);
+        synchronized (slot) {
+            if (slot.invocation != invocation || slot.finishedAt != 0) {
+                return;
+            }
+            slot.finishedAt = System.currentTimeMillis();
+            slot.watched = false;
+        }
+        finished.add(slot);
+        finishedCount.incrementAndGet();
+        evictFinished();
+    }
+
+    /**
+     * Removes the oldest finished invocations while there are too many or
+     * they're too old.
+     */
+    private void evictFinished() {
+        long cutoff = System.currentTimeMillis() - ttl;
+        while (true) {
+            Slot slot = finished.peek();
+            if (slot == null) {
+                return;
+            }
+            if (finishedCount.get() <= retain && slot.finishedAt > cutoff) {
+                return;
+            }
+            if (!finished.remove(slot)) {
+                /* Somebody else got it. */
+                continue;
+            }
+            finishedCount.decrementAndGet();
+            synchronized (slot) {
+                log.debug("Removing dead uid: " + slot.uid);
+                slot.invocation = null;
+                maybeDiscard(slot);
+            }
+        }
+    }
+
+    /**
+     * Reports how many invocations, live or recently finished, are in the
+     * cache.
+     */
+    int size() {
+        int result = 0;
+        for (Slot slot : slots.values()) {
+            if (slot.invocation != null) {
+                result++;
+            }
+        }
+        return result;
     }
 
     /**
@@ -158,19 +325,21 @@ class InvocationCache {
      * as their parent. They will wait until the invocation has been added before continuing.
      * @param uid The uid of the task mentioned in the StartExecutionStatus message
      */
-    synchronized void watchFor(TransactionUID uid) {
-        // If the InvocationCache has already added this invocation there is no need to
-        // make the ActionExecAdapter wait.
-        if (map.containsKey(uid)) {
-            return;
-        }
-        if (watchers.size() > 5000) {
-            // This condition should never be hit, if it is, we likely have a memory leak
-            if (uid.getId() % 1000 == 0) {
-                log.warn("Watchers Size: {}", watchers.size());
+    void watchFor(TransactionUID uid) {
+        while (true) {
+            Slot slot = getSlot(uid);
+            synchronized (slot) {
+                if (slot.discarded) {
+                    continue;
+                }
+                // If the InvocationCache has already added this invocation there is no need to
+                // make the ActionExecAdapter wait.
+                if (slot.invocation == null) {
+                    slot.watched = true;
+                }
             }
+            return;
         }
-        watchers.put(uid, null);
     }
 
     /**
@@ -181,9 +350,16 @@ class InvocationCache {
      * would never get GC'd
      * @param uid the uid of the invocation that just completed (success, failure or cancel)
      */
-    synchronized void endWatch(TransactionUID uid) {
-        watchers.remove(uid);
-        notifyAll();
+    void endWatch(TransactionUID uid) {
+        Slot slot = slots.get(uid);
+        if (slot == null) {
+            return;
+        }
+        synchronized (slot) {
+            slot.watched = false;
+            slot.notifyAll();
+            maybeDiscard(slot);
+        }
     }
 
     /**
@@ -193,31 +369,57 @@ class InvocationCache {
      * the method will return immediately.
      * @param uid The UID if the parent invocation of the task that is getting the execution request
      */
-    synchronized void getParentInvocationReady(TransactionUID uid) {
-        while (watchers.get(uid) == null) {
-            // Return if there is no need to wait
-            if (!watchers.containsKey(uid)) {
-                return;
-            }
-
-            try {
-                log.debug("About to wait on uid: {}", uid);
-                wait();
-            } catch (InterruptedException e) {
-                log.debug("Wait Interrupted");
+    void getParentInvocationReady(TransactionUID uid) {
+        Slot slot = slots.get(uid);
+        if (slot == null) {
+            return;
+        }
+        synchronized (slot) {
+            while (slot.invocation == null && slot.watched) {
+                try {
+                    log.debug("About to wait on uid: {}", uid);
+                    slot.wait();
+                } catch (InterruptedException e) {
+                    log.debug("Wait Interrupted");
+                }
             }
         }
         log.debug("Invocation Added for Uid: {}", uid);
     }
 
     /**
-     * When an invocation dies, we remove it from the cache.
+     * Everything known about one UID. Its monitor guards its fields and is
+     * what threads waiting for the UID wait on.
+     */
+    private static class Slot {
+        private final UID uid;
+        private volatile ActionStreamEvent invocation;
+        /** Somebody called watchFor and hasn't called endWatch. */
+        private boolean watched;
+        /** Threads in get() waiting for this UID. */
+        private int waiters;
+        /** When the invocation finished, or 0 if it hasn't. */
+        private long finishedAt;
+        /** This slot has been removed from the map and must not be used. */
+        private boolean discarded;
+
+        Slot(UID uid) {
+            this.uid = uid;
+        }
+    }
+
+    /**
+     * When an invocation dies, we start the clock on removing it from the
+     * cache.
      */
     private class Listener
             implements ActionInvocationStatusListener {
+        private final Slot slot;
         private final ActionStreamEvent invoc;
 
-        public Listener(ActionStreamEvent invocation) {
+        public Listener(Slot slot,
+                        ActionStreamEvent invocation) {
+            this.slot = slot;
             invoc = invocation;
         }
 
@@ -229,7 +431,7 @@ class InvocationCache {
         @Override
         public void newStatus(Status newStatus) {
             if (newStatus == Status.ENDED || newStatus == Status.FAILED) {
-                remove(invoc);
+                finished(slot, invoc);
             }
         }
     }
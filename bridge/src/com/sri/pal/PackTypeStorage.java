@@ -0,0 +1,847 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.pal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import com.sri.pal.common.CallbackHandler;
+import com.sri.pal.common.ErrorInfo;
+import com.sri.pal.common.RequestCanceler;
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.tasklearning.spine.messages.TypeListQuery;
+import com.sri.tasklearning.spine.util.ErrorFactory;
+import com.sri.tasklearning.spine.util.ErrorType;
+import com.sri.tasklearning.spine.util.TypeUtil;
+import com.sri.tasklearning.util.NamedThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of {@code TypeStorage} that appends stored types to a small
+ * number of large segment files in a directory, instead of writing one file per
+ * type the way {@link FileTypeStorage} does.
+ * <p>
+ * Each {@link #putType} appends one record (or, for a removal, a tombstone) to
+ * the newest segment and forces it to disk before returning. Segments are read
+ * through memory maps. When opened, this class scans the record headers of
+ * every segment to rebuild its index of which record holds each type; a record
+ * that was only partly written when the process died is cut off the end of its
+ * segment. Once most of the stored bytes belong to records that have been
+ * replaced or removed, a background thread copies the remaining live records
+ * into a new segment and deletes the old ones.
+ * <p>
+ * Segment files, and the marker written by {@link #importFrom}, are the only
+ * files this class creates, so it can share a directory with
+ * {@code FileTypeStorage}. {@link #importFrom} copies the contents of any other
+ * storage into this one, and {@link #main} does that for an existing
+ * {@code FileTypeStorage} directory.
+ */
+public class PackTypeStorage
+        implements TypeStorage {
+    private static final Logger log = LoggerFactory
+            .getLogger(PackTypeStorage.class);
+
+    /**
+     * System property which determines the size (in bytes) at which the active
+     * segment is closed and a new one started.
+     */
+    public static final String SEGMENT_SIZE = "PAL.PackSegmentSize";
+    public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /** Don't bother compacting until the segments hold at least this much. */
+    private static final long MIN_COMPACT_SIZE = 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "types-";
+    private static final String SEGMENT_EXT = ".pack";
+    /** Present once an import has copied every type from its source. */
+    private static final String IMPORTED_MARKER = "types.imported";
+
+    private static final int SEGMENT_MAGIC = 0x50414c50; // "PALP"
+    private static final int RECORD_MAGIC = 0x52454344; // "RECD"
+    private static final String STORAGE_VERSION = LumenProcedureDef.SERIALIZATION_FORMAT_VERSION;
+
+    /* magic, subset, key length, value length, CRC */
+    private static final int RECORD_HEADER_LEN = 4 + 1 + 4 + 4 + 4;
+    private static final byte TOMBSTONE = -1;
+    private static final char KEY_SEP = '\u0000';
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File rootDir;
+    private final ErrorFactory errorFactory;
+    private final long segmentSize;
+
+    /**
+     * Loads hold the read lock; appends, compaction moves, and segment
+     * deletions hold the write lock.
+     */
+    private final ReadWriteLock lock;
+    private final SortedMap<Integer, Segment> segments;
+    private Segment active;
+
+    /** Where the current record for each stored type lives. */
+    private final Map<SimpleTypeName, Location> index;
+    /** The names in {@link #index}, by subset. */
+    private final Map<Subset, Set<SimpleTypeName>> bySubset;
+
+    /* Guarded by the write lock: */
+    private long totalBytes;
+    private long liveBytes;
+
+    private final ExecutorService compactor;
+    private final AtomicBoolean compacting;
+
+    public PackTypeStorage(File storageDir,
+                           String clientId)
+            throws PALException {
+        if (!storageDir.exists()) {
+            storageDir.mkdir();
+        }
+        if (!storageDir.isDirectory()) {
+            throw new PALException("Not a directory: " + storageDir);
+        }
+        rootDir = storageDir;
+        errorFactory = new ErrorFactory(clientId);
+        segmentSize = getSegmentSize();
+        lock = new ReentrantReadWriteLock();
+        segments = new ConcurrentSkipListMap<Integer, Segment>();
+        index = new ConcurrentHashMap<SimpleTypeName, Location>();
+        bySubset = new EnumMap<Subset, Set<SimpleTypeName>>(Subset.class);
+        for (Subset subset : Subset.values()) {
+            Set<SimpleTypeName> names = Collections
+                    .newSetFromMap(new ConcurrentHashMap<SimpleTypeName, Boolean>());
+            bySubset.put(subset, names);
+        }
+        compactor = Executors.newSingleThreadExecutor(new NamedThreadFactory(
+                PackTypeStorage.class));
+        compacting = new AtomicBoolean(false);
+
+        try {
+            open();
+        } catch (IOException e) {
+            throw new PALException("Unable to open type storage in "
+                    + rootDir.getAbsolutePath(), e);
+        }
+    }
+
+    private static long getSegmentSize() {
+        long result = DEFAULT_SEGMENT_SIZE;
+        String str = System.getProperty(SEGMENT_SIZE);
+        if (str != null) {
+            try {
+                result = Long.parseLong(str);
+            } catch (NumberFormatException e) {
+                log.warn("Couldn't parse {} value {}", SEGMENT_SIZE, str);
+            }
+        }
+        log.debug("Segment size is {}", result);
+        return result;
+    }
+
+    /**
+     * Provides access to the directory which holds the segment files.
+     *
+     * @return the directory used for persistence
+     */
+    public File getStorageDir() {
+        return rootDir;
+    }
+
+    @Override
+    public void putType(SimpleTypeName name,
+                        String typeStr)
+            throws PALException {
+        log.debug("Got request for {}: {}", name, typeStr);
+        byte subset;
+        byte[] value;
+        if (typeStr == null) {
+            subset = TOMBSTONE;
+            value = new byte[0];
+        } else {
+            subset = (byte) getSubset(typeStr).ordinal();
+            value = typeStr.getBytes(UTF8);
+        }
+        byte[] key = toKey(name);
+
+        lock.writeLock().lock();
+        try {
+            if (subset == TOMBSTONE && !index.containsKey(name)) {
+                log.debug("{} isn't stored; nothing to remove", name);
+                return;
+            }
+            Location loc = append(subset, key, value);
+            if (subset == TOMBSTONE) {
+                unindex(name);
+            } else {
+                index(name, loc);
+            }
+        } catch (IOException e) {
+            throw new PALException("Unable to write " + name + " to "
+                    + active.file, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        maybeCompact();
+    }
+
+    @Override
+    public RequestCanceler loadType(CallbackHandler<String> callbackHandler,
+                                    SimpleTypeName name) {
+        String contents = null;
+        ErrorInfo error = null;
+        lock.readLock().lock();
+        try {
+            Location loc = index.get(name);
+            if (loc == null) {
+                error = errorFactory.error(ErrorType.NOT_ALL_LOADED,
+                        name.getFullName());
+            } else {
+                contents = new String(loc.segment.read(loc.valueOffset(),
+                        loc.valueLen), UTF8);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to load " + name, e);
+            error = errorFactory.error(ErrorType.INTERNAL_FILE_LOADER);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (error != null) {
+            callbackHandler.error(error);
+        } else {
+            callbackHandler.result(contents);
+        }
+
+        return new RequestCanceler() {
+            @Override
+            public void cancel() {
+                /* Don't cancel, since we're already done. */
+            }
+        };
+    }
+
+    @Override
+    public Set<SimpleTypeName> listTypes(Subset... subsets) {
+        if (subsets == null || subsets.length == 0) {
+            subsets = Subset.values();
+        }
+        Set<SimpleTypeName> result = new HashSet<SimpleTypeName>();
+        for (Subset subset : subsets) {
+            result.addAll(bySubset.get(subset));
+        }
+        return result;
+    }
+
+    /**
+     * Copies every type held by another storage implementation into this one.
+     * Types already stored here under the same name are overwritten. Once every
+     * type has been copied, a marker file is written so that
+     * {@link #isImported} can tell a finished import from an interrupted one.
+     *
+     * @param source
+     *            the storage to copy from, which must support
+     *            {@link TypeStorage#listTypes}
+     * @return the number of types copied
+     * @throws PALException
+     *             if a type can't be listed, loaded, or stored
+     */
+    public int importFrom(TypeStorage source)
+            throws PALException {
+        Set<SimpleTypeName> names = source.listTypes();
+        log.info("Importing {} types from {}", names.size(), source);
+        for (SimpleTypeName name : names) {
+            SynchronousCallbackHandler<String> callback = new SynchronousCallbackHandler<String>();
+            source.loadType(callback, name);
+            putType(name, callback.waitForResult());
+        }
+        File marker = new File(rootDir, IMPORTED_MARKER);
+        try {
+            FileOutputStream out = new FileOutputStream(marker);
+            try {
+                out.write(source.toString().getBytes(UTF8));
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new PALException("Unable to write " + marker, e);
+        }
+        return names.size();
+    }
+
+    /**
+     * @return {@code true} if an earlier {@link #importFrom} into this
+     *         directory ran to completion
+     */
+    public boolean isImported() {
+        return new File(rootDir, IMPORTED_MARKER).isFile();
+    }
+
+    /**
+     * Stops background compaction and closes the segment files. This object
+     * can't be used afterwards.
+     */
+    public void close() {
+        compactor.shutdownNow();
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+            segments.clear();
+            index.clear();
+            for (Set<SimpleTypeName> names : bySubset.values()) {
+                names.clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + rootDir + ")";
+    }
+
+    /**
+     * Opens every existing segment in ascending order and indexes its records,
+     * so a later record for a type replaces an earlier one. Then opens a new
+     * active segment if there isn't a usable one.
+     */
+    private void open()
+            throws IOException,
+            PALException {
+        File[] files = rootDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir,
+                                  String name) {
+                return segmentId(name) >= 0;
+            }
+        });
+        for (File file : files) {
+            Segment segment = new Segment(segmentId(file.getName()), file);
+            segments.put(segment.id, segment);
+        }
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : segments.values()) {
+                scan(segment);
+                totalBytes += segment.size;
+            }
+            if (segments.isEmpty()) {
+                roll();
+            } else {
+                active = segments.get(segments.lastKey());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.debug("Indexed {} types in {} segments in {}", new Object[] {
+                index.size(), segments.size(), rootDir });
+        maybeCompact();
+    }
+
+    /**
+     * Reads the record headers of a segment, indexing each valid record. If the
+     * segment ends with a record which is incomplete or doesn't match its
+     * checksum, the segment is truncated just before it.
+     */
+    private void scan(Segment segment)
+            throws IOException,
+            PALException {
+        long length = segment.channel.size();
+        ByteBuffer buf = segment.map(length);
+        int pos = checkSegmentHeader(segment, buf);
+        while (pos < length) {
+            int start = pos;
+            if (length - pos < RECORD_HEADER_LEN
+                    || buf.getInt(pos) != RECORD_MAGIC) {
+                break;
+            }
+            byte subset = buf.get(pos + 4);
+            int keyLen = buf.getInt(pos + 5);
+            int valueLen = buf.getInt(pos + 9);
+            int crc = buf.getInt(pos + 13);
+            pos += RECORD_HEADER_LEN;
+            if (keyLen < 0 || valueLen < 0
+                    || (long) keyLen + valueLen > length - pos) {
+                pos = start;
+                break;
+            }
+            byte[] key = new byte[keyLen];
+            byte[] value = new byte[valueLen];
+            ByteBuffer dup = buf.duplicate();
+            dup.position(pos);
+            dup.get(key);
+            dup.get(value);
+            if (checksum(subset, key, value) != crc) {
+                pos = start;
+                break;
+            }
+            pos += keyLen + valueLen;
+
+            SimpleTypeName name = fromKey(key);
+            if (subset == TOMBSTONE) {
+                unindex(name);
+            } else if (subset >= 0 && subset < Subset.values().length) {
+                index(name, new Location(segment, start, subset, keyLen,
+                        valueLen));
+            } else {
+                log.warn("Unknown subset {} for {} in {}", new Object[] {
+                        subset, name, segment.file });
+            }
+        }
+        if (pos < length) {
+            log.warn("Truncating {} from {} to {} bytes", new Object[] {
+                    segment.file, length, pos });
+            segment.truncate(pos);
+        }
+        segment.size = pos;
+    }
+
+    private int checkSegmentHeader(Segment segment,
+                                   ByteBuffer buf)
+            throws IOException,
+            PALException {
+        if (buf.limit() == 0) {
+            /* Created but never written; start it over. */
+            segment.writeHeader();
+            return segment.map(segment.channel.size()).limit();
+        }
+        if (buf.limit() < 6 || buf.getInt(0) != SEGMENT_MAGIC) {
+            throw new PALException("Not a type storage segment: "
+                    + segment.file.getAbsolutePath());
+        }
+        int versLen = buf.getShort(4);
+        if (versLen < 0 || buf.limit() < 6 + versLen) {
+            throw new PALException("Corrupt header in "
+                    + segment.file.getAbsolutePath());
+        }
+        byte[] versBytes = new byte[versLen];
+        ByteBuffer dup = buf.duplicate();
+        dup.position(6);
+        dup.get(versBytes);
+        String vers = new String(versBytes, UTF8);
+        if (!STORAGE_VERSION.equals(vers)) {
+            throw new PALSerializationVersionException(
+                    "Persisted data is version " + vers + "; expected "
+                            + STORAGE_VERSION);
+        }
+        return 6 + versLen;
+    }
+
+    /**
+     * Appends a record to the active segment and forces it to disk, then
+     * starts a new segment if the active one is full. The caller must hold the
+     * write lock.
+     */
+    private Location append(byte subset,
+                            byte[] key,
+                            byte[] value)
+            throws IOException {
+        Segment segment = active;
+        long offset = segment.size;
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER_LEN + key.length
+                + value.length);
+        buf.putInt(RECORD_MAGIC);
+        buf.put(subset);
+        buf.putInt(key.length);
+        buf.putInt(value.length);
+        buf.putInt(checksum(subset, key, value));
+        buf.put(key);
+        buf.put(value);
+        buf.flip();
+        segment.write(buf, offset);
+        totalBytes += buf.limit();
+
+        Location loc = new Location(segment, offset, subset, key.length,
+                value.length);
+        if (segment.size >= segmentSize) {
+            roll();
+        }
+        return loc;
+    }
+
+    /**
+     * Starts a new active segment. The caller must hold the write lock.
+     */
+    private void roll()
+            throws IOException {
+        int id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        File file = new File(rootDir, String.format("%s%06d%s",
+                SEGMENT_PREFIX, id, SEGMENT_EXT));
+        Segment segment = new Segment(id, file);
+        segment.writeHeader();
+        segments.put(id, segment);
+        totalBytes += segment.size;
+        active = segment;
+        log.debug("Started new segment {}", file);
+    }
+
+    private void index(SimpleTypeName name,
+                       Location loc) {
+        Location old = index.put(name, loc);
+        if (old != null) {
+            liveBytes -= old.length();
+            if (old.subset != loc.subset) {
+                bySubset.get(Subset.values()[old.subset]).remove(name);
+            }
+        }
+        liveBytes += loc.length();
+        bySubset.get(Subset.values()[loc.subset]).add(name);
+    }
+
+    private void unindex(SimpleTypeName name) {
+        Location old = index.remove(name);
+        if (old != null) {
+            liveBytes -= old.length();
+            bySubset.get(Subset.values()[old.subset]).remove(name);
+        }
+    }
+
+    /**
+     * Schedules compaction if most of the stored bytes are garbage and
+     * compaction isn't already scheduled or underway. Compactions, including
+     * those requested through {@link #compact}, only ever run on the compactor
+     * thread, so no two run at once.
+     */
+    private void maybeCompact() {
+        lock.readLock().lock();
+        try {
+            if (totalBytes < MIN_COMPACT_SIZE || liveBytes * 2 >= totalBytes) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (compacting.compareAndSet(false, true)) {
+            compactor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        doCompact();
+                    } catch (Exception e) {
+                        log.warn("Compaction of " + rootDir + " failed", e);
+                    } finally {
+                        compacting.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Compacts the segments on the compactor thread, after any compaction
+     * already scheduled there, and waits for it to finish.
+     */
+    void compact()
+            throws IOException {
+        Future<Void> job = compactor.submit(new Callable<Void>() {
+            @Override
+            public Void call()
+                    throws IOException {
+                doCompact();
+                return null;
+            }
+        });
+        try {
+            job.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted compacting "
+                    + rootDir);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Copies the live records of every segment but the active one into the
+     * active segment, then deletes those segments. Each record is moved under
+     * the write lock, so loads and puts can proceed in between. Old segments
+     * are deleted oldest first: if we die partway through, no tombstone is
+     * gone while an older segment still holds the record it removed. Only
+     * called on the compactor thread.
+     */
+    private void doCompact()
+            throws IOException {
+        List<Segment> old = new ArrayList<Segment>();
+        lock.writeLock().lock();
+        try {
+            roll();
+            old.addAll(segments.headMap(active.id).values());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.debug("Compacting {} segments in {}", old.size(), rootDir);
+
+        for (Segment segment : old) {
+            for (Map.Entry<SimpleTypeName, Location> entry : index.entrySet()) {
+                if (entry.getValue().segment != segment) {
+                    continue;
+                }
+                lock.writeLock().lock();
+                try {
+                    SimpleTypeName name = entry.getKey();
+                    Location loc = index.get(name);
+                    if (loc == null || loc.segment != segment) {
+                        /* Replaced or removed since we looked. */
+                        continue;
+                    }
+                    byte[] value = segment.read(loc.valueOffset(),
+                            loc.valueLen);
+                    index(name, append(loc.subset, toKey(name), value));
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : old) {
+                segments.remove(segment.id);
+                totalBytes -= segment.size;
+                segment.close();
+                if (!segment.file.delete()) {
+                    log.warn("Unable to delete {}", segment.file);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.debug("Compacted {}: {} live of {} total bytes", new Object[] {
+                rootDir, liveBytes, totalBytes });
+    }
+
+    private static Subset getSubset(String typeStr) {
+        TypeListQuery.Subset subset = TypeUtil.getSubset(typeStr);
+        if (subset == null) {
+            // An empty string is stored as a plain type, as it always was.
+            return Subset.TYPE;
+        }
+        return Subset.valueOf(subset.name());
+    }
+
+    private static byte[] toKey(SimpleTypeName name) {
+        String key = name.getNamespace() + KEY_SEP + name.getVersion()
+                + KEY_SEP + name.getSimpleName();
+        return key.getBytes(UTF8);
+    }
+
+    private static SimpleTypeName fromKey(byte[] key) {
+        String[] parts = new String(key, UTF8).split(
+                String.valueOf(KEY_SEP), 3);
+        return new SimpleTypeName(parts[2], parts[1], parts[0]);
+    }
+
+    private static int checksum(byte subset,
+                                byte[] key,
+                                byte[] value) {
+        CRC32 crc = new CRC32();
+        crc.update(subset);
+        crc.update(key);
+        crc.update(value);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns the id of the segment with the given file name, or -1 if it
+     * isn't a segment file.
+     */
+    private static int segmentId(String filename) {
+        if (!filename.startsWith(SEGMENT_PREFIX)
+                || !filename.endsWith(SEGMENT_EXT)) {
+            return -1;
+        }
+        String idStr = filename.substring(SEGMENT_PREFIX.length(),
+                filename.length() - SEGMENT_EXT.length());
+        try {
+            return Integer.parseInt(idStr);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Migrates an existing {@link FileTypeStorage} directory into a new (or
+     * existing) pack storage directory. The source directory is not modified.
+     */
+    public static void main(String[] args)
+            throws PALException {
+        if (args.length != 2) {
+            System.err.println("Usage: " + PackTypeStorage.class.getName()
+                    + " <file storage dir> <pack storage dir>");
+            System.exit(1);
+        }
+        String clientId = PackTypeStorage.class.getSimpleName();
+        FileTypeStorage source = new FileTypeStorage(new File(args[0]),
+                clientId);
+        PackTypeStorage dest = new PackTypeStorage(new File(args[1]), clientId);
+        try {
+            int count = dest.importFrom(source);
+            System.out.println("Imported " + count + " types into "
+                    + dest.getStorageDir().getAbsolutePath());
+        } finally {
+            dest.close();
+        }
+    }
+
+    /**
+     * One segment file. Reads go through a read-only map of the file, which is
+     * extended when a read needs bytes appended since it was made.
+     */
+    private static class Segment {
+        private final int id;
+        private final File file;
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private volatile MappedByteBuffer map;
+        /** Length of the valid part of the file; guarded by the write lock. */
+        private long size;
+
+        Segment(int id,
+                File file)
+                throws IOException {
+            this.id = id;
+            this.file = file;
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+        }
+
+        synchronized ByteBuffer map(long length)
+                throws IOException {
+            if (map == null || map.capacity() < length) {
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+            }
+            return map.duplicate();
+        }
+
+        byte[] read(long offset,
+                    int length)
+                throws IOException {
+            ByteBuffer buf = map(offset + length);
+            buf.position((int) offset);
+            byte[] result = new byte[length];
+            buf.get(result);
+            return result;
+        }
+
+        void write(ByteBuffer buf,
+                   long offset)
+                throws IOException {
+            long pos = offset;
+            while (buf.hasRemaining()) {
+                pos += channel.write(buf, pos);
+            }
+            channel.force(false);
+            size = pos;
+        }
+
+        void writeHeader()
+                throws IOException {
+            byte[] vers = STORAGE_VERSION.getBytes(UTF8);
+            ByteBuffer buf = ByteBuffer.allocate(6 + vers.length);
+            buf.putInt(SEGMENT_MAGIC);
+            buf.putShort((short) vers.length);
+            buf.put(vers);
+            buf.flip();
+            channel.truncate(0);
+            write(buf, 0);
+        }
+
+        synchronized void truncate(long length)
+                throws IOException {
+            map = null;
+            channel.truncate(length);
+            channel.force(true);
+        }
+
+        synchronized void close() {
+            map = null;
+            try {
+                raf.close();
+            } catch (IOException e) {
+                log.warn("Error closing " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Where the record for one type lives.
+     */
+    private static class Location {
+        private final Segment segment;
+        private final long offset;
+        private final byte subset;
+        private final int keyLen;
+        private final int valueLen;
+
+        Location(Segment segment,
+                 long offset,
+                 byte subset,
+                 int keyLen,
+                 int valueLen) {
+            this.segment = segment;
+            this.offset = offset;
+            this.subset = subset;
+            this.keyLen = keyLen;
+            this.valueLen = valueLen;
+        }
+
+        long valueOffset() {
+            return offset + RECORD_HEADER_LEN + keyLen;
+        }
+
+        long length() {
+            return RECORD_HEADER_LEN + keyLen + valueLen;
+        }
+    }
+}
@@ -17,6 +17,9 @@
 // $Id: RemoteTypeStorage.java 7401 2016-03-25 20:18:20Z Chris Jones (E24486) $
 package com.sri.pal;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import com.sri.ai.lumen.atr.decl.ATRDecl;
@@ -27,6 +30,8 @@ import com.sri.pal.common.RequestCanceler;
 import com.sri.pal.common.SimpleTypeName;
 import com.sri.tasklearning.spine.Spine;
 import com.sri.tasklearning.spine.SpineException;
+import com.sri.tasklearning.spine.messages.TypeBatchQuery;
+import com.sri.tasklearning.spine.messages.TypeBatchResult;
 import com.sri.tasklearning.spine.messages.TypeListQuery;
 import com.sri.tasklearning.spine.messages.TypeListResult;
 import com.sri.tasklearning.spine.messages.TypeQuery;
@@ -37,6 +42,7 @@ import com.sri.tasklearning.spine.messages.contents.TransactionUID;
 import com.sri.tasklearning.spine.util.ErrorFactory;
 import com.sri.tasklearning.spine.util.ErrorType;
 import com.sri.tasklearning.spine.util.ReplyWatcher;
+import com.sri.tasklearning.spine.util.TypeUtil;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +51,11 @@ import org.slf4j.LoggerFactory;
  * Acts as a proxy for a TypeStorage implementation which lives in another
  * instance of the Bridge. This one accepts local requests and forwards them to
  * the remote for handling.
+ * <p>
+ * Building a type loads everything it depends on, one type at a time, on the
+ * same thread. So when a type is requested, we ask for it together with its
+ * dependencies in a single {@link TypeBatchQuery}, and hold on to the extra
+ * types until the outermost load finishes.
  */
 class RemoteTypeStorage {
     private static final Logger log = LoggerFactory
@@ -52,10 +63,13 @@ class RemoteTypeStorage {
 
     private final Bridge bridge;
     private final ErrorFactory errorFactory;
+    /** Dependencies fetched by the load in progress on this thread. */
+    private final ThreadLocal<Map<SimpleTypeName, ATRDecl>> prefetched;
 
     RemoteTypeStorage(Bridge bridge) {
         this.bridge = bridge;
         errorFactory = new ErrorFactory(bridge.getSpine().getClientId());
+        prefetched = new ThreadLocal<Map<SimpleTypeName, ATRDecl>>();
     }
 
     private ActionModelFactory getAmFactory() {
@@ -74,6 +88,10 @@ class RemoteTypeStorage {
         return bridge.getTypeQueryWatcher();
     }
 
+    private ReplyWatcher<TypeBatchResult> getTypeBatchWatcher() {
+        return bridge.getTypeBatchWatcher();
+    }
+
     RequestCanceler loadType(CallbackHandler<ActionModelDef> callbackHandler,
                              SimpleTypeName name) {
         /* TODO We're turning this asynchronous call into a synchronous one. */
@@ -99,8 +117,32 @@ class RemoteTypeStorage {
 
     private ActionModelDef loadType(SimpleTypeName name)
             throws SpineException {
+        boolean outermost = prefetched.get() == null;
+        // The reply names idioms by their base name.
+        SimpleTypeName key = name.getIdiomBaseName();
+        try {
+            ATRDecl atrType;
+            if (outermost) {
+                Map<SimpleTypeName, ATRDecl> batch = loadRemoteTypes(name);
+                prefetched.set(batch);
+                atrType = batch.remove(key);
+            } else {
+                atrType = prefetched.get().remove(key);
+                if (atrType == null) {
+                    atrType = loadRemoteType(name);
+                }
+            }
+            return makeDef(name, atrType);
+        } finally {
+            if (outermost) {
+                prefetched.remove();
+            }
+        }
+    }
+
+    private ActionModelDef makeDef(SimpleTypeName name,
+                                   ATRDecl atrType) {
         ActionModelDef result = null;
-        ATRDecl atrType = loadRemoteType(name);
         if (atrType != null) {
             try {
                 result = getAmFactory().makeActionModelDef(atrType,
@@ -124,6 +166,36 @@ class RemoteTypeStorage {
         return result;
     }
 
+    /**
+     * Fetches the named type and everything it depends on in one round trip.
+     * If that fails, falls back to fetching just the named type.
+     *
+     * @return the fetched types, by name
+     */
+    private Map<SimpleTypeName, ATRDecl> loadRemoteTypes(SimpleTypeName name)
+            throws SpineException {
+        Map<SimpleTypeName, ATRDecl> result = new HashMap<SimpleTypeName, ATRDecl>();
+        Spine spine = bridge.getSpine();
+        TransactionUID uid = spine.getNextUid();
+        TypeBatchQuery query = new TypeBatchQuery(spine.getClientId(), uid,
+                Collections.singleton(name), true);
+        try {
+            TypeBatchResult resultMsg = getTypeBatchWatcher().sendAndGetReply(
+                    query);
+            for (ATRDecl atr : resultMsg.getTypeAtrs()) {
+                result.put((SimpleTypeName) TypeUtil.getName(atr), atr);
+            }
+        } catch (IllegalStateException e) {
+            log.debug("Batch query for " + name + " failed; asking for it alone",
+                    e);
+            ATRDecl atr = loadRemoteType(name);
+            if (atr != null) {
+                result.put(name.getIdiomBaseName(), atr);
+            }
+        }
+        return result;
+    }
+
     Set<SimpleTypeName> listTypes(Subset... subset)
             throws PALException {
         Spine spine = bridge.getSpine();
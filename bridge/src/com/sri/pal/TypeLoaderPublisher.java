@@ -282,22 +282,7 @@ class TypeLoaderPublisher {
          */
         Spine spine = getSpine();
         if (spine != null) {
-            TypeListQuery.Subset type;
-            if (typeStr == null || typeStr.equals("")) {
-                type = null;
-            } else if (TypeUtil.isProcedureString(typeStr)) {
-                type = TypeListQuery.Subset.PROCEDURE;
-            } else if (TypeUtil.isActionString(typeStr)) {
-                type = TypeListQuery.Subset.ACTION;
-            } else if (TypeUtil.isActionFamilyString(typeStr)) {
-                type = TypeListQuery.Subset.FAMILY;
-            } else if (TypeUtil.isIdiomString(typeStr)) {
-                type = TypeListQuery.Subset.IDIOM;
-            } else if (TypeUtil.isConstraintString(typeStr)) {
-                type = TypeListQuery.Subset.CONSTRAINT;
-            } else {
-                type = TypeListQuery.Subset.TYPE;
-            }
+            TypeListQuery.Subset type = TypeUtil.getSubset(typeStr);
             CacheExpire msg = new CacheExpire(spine.getClientId(),
                     spine.getNextUid(), name, type);
             try {
@@ -19,6 +19,9 @@ package com.sri.pal;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
@@ -26,14 +29,19 @@ import java.util.concurrent.ThreadFactory;
 
 import com.sri.ai.lumen.atr.ATR;
 import com.sri.ai.lumen.atr.ATRSyntax;
+import com.sri.ai.lumen.atr.decl.ATRDecl;
 import com.sri.pal.common.ErrorInfo;
 import com.sri.pal.common.SimpleTypeName;
+import com.sri.pal.common.TypeName;
+import com.sri.pal.common.TypeNameExpr;
 import com.sri.pal.common.TypeNameFactory;
 import com.sri.tasklearning.spine.MessageHandler;
 import com.sri.tasklearning.spine.MessageHandlerException;
 import com.sri.tasklearning.spine.Spine;
 import com.sri.tasklearning.spine.SpineException;
 import com.sri.tasklearning.spine.messages.Message;
+import com.sri.tasklearning.spine.messages.TypeBatchQuery;
+import com.sri.tasklearning.spine.messages.TypeBatchResult;
 import com.sri.tasklearning.spine.messages.TypeListQuery;
 import com.sri.tasklearning.spine.messages.TypeListResult;
 import com.sri.tasklearning.spine.messages.TypeQuery;
@@ -43,6 +51,7 @@ import com.sri.tasklearning.spine.messages.TypeStoreResult;
 import com.sri.tasklearning.spine.messages.contents.TransactionUID;
 import com.sri.tasklearning.spine.util.ErrorFactory;
 import com.sri.tasklearning.spine.util.ErrorType;
+import com.sri.tasklearning.spine.util.TypeUtil;
 import com.sri.tasklearning.util.NamedThreadFactory;
 
 import org.slf4j.Logger;
@@ -88,6 +97,8 @@ public class TypeQueryReceiver
                 message);
         if (message instanceof TypeQuery) {
             threadPool.execute(new TypeQueryHandler((TypeQuery) message));
+        } else if (message instanceof TypeBatchQuery) {
+            threadPool.execute(new TypeBatchHandler((TypeBatchQuery) message));
         } else if (message instanceof TypeListQuery) {
             threadPool.execute(new TypeListHandler((TypeListQuery) message));
         } else if (message instanceof TypeStoreRequest) {
@@ -147,6 +158,75 @@ public class TypeQueryReceiver
         }
     }
 
+    private class TypeBatchHandler implements Runnable {
+        private final TypeBatchQuery msg;
+        private final Map<SimpleTypeName, String> result;
+        private final Set<SimpleTypeName> visited;
+
+        public TypeBatchHandler(TypeBatchQuery typeBatchQuery) {
+            msg = typeBatchQuery;
+            result = new LinkedHashMap<SimpleTypeName, String>();
+            visited = new HashSet<SimpleTypeName>();
+        }
+
+        @Override
+        public void run() {
+            TransactionUID uid = msg.getUid();
+            for (SimpleTypeName name : msg.getTypeNames()) {
+                add(name);
+            }
+            TypeBatchResult responseMsg = new TypeBatchResult(
+                    spine.getClientId(), result, uid);
+            try {
+                spine.send(responseMsg);
+            } catch (SpineException e) {
+                log.warn("Unable to send response to type query for "
+                        + msg.getTypeNames(), e);
+            }
+        }
+
+        /**
+         * Adds the named type to the result, after everything it depends on if
+         * the query asked for dependencies. Types which depend on each other
+         * are added in the order they're reached.
+         */
+        private void add(TypeName name) {
+            while (name instanceof TypeNameExpr) {
+                name = ((TypeNameExpr) name).getInner();
+            }
+            if (TypeNameFactory.isPrimitive(name)) {
+                return;
+            }
+            // Idioms are stored under their base name; see TypeQueryHandler.
+            SimpleTypeName typeName = ((SimpleTypeName) name)
+                    .getIdiomBaseName();
+            if (!visited.add(typeName)) {
+                return;
+            }
+
+            ActionModelDef type;
+            try {
+                type = loaderPublisher.getLocalType(typeName);
+            } catch (PALException e) {
+                log.warn("Error loading " + typeName, e);
+                type = null;
+            }
+            if (type == null) {
+                result.put(typeName, null);
+                return;
+            }
+
+            ATR atrType = type.getAtr();
+            if (msg.isWithDependencies() && atrType instanceof ATRDecl) {
+                for (TypeName required : TypeUtil
+                        .getRequiredTypes((ATRDecl) atrType)) {
+                    add(required);
+                }
+            }
+            result.put(typeName, ATRSyntax.toSource(atrType));
+        }
+    }
+
     private class TypeListHandler implements Runnable {
         private final TypeListQuery msg;
 
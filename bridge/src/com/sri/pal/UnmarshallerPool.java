@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.pal;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.validation.Schema;
+
+/**
+ * Hands out JAXB unmarshallers, one per thread, so that documents can be parsed
+ * concurrently. A {@code JAXBContext} and a {@code Schema} can be shared between
+ * threads, but an {@code Unmarshaller} can't.
+ */
+public class UnmarshallerPool {
+    private final JAXBContext context;
+    private final Schema schema;
+    private final ThreadLocal<Unmarshaller> unmarshallers;
+
+    /**
+     * @param context
+     *            the context to create unmarshallers from
+     * @param schema
+     *            the schema to validate against, or {@code null} for none
+     */
+    public UnmarshallerPool(JAXBContext context,
+                            Schema schema) {
+        this.context = context;
+        this.schema = schema;
+        unmarshallers = new ThreadLocal<Unmarshaller>();
+    }
+
+    /**
+     * Provides the calling thread's unmarshaller, creating it if needed. The
+     * caller shouldn't let the result escape to another thread.
+     *
+     * @return an unmarshaller for the current thread
+     * @throws JAXBException
+     *             if the unmarshaller can't be created
+     */
+    public Unmarshaller get()
+            throws JAXBException {
+        Unmarshaller result = unmarshallers.get();
+        if (result == null) {
+            result = context.createUnmarshaller();
+            if (schema != null) {
+                result.setSchema(schema);
+            }
+            unmarshallers.set(result);
+        }
+        return result;
+    }
+}
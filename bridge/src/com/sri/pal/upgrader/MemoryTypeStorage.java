@@ -28,6 +28,7 @@ import com.sri.pal.TypeStorage;
 import com.sri.pal.common.CallbackHandler;
 import com.sri.pal.common.RequestCanceler;
 import com.sri.pal.common.SimpleTypeName;
+import com.sri.tasklearning.spine.messages.TypeListQuery;
 import com.sri.tasklearning.spine.util.TypeUtil;
 
 /**
@@ -74,28 +75,12 @@ public class MemoryTypeStorage
             String typeStr = types.get(name);
             if(typeStr == null) {
                 // Ignore
-            } else if (TypeUtil.isProcedureString(typeStr)) {
-                if (subsetsSet.contains(Subset.PROCEDURE)) {
-                    result.add(name);
-                }
-            } else if (TypeUtil.isActionString(typeStr)) {
-                if (subsetsSet.contains(Subset.ACTION)) {
-                    result.add(name);
-                }
-            } else if (TypeUtil.isActionFamilyString(typeStr)) {
-                if (subsetsSet.contains(Subset.FAMILY)) {
-                    result.add(name);
-                }
-            } else if (TypeUtil.isIdiomString(typeStr)) {
-                if (subsetsSet.contains(Subset.IDIOM)) {
-                    result.add(name);
-                }
-            } else if (TypeUtil.isConstraintString(typeStr)) {
-                if (subsetsSet.contains(Subset.CONSTRAINT)) {
-                    result.add(name);
-                }
             } else {
-                if (subsetsSet.contains(Subset.TYPE)) {
+                TypeListQuery.Subset found = TypeUtil.getSubset(typeStr);
+                // An empty string counts as a plain type, as it always did.
+                Subset subset = (found == null) ? Subset.TYPE : Subset
+                        .valueOf(found.name());
+                if (subsetsSet.contains(subset)) {
                     result.add(name);
                 }
             }
@@ -27,7 +27,6 @@ import java.util.regex.Pattern;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +44,7 @@ import com.sri.ai.lumen.spark.SPARK;
 import com.sri.ai.lumen.core.IStructure;
 import com.sri.pal.LumenProcedureDef;
 import com.sri.pal.PALException;
+import com.sri.pal.UnmarshallerPool;
 import com.sri.pal.jaxb.ActionModelType;
 import com.sri.pal.jaxb.TaskType;
 
@@ -58,7 +58,7 @@ public class ProcedureUpgrader {
             .getLogger(ProcedureUpgrader.class);
 
     private static final String SPARKL_VERSION = "0.1.4";
-    private static Unmarshaller jaxbUnmarsh;
+    private static UnmarshallerPool jaxbUnmarsh;
 
     /**
      * Use {@link #substituteConstant} instead.
@@ -172,9 +172,7 @@ public class ProcedureUpgrader {
         JAXBElement<?> ele;
         initJaxb();
         Reader in = new StringReader(fixedXmlSrc);
-        synchronized (jaxbUnmarsh) {
-            ele = (JAXBElement<?>) jaxbUnmarsh.unmarshal(in);
-        }
+        ele = (JAXBElement<?>) jaxbUnmarsh.get().unmarshal(in);
 
         TaskType taskXml = (TaskType) ele.getValue();
         String version = taskXml.getVersion();
@@ -343,7 +341,7 @@ public class ProcedureUpgrader {
         if (jaxbUnmarsh == null) {
             JAXBContext jc = JAXBContext.newInstance(ActionModelType.class
                     .getPackage().getName());
-            jaxbUnmarsh = jc.createUnmarshaller();
+            jaxbUnmarsh = new UnmarshallerPool(jc, null);
         }
     }
 }
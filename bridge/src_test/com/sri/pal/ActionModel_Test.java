@@ -124,6 +124,41 @@ public class ActionModel_Test
         mockCtrl.verify();
     }
 
+    @Test
+    public void loadSimpleStreaming()
+            throws Exception {
+        URL url = ActionModels.class.getResource(ActionModels.SIMPLE);
+        Set<ActionModelDef> actions = actionModel.loadStreaming(url, "ns");
+        assertEquals(5, actions.size());
+        ActionModelDef type1 = actionModel.getType(TypeNameFactory.makeName(
+                "String", "1.0", "ns"));
+        assertTrue(actions.contains(type1));
+        assertTrue(type1 instanceof PrimitiveTypeDef);
+
+        mockCtrl.verify();
+    }
+
+    @Test
+    public void loadMetadataStreaming()
+            throws Exception {
+        String ns = "ns";
+        for (int i = 0; i < 3; i++) {
+            SimpleTypeName name = (SimpleTypeName) TypeNameFactory.makeName(
+                    "string" + i, "1.0", ns);
+            actionModel.registerCustomTypeFactory(name, new ToStringFactory(
+                    String.class.getName()));
+        }
+        URL url = ActionModels.class.getResource(ActionModels.METADATA);
+        Set<ActionModelDef> actions = actionModel.loadStreaming(url, ns);
+        assertEquals(6, actions.size());
+
+        Map<String, String> nsMeta = actionModel.getNamespaceMetadata(ns, "1.0");
+        assertEquals(2, nsMeta.size());
+        assertEquals("value1", nsMeta.get("key1"));
+
+        mockCtrl.verify();
+    }
+
     @Test
     public void namespaces()
             throws Exception {
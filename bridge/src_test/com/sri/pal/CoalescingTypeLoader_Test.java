@@ -0,0 +1,325 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.pal;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sri.pal.common.CallbackHandler;
+import com.sri.pal.common.ErrorInfo;
+import com.sri.pal.common.RequestCanceler;
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.pal.common.TypeNameFactory;
+import com.sri.pal.upgrader.MemoryTypeStorage;
+import com.sri.pal.util.PALTestCase;
+import com.sri.tasklearning.spine.util.ErrorFactory;
+import com.sri.tasklearning.spine.util.ErrorType;
+
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CoalescingTypeLoader_Test
+        extends PALTestCase {
+    private IMocksControl mockCtrl;
+    private Bridge bridge;
+    private ActionModelDef typeX;
+    private ActionModelDef typeY;
+    private SimpleTypeName nameX;
+    private SimpleTypeName nameY;
+    private ErrorFactory errorFactory;
+
+    @BeforeMethod
+    public void setup() {
+        mockCtrl = EasyMock.createControl();
+        bridge = mockCtrl.createMock(Bridge.class);
+        typeX = mockCtrl.createMock(ActionModelDef.class);
+        typeY = mockCtrl.createMock(ActionModelDef.class);
+        nameX = (SimpleTypeName) TypeNameFactory.makeName("x", "1.0", "ns");
+        nameY = (SimpleTypeName) TypeNameFactory.makeName("y", "1.0", "ns");
+        errorFactory = new ErrorFactory("test");
+    }
+
+    private CoalescingTypeLoader newLoader(FakePublisher publisher) {
+        EasyMock.expect(bridge.getActionLoaderPublisher()).andReturn(publisher)
+                .anyTimes();
+        mockCtrl.replay();
+        return new CoalescingTypeLoader(bridge);
+    }
+
+    @Test
+    public void coalescesConcurrentLoads()
+            throws Exception {
+        FakePublisher publisher = new FakePublisher();
+        CoalescingTypeLoader loader = newLoader(publisher);
+        SynchronousCallbackHandler<ActionModelDef> first = new SynchronousCallbackHandler<ActionModelDef>();
+        SynchronousCallbackHandler<ActionModelDef> second = new SynchronousCallbackHandler<ActionModelDef>();
+        SynchronousCallbackHandler<ActionModelDef> other = new SynchronousCallbackHandler<ActionModelDef>();
+        loader.load(first, nameX);
+        loader.load(second, nameX);
+        loader.load(other, nameY);
+        assertEquals(2, publisher.requests.size());
+        assertEquals(nameX, publisher.requests.get(0).name);
+        assertEquals(nameY, publisher.requests.get(1).name);
+
+        publisher.requests.get(0).handler.result(typeX);
+        assertSame(typeX, first.waitForResult());
+        assertSame(typeX, second.waitForResult());
+        publisher.requests.get(1).handler.result(typeY);
+        assertSame(typeY, other.waitForResult());
+
+        // Once a load is over, the next request starts a new one.
+        loader.load(new SynchronousCallbackHandler<ActionModelDef>(), nameX);
+        assertEquals(3, publisher.requests.size());
+    }
+
+    @Test
+    public void errorReachesEveryWaiter() {
+        FakePublisher publisher = new FakePublisher();
+        CoalescingTypeLoader loader = newLoader(publisher);
+        SynchronousCallbackHandler<ActionModelDef> first = new SynchronousCallbackHandler<ActionModelDef>();
+        SynchronousCallbackHandler<ActionModelDef> second = new SynchronousCallbackHandler<ActionModelDef>();
+        loader.load(first, nameX);
+        loader.load(second, nameX);
+        assertEquals(1, publisher.requests.size());
+
+        ErrorInfo error = errorFactory.error(ErrorType.ACTION_MODEL, nameX);
+        publisher.requests.get(0).handler.error(error);
+        assertSame(error, first.getError());
+        assertSame(error, second.getError());
+
+        // A second answer from the loader goes nowhere.
+        publisher.requests.get(0).handler.result(typeX);
+    }
+
+    @Test
+    public void missingTypeIsNull()
+            throws Exception {
+        FakePublisher publisher = new FakePublisher() {
+            @Override
+            void answer(Request request) {
+                request.handler.error(errorFactory.error(
+                        ErrorType.NOT_ALL_LOADED, request.name.getFullName()));
+            }
+        };
+        CoalescingTypeLoader loader = newLoader(publisher);
+        assertNull(loader.getType(nameX));
+    }
+
+    @Test
+    public void cancelsWhenLastWaiterLeaves() {
+        FakePublisher publisher = new FakePublisher();
+        CoalescingTypeLoader loader = newLoader(publisher);
+        SynchronousCallbackHandler<ActionModelDef> first = new SynchronousCallbackHandler<ActionModelDef>();
+        SynchronousCallbackHandler<ActionModelDef> second = new SynchronousCallbackHandler<ActionModelDef>();
+        RequestCanceler firstCanceler = loader.load(first, nameX);
+        RequestCanceler secondCanceler = loader.load(second, nameX);
+        Request request = publisher.requests.get(0);
+
+        firstCanceler.cancel();
+        assertFalse(request.canceled);
+        secondCanceler.cancel();
+        assertTrue(request.canceled);
+
+        // The canceled load isn't joined by later requests.
+        loader.load(new SynchronousCallbackHandler<ActionModelDef>(), nameX);
+        assertEquals(2, publisher.requests.size());
+    }
+
+    /**
+     * Loading a type whose definition loads the same type again, on the same
+     * thread, must not wait on itself.
+     */
+    @Test(timeOut = 10000)
+    public void recursiveLoadDoesNotWait()
+            throws Exception {
+        final AtomicReference<CoalescingTypeLoader> loaderRef = new AtomicReference<CoalescingTypeLoader>();
+        FakePublisher publisher = new FakePublisher() {
+            @Override
+            void answer(Request request) {
+                if (requests.size() == 1) {
+                    try {
+                        assertSame(typeX, loaderRef.get().getType(nameX));
+                    } catch (PALException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                request.handler.result(typeX);
+            }
+        };
+        CoalescingTypeLoader loader = newLoader(publisher);
+        loaderRef.set(loader);
+        assertSame(typeX, loader.getType(nameX));
+        assertEquals(2, publisher.requests.size());
+    }
+
+    /**
+     * Two types which depend on each other, loaded at the same time by
+     * different threads. Each is built on a storage thread of its own, which
+     * needs the other type. If either waited on the other's load, neither
+     * would finish.
+     */
+    @Test(timeOut = 10000)
+    public void crossThreadLoadsDoNotDeadlock()
+            throws Exception {
+        final AtomicReference<CoalescingTypeLoader> loaderRef = new AtomicReference<CoalescingTypeLoader>();
+        final CyclicBarrier bothLoading = new CyclicBarrier(2);
+        FakePublisher publisher = new FakePublisher() {
+            @Override
+            void answer(final Request request) {
+                if (countRequests(request.name) > 1) {
+                    request.handler.result(typeFor(request.name));
+                    return;
+                }
+                final SimpleTypeName dependency = request.name.equals(nameX) ? nameY : nameX;
+                new Thread() {
+                    @Override
+                    public void run() {
+                        CoalescingTypeLoader loader = loaderRef.get();
+                        try {
+                            bothLoading.await();
+                            // What ActionModel.read does while it builds a type
+                            loader.beginBuild();
+                            try {
+                                assertSame(typeFor(dependency), loader.getType(dependency));
+                            } finally {
+                                loader.endBuild();
+                            }
+                        } catch (Exception e) {
+                            request.handler.error(errorFactory.error(
+                                    ErrorType.ACTION_MODEL, request.name));
+                            return;
+                        }
+                        request.handler.result(typeFor(request.name));
+                    }
+                }.start();
+            }
+        };
+        CoalescingTypeLoader loader = newLoader(publisher);
+        loaderRef.set(loader);
+
+        Loading loadingX = new Loading(loader, nameX);
+        Loading loadingY = new Loading(loader, nameY);
+        loadingX.start();
+        loadingY.start();
+        loadingX.join();
+        loadingY.join();
+        assertSame(typeX, loadingX.getResult());
+        assertSame(typeY, loadingY.getResult());
+        assertEquals(4, publisher.requests.size());
+    }
+
+    private ActionModelDef typeFor(SimpleTypeName name) {
+        return name.equals(nameX) ? typeX : typeY;
+    }
+
+    private static class Loading
+            extends Thread {
+        private final CoalescingTypeLoader loader;
+        private final SimpleTypeName name;
+        private ActionModelDef result;
+        private Exception error;
+
+        Loading(CoalescingTypeLoader loader,
+                SimpleTypeName name) {
+            this.loader = loader;
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result = loader.getType(name);
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        ActionModelDef getResult()
+                throws Exception {
+            if (error != null) {
+                throw error;
+            }
+            return result;
+        }
+    }
+
+    private static class Request {
+        final CallbackHandler<ActionModelDef> handler;
+        final SimpleTypeName name;
+        volatile boolean canceled = false;
+
+        Request(CallbackHandler<ActionModelDef> handler,
+                SimpleTypeName name) {
+            this.handler = handler;
+            this.name = name;
+        }
+    }
+
+    /**
+     * Records each load it is asked for. Unless a test says otherwise, the
+     * test answers them itself.
+     */
+    private static class FakePublisher
+            extends TypeLoaderPublisher {
+        final List<Request> requests = Collections
+                .synchronizedList(new ArrayList<Request>());
+
+        FakePublisher() {
+            super(new MemoryTypeStorage());
+        }
+
+        @Override
+        RequestCanceler load(CallbackHandler<ActionModelDef> callbackHandler,
+                             SimpleTypeName desiredType) {
+            final Request request = new Request(callbackHandler, desiredType);
+            requests.add(request);
+            answer(request);
+            return new RequestCanceler() {
+                @Override
+                public void cancel() {
+                    request.canceled = true;
+                }
+            };
+        }
+
+        void answer(Request request) {
+        }
+
+        int countRequests(SimpleTypeName name) {
+            int count = 0;
+            synchronized (requests) {
+                for (Request request : requests) {
+                    if (request.name.equals(name)) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+    }
+}
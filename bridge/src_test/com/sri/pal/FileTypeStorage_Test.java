@@ -17,6 +17,7 @@
 package com.sri.pal;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNotNull;
 import static org.testng.AssertJUnit.assertTrue;
 
@@ -27,9 +28,8 @@ import com.sri.pal.common.SimpleTypeName;
 import com.sri.pal.common.TypeNameFactory;
 import com.sri.pal.util.PALTestCase;
 import com.sri.tasklearning.spine.impl.jms.util.MockSpine;
-import com.sri.tasklearning.spine.messages.SerialNumberResponse;
 import com.sri.tasklearning.spine.messages.SystemMessageType;
-import com.sri.tasklearning.spine.util.ReplyWatcher;
+import com.sri.tasklearning.spine.util.SerialNumberAllocator;
 
 import org.testng.Assert;
 import org.testng.annotations.AfterClass;
@@ -61,8 +61,7 @@ public class FileTypeStorage_Test
         baseDir = new File("fileTypeStorageDir");
         baseDir.mkdir();
         spine = new MockSpine();
-        ReplyWatcher<SerialNumberResponse> serialGetter = new ReplyWatcher<SerialNumberResponse>(
-                SerialNumberResponse.class, spine);
+        SerialNumberAllocator serialGetter = new SerialNumberAllocator(spine);
         spine.subscribe(serialGetter, SystemMessageType.SERIAL_NUMBER_RESPONSE);
         Bridge.startPAL();
         palBridge = Bridge.newInstance("ftst");
@@ -212,6 +211,44 @@ public class FileTypeStorage_Test
         assertTrue(typeSet.toString(), typeSet.contains(actionName4));
     }
 
+    @Test
+    public void reopenedStorageFindsStoredTypes()
+            throws PALException {
+        fts.putType(name, pd.getXml());
+
+        // A new instance has to build its index from what's on disk.
+        FileTypeStorage reopened = new FileTypeStorage(baseDir,
+                spine.getClientId());
+        assertTrue(reopened.listTypes(TypeStorage.Subset.PROCEDURE).contains(
+                name));
+        assertTrue(reopened.listTypes(TypeStorage.Subset.ACTION).isEmpty());
+        SynchronousCallbackHandler<String> sch = new SynchronousCallbackHandler<String>();
+        reopened.loadType(sch, name);
+        assertTrue(sch.waitForResult().contains(actionName));
+
+        reopened.putType(name, null);
+        assertFalse(reopened.listTypes().contains(name));
+        sch = new SynchronousCallbackHandler<String>();
+        reopened.loadType(sch, name);
+        assertNotNull(sch.getError());
+    }
+
+    @Test
+    public void overwriteLeavesNoTempFile()
+            throws PALException {
+        fts.putType(name, pd.getXml());
+        fts.putType(name, pd.getXml() + "\n");
+
+        SynchronousCallbackHandler<String> sch = new SynchronousCallbackHandler<String>();
+        fts.loadType(sch, name);
+        assertEquals(pd.getXml() + "\n", sch.waitForResult());
+        File nsDir = new File(baseDir, mangle(name.getNamespace()));
+        File versDir = new File(nsDir, mangle(name.getVersion()));
+        for (File file : versDir.listFiles()) {
+            assertFalse(file.toString(), file.getName().endsWith(".tmp"));
+        }
+    }
+
     /**
      * Requirements: TypeName typeName1 = "typename1" TypeName typeName2 =
      * "typename2"
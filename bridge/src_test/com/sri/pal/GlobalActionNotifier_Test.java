@@ -0,0 +1,266 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.pal;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.sri.pal.GlobalActionListener.Delivery;
+import com.sri.pal.util.PALTestCase;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.easymock.IMocksControl;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class GlobalActionNotifier_Test
+        extends PALTestCase {
+    private IMocksControl mockCtrl;
+    private GlobalActionNotifier notifier;
+
+    @BeforeMethod
+    public void setup() {
+        mockCtrl = EasyMock.createNiceControl();
+        notifier = new GlobalActionNotifier();
+        Thread t = new Thread(notifier);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private ActionStreamEvent newEvent() {
+        ActionStreamEvent event = mockCtrl
+                .createMock(ActionStreamEvent.class);
+        AbstractActionDef def = mockCtrl.createMock(AbstractActionDef.class);
+        EasyMock.expect(event.getDefinition()).andReturn(def).anyTimes();
+        EasyMock.replay(event, def);
+        return event;
+    }
+
+    /**
+     * A listener that never returns mustn't keep a queued listener from
+     * hearing about actions.
+     */
+    @Test
+    public void slowListenerIsIsolated()
+            throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        GlobalActionListener slow = new GlobalActionListener() {
+            @Override
+            public void actionStarted(ActionStreamEvent action) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Done
+                }
+            }
+        };
+        final CountDownLatch heard = new CountDownLatch(3);
+        GlobalActionListener fast = new GlobalActionListener() {
+            @Override
+            public void actionStarted(ActionStreamEvent action) {
+                heard.countDown();
+            }
+        };
+        notifier.addListener(slow, Delivery.DROP_OLDEST);
+        notifier.addListener(fast, Delivery.BLOCK);
+
+        for (int i = 0; i < 3; i++) {
+            notifier.newInvocation(newEvent());
+        }
+        assertTrue(heard.await(10, TimeUnit.SECONDS));
+        assertEquals(3, notifier.getStats(fast).getDelivered());
+        assertEquals(0, notifier.getStats(slow).getDelivered());
+        release.countDown();
+    }
+
+    @Test
+    public void synchronousListenerRunsBeforeChildrenStart()
+            throws Exception {
+        final CountDownLatch heard = new CountDownLatch(1);
+        GlobalActionListener listener = new GlobalActionListener() {
+            @Override
+            public void actionStarted(ActionStreamEvent action) {
+                heard.countDown();
+            }
+        };
+        notifier.addListener(listener, Delivery.SYNCHRONOUS);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        ActionStreamEvent event = mockCtrl.createMock(ActionStreamEvent.class);
+        event.finishedStartNotify();
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() {
+                /* The listener must already have been called. */
+                assertEquals(0, heard.getCount());
+                started.countDown();
+                return null;
+            }
+        });
+        EasyMock.replay(event);
+        notifier.newInvocation(event);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        ActionListenerStats stats = notifier.getStats(listener);
+        assertEquals(1, stats.getDelivered());
+        assertEquals(0, stats.getQueueDepth());
+    }
+
+    /**
+     * Listeners added without a delivery mode keep hearing about actions
+     * before their children start.
+     */
+    @Test
+    public void defaultIsSynchronous()
+            throws Exception {
+        GlobalActionListener listener = new GlobalActionListener() {
+            @Override
+            public void actionStarted(ActionStreamEvent action) {
+            }
+        };
+        notifier.addListener(listener);
+        assertEquals(Delivery.SYNCHRONOUS, notifier.getStats(listener)
+                .getDelivery());
+    }
+
+    @Test
+    public void sameDeliveryKeepsSubscription()
+            throws Exception {
+        final CountDownLatch heard = new CountDownLatch(2);
+        GlobalActionListener listener = new GlobalActionListener() {
+            @Override
+            public void actionStarted(ActionStreamEvent action) {
+                heard.countDown();
+            }
+        };
+        notifier.addListener(listener, Delivery.BLOCK);
+        notifier.newInvocation(newEvent());
+        notifier.newInvocation(newEvent());
+        assertTrue(heard.await(10, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (notifier.getStats(listener).getDelivered() < 2
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        notifier.addListener(listener, Delivery.BLOCK);
+        assertEquals(2, notifier.getStats(listener).getDelivered());
+    }
+
+    /**
+     * Notifications still queued when a listener's delivery changes reach it
+     * through the new subscription, in order.
+     */
+    @Test
+    public void changedDeliveryKeepsQueued()
+            throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch heard = new CountDownLatch(5);
+        final List<ActionStreamEvent> seen = Collections
+                .synchronizedList(new ArrayList<ActionStreamEvent>());
+        GlobalActionListener listener = new GlobalActionListener() {
+            @Override
+            public void actionStarted(ActionStreamEvent action) {
+                seen.add(action);
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Done
+                }
+                heard.countDown();
+            }
+        };
+        notifier.addListener(listener, Delivery.BLOCK);
+        List<ActionStreamEvent> sent = new ArrayList<ActionStreamEvent>();
+        for (int i = 0; i < 4; i++) {
+            ActionStreamEvent event = newEvent();
+            sent.add(event);
+            notifier.newInvocation(event);
+        }
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (notifier.getStats(listener).getQueueDepth() < 3
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        notifier.addListener(listener, Delivery.SYNCHRONOUS);
+        assertEquals(Delivery.SYNCHRONOUS, notifier.getStats(listener)
+                .getDelivery());
+        assertEquals(3, notifier.getStats(listener).getQueueDepth());
+        ActionStreamEvent last = newEvent();
+        sent.add(last);
+        notifier.newInvocation(last);
+        release.countDown();
+        assertTrue(heard.await(10, TimeUnit.SECONDS));
+        assertEquals(sent, seen);
+    }
+
+    @Test
+    public void dropOldestWhenFull()
+            throws Exception {
+        System.setProperty(GlobalActionNotifier.QUEUE_SIZE, "2");
+        try {
+            notifier = new GlobalActionNotifier();
+        } finally {
+            System.clearProperty(GlobalActionNotifier.QUEUE_SIZE);
+        }
+        Thread t = new Thread(notifier);
+        t.setDaemon(true);
+        t.start();
+
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch heard = new CountDownLatch(3);
+        GlobalActionListener listener = new GlobalActionListener() {
+            @Override
+            public void actionStarted(ActionStreamEvent action) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Done
+                }
+                heard.countDown();
+            }
+        };
+        notifier.addListener(listener, Delivery.DROP_OLDEST);
+        notifier.newInvocation(newEvent());
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            notifier.newInvocation(newEvent());
+        }
+        /* One is being delivered, two are queued, and the rest were dropped. */
+        long deadline = System.currentTimeMillis() + 10000;
+        while (notifier.getStats(listener).getDropped() < 3
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, notifier.getStats(listener).getDropped());
+        release.countDown();
+        assertTrue(heard.await(10, TimeUnit.SECONDS));
+        assertEquals(3, notifier.getStats(listener).getDelivered());
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.pal;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import com.sri.pal.ActionStreamEvent.Status;
+import com.sri.pal.util.PALTestCase;
+import com.sri.tasklearning.spine.messages.contents.TransactionUID;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.testng.annotations.Test;
+
+public class InvocationCache_Test
+        extends PALTestCase {
+    private final List<ActionInvocationStatusListener> listeners = new ArrayList<ActionInvocationStatusListener>();
+
+    private ActionStreamEvent makeInvocation(TransactionUID uid) {
+        ActionStreamEvent invoc = EasyMock
+                .createNiceMock(ActionStreamEvent.class);
+        EasyMock.expect(invoc.getUid()).andReturn(uid).anyTimes();
+        invoc.addListener(EasyMock.isA(ActionInvocationStatusListener.class));
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() {
+                listeners.add((ActionInvocationStatusListener) EasyMock
+                        .getCurrentArguments()[0]);
+                return null;
+            }
+        }).anyTimes();
+        EasyMock.replay(invoc);
+        return invoc;
+    }
+
+    private void finish(int index) {
+        listeners.get(index).newStatus(Status.ENDED);
+    }
+
+    private void assertMissing(InvocationCache cache,
+                               TransactionUID uid) {
+        try {
+            cache.get(uid, 0);
+            fail("Found " + uid);
+        } catch (TimeoutException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void addThenGet()
+            throws Exception {
+        InvocationCache cache = new InvocationCache(0, 0);
+        TransactionUID uid = new TransactionUID("test", 1);
+        ActionStreamEvent invoc = makeInvocation(uid);
+        cache.add(invoc);
+        assertSame(invoc, cache.get(uid, 0));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void getWaitsForAdd()
+            throws Exception {
+        final InvocationCache cache = new InvocationCache(0, 0);
+        TransactionUID uid = new TransactionUID("test", 1);
+        final ActionStreamEvent invoc = makeInvocation(uid);
+        Thread adder = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+                cache.add(invoc);
+            }
+        };
+        adder.start();
+        assertSame(invoc, cache.get(uid, 10 * 1000));
+        adder.join();
+    }
+
+    @Test
+    public void getTimesOut()
+            throws Exception {
+        InvocationCache cache = new InvocationCache(0, 0);
+        TransactionUID uid = new TransactionUID("test", 1);
+        long start = System.currentTimeMillis();
+        try {
+            cache.get(uid, 100);
+            fail("Found " + uid);
+        } catch (TimeoutException e) {
+            // Expected.
+        }
+        assertEquals(true, System.currentTimeMillis() - start >= 100);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void finishedInvocationsEvicted()
+            throws Exception {
+        InvocationCache cache = new InvocationCache(1, 60 * 1000);
+        TransactionUID uid1 = new TransactionUID("test", 1);
+        TransactionUID uid2 = new TransactionUID("test", 2);
+        ActionStreamEvent invoc1 = makeInvocation(uid1);
+        ActionStreamEvent invoc2 = makeInvocation(uid2);
+        cache.add(invoc1);
+        cache.add(invoc2);
+
+        finish(0);
+        assertSame(invoc1, cache.get(uid1, 0));
+        finish(1);
+        assertMissing(cache, uid1);
+        assertSame(invoc2, cache.get(uid2, 0));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void finishedInvocationsExpire()
+            throws Exception {
+        InvocationCache cache = new InvocationCache(100, 0);
+        TransactionUID uid = new TransactionUID("test", 1);
+        cache.add(makeInvocation(uid));
+        Thread.sleep(10);
+        finish(0);
+        assertMissing(cache, uid);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void parentReadyAfterEndWatch()
+            throws Exception {
+        final InvocationCache cache = new InvocationCache(0, 0);
+        final TransactionUID uid = new TransactionUID("test", 1);
+        cache.watchFor(uid);
+        Thread ender = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+                cache.endWatch(uid);
+            }
+        };
+        ender.start();
+        cache.getParentInvocationReady(uid);
+        ender.join();
+
+        /* Not watched any more, so this returns immediately. */
+        cache.getParentInvocationReady(uid);
+    }
+}
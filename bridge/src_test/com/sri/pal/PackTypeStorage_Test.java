@@ -0,0 +1,241 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.pal;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Set;
+
+import com.sri.pal.TypeStorage.Subset;
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.pal.upgrader.MemoryTypeStorage;
+import com.sri.pal.util.PALTestCase;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class PackTypeStorage_Test
+        extends PALTestCase {
+    private static final String CLIENT = "packTest";
+    private static final String NS = "packNs";
+    private static final String VERS = "1.0";
+    private static final String ACTION = "<actionModel version=\"1.0\"><action id=\"a\"/></actionModel>";
+    private static final String PROC = "<TaskModel version=\"1.0\"></TaskModel>";
+
+    private File baseDir;
+    private PackTypeStorage storage;
+
+    @BeforeMethod
+    public void setup()
+            throws Exception {
+        baseDir = new File("packTypeStorageDir");
+        delete(baseDir);
+        storage = new PackTypeStorage(baseDir, CLIENT);
+    }
+
+    @AfterMethod
+    public void cleanup() {
+        storage.close();
+        delete(baseDir);
+    }
+
+    private static void delete(File file) {
+        if (file.isDirectory()) {
+            for (File subFile : file.listFiles()) {
+                delete(subFile);
+            }
+        }
+        file.delete();
+    }
+
+    private static SimpleTypeName name(String simpleName) {
+        return new SimpleTypeName(simpleName, VERS, NS);
+    }
+
+    private static String load(TypeStorage storage,
+                               SimpleTypeName name)
+            throws PALException {
+        SynchronousCallbackHandler<String> callback = new SynchronousCallbackHandler<String>();
+        storage.loadType(callback, name);
+        try {
+            return callback.waitForResult();
+        } catch (PALActionMissingException e) {
+            return null;
+        }
+    }
+
+    @Test
+    public void putLoadRemove()
+            throws Exception {
+        SimpleTypeName a = name("a");
+        SimpleTypeName p = name("p");
+        storage.putType(a, ACTION);
+        storage.putType(p, PROC);
+        assertEquals(ACTION, load(storage, a));
+        assertEquals(PROC, load(storage, p));
+        Set<SimpleTypeName> actions = storage.listTypes(Subset.ACTION);
+        assertEquals(1, actions.size());
+        assertTrue(actions.contains(a));
+        assertEquals(2, storage.listTypes().size());
+
+        storage.putType(a, null);
+        assertNull(load(storage, a));
+        assertFalse(storage.listTypes().contains(a));
+        assertTrue(storage.listTypes(Subset.PROCEDURE).contains(p));
+    }
+
+    /**
+     * Source the classifier can't place still has to be storable, and is
+     * listed as a plain type.
+     */
+    @Test
+    public void emptySourceIsAType()
+            throws Exception {
+        SimpleTypeName e = name("e");
+        storage.putType(e, "");
+        assertEquals("", load(storage, e));
+        assertTrue(storage.listTypes(Subset.TYPE).contains(e));
+
+        MemoryTypeStorage memory = new MemoryTypeStorage();
+        memory.putType(e, "");
+        assertTrue(memory.listTypes(Subset.TYPE).contains(e));
+        assertTrue(memory.listTypes().contains(e));
+    }
+
+    @Test
+    public void reopenedStorageFindsStoredTypes()
+            throws Exception {
+        SimpleTypeName a = name("a");
+        SimpleTypeName b = name("b");
+        storage.putType(a, ACTION);
+        storage.putType(b, "<actionModel version=\"1.0\"><type id=\"b\"/></actionModel>");
+        storage.putType(a, PROC);
+        storage.putType(b, null);
+        storage.close();
+
+        storage = new PackTypeStorage(baseDir, CLIENT);
+        assertEquals(PROC, load(storage, a));
+        assertNull(load(storage, b));
+        assertTrue(storage.listTypes(Subset.PROCEDURE).contains(a));
+        assertTrue(storage.listTypes(Subset.ACTION).isEmpty());
+    }
+
+    @Test
+    public void truncatedRecordIsDiscarded()
+            throws Exception {
+        SimpleTypeName a = name("a");
+        SimpleTypeName b = name("b");
+        storage.putType(a, ACTION);
+        storage.putType(b, PROC);
+        storage.close();
+
+        File[] segments = baseDir.listFiles();
+        assertEquals(1, segments.length);
+        RandomAccessFile raf = new RandomAccessFile(segments[0], "rw");
+        try {
+            raf.setLength(raf.length() - 5);
+        } finally {
+            raf.close();
+        }
+
+        storage = new PackTypeStorage(baseDir, CLIENT);
+        assertEquals(ACTION, load(storage, a));
+        assertNull(load(storage, b));
+        storage.putType(b, PROC);
+        assertEquals(PROC, load(storage, b));
+    }
+
+    @Test
+    public void compactionKeepsLiveTypes()
+            throws Exception {
+        SimpleTypeName a = name("a");
+        SimpleTypeName b = name("b");
+        StringBuilder big = new StringBuilder(ACTION);
+        for (int i = 0; i < 64 * 1024; i++) {
+            big.append(' ');
+        }
+        storage.putType(a, PROC);
+        for (int i = 0; i < 40; i++) {
+            storage.putType(b, big.toString() + i);
+        }
+        // Runs after any background compaction those puts started.
+        storage.compact();
+        assertEquals(1, baseDir.listFiles().length);
+        assertEquals(PROC, load(storage, a));
+        assertEquals(big.toString() + 39, load(storage, b));
+        storage.close();
+
+        storage = new PackTypeStorage(baseDir, CLIENT);
+        assertNotNull(load(storage, a));
+        assertEquals(big.toString() + 39, load(storage, b));
+    }
+
+    @Test
+    public void importsFromFileStorage()
+            throws Exception {
+        File fileDir = new File("packTypeStorageSrcDir");
+        delete(fileDir);
+        try {
+            FileTypeStorage source = new FileTypeStorage(fileDir, CLIENT);
+            source.putType(name("a"), ACTION);
+            source.putType(name("p"), PROC);
+            assertFalse(storage.isImported());
+            assertEquals(2, storage.importFrom(source));
+            assertTrue(storage.isImported());
+            assertEquals(load(source, name("a")), load(storage, name("a")));
+            assertEquals(load(source, name("p")), load(storage, name("p")));
+            storage.close();
+
+            storage = new PackTypeStorage(baseDir, CLIENT);
+            assertTrue(storage.isImported());
+            assertEquals(2, storage.listTypes().size());
+        } finally {
+            delete(fileDir);
+        }
+    }
+
+    @Test
+    public void interruptedImportIsNotMarked()
+            throws Exception {
+        MemoryTypeStorage source = new MemoryTypeStorage() {
+            @Override
+            public Set<SimpleTypeName> listTypes(Subset... subsets)
+                    throws PALException {
+                // Lists a type it can't load, like a source that fails midway.
+                Set<SimpleTypeName> names = super.listTypes(subsets);
+                names.add(name("missing"));
+                return names;
+            }
+        };
+        source.putType(name("a"), ACTION);
+        try {
+            storage.importFrom(source);
+            fail("Import of a missing type should fail");
+        } catch (PALException e) {
+            // expected
+        }
+        assertFalse(storage.isImported());
+    }
+}
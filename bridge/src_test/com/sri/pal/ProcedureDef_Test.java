@@ -40,10 +40,9 @@ import com.sri.pal.common.TypeNameFactory;
 import com.sri.pal.types.IntType;
 import com.sri.pal.util.PALTestCase;
 import com.sri.tasklearning.spine.impl.jms.util.MockSpine;
-import com.sri.tasklearning.spine.messages.SerialNumberResponse;
 import com.sri.tasklearning.spine.messages.SystemMessageType;
 import com.sri.tasklearning.spine.util.ATRTestUtil;
-import com.sri.tasklearning.spine.util.ReplyWatcher;
+import com.sri.tasklearning.spine.util.SerialNumberAllocator;
 
 import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
@@ -65,8 +64,7 @@ public class ProcedureDef_Test
             throws Exception {
         mockCtrl = EasyMock.createNiceControl();
         MockSpine spine = new MockSpine();
-        ReplyWatcher<SerialNumberResponse> serialGetter = new ReplyWatcher<SerialNumberResponse>(
-                SerialNumberResponse.class, spine);
+        SerialNumberAllocator serialGetter = new SerialNumberAllocator(spine);
         spine.subscribe(serialGetter, SystemMessageType.SERIAL_NUMBER_RESPONSE);
         bridge = mockCtrl.createMock(Bridge.class);
         EasyMock.expect(bridge.getSerialGetter()).andReturn(serialGetter)
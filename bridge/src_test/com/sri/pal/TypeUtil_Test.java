@@ -22,6 +22,7 @@ import java.net.URL;
 import com.sri.pal.actionmodels.ActionModels;
 import com.sri.pal.bridge.SparkTask_FuncTest;
 import com.sri.pal.util.PALTestCase;
+import com.sri.tasklearning.spine.messages.TypeListQuery;
 import com.sri.tasklearning.spine.util.TypeUtil;
 
 import org.testng.Assert;
@@ -64,4 +65,30 @@ public class TypeUtil_Test
         Assert.assertTrue(TypeUtil.isActionString(actionStr));
         Assert.assertFalse(TypeUtil.isActionString(typeStr));
     }
+
+    @Test
+    public void getSubset() {
+        Assert.assertEquals(TypeUtil.getSubset(procStr),
+                TypeListQuery.Subset.PROCEDURE);
+        Assert.assertEquals(TypeUtil.getSubset(actionStr),
+                TypeListQuery.Subset.ACTION);
+        Assert.assertEquals(TypeUtil.getSubset(typeStr),
+                TypeListQuery.Subset.TYPE);
+        Assert.assertNull(TypeUtil.getSubset(""));
+    }
+
+    @Test
+    public void onlyTopLevelElementsCount() {
+        String idiomStr = "<actionModel version=\"1.0\"><idiom id=\"i\">"
+                + "<template id=\"t\"><action id=\"a\"/></template>"
+                + "</idiom></actionModel>";
+        Assert.assertEquals(TypeUtil.getSubset(idiomStr),
+                TypeListQuery.Subset.IDIOM);
+        Assert.assertFalse(TypeUtil.isActionString(idiomStr));
+
+        String commentStr = "<actionModel version=\"1.0\">"
+                + "<!-- <action id=\"a\"/> --><type id=\"t\"/></actionModel>";
+        Assert.assertEquals(TypeUtil.getSubset(commentStr),
+                TypeListQuery.Subset.TYPE);
+    }
 }
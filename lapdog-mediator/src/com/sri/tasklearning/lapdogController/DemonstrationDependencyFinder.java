@@ -16,20 +16,20 @@
 package com.sri.tasklearning.lapdogController;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
-import com.sri.ai.lumen.atr.ATR;
 import com.sri.ai.lumen.atr.decl.ATRDecl;
-import com.sri.ai.lumen.atr.decl.ATRTypeDeclaration;
 import com.sri.ai.lumen.atr.learning.ATRDemonstratedAction;
 import com.sri.ai.lumen.atr.learning.ATRDemonstration;
 import com.sri.pal.common.SimpleTypeName;
 import com.sri.pal.common.TypeName;
-import com.sri.pal.common.TypeNameExpr;
 import com.sri.pal.common.TypeNameFactory;
 import com.sri.tasklearning.mediators.DependencyFinder;
+import com.sri.tasklearning.mediators.DependencyGraph;
 import com.sri.tasklearning.mediators.TypeFetcher;
 import com.sri.tasklearning.spine.SpineException;
 import com.sri.tasklearning.spine.util.TypeUtil;
@@ -45,7 +45,7 @@ public class DemonstrationDependencyFinder
     private static final Logger log = LoggerFactory
             .getLogger(DemonstrationDependencyFinder.class);
 
-    private final TypeFetcher typeFetcher;
+    private final DependencyGraph graph;
     private final Set<TypeName> extraTypes;
 
     /**
@@ -55,8 +55,8 @@ public class DemonstrationDependencyFinder
      *            the type fetcher which can be used to retrieve required types
      */
     public DemonstrationDependencyFinder(TypeFetcher fetcher) {
-        typeFetcher = fetcher;
-        extraTypes = new HashSet<TypeName>();
+        graph = fetcher.getDependencyGraph();
+        extraTypes = new LinkedHashSet<TypeName>();
     }
 
     /**
@@ -78,46 +78,36 @@ public class DemonstrationDependencyFinder
             throws SpineException {
         List<ATRDecl> requiredTypes = new ArrayList<ATRDecl>();
 
-        /* Get the "extra" types. */
-        for (TypeName extraName : extraTypes) {
-            getRequiredTypes(requiredTypes, extraName, true);
-        }
-
-        // Get all the required types (and actions).
+        /* The "extra" types, then all the demonstrated actions. */
+        Set<TypeName> names = new LinkedHashSet<TypeName>(extraTypes);
         for (ATRDemonstratedAction action : demo.getActions()) {
-            List<ATRDecl> usedTypes = getRequiredTypes(action);
-            for (ATRDecl type : usedTypes) {
-                if (!requiredTypes.contains(type)) {
-                    requiredTypes.add(type);
-                }
-            }
+            addActionNames(names, action);
         }
+        addRequiredTypes(requiredTypes, names, true);
 
         return requiredTypes;
     }
 
-    private List<ATRDecl> getRequiredTypes(ATRDemonstratedAction action)
-            throws SpineException {
-        List<ATRDecl> result = new ArrayList<ATRDecl>();
+    private void addActionNames(Set<TypeName> names,
+                                ATRDemonstratedAction action) {
         if (TypeUtil.isGesture(action)) {
             for (ATRDemonstratedAction subAction : action.optBody()) {
-                result.addAll(getRequiredTypes(subAction));
+                addActionNames(names, subAction);
             }
         } else {
-            SimpleTypeName typeName = (SimpleTypeName) TypeNameFactory
-                    .makeName(action.getName());
-            getRequiredTypes(result, typeName, true);
+            names.add(TypeNameFactory.makeName(action.getName()));
         }
-        return result;
     }
 
     /**
-     * Fetches type definitions for the named type and everything it depends on.
-     * This method must return types in order they can be sent to LAPDOG. In
-     * other words, a complex type appears after the simple types it depends on.
+     * Fetches type definitions for the named type and everything it depends on,
+     * including equivalent types. This method must return types in order they
+     * can be sent to LAPDOG. In other words, a complex type appears after the
+     * simple types it depends on.
      *
      * @param result
-     *            the result set of required types
+     *            the result set of required types; types already in it aren't
+     *            added again
      * @param typeName
      *            the type to fetch dependents of
      * @param mustFetch
@@ -125,60 +115,45 @@ public class DemonstrationDependencyFinder
      * @throws SpineException
      *             if a type can't be retrieved
      */
-    synchronized void getRequiredTypes(List<ATRDecl> result,
-                                       TypeName typeName,
-                                       boolean mustFetch)
+    void getRequiredTypes(List<ATRDecl> result,
+                          TypeName typeName,
+                          boolean mustFetch)
             throws SpineException {
-        // If this type is already in the result set, stop recursing to avoid
-        // infinite loops on mutually equivalent types.
+        addRequiredTypes(result, Collections.singleton(typeName), mustFetch);
+    }
+
+    private void addRequiredTypes(List<ATRDecl> result,
+                                  Set<TypeName> typeNames,
+                                  boolean mustFetch)
+            throws SpineException {
+        Set<SimpleTypeName> names = new HashSet<SimpleTypeName>();
         for (ATRDecl type : result) {
-            if (TypeUtil.getName(type).equals(typeName)) {
-                return;
-            }
+            names.add(TypeUtil.getName(type));
         }
-
-        if (TypeNameFactory.isPrimitive(typeName)) {
-            return;
+        Set<SimpleTypeName> found = new HashSet<SimpleTypeName>();
+        for (ATRDecl type : graph.getClosure(typeNames, true, false)) {
+            SimpleTypeName name = TypeUtil.getName(type);
+            found.add(name);
+            if (names.add(name)) {
+                result.add(type);
+            }
         }
 
-        if (typeName instanceof SimpleTypeName) {
-            SimpleTypeName simpleName = (SimpleTypeName) typeName;
-            ATRDecl type = typeFetcher.getType(simpleName);
-
-            // If the type is still null, this means the Bridge was unable
-            // to find any type associated with this typename
-            if (type == null) {
+        // Anything we asked for by name which didn't come back couldn't be
+        // found by the Bridge.
+        for (TypeName typeName : typeNames) {
+            if (typeName instanceof SimpleTypeName
+                    && !TypeNameFactory.isPrimitive(typeName)
+                    && !found.contains(typeName)) {
                 if (mustFetch) {
                     log.warn("Unable to load type {}; learning may fail",
-                            simpleName);
+                            typeName);
                 } else {
                     log.debug(
                             "Unable to load type {}; learning accuracy may be reduced",
-                            simpleName);
-                }
-            } else {
-                // Add all directly required types, and recurse on them.
-                for (TypeName subTypeName : TypeUtil.getRequiredTypes(type)) {
-                    getRequiredTypes(result, subTypeName, mustFetch);
-                }
-                // Add this type after all the ones that it depends on.
-                result.add(type);
-                /*
-                 * Add all equivalent types, and recurse on them. Don't panic if
-                 * one can't be loaded.
-                 */
-                if (TypeUtil.isType(type)) {
-                    for (TypeName eqvTypeName : TypeUtil
-                            .getEquivalentTypeNames((ATRTypeDeclaration) type)) {
-                        getRequiredTypes(result, eqvTypeName, false);
-                    }
+                            typeName);
                 }
             }
-        } else {
-            TypeNameExpr nameExpr = (TypeNameExpr) typeName;
-            ATR atrColl = TypeUtil.makeCollection(nameExpr);
-            TypeName eleName = TypeUtil.getElementType(atrColl);
-            getRequiredTypes(result, eleName, mustFetch);
         }
     }
 }
@@ -81,8 +81,6 @@ public class LapdogClient
         } catch (Exception e) {
             // Ignore.
         }
-        lapdogFacade.shutdown();
-        typeFacade.shutdown();
         service.shutdown();
         try {
             spine.shutdown(false);
@@ -120,6 +118,7 @@ public class LapdogClient
         spine.subscribe(service, UserMessageType.LEARN_REQUEST);
         spine.subscribe(service, UserMessageType.PROCESS_DEMO);
         spine.subscribe(service, UserMessageType.LEARN_OPTION_REQUEST);
+        spine.subscribe(service, UserMessageType.CACHE_EXPIRE);
         spine.subscribe(lc, SystemMessageType.SPINE_CLOSING);
         synchronized (lc) {
             lc._lapdogInitialized = true;
@@ -146,7 +145,7 @@ public class LapdogClient
     }
 
     public void cancel() {
-        lapdogFacade.cancel();
+        service.cancel();
     }
 
     @Override
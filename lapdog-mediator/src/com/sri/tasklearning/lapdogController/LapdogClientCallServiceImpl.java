@@ -19,9 +19,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
 
 import javax.xml.bind.JAXBException;
 
@@ -44,6 +41,7 @@ import com.sri.tasklearning.mediators.WithLockedTypes;
 import com.sri.tasklearning.spine.MessageHandler;
 import com.sri.tasklearning.spine.Spine;
 import com.sri.tasklearning.spine.SpineException;
+import com.sri.tasklearning.spine.messages.CacheExpire;
 import com.sri.tasklearning.spine.messages.LearnRequest;
 import com.sri.tasklearning.spine.messages.LearnResult;
 import com.sri.tasklearning.spine.messages.Message;
@@ -53,7 +51,6 @@ import com.sri.tasklearning.spine.messages.ProcessDemoMessage;
 import com.sri.tasklearning.spine.messages.TypeListQuery;
 import com.sri.tasklearning.spine.messages.TypeListQuery.Subset;
 import com.sri.tasklearning.spine.messages.TypeListResult;
-import com.sri.tasklearning.spine.messages.TypeQuery;
 import com.sri.tasklearning.spine.messages.TypeResult;
 import com.sri.tasklearning.spine.messages.UserMessageType;
 import com.sri.tasklearning.spine.messages.contents.TransactionUID;
@@ -61,7 +58,6 @@ import com.sri.tasklearning.spine.util.ErrorFactory;
 import com.sri.tasklearning.spine.util.ErrorType;
 import com.sri.tasklearning.spine.util.ReplyWatcher;
 import com.sri.tasklearning.spine.util.TypeUtil;
-import com.sri.tasklearning.util.NamedThreadFactory;
 
 /**
  * Implements the LAPDOG service, which is callable by other tasklearning
@@ -76,33 +72,44 @@ public class LapdogClientCallServiceImpl
     public static final String AGAVE_VERSION = "1.0";
 
     private final LapdogClient lapdogClient;
-    private final LockingActionModel actionModel;
     private final Spine spine;
-    private final ExecutorService threadPool;
+    private final LearnerPool learners;
     private final ErrorFactory errorFactory;
     private final List<SimpleTypeName> agaveActions;
     private final ReplyWatcher<TypeResult> typeQueryWatcher;
     private final ReplyWatcher<TypeListResult> typeListWatcher;
-    private final WithLockedTypes withLockedTypes;
     private final TypeFetcher typeFetcher;
-    private boolean agaveDone = false;
-    private boolean idiomsDone = false;
 
     LapdogClientCallServiceImpl(LapdogClient lc,
                                 Spine spine)
             throws SpineException {
         lapdogClient = lc;
-        actionModel = new LockingActionModel(lc.getTypeFacade());
         this.spine = spine;
-        ThreadFactory tf = new NamedThreadFactory(getClass());
-        threadPool = Executors.newFixedThreadPool(1, tf);
+
+        /*
+         * The client's own LAPDOG instance is the first learner. Any others
+         * get their own CTR state, but share its execution status
+         * subscription, and share the type fetcher and its caches.
+         */
+        List<Learner> learnerList = new ArrayList<Learner>();
+        learnerList.add(new Learner(lc.getLapdogFacade(), lc.getTypeFacade()));
+        for (int i = 1; i < LearnerPool.getLearnerCount(); i++) {
+            LapdogFacade facade = new LapdogFacade(lc.getLapdogFacade());
+            learnerList.add(new Learner(facade, new TypePublicationFacade(
+                    facade)));
+        }
+        learners = new LearnerPool(learnerList);
+
         typeQueryWatcher = new ReplyWatcher<TypeResult>(TypeResult.class, spine);
         spine.subscribe(typeQueryWatcher, UserMessageType.TYPE_RESULT);
         typeListWatcher = new ReplyWatcher<TypeListResult>(
                 TypeListResult.class, spine);
         spine.subscribe(typeListWatcher, UserMessageType.TYPE_LIST_RESULT);
-        typeFetcher = new TypeFetcher(spine, actionModel, typeQueryWatcher);
-        withLockedTypes = new WithLockedTypes(actionModel);
+        /*
+         * Each learner has its own action model, so the fetcher doesn't look in
+         * any of them. CacheExpire is passed on to every learner below.
+         */
+        typeFetcher = new TypeFetcher(spine, typeQueryWatcher);
         errorFactory = new ErrorFactory(spine.getClientId());
 
         agaveActions = new ArrayList<SimpleTypeName>();
@@ -129,29 +136,37 @@ public class LapdogClientCallServiceImpl
 // performance problems ensue
     }
 
-    private synchronized void init()
+    private void init(Learner learner)
             throws SpineException,
             MediatorsException {
         lapdogClient.waitForInit();
-        loadAgaveActions();
-        loadIdioms();
+        synchronized (learner) {
+            loadAgaveActions(learner);
+            loadIdioms(learner);
+        }
     }
 
     @Override
     public void handleMessage(Message message) {
         if (message instanceof LearnRequest) {
             LearnRequest learnMsg = (LearnRequest) message;
-            threadPool.execute(new LearnThread(learnMsg));
+            learners.execute(new LearnThread(learnMsg),
+                    LearnerPool.Priority.LONG);
         } else if (message instanceof ProcessDemoMessage) {
             if (message.getSender().equals(spine.getClientId())) {
                 log.debug("Ignoring message from self: {}", message);
                 return;
             }
             ProcessDemoMessage idiomMsg = (ProcessDemoMessage) message;
-            threadPool.execute(new IdiomThread(idiomMsg));
+            learners.execute(new IdiomThread(idiomMsg),
+                    LearnerPool.Priority.QUICK);
         } else if (message instanceof OptionLearnRequest) {
             OptionLearnRequest learnMsg = (OptionLearnRequest) message;
-            threadPool.execute(new OptionLearnThread(learnMsg));
+            learners.execute(new OptionLearnThread(learnMsg),
+                    LearnerPool.Priority.LONG);
+        } else if (message instanceof CacheExpire) {
+            CacheExpire expire = (CacheExpire) message;
+            learners.expire(expire.getTypeName());
         } else {
             log.warn("Unexpected message ({}): {}", message.getClass(), message);
             return;
@@ -161,41 +176,98 @@ public class LapdogClientCallServiceImpl
     /**
      * Used by the tests only.
      */
-    String learn(ATRDemonstration demonstration,
-                 Properties learnProps,
-                 Set<TypeName> extraTypes,
-                 String taskName)
+    String learn(final ATRDemonstration demonstration,
+                 final Properties learnProps,
+                 final Set<TypeName> extraTypes,
+                 final String taskName)
             throws SpineException,
             MediatorsException {
-        init();
-        LearnAction action = new LearnAction(taskName, learnProps);        
-        DemonstrationDependencyFinder finder = new DemonstrationDependencyFinder(
-                typeFetcher);
-        finder.addTypes(extraTypes);
-        withLockedTypes.lockedAction(action, demonstration, finder);
-        return action.result();
+        WaitingJob<String> job = new WaitingJob<String>() {
+            @Override
+            protected String call(Learner learner)
+                    throws SpineException,
+                    MediatorsException {
+                init(learner);
+                LearnAction action = new LearnAction(learner, taskName,
+                        learnProps);
+                DemonstrationDependencyFinder finder = new DemonstrationDependencyFinder(
+                        typeFetcher);
+                finder.addTypes(extraTypes);
+                learner.getWithLockedTypes().lockedAction(action,
+                        demonstration, finder);
+                return action.result();
+            }
+        };
+        return job.get(LearnerPool.Priority.LONG);
     }
 
     /**
      * Used by the tests only.
      */
-    Option learnOption(ATRDemonstration demo)
+    Option learnOption(final ATRDemonstration demo)
             throws SpineException,
             MediatorsException {
-        init();
-        OptionLearnAction action = new OptionLearnAction();
-        DemonstrationDependencyFinder finder = new DemonstrationDependencyFinder(
-                typeFetcher);
-        withLockedTypes.lockedAction(action, demo, finder);
-        return action.result();
+        WaitingJob<Option> job = new WaitingJob<Option>() {
+            @Override
+            protected Option call(Learner learner)
+                    throws SpineException,
+                    MediatorsException {
+                init(learner);
+                OptionLearnAction action = new OptionLearnAction(learner);
+                DemonstrationDependencyFinder finder = new DemonstrationDependencyFinder(
+                        typeFetcher);
+                learner.getWithLockedTypes().lockedAction(action, demo,
+                        finder);
+                return action.result();
+            }
+        };
+        return job.get(LearnerPool.Priority.LONG);
+    }
+
+    /**
+     * A job whose caller waits for its result. It's queued with the others, so
+     * it takes its turn for a learner like any other request.
+     */
+    private abstract class WaitingJob<T>
+            implements LearnerPool.Job {
+        private T result;
+        private Exception failure;
+
+        protected abstract T call(Learner learner)
+                throws SpineException,
+                MediatorsException;
+
+        @Override
+        public void run(Learner learner) {
+            try {
+                result = call(learner);
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+
+        T get(LearnerPool.Priority priority)
+                throws SpineException,
+                MediatorsException {
+            learners.executeAndWait(this, priority);
+            if (failure instanceof SpineException) {
+                throw (SpineException) failure;
+            } else if (failure instanceof MediatorsException) {
+                throw (MediatorsException) failure;
+            } else if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+            return result;
+        }
     }
 
     // Before learning, try to load the Agave actions into the action model.
     // Don't bother unloading them.
-    private synchronized void loadAgaveActions()
+    private void loadAgaveActions(Learner learner)
             throws SpineException,
             MediatorsException {
-        if (!agaveDone) {
+        LockingActionModel actionModel = learner.getActionModel();
+        if (!learner.agaveDone) {
             DemonstrationDependencyFinder finder = new DemonstrationDependencyFinder(
                     typeFetcher);
             for (SimpleTypeName typeName : agaveActions) {
@@ -208,19 +280,22 @@ public class LapdogClientCallServiceImpl
                 }
             }
         }
-        agaveDone = true;
+        learner.agaveDone = true;
     }
 
-    private void loadIdioms()
+    private void loadIdioms(Learner learner)
             throws SpineException,
             MediatorsException {
-        if(!idiomsDone) {
+        LockingActionModel actionModel = learner.getActionModel();
+        if(!learner.idiomsDone) {
             TransactionUID uid = spine.getNextUid();
             TypeListQuery query = new TypeListQuery(spine.getClientId(), uid,
                     Subset.IDIOM);
             TypeListResult listResult = typeListWatcher.sendAndGetReply(query);
             DemonstrationDependencyFinder finder = new DemonstrationDependencyFinder(
                     typeFetcher);
+            // Fetch the idioms and what they need in one round trip.
+            typeFetcher.getTypes(listResult.getTypeNames(), true);
             for(SimpleTypeName name : listResult.getTypeNames()) {
                 /*
                  * If the idiom definition depends on other actions (or types),
@@ -228,9 +303,7 @@ public class LapdogClientCallServiceImpl
                  * locks on the dependent types and never release them, because
                  * we won't ever remove the idiom definitions.
                  */
-                TypeQuery tq = new TypeQuery(spine.getClientId(), name, spine.getNextUid());
-                TypeResult result = typeQueryWatcher.sendAndGetReply(tq);
-                ATRDecl idiom = result.getTypeAtr();
+                ATRDecl idiom = typeFetcher.getType(name);
                 if (!TypeUtil.isIdiom(idiom))
                     continue;
                 
@@ -241,20 +314,16 @@ public class LapdogClientCallServiceImpl
                     actionModel.add(decl);
                 }
             }
-            idiomsDone = true;
+            learner.idiomsDone = true;
         }
     }
 
-    private LapdogFacade getLapdogFacade() {
-        return lapdogClient.getLapdogFacade();
-    }
-
     /**
      * This thread is responsible for processing a learn request to turn a
      * demonstration into a procedure.
      */
     private class LearnThread
-            implements Runnable {
+            implements LearnerPool.Job {
         private final LearnRequest learnMsg;
 
         public LearnThread(LearnRequest learnMsg) {
@@ -262,21 +331,23 @@ public class LapdogClientCallServiceImpl
         }
 
         @Override
-        public void run() {
+        public void run(Learner learner) {
             ATRDemonstration demonstration = learnMsg.getDemonstration();
             String taskName = learnMsg.getName().getFullName();
             Properties learnProps = learnMsg.getLearnProps();            
             Set<TypeName> extraTypes = learnMsg.getExtraTypes();
             TransactionUID uid = learnMsg.getUid();
-            LearnAction action = new LearnAction(taskName, learnProps);            
+            LearnAction action = new LearnAction(learner, taskName,
+                    learnProps);
             DemonstrationDependencyFinder finder = new DemonstrationDependencyFinder(
                     typeFetcher);
             finder.addTypes(extraTypes);
 
             ErrorInfo error;
             try {
-                init();
-                withLockedTypes.lockedAction(action, demonstration, finder);
+                init(learner);
+                learner.getWithLockedTypes().lockedAction(action,
+                        demonstration, finder);
                 error = action.getError();
             } catch (Exception e) {
                 log.warn("Learning failed for " + taskName, e);
@@ -308,7 +379,7 @@ public class LapdogClientCallServiceImpl
      * demonstration and return a possibly modified one.
      */
     private class IdiomThread
-            implements Runnable {
+            implements LearnerPool.Job {
         private final ProcessDemoMessage idiomMsg;
 
         public IdiomThread(ProcessDemoMessage msg) {
@@ -316,17 +387,18 @@ public class LapdogClientCallServiceImpl
         }
 
         @Override
-        public void run() {
+        public void run(Learner learner) {
             ATRDemonstration demonstration = idiomMsg.getDemonstration();
             TransactionUID uid = idiomMsg.getUid();
-            IdiomAction action = new IdiomAction();
+            IdiomAction action = new IdiomAction(learner);
             DemonstrationDependencyFinder finder = new DemonstrationDependencyFinder(
                     typeFetcher);
 
             ErrorInfo error;
             try {
-                init();
-                withLockedTypes.lockedAction(action, demonstration, finder);
+                init(learner);
+                learner.getWithLockedTypes().lockedAction(action,
+                        demonstration, finder);
                 error = action.getError();
             } catch (Exception e) {
                 log.warn("Idiom recognition failed for " + demonstration, e);
@@ -356,7 +428,7 @@ public class LapdogClientCallServiceImpl
      * solution (AKA gold standard).
      */
     private class OptionLearnThread
-            implements Runnable {
+            implements LearnerPool.Job {
         private final OptionLearnRequest request;
 
         public OptionLearnThread(OptionLearnRequest request) {
@@ -364,17 +436,17 @@ public class LapdogClientCallServiceImpl
         }
 
         @Override
-        public void run() {
+        public void run(Learner learner) {
             ATRDemonstration demo = request.getDemonstration();
             TransactionUID uid = request.getUid();
-            OptionLearnAction action = new OptionLearnAction();
+            OptionLearnAction action = new OptionLearnAction(learner);
             DemonstrationDependencyFinder finder = new DemonstrationDependencyFinder(
                     typeFetcher);
 
             ErrorInfo error;
             try {
-                init();
-                withLockedTypes.lockedAction(action, demo, finder);
+                init(learner);
+                learner.getWithLockedTypes().lockedAction(action, demo, finder);
                 error = action.getError();
             } catch (Exception e) {
                 log.warn("Option learning failed", e);
@@ -416,13 +488,16 @@ public class LapdogClientCallServiceImpl
      */
     private class LearnAction
             extends WithLockedTypes.Action<String, ATRDemonstration> {
+        private final Learner learner;
         private final String taskName;
         private final Properties learnProps;
         private String result;
         private ErrorInfo error;
 
-        public LearnAction(String name,
+        public LearnAction(Learner learner,
+                           String name,
                            Properties learnProps) {
+            this.learner = learner;
             taskName = name;
             this.learnProps = learnProps;
         }
@@ -432,8 +507,8 @@ public class LapdogClientCallServiceImpl
                         List<ATRDecl> requiredTypes,
                         Runnable cleanup) {
             try {
-                CTRActionDeclaration learnedProc = getLapdogFacade().learn(
-                         demo, learnProps, taskName);
+                CTRActionDeclaration learnedProc = learner.getLapdogFacade()
+                        .learn(demo, learnProps, taskName);
                result = ATRSyntax.toSource(learnedProc);
             } catch (Exception e) {
                 log.warn("Learning failed for " + taskName, e);
@@ -460,15 +535,20 @@ public class LapdogClientCallServiceImpl
      */
     private class IdiomAction
             extends WithLockedTypes.Action<ATRDemonstration, ATRDemonstration> {
+        private final Learner learner;
         private ATRDemonstration result;
         private ErrorInfo error;
 
+        public IdiomAction(Learner learner) {
+            this.learner = learner;
+        }
+
         @Override
         public void run(ATRDemonstration demo,
                         List<ATRDecl> requiredTypes,
                         Runnable cleanup) {
             try {
-                result = lapdogClient.getLapdogFacade().recognizeIdiom(demo);
+                result = learner.getLapdogFacade().recognizeIdiom(demo);
             } catch (Exception e) {
                 log.warn("Idiom recognition failed", e);
                 error = errorFactory.error(ErrorType.LAPDOG, e);
@@ -495,15 +575,20 @@ public class LapdogClientCallServiceImpl
     private class OptionLearnAction
             extends
             WithLockedTypes.Action<Option, ATRDemonstration> {
+        private final Learner learner;
         private Option result;
         private ErrorInfo error;
 
+        public OptionLearnAction(Learner learner) {
+            this.learner = learner;
+        }
+
         @Override
         public void run(ATRDemonstration demo,
                         List<ATRDecl> requiredTypes,
                         Runnable cleanupTask) {
             try {
-                result = getLapdogFacade().learnOption(demo);
+                result = learner.getLapdogFacade().learnOption(demo);
             } catch (Exception e) {
                 log.warn("Option learning failed", e);
                 error = errorFactory.error(ErrorType.LAPDOG, e);
@@ -523,6 +608,13 @@ public class LapdogClientCallServiceImpl
         }
     }
 
+    /**
+     * Cancels whatever each learner is doing.
+     */
+    void cancel() {
+        learners.cancel();
+    }
+
     void shutdown() {
         try {
             spine.unsubscribe(UserMessageType.TYPE_RESULT);
@@ -530,8 +622,7 @@ public class LapdogClientCallServiceImpl
         } catch (Exception e) {
             // Do nothing.
         }
-        threadPool.shutdown();
-        actionModel.shutdown();
+        learners.shutdown();
         typeQueryWatcher.shutdown();
         typeListWatcher.shutdown();
         typeFetcher.shutdown();
@@ -60,16 +60,34 @@ public class LapdogFacade {
     private final LapdogLearner _lapdogLearner;
     private final CommonTaskRepresentation ctr;
     private final TrainingRepresentation train;
+    private final RemoteExecutor remoteExec;
 
     /**
      * Create a the {@link LapdogFacade}.
      */
     LapdogFacade(Spine spine) {
+        this(spine, null);
+    }
+
+    /**
+     * Creates another LAPDOG instance with its own CTR state. Its remote
+     * executions get their replies through {@code primary}'s subscription.
+     */
+    LapdogFacade(LapdogFacade primary) {
+        this(null, primary.remoteExec);
+    }
+
+    private LapdogFacade(Spine spine,
+                         RemoteExecutor shared) {
 
         try {
             train = new TrainingRepresentation();
             ctr = new CommonTaskRepresentation();
-            RemoteExecutor remoteExec = new RemoteExecutor(ctr, spine);
+            if (shared == null) {
+                remoteExec = new RemoteExecutor(ctr, spine);
+            } else {
+                remoteExec = new RemoteExecutor(ctr, shared);
+            }
             IApplication lapdogApp = new ApplicationImpl(remoteExec);
 
             _lapdogLearner = new LapdogLearner(lapdogApp, false, new String[0]);
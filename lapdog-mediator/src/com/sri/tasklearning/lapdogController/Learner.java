@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.lapdogController;
+
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.tasklearning.mediators.LockingActionModel;
+import com.sri.tasklearning.mediators.WithLockedTypes;
+
+/**
+ * One LAPDOG instance, together with the action model which tracks what has
+ * been published to it. Each learner has its own CTR state, so several of them
+ * can learn at once without seeing each other's types come and go. A learner
+ * is used by one request at a time; see {@link LearnerPool}.
+ */
+class Learner {
+    private final LapdogFacade lapdogFacade;
+    private final TypePublicationFacade typeFacade;
+    private final LockingActionModel actionModel;
+    private final WithLockedTypes withLockedTypes;
+    /** Set once the Agave actions and idioms have been published. */
+    boolean agaveDone = false;
+    boolean idiomsDone = false;
+
+    Learner(LapdogFacade lapdogFacade,
+            TypePublicationFacade typeFacade) {
+        this.lapdogFacade = lapdogFacade;
+        this.typeFacade = typeFacade;
+        actionModel = new LockingActionModel(typeFacade);
+        withLockedTypes = new WithLockedTypes(actionModel);
+    }
+
+    LapdogFacade getLapdogFacade() {
+        return lapdogFacade;
+    }
+
+    LockingActionModel getActionModel() {
+        return actionModel;
+    }
+
+    WithLockedTypes getWithLockedTypes() {
+        return withLockedTypes;
+    }
+
+    /**
+     * Called when the named type has changed or been removed. What LAPDOG has
+     * for it is marked out of date. The action model drops it now if nobody is
+     * using it; otherwise it's dropped when released, or replaced when the
+     * next request adds the new definition.
+     */
+    void expire(SimpleTypeName name) {
+        typeFacade.expire(name);
+        actionModel.expire(name);
+    }
+
+    void cancel() {
+        lapdogFacade.cancel();
+    }
+
+    void shutdown() {
+        actionModel.shutdown();
+        typeFacade.shutdown();
+        lapdogFacade.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "Learner(" + lapdogFacade + ")";
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.lapdogController;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.tasklearning.util.NamedThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs learning requests on a fixed set of {@link Learner}s, one request per
+ * learner at a time. Quick requests (idiom recognition) are taken ahead of
+ * long ones (procedure and option learning) which are still waiting, but only
+ * if they arrived within {@link #LONG_JOB_DELAY} of the long request, so a
+ * steady stream of quick requests can't hold a long one back for ever.
+ * Requests of the same kind run in the order they arrived. The time each
+ * request spends waiting for a learner is tracked separately from the time it
+ * spends running.
+ */
+class LearnerPool {
+    private static final Logger log = LoggerFactory
+            .getLogger(LearnerPool.class);
+
+    /** How many LAPDOG instances to run. */
+    public static final String LEARNERS = "PAL.LapdogLearners";
+    public static final int DEFAULT_LEARNERS = 1;
+
+    /**
+     * How long, in milliseconds, a waiting long request lets newer quick
+     * requests go ahead of it.
+     */
+    public static final String LONG_JOB_DELAY = "PAL.LapdogLongJobDelay";
+    public static final long DEFAULT_LONG_JOB_DELAY = 5000;
+
+    /**
+     * A request which needs a learner to itself while it runs.
+     */
+    interface Job {
+        void run(Learner learner);
+    }
+
+    enum Priority {
+        QUICK, LONG
+    }
+
+    private final List<Learner> learners;
+    private final BlockingQueue<Learner> idle;
+    private final ThreadPoolExecutor threadPool;
+    private final AtomicLong sequence;
+    private final Stats[] stats;
+    private final long longJobDelayNanos;
+
+    LearnerPool(List<Learner> learners) {
+        this(learners, getLongJobDelay());
+    }
+
+    /**
+     * @param longJobDelay
+     *            how long, in milliseconds, newer quick jobs may go ahead of
+     *            a waiting long job
+     */
+    LearnerPool(List<Learner> learners,
+                long longJobDelay) {
+        this.learners = learners;
+        longJobDelayNanos = TimeUnit.MILLISECONDS.toNanos(longJobDelay);
+        idle = new LinkedBlockingQueue<Learner>(learners);
+        /*
+         * One thread per learner, so a thread which takes a job off the queue
+         * always finds a learner free. The queue is unbounded, so the pool
+         * never grows past its core size.
+         */
+        threadPool = new ThreadPoolExecutor(learners.size(), learners.size(),
+                0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(),
+                new NamedThreadFactory(getClass()));
+        sequence = new AtomicLong();
+        stats = new Stats[Priority.values().length];
+        for (Priority priority : Priority.values()) {
+            stats[priority.ordinal()] = new Stats();
+        }
+        log.info("Running {} LAPDOG learners", learners.size());
+    }
+
+    /**
+     * @return the number of learners to create, from {@link #LEARNERS}
+     */
+    static int getLearnerCount() {
+        int result = DEFAULT_LEARNERS;
+        String str = System.getProperty(LEARNERS);
+        if (str != null) {
+            try {
+                result = Integer.parseInt(str);
+            } catch (NumberFormatException e) {
+                log.warn("Couldn't parse {} value {}", LEARNERS, str);
+            }
+        }
+        if (result < 1) {
+            log.warn("Need at least one learner, not {}", result);
+            result = 1;
+        }
+        log.debug("Using {} LAPDOG learners", result);
+        return result;
+    }
+
+    /**
+     * @return how long newer quick jobs may go ahead of a long job, from
+     *         {@link #LONG_JOB_DELAY}
+     */
+    static long getLongJobDelay() {
+        long result = DEFAULT_LONG_JOB_DELAY;
+        String str = System.getProperty(LONG_JOB_DELAY);
+        if (str != null) {
+            try {
+                result = Long.parseLong(str);
+            } catch (NumberFormatException e) {
+                log.warn("Couldn't parse {} value {}", LONG_JOB_DELAY, str);
+            }
+        }
+        if (result < 0) {
+            result = 0;
+        }
+        return result;
+    }
+
+    /**
+     * Queues a job to run on the next free learner.
+     */
+    void execute(Job job,
+                 Priority priority) {
+        threadPool.execute(new Queued(job, priority, null));
+    }
+
+    /**
+     * Queues a job like {@link #execute}, and waits for it to finish.
+     */
+    void executeAndWait(Job job,
+                        Priority priority) {
+        CountDownLatch done = new CountDownLatch(1);
+        threadPool.execute(new Queued(job, priority, done));
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    done.await();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits for a free learner and takes it out of the pool. It must be given
+     * back with {@link #checkIn}.
+     */
+    private Learner checkOut() {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return idle.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void checkIn(Learner learner) {
+        idle.add(learner);
+    }
+
+    /**
+     * Tells every learner that the named type has changed or been removed.
+     */
+    void expire(SimpleTypeName name) {
+        for (Learner learner : learners) {
+            learner.expire(name);
+        }
+    }
+
+    void cancel() {
+        for (Learner learner : learners) {
+            learner.cancel();
+        }
+    }
+
+    /**
+     * @return how many jobs of the given priority have finished
+     */
+    long getJobCount(Priority priority) {
+        return stats[priority.ordinal()].jobs.get();
+    }
+
+    /**
+     * @return the total time, in milliseconds, finished jobs of the given
+     *         priority spent waiting for a learner
+     */
+    long getWaitTime(Priority priority) {
+        return TimeUnit.NANOSECONDS.toMillis(stats[priority.ordinal()].waitNanos.get());
+    }
+
+    /**
+     * @return the total time, in milliseconds, finished jobs of the given
+     *         priority spent running
+     */
+    long getRunTime(Priority priority) {
+        return TimeUnit.NANOSECONDS.toMillis(stats[priority.ordinal()].runNanos.get());
+    }
+
+    void shutdown() {
+        threadPool.shutdown();
+        for (Priority priority : Priority.values()) {
+            Stats s = stats[priority.ordinal()];
+            long jobs = s.jobs.get();
+            if (jobs > 0) {
+                log.debug("{} {} jobs: {} ms average wait, {} ms average run",
+                        new Object[] { jobs, priority,
+                                s.waitNanos.get() / jobs / 1000000,
+                                s.runNanos.get() / jobs / 1000000 });
+            }
+        }
+        for (Learner learner : learners) {
+            learner.shutdown();
+        }
+    }
+
+    private static class Stats {
+        private final AtomicLong jobs = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+        private final AtomicLong runNanos = new AtomicLong();
+    }
+
+    /**
+     * A job waiting in the thread pool's queue. Jobs are taken in order of
+     * their deadline: when they were queued, plus the long job delay for long
+     * jobs. The deadline is fixed when the job is queued, so the queue's
+     * order never changes under it.
+     */
+    private class Queued
+            implements Runnable, Comparable<Queued> {
+        private final Job job;
+        private final Priority priority;
+        private final long seq;
+        private final long queuedAt;
+        private final long deadline;
+        // Counted down once the job has finished, if anyone is waiting
+        private final CountDownLatch done;
+
+        Queued(Job job,
+               Priority priority,
+               CountDownLatch done) {
+            this.job = job;
+            this.priority = priority;
+            this.done = done;
+            seq = sequence.getAndIncrement();
+            queuedAt = System.nanoTime();
+            deadline = queuedAt
+                    + (priority == Priority.LONG ? longJobDelayNanos : 0);
+        }
+
+        @Override
+        public int compareTo(Queued other) {
+            // nanoTime values may wrap, so compare their difference
+            int result = Long.signum(deadline - other.deadline);
+            if (result == 0) {
+                result = priority.compareTo(other.priority);
+            }
+            if (result == 0) {
+                result = Long.compare(seq, other.seq);
+            }
+            return result;
+        }
+
+        @Override
+        public void run() {
+            Learner learner = checkOut();
+            long start = System.nanoTime();
+            try {
+                job.run(learner);
+            } finally {
+                long end = System.nanoTime();
+                checkIn(learner);
+                Stats s = stats[priority.ordinal()];
+                s.jobs.incrementAndGet();
+                s.waitNanos.addAndGet(start - queuedAt);
+                s.runNanos.addAndGet(end - start);
+                log.debug("{} job waited {} ms, ran {} ms", new Object[] {
+                        priority, (start - queuedAt) / 1000000,
+                        (end - start) / 1000000 });
+                if (done != null) {
+                    done.countDown();
+                }
+            }
+        }
+    }
+}
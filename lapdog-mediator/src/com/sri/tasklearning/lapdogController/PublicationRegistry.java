@@ -0,0 +1,171 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.lapdogController;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sri.ai.lumen.atr.ATRSyntax;
+import com.sri.ai.lumen.atr.decl.ATRDecl;
+import com.sri.pal.common.SimpleTypeName;
+
+/**
+ * Remembers which definitions have been published to one LAPDOG instance, by
+ * name and by a hash of their source. Publishing a definition LAPDOG already
+ * has can then be skipped. An entry is marked stale when the type is changed
+ * or removed elsewhere, and replaced when a different definition is published
+ * under the same name. The registry's version changes whenever its contents
+ * do.
+ */
+class PublicationRegistry {
+    private final Map<SimpleTypeName, Entry> entries;
+    private final AtomicLong version;
+    private final AtomicLong skips;
+    private final MessageDigest md5;
+
+    PublicationRegistry() {
+        entries = new ConcurrentHashMap<SimpleTypeName, Entry>();
+        version = new AtomicLong();
+        skips = new AtomicLong();
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return a hash of the source of {@code decl}
+     */
+    byte[] digest(ATRDecl decl) {
+        String source = ATRSyntax.toSource(decl);
+        synchronized (md5) {
+            md5.reset();
+            try {
+                md5.update(source.getBytes("UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+            return md5.digest();
+        }
+    }
+
+    /**
+     * Checks whether this exact definition is already published and still
+     * current. If so, it counts as a skipped publication.
+     *
+     * @param name
+     *            the name of the type or action
+     * @param digest
+     *            the hash of its definition, from {@link #digest}
+     * @return {@code true} if publishing it again isn't needed
+     */
+    boolean isCurrent(SimpleTypeName name,
+                      byte[] digest) {
+        Entry entry = entries.get(name);
+        if (entry != null && !entry.stale
+                && Arrays.equals(entry.digest, digest)) {
+            skips.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return what was last published under the given name, or {@code null}
+     */
+    Entry get(SimpleTypeName name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Records that a definition has been published.
+     */
+    void published(SimpleTypeName name,
+                   ATRDecl decl,
+                   byte[] digest) {
+        entries.put(name, new Entry(decl, digest));
+        version.incrementAndGet();
+    }
+
+    /**
+     * Marks the named definition as out of date, so it will be republished
+     * next time it's needed.
+     */
+    void expire(SimpleTypeName name) {
+        Entry entry = entries.get(name);
+        if (entry != null) {
+            entry.stale = true;
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Forgets the named definition, once it's been removed from LAPDOG.
+     */
+    void remove(SimpleTypeName name) {
+        if (entries.remove(name) != null) {
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return a number which changes whenever the registry does
+     */
+    long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * @return how many publications have been skipped
+     */
+    long getSkipCount() {
+        return skips.get();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    static class Entry {
+        private final ATRDecl decl;
+        private final byte[] digest;
+        private volatile boolean stale;
+
+        private Entry(ATRDecl decl,
+                      byte[] digest) {
+            this.decl = decl;
+            this.digest = digest;
+        }
+
+        /**
+         * @return the definition as it was published
+         */
+        ATRDecl getDecl() {
+            return decl;
+        }
+
+        boolean isStale() {
+            return stale;
+        }
+    }
+}
@@ -67,6 +67,18 @@ class RemoteExecutor
         spine.subscribe(this, UserMessageType.EXECUTION_STATUS);
     }
 
+    /**
+     * Creates an executor for another LAPDOG instance. It doesn't subscribe
+     * to execution status messages itself; the given executor, which does,
+     * passes along the replies to its requests.
+     */
+    RemoteExecutor(CommonTaskRepresentation ctr,
+                   RemoteExecutor shared) {
+        super(ctr);
+        spine = shared.spine;
+        watchers = shared.watchers;
+    }
+
     @Override
     public boolean executeAction(String actNameStr,
                                  List<Object> inArgs,
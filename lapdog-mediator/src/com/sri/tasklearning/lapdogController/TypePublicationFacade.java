@@ -48,19 +48,46 @@ public class TypePublicationFacade
 
     private final LapdogFacade lapdogFacade;
     private final Map<SimpleTypeName, ATRTypeDeclaration.Enumerated> enums;
+    private final PublicationRegistry registry;
 
     TypePublicationFacade(LapdogFacade lapdogFacade) {
         this.lapdogFacade = lapdogFacade;
         enums = new HashMap<>();
+        registry = new PublicationRegistry();
     }
 
     /**
-     * Publishes a type for LAPDOG's use.
+     * Publishes a type for LAPDOG's use, unless LAPDOG already has this
+     * definition of it. An action with a different definition is removed
+     * first. Data types can't be undefined, so the first definition of one
+     * stays even once it's stale.
      *
      * @param type
      */
     @Override
     public void add(ATRDecl type) {
+        SimpleTypeName name = TypeUtil.getName(type);
+        byte[] digest = registry.digest(type);
+        if (registry.isCurrent(name, digest)) {
+            _logger.debug("Already published: {}", name);
+            return;
+        }
+        PublicationRegistry.Entry old = registry.get(name);
+        if (old != null) {
+            if (!TypeUtil.isAction(old.getDecl())) {
+                _logger.debug("Keeping published {}", name);
+                return;
+            }
+            _logger.debug("Replacing published action {}", name);
+            lapdogFacade.removeAction((ATRActionDeclaration) old.getDecl());
+            registry.remove(name);
+        }
+
+        publish(type);
+        registry.published(name, type, digest);
+    }
+
+    private void publish(ATRDecl type) {
         if (TypeUtil.isType(type)) {
             publishDataType((ATRTypeDeclaration) type);
         } else if (TypeUtil.isActionFamily(type)) {
@@ -116,10 +143,25 @@ public class TypePublicationFacade
         }
     }
 
+    /**
+     * Called when the action model lets go of a type. Actions which are still
+     * current stay in LAPDOG, so that adding them back later costs nothing;
+     * stale ones are removed.
+     */
     @Override
     public boolean remove(ATRDecl decl) {
         if (TypeUtil.isAction(decl)) {
-            lapdogFacade.removeAction((ATRActionDeclaration) decl);
+            SimpleTypeName name = TypeUtil.getName(decl);
+            PublicationRegistry.Entry entry = registry.get(name);
+            if (entry == null) {
+                lapdogFacade.removeAction((ATRActionDeclaration) decl);
+            } else if (entry.isStale()) {
+                lapdogFacade.removeAction((ATRActionDeclaration) entry
+                        .getDecl());
+                registry.remove(name);
+            } else {
+                _logger.debug("Leaving {} published", name);
+            }
             return true;
         } else {
             _logger.debug("remove invoked for a Type that"
@@ -191,12 +233,26 @@ public class TypePublicationFacade
         lapdogFacade.publishType(newType);
     }
 
+    /**
+     * Notes that the named type has changed or been removed, so whatever
+     * LAPDOG has for it is out of date.
+     */
+    void expire(SimpleTypeName name) {
+        registry.expire(name);
+    }
+
+    PublicationRegistry getRegistry() {
+        return registry;
+    }
+
     @Override
     public String toString() {
         return "PublicationFacade";
     }
 
     void shutdown() {
-        // Do nothing.
+        _logger.debug("{} definitions published (version {}), {} skipped",
+                new Object[] { registry.size(), registry.getVersion(),
+                        registry.getSkipCount() });
     }
 }
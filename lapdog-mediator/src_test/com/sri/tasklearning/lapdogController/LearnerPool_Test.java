@@ -0,0 +1,271 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.lapdogController;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.sri.ai.lumen.atr.ATRParameter;
+import com.sri.ai.lumen.atr.decl.ATRActionDeclaration;
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.pal.common.TypeNameFactory;
+import com.sri.tasklearning.spine.impl.jms.util.MockSpine;
+import com.sri.tasklearning.spine.util.ATRTestUtil;
+import com.sri.tasklearning.util.LogUtil;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class LearnerPool_Test {
+    private MockSpine spine;
+    private LapdogFacade primary;
+    private List<Learner> learners;
+    private LearnerPool pool;
+
+    @BeforeMethod
+    public void setup()
+            throws Exception {
+        LogUtil.configureLogging("lapdog", LearnerPool_Test.class);
+        spine = new MockSpine();
+        primary = new LapdogFacade(spine);
+    }
+
+    @AfterMethod
+    public void teardown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    private LearnerPool newPool(int size) {
+        return newPool(size, LearnerPool.DEFAULT_LONG_JOB_DELAY);
+    }
+
+    private LearnerPool newPool(int size,
+                                long longJobDelay) {
+        learners = new ArrayList<Learner>();
+        learners.add(new Learner(primary, new TypePublicationFacade(primary)));
+        for (int i = 1; i < size; i++) {
+            LapdogFacade facade = new LapdogFacade(primary);
+            learners.add(new Learner(facade, new TypePublicationFacade(facade)));
+        }
+        return new LearnerPool(learners, longJobDelay);
+    }
+
+    /**
+     * Records its name when it runs.
+     */
+    private static class NamedJob
+            implements LearnerPool.Job {
+        private final String name;
+        private final List<String> ran;
+        private final CountDownLatch done;
+
+        NamedJob(String name,
+                 List<String> ran,
+                 CountDownLatch done) {
+            this.name = name;
+            this.ran = ran;
+            this.done = done;
+        }
+
+        @Override
+        public void run(Learner learner) {
+            ran.add(name);
+            done.countDown();
+        }
+    }
+
+    /**
+     * Holds its learner until released.
+     */
+    private static class BlockingJob
+            implements LearnerPool.Job {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile Learner learner;
+
+        @Override
+        public void run(Learner learner) {
+            this.learner = learner;
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // Done
+            }
+        }
+    }
+
+    @Test
+    public void quickJobsGoFirst()
+            throws Exception {
+        pool = newPool(1);
+        BlockingJob blocker = new BlockingJob();
+        pool.execute(blocker, LearnerPool.Priority.LONG);
+        assertTrue(blocker.started.await(10, TimeUnit.SECONDS));
+
+        List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(4);
+        pool.execute(new NamedJob("long1", ran, done),
+                LearnerPool.Priority.LONG);
+        pool.execute(new NamedJob("quick1", ran, done),
+                LearnerPool.Priority.QUICK);
+        pool.execute(new NamedJob("long2", ran, done),
+                LearnerPool.Priority.LONG);
+        pool.execute(new NamedJob("quick2", ran, done),
+                LearnerPool.Priority.QUICK);
+        blocker.release.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("quick1", "quick2", "long1", "long2"), ran);
+    }
+
+    @Test
+    public void longJobIsNotStarved()
+            throws Exception {
+        pool = newPool(1, 100);
+        BlockingJob blocker = new BlockingJob();
+        pool.execute(blocker, LearnerPool.Priority.LONG);
+        assertTrue(blocker.started.await(10, TimeUnit.SECONDS));
+
+        List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(3);
+        pool.execute(new NamedJob("long1", ran, done),
+                LearnerPool.Priority.LONG);
+        pool.execute(new NamedJob("quick1", ran, done),
+                LearnerPool.Priority.QUICK);
+        // Quick jobs this much later don't go ahead of the long one.
+        Thread.sleep(300);
+        pool.execute(new NamedJob("quick2", ran, done),
+                LearnerPool.Priority.QUICK);
+        blocker.release.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("quick1", "long1", "quick2"), ran);
+    }
+
+    @Test
+    public void countsJobs()
+            throws Exception {
+        pool = newPool(1);
+        List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(1);
+        pool.executeAndWait(new NamedJob("quick", ran, done),
+                LearnerPool.Priority.QUICK);
+        pool.executeAndWait(new NamedJob("long1", ran, done),
+                LearnerPool.Priority.LONG);
+        pool.executeAndWait(new NamedJob("long2", ran, done),
+                LearnerPool.Priority.LONG);
+        assertEquals(1, pool.getJobCount(LearnerPool.Priority.QUICK));
+        assertEquals(2, pool.getJobCount(LearnerPool.Priority.LONG));
+        assertTrue(pool.getWaitTime(LearnerPool.Priority.LONG) >= 0);
+        assertTrue(pool.getRunTime(LearnerPool.Priority.LONG) >= 0);
+    }
+
+    @Test
+    public void oneJobPerLearner()
+            throws Exception {
+        pool = newPool(2);
+        BlockingJob job1 = new BlockingJob();
+        BlockingJob job2 = new BlockingJob();
+        pool.execute(job1, LearnerPool.Priority.LONG);
+        pool.execute(job2, LearnerPool.Priority.LONG);
+        assertTrue(job1.started.await(10, TimeUnit.SECONDS));
+        assertTrue(job2.started.await(10, TimeUnit.SECONDS));
+        assertNotSame(job1.learner, job2.learner);
+        job1.release.countDown();
+        job2.release.countDown();
+    }
+
+    @Test
+    public void waitingJobTakesItsTurn()
+            throws Exception {
+        pool = newPool(1);
+        final BlockingJob blocker = new BlockingJob();
+        pool.execute(blocker, LearnerPool.Priority.LONG);
+        assertTrue(blocker.started.await(10, TimeUnit.SECONDS));
+
+        final List<String> ran = Collections
+                .synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                pool.executeAndWait(new NamedJob("waited", ran, done),
+                        LearnerPool.Priority.LONG);
+                ran.add("returned");
+            }
+        };
+        waiter.start();
+
+        // It can't run while the only learner is busy.
+        assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+        blocker.release.countDown();
+        waiter.join(10000);
+        assertEquals(Arrays.asList("waited", "returned"), ran);
+    }
+
+    @Test
+    public void expireReachesEveryLearner()
+            throws Exception {
+        pool = newPool(2);
+        SimpleTypeName actionName = (SimpleTypeName) TypeNameFactory
+                .makeName("action1");
+        ATRActionDeclaration actionDef = ATRTestUtil.makeAction(actionName,
+                new ATRParameter[0], null, null);
+        for (Learner learner : learners) {
+            learner.getActionModel().add(actionDef);
+        }
+
+        pool.expire(actionName);
+        for (Learner learner : learners) {
+            assertNull(learner.getActionModel().getRaw(actionName));
+            assertFalse(learner.getLapdogFacade().isPublished(
+                    actionName.getFullName()));
+        }
+    }
+
+    @Test
+    public void learnerCount() {
+        try {
+            assertEquals(LearnerPool.DEFAULT_LEARNERS,
+                    LearnerPool.getLearnerCount());
+            System.setProperty(LearnerPool.LEARNERS, "3");
+            assertEquals(3, LearnerPool.getLearnerCount());
+            System.setProperty(LearnerPool.LEARNERS, "many");
+            assertEquals(LearnerPool.DEFAULT_LEARNERS,
+                    LearnerPool.getLearnerCount());
+            System.setProperty(LearnerPool.LEARNERS, "0");
+            assertEquals(1, LearnerPool.getLearnerCount());
+        } finally {
+            System.clearProperty(LearnerPool.LEARNERS);
+        }
+    }
+}
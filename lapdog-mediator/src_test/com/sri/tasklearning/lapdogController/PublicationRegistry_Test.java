@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.lapdogController;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Arrays;
+
+import com.sri.ai.lumen.atr.ATRParameter;
+import com.sri.ai.lumen.atr.decl.ATRActionDeclaration;
+import com.sri.ai.lumen.atr.impl.CTRParameter;
+import com.sri.ai.lumen.atr.term.impl.CTRVariable;
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.pal.common.TypeNameFactory;
+import com.sri.tasklearning.spine.util.ATRTestUtil;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class PublicationRegistry_Test {
+    private PublicationRegistry registry;
+    private SimpleTypeName actionName;
+    private ATRActionDeclaration actionDef;
+    private ATRActionDeclaration otherDef;
+
+    @BeforeMethod
+    public void setup() {
+        registry = new PublicationRegistry();
+        actionName = (SimpleTypeName) TypeNameFactory.makeName("action1");
+        actionDef = ATRTestUtil.makeAction(actionName, new ATRParameter[0],
+                null, null);
+        ATRParameter[] params = new ATRParameter[] { new CTRParameter(
+                new CTRVariable("inArg"), ATRParameter.Modality.INPUT,
+                "String") };
+        otherDef = ATRTestUtil.makeAction(actionName, params, null, null);
+    }
+
+    @Test
+    public void sameSourceSameDigest() {
+        byte[] digest = registry.digest(actionDef);
+        ATRActionDeclaration copy = ATRTestUtil.makeAction(actionName,
+                new ATRParameter[0], null, null);
+        assertTrue(Arrays.equals(digest, registry.digest(copy)));
+        assertFalse(Arrays.equals(digest,
+                registry.digest(otherDef)));
+    }
+
+    @Test
+    public void publishedIsCurrent() {
+        byte[] digest = registry.digest(actionDef);
+        assertFalse(registry.isCurrent(actionName, digest));
+        assertEquals(0, registry.getSkipCount());
+
+        registry.published(actionName, actionDef, digest);
+        assertTrue(registry.isCurrent(actionName, digest));
+        assertEquals(1, registry.getSkipCount());
+        assertFalse(registry.isCurrent(actionName,
+                registry.digest(otherDef)));
+        assertEquals(1, registry.getSkipCount());
+        assertSame(actionDef, registry.get(actionName).getDecl());
+    }
+
+    @Test
+    public void expiredIsNotCurrent() {
+        byte[] digest = registry.digest(actionDef);
+        registry.published(actionName, actionDef, digest);
+        long version = registry.getVersion();
+
+        registry.expire(actionName);
+        assertTrue(registry.get(actionName).isStale());
+        assertFalse(registry.isCurrent(actionName, digest));
+        assertTrue(registry.getVersion() != version);
+    }
+
+    @Test
+    public void expireUnknownDoesNothing() {
+        long version = registry.getVersion();
+        registry.expire(actionName);
+        assertNull(registry.get(actionName));
+        assertEquals(version, registry.getVersion());
+    }
+
+    @Test
+    public void removeForgets() {
+        registry.published(actionName, actionDef, registry.digest(actionDef));
+        assertEquals(1, registry.size());
+        long version = registry.getVersion();
+
+        registry.remove(actionName);
+        assertNull(registry.get(actionName));
+        assertEquals(0, registry.size());
+        assertTrue(registry.getVersion() != version);
+
+        // Removing it twice changes nothing.
+        version = registry.getVersion();
+        registry.remove(actionName);
+        assertEquals(version, registry.getVersion());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.lapdogController;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.sri.ai.tasklearning.lapdog.CommonTaskRepresentation;
+import com.sri.tasklearning.spine.impl.jms.util.MockSpine;
+import com.sri.tasklearning.spine.messages.ExecuteRequest;
+import com.sri.tasklearning.spine.messages.SuccessExecutionStatus;
+import com.sri.tasklearning.spine.messages.UserMessageType;
+import com.sri.tasklearning.util.LogUtil;
+
+import org.testng.annotations.Test;
+
+public class RemoteExecutor_Test {
+    /**
+     * An executor created from another one gets its replies through the other
+     * one's subscription, rather than subscribing again.
+     */
+    @Test
+    public void sharedSubscription()
+            throws Exception {
+        LogUtil.configureLogging("lapdog", RemoteExecutor_Test.class);
+        MockSpine spine = new MockSpine();
+        RemoteExecutor primary = new RemoteExecutor(
+                new CommonTaskRepresentation(), spine);
+        final RemoteExecutor other = new RemoteExecutor(
+                new CommonTaskRepresentation(), primary);
+
+        final List<Object> outArgs = new ArrayList<Object>();
+        final boolean[] failed = new boolean[] { true };
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                failed[0] = other.executeAction("action1",
+                        new ArrayList<Object>(), outArgs);
+            }
+        };
+        t.start();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (spine.getSentMessagesList().isEmpty()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        ExecuteRequest request = (ExecuteRequest) spine
+                .getSentMessagesList().get(0);
+        SuccessExecutionStatus status = new SuccessExecutionStatus("executor",
+                request.getUid(), null, request.getInParams(),
+                Collections.<Object> singletonList("out"));
+        spine.deliver(UserMessageType.EXECUTION_STATUS, status);
+
+        t.join(10000);
+        assertFalse(t.isAlive());
+        assertFalse(failed[0]);
+        assertEquals(Collections.<Object> singletonList("out"), outArgs);
+    }
+}
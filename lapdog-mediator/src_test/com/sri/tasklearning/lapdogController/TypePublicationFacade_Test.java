@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.lapdogController;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.concurrent.locks.Lock;
+
+import com.sri.ai.lumen.atr.ATRParameter;
+import com.sri.ai.lumen.atr.ATRParameter.Modality;
+import com.sri.ai.lumen.atr.decl.ATRActionDeclaration;
+import com.sri.ai.lumen.atr.decl.ATRTypeDeclaration;
+import com.sri.ai.lumen.atr.impl.CTRParameter;
+import com.sri.ai.lumen.atr.term.impl.CTRVariable;
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.pal.common.TypeNameFactory;
+import com.sri.tasklearning.mediators.LockingActionModel;
+import com.sri.tasklearning.spine.impl.jms.util.MockSpine;
+import com.sri.tasklearning.spine.util.ATRTestUtil;
+import com.sri.tasklearning.util.LogUtil;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests which definitions are published to LAPDOG again, and which are skipped
+ * or replaced.
+ */
+public class TypePublicationFacade_Test {
+    private LapdogFacade lapdogFacade;
+    private TypePublicationFacade typeFacade;
+    private PublicationRegistry registry;
+    private SimpleTypeName stringName;
+    private ATRTypeDeclaration stringDef;
+    private SimpleTypeName actionName;
+    private ATRActionDeclaration actionDef;
+    private ATRActionDeclaration newActionDef;
+
+    @BeforeMethod
+    public void setup()
+            throws Exception {
+        LogUtil.configureLogging("lapdog", TypePublicationFacade_Test.class);
+
+        lapdogFacade = new LapdogFacade(new MockSpine());
+        typeFacade = new TypePublicationFacade(lapdogFacade);
+        registry = typeFacade.getRegistry();
+
+        stringName = (SimpleTypeName) TypeNameFactory.makeName("String");
+        stringDef = ATRTestUtil.makeCustomType(stringName, String.class);
+        actionName = (SimpleTypeName) TypeNameFactory.makeName("action1");
+        actionDef = ATRTestUtil.makeAction(actionName, new ATRParameter[0],
+                null, null);
+        ATRParameter[] params = new ATRParameter[] { new CTRParameter(
+                new CTRVariable("inArg"), Modality.INPUT,
+                stringName.getFullName()) };
+        newActionDef = ATRTestUtil.makeAction(actionName, params, null, null);
+
+        typeFacade.add(stringDef);
+    }
+
+    @Test
+    public void currentDefinitionIsSkipped() {
+        typeFacade.add(actionDef);
+        PublicationRegistry.Entry entry = registry.get(actionName);
+        long skips = registry.getSkipCount();
+
+        typeFacade.add(actionDef);
+        assertEquals(skips + 1, registry.getSkipCount());
+        assertSame(entry, registry.get(actionName));
+        assertTrue(lapdogFacade.isPublished(actionName.getFullName()));
+    }
+
+    @Test
+    public void changedActionIsReplaced() {
+        typeFacade.add(actionDef);
+        typeFacade.add(newActionDef);
+        assertSame(newActionDef, registry.get(actionName).getDecl());
+        assertFalse(registry.get(actionName).isStale());
+        assertTrue(lapdogFacade.isPublished(actionName.getFullName()));
+    }
+
+    @Test
+    public void expiredActionIsRepublished() {
+        typeFacade.add(actionDef);
+        PublicationRegistry.Entry entry = registry.get(actionName);
+        typeFacade.expire(actionName);
+
+        typeFacade.add(actionDef);
+        assertNotSame(entry, registry.get(actionName));
+        assertFalse(registry.get(actionName).isStale());
+        assertTrue(lapdogFacade.isPublished(actionName.getFullName()));
+    }
+
+    @Test
+    public void expiredDataTypeIsKept() {
+        PublicationRegistry.Entry entry = registry.get(stringName);
+        typeFacade.expire(stringName);
+        long version = registry.getVersion();
+
+        typeFacade.add(stringDef);
+        assertSame(entry, registry.get(stringName));
+        assertEquals(version, registry.getVersion());
+        assertFalse(typeFacade.remove(stringDef));
+    }
+
+    @Test
+    public void currentActionStaysPublished() {
+        typeFacade.add(actionDef);
+        assertTrue(typeFacade.remove(actionDef));
+        assertTrue(lapdogFacade.isPublished(actionName.getFullName()));
+        assertSame(actionDef, registry.get(actionName).getDecl());
+    }
+
+    @Test
+    public void staleActionIsRemoved() {
+        typeFacade.add(actionDef);
+        typeFacade.expire(actionName);
+        assertTrue(typeFacade.remove(actionDef));
+        assertFalse(lapdogFacade.isPublished(actionName.getFullName()));
+        assertNull(registry.get(actionName));
+    }
+
+    @Test
+    public void expiredUnusedActionIsRemoved()
+            throws Exception {
+        Learner learner = new Learner(lapdogFacade, typeFacade);
+        LockingActionModel actionModel = learner.getActionModel();
+        actionModel.add(actionDef);
+
+        learner.expire(actionName);
+        assertNull(actionModel.getRaw(actionName));
+        assertFalse(lapdogFacade.isPublished(actionName.getFullName()));
+        learner.shutdown();
+    }
+
+    @Test
+    public void expiredActionInUseIsReplaced()
+            throws Exception {
+        Learner learner = new Learner(lapdogFacade, typeFacade);
+        LockingActionModel actionModel = learner.getActionModel();
+        Lock lock = actionModel.getReadLock(actionName);
+        actionModel.add(actionDef);
+
+        learner.expire(actionName);
+        assertTrue(actionModel.isStale(actionName));
+        assertTrue(lapdogFacade.isPublished(actionName.getFullName()));
+
+        // The next request brings the new definition, which replaces it.
+        Lock lock2 = actionModel.getReadLock(actionName);
+        actionModel.add(newActionDef);
+        assertFalse(actionModel.isStale(actionName));
+        assertSame(newActionDef, actionModel.getRaw(actionName));
+        assertFalse(registry.get(actionName).isStale());
+        assertTrue(lapdogFacade.isPublished(actionName.getFullName()));
+
+        lock2.unlock();
+        lock.unlock();
+        learner.shutdown();
+    }
+}
@@ -41,7 +41,7 @@ import com.sri.tasklearning.spine.messages.*;
 import com.sri.tasklearning.spine.messages.contents.TransactionUID;
 import com.sri.tasklearning.spine.util.ErrorFactory;
 import com.sri.tasklearning.spine.util.ErrorType;
-import com.sri.tasklearning.spine.util.ReplyWatcher;
+import com.sri.tasklearning.spine.util.SerialNumberAllocator;
 import com.sri.tasklearning.spine.util.TypeUtil;
 import com.sri.tasklearning.util.NamedThreadFactory;
 import org.slf4j.Logger;
@@ -71,7 +71,7 @@ public class ExecutionHandler
     private final Map<SimpleTypeName, TaskExecutor> lumenExecutors;
     private final Map<TransactionUID, LumenTaskResultListener> resultListeners;
     private final ExecutorService threadPool;
-    private final ReplyWatcher<SerialNumberResponse> serialNumberGetter;
+    private final SerialNumberAllocator serialNumberGetter;
     private final ErrorFactory errorFactory;
     private final WithLockedTypes withLockedTypes;
     private final ProcedureDependencyFinder finder;
@@ -79,7 +79,7 @@ public class ExecutionHandler
     public ExecutionHandler(RunOnce runOnce,
                             LockingActionModel actionModel,
                             TypeFetcher typeFetcher,
-                            ReplyWatcher<SerialNumberResponse> serialGetter,
+                            SerialNumberAllocator serialGetter,
                             Spine spine,
                             ProcedureDependencyFinder procDepFinder) {
         this.runOnce = runOnce;
@@ -149,10 +149,7 @@ public class ExecutionHandler
 
         // Get a serial number for this action, because it might appear in a
         // demonstration.
-        TransactionUID serialUid = spine.getNextUid();
-        Message msg = new SerialNumberRequest(spine.getClientId(), serialUid);
-        SerialNumberResponse serialMsg = serialNumberGetter.sendAndGetReply(msg);
-        long serial = serialMsg.getSerialNumber();
+        long serial = serialNumberGetter.nextSerialNumber();
 
         LumenTaskResultListener statusListener = new LumenTaskResultListener(
                 actionName, uid, parentUid, serial, inParams, cleanup, spine,
@@ -26,6 +26,7 @@ import com.sri.tasklearning.spine.SpineException;
 import com.sri.tasklearning.spine.impl.jms.JmsClient;
 import com.sri.tasklearning.spine.messages.*;
 import com.sri.tasklearning.spine.util.ReplyWatcher;
+import com.sri.tasklearning.spine.util.SerialNumberAllocator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,7 +46,7 @@ public class LumenClient
     private final ExecutionWatcher execWatcher;
     private final CancelReceiver cancelReceiver;
     private final ExecutionHandler execHandler;
-    private final ReplyWatcher<SerialNumberResponse> serialGetter;
+    private final SerialNumberAllocator serialGetter;
     private final ConstraintHandler constraintHandler;
     private final StepHandler stepHandler;
     private final ReplyWatcher<TypeResult> typeResultWatcher;
@@ -78,8 +79,7 @@ public class LumenClient
         procDepFinder = new ProcedureDependencyFinder(actionModel, typeFetcher);
         RunOnce runOnce = new RunOnce(lumen, actionModel, procDepFinder);
 
-        serialGetter = new ReplyWatcher<SerialNumberResponse>(
-                SerialNumberResponse.class, spine);
+        serialGetter = new SerialNumberAllocator(spine);
 
         execHandler = new ExecutionHandler(runOnce, actionModel, typeFetcher,
                 serialGetter, spine, procDepFinder);
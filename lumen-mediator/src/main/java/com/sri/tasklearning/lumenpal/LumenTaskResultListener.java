@@ -40,15 +40,12 @@ import com.sri.tasklearning.spine.Spine;
 import com.sri.tasklearning.spine.SpineException;
 import com.sri.tasklearning.spine.messages.ErrorExecutionStatus;
 import com.sri.tasklearning.spine.messages.ExecutionStatus;
-import com.sri.tasklearning.spine.messages.Message;
-import com.sri.tasklearning.spine.messages.SerialNumberRequest;
-import com.sri.tasklearning.spine.messages.SerialNumberResponse;
 import com.sri.tasklearning.spine.messages.StartExecutionStatus;
 import com.sri.tasklearning.spine.messages.SuccessExecutionStatus;
 import com.sri.tasklearning.spine.messages.contents.TransactionUID;
 import com.sri.tasklearning.spine.util.ErrorFactory;
 import com.sri.tasklearning.spine.util.ErrorType;
-import com.sri.tasklearning.spine.util.ReplyWatcher;
+import com.sri.tasklearning.spine.util.SerialNumberAllocator;
 import com.sri.tasklearning.spine.util.TypeUtil;
 import com.sri.tasklearning.util.NamedThreadFactory;
 
@@ -85,7 +82,7 @@ public class LumenTaskResultListener
     private final Spine spine;
     private final ExecutionHandler execHandler;
     private final ErrorFactory errorFactory;
-    private final ReplyWatcher<SerialNumberResponse> serialGetter;
+    private final SerialNumberAllocator serialGetter;
 
     public LumenTaskResultListener(SimpleTypeName actionName,
                                    TransactionUID uid,
@@ -96,7 +93,7 @@ public class LumenTaskResultListener
                                    Spine spineFacade,
                                    ExecutionHandler execHandler,
                                    LockingActionModel actionModel,
-                                   ReplyWatcher<SerialNumberResponse> serialGetter) {
+                                   SerialNumberAllocator serialGetter) {
         this.actionName = actionName;
         this.uid = uid;
         this.parentUid = parentUid;
@@ -291,12 +288,7 @@ public class LumenTaskResultListener
                  */
                 if (isGestureStart) {
                     /* First get a serial number for the gesture end. */
-                    TransactionUID serialUid = spine.getNextUid();
-                    Message msg = new SerialNumberRequest(spine.getClientId(),
-                            serialUid);
-                    SerialNumberResponse serialMsg = serialGetter
-                            .sendAndGetReply(msg);
-                    long endSerial = serialMsg.getSerialNumber();
+                    long endSerial = serialGetter.nextSerialNumber();
 
                     TransactionUID endUid = spine.getNextUid();
                     LumenTaskResultListener end = new LumenTaskResultListener(
@@ -18,18 +18,15 @@
 package com.sri.tasklearning.lumenpal;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
-import com.sri.ai.lumen.atr.ATR;
 import com.sri.ai.lumen.atr.decl.ATRActionDeclaration;
 import com.sri.ai.lumen.atr.decl.ATRDecl;
 import com.sri.pal.common.SimpleTypeName;
 import com.sri.pal.common.TypeName;
-import com.sri.pal.common.TypeNameExpr;
-import com.sri.pal.common.TypeNameFactory;
 import com.sri.tasklearning.mediators.DependencyFinder;
+import com.sri.tasklearning.mediators.DependencyGraph;
 import com.sri.tasklearning.mediators.LockingActionModel;
 import com.sri.tasklearning.mediators.TypeFetcher;
 import com.sri.tasklearning.spine.SpineException;
@@ -42,37 +39,26 @@ import com.sri.tasklearning.spine.util.TypeUtil;
  */
 public class ProcedureDependencyFinder
         implements DependencyFinder<ATRActionDeclaration> {
-    private final LockingActionModel actionModel;
-    private final TypeFetcher fetcher;
+    private final DependencyGraph graph;
 
     public ProcedureDependencyFinder(LockingActionModel lam,
                                      TypeFetcher typeFetcher) {
-        actionModel = lam;
-        fetcher = typeFetcher;
+        graph = typeFetcher.getDependencyGraph();
     }
 
     @Override
     public List<ATRDecl> getDependencies(ATRActionDeclaration actDecl)
             throws SpineException {
-        List<ATRDecl> result = new ArrayList<ATRDecl>();
         /*
          * Retrieve all the required types of this procedure. Don't retrieve the
          * procedure itself; we should already have it.
          */
-        for (TypeName name : TypeUtil.getRequiredTypes(actDecl)) {
-            result.addAll(getRequiredTypes(name, true));
-        }
-
-        /* Eliminate duplicates, keeping the first occurrence of each item. */
-        Set<TypeName> names = new HashSet<TypeName>();
-        for (int i = 0; i < result.size(); i++) {
-            ATRDecl item = result.get(i);
-            TypeName name = TypeUtil.getName(item);
-            if (names.contains(name)) {
-                result.remove(i);
-                i--;
-            } else {
-                names.add(name);
+        List<ATRDecl> result = new ArrayList<ATRDecl>();
+        SimpleTypeName procName = TypeUtil.getName(actDecl);
+        for (ATRDecl type : graph.getClosure(
+                TypeUtil.getRequiredTypes(actDecl), false, true)) {
+            if (!procName.equals(TypeUtil.getName(type))) {
+                result.add(type);
             }
         }
 
@@ -98,42 +84,7 @@ public class ProcedureDependencyFinder
     List<ATRDecl> getRequiredTypes(TypeName typeName,
                                    boolean mustRetrieve)
             throws SpineException {
-        List<ATRDecl> result = new ArrayList<ATRDecl>();
-
-        if (TypeNameFactory.isPrimitive(typeName)) {
-            return result;
-        }
-
-        if (typeName instanceof SimpleTypeName) {
-            SimpleTypeName simpleName = (SimpleTypeName) typeName;
-            if (actionModel.isPredefined(simpleName)) {
-                return result;
-            }
-
-            ATRDecl type = actionModel.getRaw(simpleName);
-            if (type == null) {
-                type = fetcher.getType(simpleName);
-            }
-
-            if (type == null) {
-                if (mustRetrieve) {
-                    throw new SpineException("Unable to load type/action "
-                            + typeName.getFullName());
-                }
-                return result;
-            }
-
-            for (TypeName subTypeName : TypeUtil.getRequiredTypes(type)) {
-                result.addAll(getRequiredTypes(subTypeName, mustRetrieve));
-            }
-            result.add(type);
-        } else {
-            TypeNameExpr nameExpr = (TypeNameExpr) typeName;
-            ATR atrColl = TypeUtil.makeCollection(nameExpr);
-            TypeName eleName = TypeUtil.getElementType(atrColl);
-            result.addAll(getRequiredTypes(eleName, mustRetrieve));
-        }
-
-        return result;
+        return graph.getClosure(Collections.singleton(typeName), false,
+                mustRetrieve);
     }
 }
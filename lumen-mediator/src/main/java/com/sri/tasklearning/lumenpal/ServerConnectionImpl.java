@@ -37,9 +37,8 @@ import com.sri.tasklearning.mediators.LockingActionModel;
 import com.sri.tasklearning.spine.Spine;
 import com.sri.tasklearning.spine.SpineException;
 import com.sri.tasklearning.spine.messages.ExecuteRequest;
-import com.sri.tasklearning.spine.messages.SerialNumberResponse;
 import com.sri.tasklearning.spine.messages.contents.TransactionUID;
-import com.sri.tasklearning.spine.util.ReplyWatcher;
+import com.sri.tasklearning.spine.util.SerialNumberAllocator;
 import com.sri.tasklearning.util.NamedThreadFactory;
 
 import org.slf4j.Logger;
@@ -64,7 +63,7 @@ public class ServerConnectionImpl
     private final Spine spine;
     private final ExecutionWatcher execWatcher;
     private final ExecutorService threadPool;
-    private final ReplyWatcher<SerialNumberResponse> serialGetter;
+    private final SerialNumberAllocator serialGetter;
 
     /**
      * Private constructor called by getInstance to control instance count
@@ -73,7 +72,7 @@ public class ServerConnectionImpl
                                 ExecutionWatcher executionWatcher,
                                 LockingActionModel actionModel,
                                 Spine spineFacade,
-                                ReplyWatcher<SerialNumberResponse> serialGetter) {
+                                SerialNumberAllocator serialGetter) {
         log.debug("starting");
         this.execHandler = execHandler;
         this.actionModel = actionModel;
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.mediators;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sri.ai.lumen.atr.ATR;
+import com.sri.ai.lumen.atr.decl.ATRDecl;
+import com.sri.ai.lumen.atr.decl.ATRTypeDeclaration;
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.pal.common.TypeName;
+import com.sri.pal.common.TypeNameExpr;
+import com.sri.pal.common.TypeNameFactory;
+import com.sri.tasklearning.spine.MessageHandler;
+import com.sri.tasklearning.spine.MessageHandlerException;
+import com.sri.tasklearning.spine.Spine;
+import com.sri.tasklearning.spine.SpineException;
+import com.sri.tasklearning.spine.messages.CacheExpire;
+import com.sri.tasklearning.spine.messages.Message;
+import com.sri.tasklearning.spine.messages.UserMessageType;
+import com.sri.tasklearning.spine.util.TypeUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers, for each type or action, everything it depends on. A closure lists
+ * each type after the types it depends on, so it can be handed to Lumen or
+ * LAPDOG in order. Closures are computed once and shared by later requests;
+ * when a {@link CacheExpire} says a type has been stored or removed, the
+ * closures of that type and of everything depending on it are forgotten.
+ * <p>
+ * Closures can either follow only the types which are strictly required, as
+ * procedure execution needs, or also follow equivalent types, as learning
+ * does. The two kinds are remembered separately.
+ */
+public class DependencyGraph
+        implements MessageHandler {
+    private static final Logger log = LoggerFactory
+            .getLogger(DependencyGraph.class);
+
+    /** {@code null} if the fetcher isn't tied to one action model. */
+    private final LockingActionModel actionModel;
+    private final TypeFetcher fetcher;
+    private final Map<SimpleTypeName, List<ATRDecl>> closures;
+    private final Map<SimpleTypeName, List<ATRDecl>> equivClosures;
+    /** For each type, the types which directly depend on it. */
+    private final Map<SimpleTypeName, Set<SimpleTypeName>> dependents;
+    /**
+     * Bumped whenever closures are forgotten, so that a closure computed from
+     * stale parts isn't remembered.
+     */
+    private final AtomicLong generation;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    public DependencyGraph(Spine spine,
+                           LockingActionModel actionModel,
+                           TypeFetcher fetcher)
+            throws SpineException {
+        this.actionModel = actionModel;
+        this.fetcher = fetcher;
+        closures = new ConcurrentHashMap<SimpleTypeName, List<ATRDecl>>();
+        equivClosures = new ConcurrentHashMap<SimpleTypeName, List<ATRDecl>>();
+        dependents = new ConcurrentHashMap<SimpleTypeName, Set<SimpleTypeName>>();
+        generation = new AtomicLong();
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        if (spine != null) {
+            spine.subscribe(this, UserMessageType.CACHE_EXPIRE);
+        }
+    }
+
+    /**
+     * Provides the named types together with everything they depend on. Each
+     * type appears once, after the types it depends on. Primitive and
+     * predefined types are left out.
+     *
+     * @param typeNames
+     *            the types or actions to start from
+     * @param withEquivalents
+     *            if {@code true}, also include the types which are equivalent
+     *            to each type found, and what they depend on. Equivalent types
+     *            which can't be loaded are skipped.
+     * @param mustRetrieve
+     *            if {@code true}, and a required type can't be found, a
+     *            {@code SpineException} will be thrown. Otherwise it's skipped.
+     * @return the closure of {@code typeNames}
+     * @throws SpineException
+     *             if a communication error occurs, or a required type can't be
+     *             found
+     */
+    public List<ATRDecl> getClosure(Collection<? extends TypeName> typeNames,
+                                    boolean withEquivalents,
+                                    boolean mustRetrieve)
+            throws SpineException {
+        Map<SimpleTypeName, List<ATRDecl>> memo = withEquivalents ? equivClosures
+                : closures;
+        Set<SimpleTypeName> roots = new LinkedHashSet<SimpleTypeName>();
+        List<SimpleTypeName> unknown = new ArrayList<SimpleTypeName>();
+        for (TypeName name : typeNames) {
+            SimpleTypeName simpleName = toNode(name);
+            if (simpleName != null && roots.add(simpleName)
+                    && !memo.containsKey(simpleName)) {
+                unknown.add(simpleName);
+            }
+        }
+
+        /*
+         * Fetch whatever we haven't seen before in one round trip, so the walk
+         * below finds it in the type fetcher's cache.
+         */
+        if (!unknown.isEmpty()) {
+            fetcher.getTypes(unknown, true);
+        }
+
+        Map<SimpleTypeName, ATRDecl> result = new LinkedHashMap<SimpleTypeName, ATRDecl>();
+        Set<SimpleTypeName> onPath = new HashSet<SimpleTypeName>();
+        for (SimpleTypeName root : roots) {
+            Closure closure = getClosure(root, withEquivalents, mustRetrieve,
+                    memo, onPath);
+            merge(result, closure.types);
+        }
+        return new ArrayList<ATRDecl>(result.values());
+    }
+
+    /**
+     * Computes the closure of one type, or retrieves it if it's already known.
+     *
+     * @param onPath
+     *            the types whose closures are currently being computed, used
+     *            to stop at cycles
+     */
+    private Closure getClosure(SimpleTypeName name,
+                               boolean withEquivalents,
+                               boolean mustRetrieve,
+                               Map<SimpleTypeName, List<ATRDecl>> memo,
+                               Set<SimpleTypeName> onPath)
+            throws SpineException {
+        List<ATRDecl> known = memo.get(name);
+        if (known != null) {
+            hits.incrementAndGet();
+            return new Closure(known, true, false);
+        }
+
+        /*
+         * A type which (indirectly) depends on itself. The caller working on
+         * it will add it; the partial closures in between can't be kept.
+         */
+        if (!onPath.add(name)) {
+            List<ATRDecl> none = Collections.emptyList();
+            return new Closure(none, false, false);
+        }
+
+        misses.incrementAndGet();
+        try {
+            long gen = generation.get();
+            ATRDecl type = fetcher.getType(name);
+            if (type == null) {
+                if (mustRetrieve) {
+                    throw new SpineException("Unable to load type/action "
+                            + name.getFullName());
+                }
+                log.debug("Unable to load type {}", name);
+                List<ATRDecl> none = Collections.emptyList();
+                return new Closure(none, false, true);
+            }
+
+            Map<SimpleTypeName, ATRDecl> types = new LinkedHashMap<SimpleTypeName, ATRDecl>();
+            boolean complete = true;
+            for (TypeName depName : TypeUtil.getRequiredTypes(type)) {
+                SimpleTypeName dep = toNode(depName);
+                if (dep == null) {
+                    continue;
+                }
+                addDependent(dep, name);
+                Closure closure = getClosure(dep, withEquivalents,
+                        mustRetrieve, memo, onPath);
+                merge(types, closure.types);
+                complete &= closure.complete;
+            }
+            types.remove(name);
+            types.put(name, type);
+
+            /*
+             * Equivalent types go after this one. They're optional, so one
+             * that can't be loaded doesn't stop this closure from being
+             * remembered; storing it later will expire this closure.
+             */
+            if (withEquivalents && TypeUtil.isType(type)) {
+                for (TypeName eqvName : TypeUtil
+                        .getEquivalentTypeNames((ATRTypeDeclaration) type)) {
+                    SimpleTypeName eqv = toNode(eqvName);
+                    if (eqv == null) {
+                        continue;
+                    }
+                    addDependent(eqv, name);
+                    Closure closure = getClosure(eqv, true, false, memo,
+                            onPath);
+                    merge(types, closure.types);
+                    complete &= closure.complete || closure.missing;
+                }
+            }
+
+            List<ATRDecl> result = Collections
+                    .unmodifiableList(new ArrayList<ATRDecl>(types.values()));
+            if (complete && generation.get() == gen) {
+                memo.put(name, result);
+            }
+            return new Closure(result, complete, false);
+        } finally {
+            onPath.remove(name);
+        }
+    }
+
+    /**
+     * Forgets the closure of the named type, and of everything which depends
+     * on it.
+     *
+     * @param name
+     *            the type which changed
+     */
+    public void expire(SimpleTypeName name) {
+        /*
+         * Bump before and after, so that a closure computed while we're
+         * removing things won't be remembered.
+         */
+        generation.incrementAndGet();
+        Set<SimpleTypeName> seen = new HashSet<SimpleTypeName>();
+        Deque<SimpleTypeName> todo = new ArrayDeque<SimpleTypeName>();
+        todo.add(name);
+        while (!todo.isEmpty()) {
+            SimpleTypeName next = todo.remove();
+            if (!seen.add(next)) {
+                continue;
+            }
+            closures.remove(next);
+            equivClosures.remove(next);
+            Set<SimpleTypeName> users = dependents.remove(next);
+            if (users != null) {
+                todo.addAll(users);
+            }
+        }
+        generation.incrementAndGet();
+        log.debug("Expired closures of {}", seen);
+    }
+
+    /**
+     * @return the number of closures currently remembered
+     */
+    public int size() {
+        return closures.size() + equivClosures.size();
+    }
+
+    @Override
+    public void handleMessage(Message message)
+            throws MessageHandlerException {
+        if (message instanceof CacheExpire) {
+            SimpleTypeName name = ((CacheExpire) message).getTypeName();
+            /*
+             * Make sure the fetcher won't hand us the old version before we
+             * forget anything built from it.
+             */
+            fetcher.expire(name);
+            expire(name);
+            // Lumen mustn't keep running the old definition either.
+            if (actionModel != null) {
+                actionModel.expire(name);
+            }
+        } else {
+            log.warn("Unexpected message ({}): {}", message.getClass(), message);
+        }
+    }
+
+    public void shutdown() {
+        log.debug("Dependency graph shutdown: {} hits, {} misses",
+                hits.get(), misses.get());
+        closures.clear();
+        equivClosures.clear();
+        dependents.clear();
+    }
+
+    /**
+     * Reduces a type name to the node which stands for it in the graph.
+     *
+     * @return the element type of a collection, or the name itself; or
+     *         {@code null} for primitive and predefined types, which nobody
+     *         needs to load
+     */
+    private SimpleTypeName toNode(TypeName typeName) {
+        if (typeName instanceof TypeNameExpr) {
+            ATR atrColl = TypeUtil.makeCollection((TypeNameExpr) typeName);
+            return toNode(TypeUtil.getElementType(atrColl));
+        }
+        if (TypeNameFactory.isPrimitive(typeName)) {
+            return null;
+        }
+        SimpleTypeName simpleName = (SimpleTypeName) typeName;
+        if (actionModel != null && actionModel.isPredefined(simpleName)) {
+            return null;
+        }
+        return simpleName;
+    }
+
+    private void addDependent(SimpleTypeName dep,
+                              SimpleTypeName user) {
+        Set<SimpleTypeName> users = dependents.get(dep);
+        if (users == null) {
+            Set<SimpleTypeName> newUsers = Collections
+                    .newSetFromMap(new ConcurrentHashMap<SimpleTypeName, Boolean>());
+            users = dependents.putIfAbsent(dep, newUsers);
+            if (users == null) {
+                users = newUsers;
+            }
+        }
+        users.add(user);
+    }
+
+    private static void merge(Map<SimpleTypeName, ATRDecl> result,
+                              List<ATRDecl> types) {
+        for (ATRDecl type : types) {
+            SimpleTypeName name = TypeUtil.getName(type);
+            if (!result.containsKey(name)) {
+                result.put(name, type);
+            }
+        }
+    }
+
+    private static class Closure {
+        private final List<ATRDecl> types;
+        /** Whether {@code types} may be remembered. */
+        private final boolean complete;
+        /** Whether the type itself couldn't be loaded. */
+        private final boolean missing;
+
+        private Closure(List<ATRDecl> types,
+                        boolean complete,
+                        boolean missing) {
+            this.types = types;
+            this.complete = complete;
+            this.missing = missing;
+        }
+    }
+}
@@ -19,15 +19,25 @@ package com.sri.tasklearning.mediators;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 
@@ -60,6 +70,21 @@ import org.slf4j.LoggerFactory;
  * Before making use of a type (or action), the user should get a read lock on
  * it. This can be done before the type has been added. When the type is no
  * longer in use, its lock should be released.
+ * <p>
+ * Types which are no longer in use are not removed right away; they stay
+ * resident so that the next use doesn't have to add them again. Resident types
+ * are evicted, least recently used first, once there are too many of them (see
+ * {@link #MAX_RESIDENT}) or once they have been idle too long (see
+ * {@link #IDLE_TIMEOUT}). A type which is locked is never evicted.
+ * <p>
+ * When a type's definition changes (see {@link #expire}), it is removed right
+ * away if it isn't in use. Otherwise it is marked stale, and the next call to
+ * {@link #add} for it replaces the old definition with the new one.
+ * <p>
+ * Looking up types and taking read locks doesn't block on other types: the
+ * registry is kept in concurrent maps, each type's lock is guarded separately,
+ * and adding a type only excludes others which hash to the same stripe. A
+ * type's lock is discarded once nobody holds it or is waiting for it.
  *
  * @author chris
  */
@@ -67,22 +92,97 @@ public class LockingActionModel {
     private static final Logger log = LoggerFactory
             .getLogger(LockingActionModel.class);
     private static final boolean debugLocks = false;
+    private static final int ADD_STRIPES = 64;
+
+    public static final String MAX_RESIDENT = "PAL.LumenMaxResidentTypes";
+    public static final int DEFAULT_MAX_RESIDENT = 2000;
+    public static final String IDLE_TIMEOUT = "PAL.LumenTypeIdleTimeout";
+    public static final long DEFAULT_IDLE_TIMEOUT = 10 * 60 * 1000;
+
+    private static final Comparator<Candidate> LEAST_RECENT = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate c1,
+                           Candidate c2) {
+            return Long.compare(c1.lastUse, c2.lastUse);
+        }
+    };
+    private static final Timer timer = new Timer(
+            LockingActionModel.class.getSimpleName(), true);
 
     private final TypeAdder typeAdder;
-    private final Map<SimpleTypeName, ReadWriteLock> locks;
+    private final ConcurrentMap<SimpleTypeName, TypeLock> locks;
     private final Map<SimpleTypeName, ATRDecl> types;
     private final Map<SimpleTypeName, Collection<Lock>> dependentLocks;
     private final ExecutorService threadPool;
-    private final Object addMonitor = new Object();
+    /** Keeps two threads from adding the same type at once. */
+    private final Object[] addMonitors;
+    /** Calls to the TypeAdder are still made one at a time. */
+    private final Object adderMonitor = new Object();
     private final ATRDecl predefined;
 
+    /** Types we have added, and when each one was last used. */
+    private final Map<SimpleTypeName, Long> resident;
+    /** Resident types whose definitions have changed since they were added. */
+    private final Set<SimpleTypeName> stale;
+    private final int maxResident;
+    private final long idleTimeout;
+    private final TimerTask sweeper;
+    private final AtomicBoolean evictionPending;
+    private final AtomicLong loads;
+    private final AtomicLong reuses;
+    private final AtomicLong evictions;
+
+    /** Actions with their ancestors' parameters merged in, by name. */
+    private final Map<SimpleTypeName, Inherited> inherited;
+    /** Bumped whenever an action is added or removed. */
+    private final AtomicLong actionsVersion;
+
     public LockingActionModel(TypeAdder adder) {
+        this(adder, getMaxResident(), getIdleTimeout());
+    }
+
+    /**
+     * @param adder
+     *            adds and removes types in the underlying system
+     * @param maxResident
+     *            how many types may stay loaded after they are released
+     * @param idleTimeout
+     *            milliseconds a released type may stay loaded without being
+     *            used, or 0 to keep them until {@code maxResident} is reached
+     */
+    public LockingActionModel(TypeAdder adder,
+                              int maxResident,
+                              long idleTimeout) {
         typeAdder = adder;
-        locks = new HashMap<SimpleTypeName, ReadWriteLock>();
-        types = new HashMap<SimpleTypeName, ATRDecl>();
-        dependentLocks = new HashMap<SimpleTypeName, Collection<Lock>>();
+        locks = new ConcurrentHashMap<SimpleTypeName, TypeLock>();
+        types = new ConcurrentHashMap<SimpleTypeName, ATRDecl>();
+        dependentLocks = new ConcurrentHashMap<SimpleTypeName, Collection<Lock>>();
+        addMonitors = new Object[ADD_STRIPES];
+        for (int i = 0; i < addMonitors.length; i++) {
+            addMonitors[i] = new Object();
+        }
         ThreadFactory tf = new NamedThreadFactory(getClass());
         threadPool = Executors.newCachedThreadPool(tf);
+        resident = new ConcurrentHashMap<SimpleTypeName, Long>();
+        stale = Collections.newSetFromMap(new ConcurrentHashMap<SimpleTypeName, Boolean>());
+        this.maxResident = maxResident;
+        this.idleTimeout = idleTimeout;
+        evictionPending = new AtomicBoolean(false);
+        loads = new AtomicLong();
+        reuses = new AtomicLong();
+        evictions = new AtomicLong();
+        inherited = new ConcurrentHashMap<SimpleTypeName, Inherited>();
+        actionsVersion = new AtomicLong();
+        sweeper = new TimerTask() {
+            @Override
+            public void run() {
+                scheduleEviction();
+            }
+        };
+        if (idleTimeout > 0) {
+            long period = Math.max(1000, idleTimeout / 2);
+            timer.schedule(sweeper, period, period);
+        }
 
         // Sentinel object meaning this thing is predefined, and we don't store its definition.
         predefined = new ATRDecl() {
@@ -112,71 +212,170 @@ public class LockingActionModel {
      *         ) when the lock is no longer needed.
      */
     public Lock getReadLock(SimpleTypeName typeName) {
-        ReadWriteLock rwl;
-        synchronized (this) {
-            rwl = locks.get(typeName);
-            if (rwl == null) {
+        TypeLock typeLock = acquire(typeName);
+        Lock readLock = new HeldReadLock(typeLock);
+        readLock.lock();
+        log.debug("Got readlock for {}", typeName);
+        return readLock;
+    }
+
+    /**
+     * Finds the lock for the given type, creating it if necessary, and
+     * registers the caller as one of its users so it won't be discarded.
+     * Every call must be matched by a call to {@link #relinquish}.
+     */
+    private TypeLock acquire(SimpleTypeName typeName) {
+        while (true) {
+            TypeLock typeLock = locks.get(typeName);
+            if (typeLock == null) {
+                ReadWriteLock rwl;
                 if (debugLocks) {
                     rwl = new DebugReadWriteLock(typeName);
                 } else {
                     rwl = new MultiThreadReadWriteLock();
                 }
-                locks.put(typeName, rwl);
+                TypeLock newLock = new TypeLock(typeName, rwl);
+                typeLock = locks.putIfAbsent(typeName, newLock);
+                if (typeLock == null) {
+                    typeLock = newLock;
+                }
+            }
+            synchronized (typeLock) {
+                if (!typeLock.discarded) {
+                    typeLock.users++;
+                    return typeLock;
+                }
             }
+            // Its last user just left. Somebody will put in a new one.
         }
-        Lock readLock = rwl.readLock();
-        log.debug("Got readlock for {}", typeName);
-        readLock.lock();
-        return readLock;
+    }
+
+    private void relinquish(TypeLock typeLock) {
+        synchronized (typeLock) {
+            typeLock.users--;
+            if (typeLock.users > 0) {
+                return;
+            }
+            typeLock.discarded = true;
+        }
+        locks.remove(typeLock.name, typeLock);
+    }
+
+    /**
+     * @return the number of types which currently have a lock, whether held or
+     *         being waited for
+     */
+    public int getLockCount() {
+        return locks.size();
+    }
+
+    private Object getAddMonitor(SimpleTypeName typeName) {
+        int hash = typeName.hashCode() & Integer.MAX_VALUE;
+        return addMonitors[hash % addMonitors.length];
     }
 
     /**
      * Adds the definition of the given type to the action model. The type
      * should already be locked before this is called. This method also adds the
-     * type to Lumen itself.
+     * type to Lumen itself. If the type is already present but stale, the given
+     * definition replaces it.
      *
      * @throws MediatorsException
      */
     public void add(ATRDecl type)
             throws MediatorsException {
         SimpleTypeName typeName = TypeUtil.getName(type);
-        synchronized (addMonitor) {
-            if (types.get(typeName) == null) {
-                if (TypeUtil.isAction(type)) {
-                    ATRActionDeclaration inhAction = inheritAction((ATRActionDeclaration) type);
-                    typeAdder.add(inhAction);
-                } else {
-                    typeAdder.add(type);
+        if (types.get(typeName) == null || stale.contains(typeName)) {
+            synchronized (getAddMonitor(typeName)) {
+                if (types.get(typeName) == null) {
+                    addNew(typeName, type);
+                    return;
                 }
-                types.put(typeName, type);
-
-                /*
-                 * We lock dependent types so we don't accidentally remove a
-                 * required type while this one is still around. We don't need
-                 * to lock transitive dependencies because we're locking direct
-                 * dependencies, and they lock the transitive ones.
-                 */
-                Collection<Lock> locks = new HashSet<Lock>();
-                for (TypeName dependent : TypeUtil.getRequiredTypes(type)) {
-                    /*
-                     * If it's something like list<Thing>, pull out the Thing
-                     * and lock it.
-                     */
-                    while (dependent instanceof TypeNameExpr) {
-                        TypeNameExpr expr = (TypeNameExpr) dependent;
-                        dependent = expr.getInner();
-                    }
-                    SimpleTypeName toLock = (SimpleTypeName) dependent;
-                    Lock lock = getReadLock(toLock);
-                    locks.add(lock);
+                if (stale.remove(typeName) && replace(typeName, type)) {
+                    return;
                 }
-                dependentLocks.put(typeName, locks);
             }
         }
+        resident.replace(typeName, System.currentTimeMillis());
+        reuses.incrementAndGet();
+    }
+
+    /**
+     * Swaps a stale definition for a new one. The old one may still be in use,
+     * but whoever is using it is working from a definition which no longer
+     * exists anywhere else.
+     *
+     * @return {@code false} if the underlying system keeps the old definition
+     */
+    private boolean replace(SimpleTypeName typeName,
+                            ATRDecl type)
+            throws MediatorsException {
+        ATRDecl old = getInherited(typeName);
+        synchronized (adderMonitor) {
+            if (!typeAdder.remove(old)) {
+                log.debug("Keeping old definition of {}", typeName);
+                return false;
+            }
+        }
+        log.debug("Replacing stale {}", typeName);
+        Collection<Lock> oldLocks = dependentLocks.remove(typeName);
+        try {
+            addNew(typeName, type);
+        } finally {
+            // Hold on to the old dependencies until the new ones are locked.
+            if (oldLocks != null) {
+                for (Lock depLock : oldLocks) {
+                    depLock.unlock();
+                }
+            }
+        }
+        return true;
+    }
+
+    private void addNew(SimpleTypeName typeName,
+                        ATRDecl type)
+            throws MediatorsException {
+        stale.remove(typeName);
+        synchronized (adderMonitor) {
+            if (TypeUtil.isAction(type)) {
+                ATRActionDeclaration inhAction = inheritAction((ATRActionDeclaration) type);
+                typeAdder.add(inhAction);
+            } else {
+                typeAdder.add(type);
+            }
+        }
+
+        /*
+         * We lock dependent types so we don't accidentally remove a required
+         * type while this one is still around. We don't need to lock
+         * transitive dependencies because we're locking direct dependencies,
+         * and they lock the transitive ones.
+         */
+        Collection<Lock> locks = new ArrayList<Lock>();
+        for (TypeName dependent : TypeUtil.getRequiredTypes(type)) {
+            /*
+             * If it's something like list<Thing>, pull out the Thing and lock
+             * it.
+             */
+            while (dependent instanceof TypeNameExpr) {
+                TypeNameExpr expr = (TypeNameExpr) dependent;
+                dependent = expr.getInner();
+            }
+            SimpleTypeName toLock = (SimpleTypeName) dependent;
+            Lock lock = getReadLock(toLock);
+            locks.add(lock);
+        }
+        dependentLocks.put(typeName, locks);
+
+        // Publish it only once everything about it is in place.
+        resident.put(typeName, System.currentTimeMillis());
+        types.put(typeName, type);
+        actionChanged(typeName);
+        loads.incrementAndGet();
     }
 
     public void addPredefined(SimpleTypeName typeName) {
-        synchronized (addMonitor) {
+        synchronized (getAddMonitor(typeName)) {
             types.put(typeName, predefined);
         }
     }
@@ -195,6 +394,36 @@ public class LockingActionModel {
         return predefs;
     }
 
+    /**
+     * Called when the named type's definition has changed. It's removed now if
+     * nobody is using it; otherwise it's marked stale, so the next
+     * {@link #add} of it will replace it.
+     *
+     * @return {@code true} if the type was removed.
+     */
+    public boolean expire(SimpleTypeName typeName) {
+        ATRDecl type = types.get(typeName);
+        if (type == null || type == predefined) {
+            return false;
+        }
+        stale.add(typeName);
+        if (maybeRemove(typeName)) {
+            return true;
+        }
+        if (stale.contains(typeName)) {
+            log.debug("{} is in use, will replace it when next added", typeName);
+        }
+        return false;
+    }
+
+    /**
+     * @return {@code true} if the named type has been added, but its
+     *         definition has changed since
+     */
+    public boolean isStale(SimpleTypeName typeName) {
+        return stale.contains(typeName);
+    }
+
     /**
      * Try to remove the named type, but don't remove it if it's in use, and
      * don't block waiting for it to become unused.
@@ -208,17 +437,25 @@ public class LockingActionModel {
             return false;
         }
 
-        ReadWriteLock rwl = locks.get(typeName);
-        if (rwl == null) {
-            log.debug("No lock exists for {}", typeName);
-            return false;
+        TypeLock typeLock = acquire(typeName);
+        try {
+            return removeIfUnlocked(typeName, type, typeLock.rwl.writeLock());
+        } finally {
+            relinquish(typeLock);
         }
-        Lock lock = rwl.writeLock();
+    }
+
+    private boolean removeIfUnlocked(SimpleTypeName typeName,
+                                     ATRDecl type,
+                                     Lock lock) {
         if (lock.tryLock()) {
             try {
                 log.debug("Removing {}", typeName);
                 if (typeAdder.remove(type)) {
                     types.remove(typeName);
+                    actionChanged(typeName);
+                    resident.remove(typeName);
+                    stale.remove(typeName);
 
                     /*
                      * Now that it's removed, release its read locks on
@@ -233,17 +470,15 @@ public class LockingActionModel {
                     return true;
                 } else {
                     log.debug("Didn't remove {}", typeName);
+                    // It's there to stay, so don't try to evict or replace it again.
+                    resident.remove(typeName);
+                    stale.remove(typeName);
                     return false;
                 }
             } catch (Exception e) {
                 log.warn("Failed to remove " + typeName + " from Lumen", e);
                 return false;
             } finally {
-                // TODO This is a tiny memory leak. However, if we actually
-                // remove the entry from locks, we get NPEs sometimes when
-                // LumenTaskResultListener.cleanup() calls releaseReadLock().
-                // The NPEs don't seem to cause any harm, but they're worrying.
-                // locks.remove(typeName);
                 lock.unlock();
             }
         } else {
@@ -252,6 +487,70 @@ public class LockingActionModel {
         }
     }
 
+    /**
+     * Called when the caller has finished using the given types and has
+     * released its locks on them. They stay loaded so the next use won't have
+     * to add them again, but become candidates for eviction. Stale ones are
+     * removed as soon as nobody else is using them either.
+     *
+     * @param released
+     *            the types which are no longer in use
+     */
+    public void release(Collection<ATRDecl> released) {
+        long now = System.currentTimeMillis();
+        List<ATRDecl> expired = new ArrayList<ATRDecl>();
+        for (ATRDecl decl : released) {
+            SimpleTypeName typeName = TypeUtil.getName(decl);
+            resident.replace(typeName, now);
+            if (stale.contains(typeName)) {
+                expired.add(decl);
+            }
+        }
+        maybeRemove(expired);
+        if (resident.size() > maxResident) {
+            scheduleEviction();
+        }
+    }
+
+    private void scheduleEviction() {
+        if (evictionPending.compareAndSet(false, true)) {
+            try {
+                threadPool.execute(new Evictor());
+            } catch (RuntimeException e) {
+                evictionPending.set(false);
+                log.debug("Not evicting types", e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of types currently loaded by this action model
+     */
+    public int getResidentCount() {
+        return resident.size();
+    }
+
+    /**
+     * @return how many times a type has been added to the underlying system
+     */
+    public long getLoadCount() {
+        return loads.get();
+    }
+
+    /**
+     * @return how many times a type was asked for while it was already loaded
+     */
+    public long getReuseCount() {
+        return reuses.get();
+    }
+
+    /**
+     * @return how many idle types have been evicted
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
     /**
      * Asynchronously removes actions from Lumen.
      *
@@ -286,11 +585,61 @@ public class LockingActionModel {
     public ATRDecl getInherited(SimpleTypeName typeName) {
         ATRDecl decl = getRaw(typeName);
         if (TypeUtil.isAction(decl)) {
-            decl = inheritAction((ATRActionDeclaration) decl);
+            decl = getInheritedAction(typeName, (ATRActionDeclaration) decl);
         }
         return decl;
     }
 
+    /**
+     * Provides the memoized result of {@link #inheritAction}, building it if
+     * necessary. Entries are dropped by {@link #actionChanged} when the action
+     * or any of its ancestors is added or removed; if that happens while we're
+     * building one, we don't keep it.
+     */
+    private ATRActionDeclaration getInheritedAction(SimpleTypeName name,
+                                                    ATRActionDeclaration raw) {
+        Inherited cached = inherited.get(name);
+        if (cached != null && cached.raw == raw) {
+            return cached.decl;
+        }
+        if (TypeUtil.getParent(raw) == null) {
+            return raw;
+        }
+
+        long version = actionsVersion.get();
+        ATRActionDeclaration result = inheritAction(raw);
+        Set<SimpleTypeName> ancestors = new HashSet<SimpleTypeName>();
+        ATRDecl ancestor = raw;
+        while (ancestor instanceof ATRActionDeclaration) {
+            SimpleTypeName parentName = TypeUtil
+                    .getParent((ATRActionDeclaration) ancestor);
+            if (parentName == null || !ancestors.add(parentName)) {
+                break;
+            }
+            ancestor = types.get(parentName);
+        }
+        Inherited entry = new Inherited(raw, result, ancestors);
+        inherited.put(name, entry);
+        if (actionsVersion.get() != version) {
+            inherited.remove(name, entry);
+        }
+        return result;
+    }
+
+    /**
+     * Forget the inherited form of the named action and of everything that
+     * inherits from it.
+     */
+    private void actionChanged(SimpleTypeName typeName) {
+        actionsVersion.incrementAndGet();
+        inherited.remove(typeName);
+        for (Map.Entry<SimpleTypeName, Inherited> entry : inherited.entrySet()) {
+            if (entry.getValue().ancestors.contains(typeName)) {
+                inherited.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
     private ATRActionDeclaration inheritAction(ATRActionDeclaration action) {
         SimpleTypeName parentName = TypeUtil.getParent(action);
         if (parentName == null) {
@@ -302,7 +651,8 @@ public class LockingActionModel {
             throw new RuntimeException("Unable to retrieve parent "
                     + parentName + " of " + name);
         }
-        ATRActionDeclaration inhParent = inheritAction(origParent);
+        ATRActionDeclaration inhParent = getInheritedAction(parentName,
+                origParent);
 
         CTRConstructor ctrBuilder = new CTRConstructor();
         Map<String, ATRTerm> propMap = new HashMap<String, ATRTerm>();
@@ -381,7 +731,167 @@ public class LockingActionModel {
         }
     }
 
+    /**
+     * Evicts idle types, least recently used first, until no more than
+     * {@code maxResident} are loaded and none has been idle longer than
+     * {@code idleTimeout}. Types which are locked can't be removed and are
+     * skipped. Removing an action releases its locks on the types it uses, so
+     * we keep making passes while they make progress.
+     */
+    private class Evictor
+            implements Runnable {
+        @Override
+        public void run() {
+            evictionPending.set(false);
+            boolean wasRemoved;
+            do {
+                wasRemoved = false;
+                long now = System.currentTimeMillis();
+                List<Candidate> candidates = new ArrayList<Candidate>();
+                for (Map.Entry<SimpleTypeName, Long> entry : resident
+                        .entrySet()) {
+                    candidates.add(new Candidate(entry.getKey(), entry
+                            .getValue()));
+                }
+                Collections.sort(candidates, LEAST_RECENT);
+                int excess = candidates.size() - maxResident;
+                for (Candidate candidate : candidates) {
+                    boolean expired = idleTimeout > 0
+                            && now - candidate.lastUse > idleTimeout;
+                    if (excess <= 0 && !expired) {
+                        break;
+                    }
+                    if (maybeRemove(candidate.name)) {
+                        evictions.incrementAndGet();
+                        excess--;
+                        wasRemoved = true;
+                    }
+                }
+            } while (wasRemoved
+                    && (resident.size() > maxResident || idleTimeout > 0));
+            log.debug("{} types resident, {} evicted", resident.size(),
+                    evictions.get());
+        }
+    }
+
+    /**
+     * A type's lock, and how many callers are using it. Once the count drops
+     * to zero it's discarded and removed from {@link #locks}; a caller who
+     * finds a discarded one has to look up (or create) its replacement.
+     */
+    private static class TypeLock {
+        private final SimpleTypeName name;
+        private final ReadWriteLock rwl;
+        private int users = 0;
+        private boolean discarded = false;
+
+        TypeLock(SimpleTypeName name,
+                 ReadWriteLock rwl) {
+            this.name = name;
+            this.rwl = rwl;
+        }
+    }
+
+    /**
+     * The read lock handed out by {@link #getReadLock}. Unlocking it also
+     * gives up its use of the type's lock, so it must only be unlocked once.
+     */
+    private class HeldReadLock
+            implements Lock {
+        private final TypeLock typeLock;
+        private final Lock readLock;
+        private final AtomicBoolean held;
+
+        HeldReadLock(TypeLock typeLock) {
+            this.typeLock = typeLock;
+            readLock = typeLock.rwl.readLock();
+            held = new AtomicBoolean(true);
+        }
+
+        @Override
+        public void lock() {
+            readLock.lock();
+        }
+
+        @Override
+        public void lockInterruptibly()
+                throws InterruptedException {
+            readLock.lockInterruptibly();
+        }
+
+        @Override
+        public boolean tryLock() {
+            return readLock.tryLock();
+        }
+
+        @Override
+        public boolean tryLock(long time,
+                               TimeUnit unit)
+                throws InterruptedException {
+            return readLock.tryLock(time, unit);
+        }
+
+        @Override
+        public void unlock() {
+            readLock.unlock();
+            if (held.compareAndSet(true, false)) {
+                relinquish(typeLock);
+            }
+        }
+
+        @Override
+        public Condition newCondition() {
+            return readLock.newCondition();
+        }
+    }
+
+    private static class Inherited {
+        private final ATRActionDeclaration raw;
+        private final ATRActionDeclaration decl;
+        private final Set<SimpleTypeName> ancestors;
+
+        Inherited(ATRActionDeclaration raw,
+                  ATRActionDeclaration decl,
+                  Set<SimpleTypeName> ancestors) {
+            this.raw = raw;
+            this.decl = decl;
+            this.ancestors = ancestors;
+        }
+    }
+
+    private static class Candidate {
+        private final SimpleTypeName name;
+        private final long lastUse;
+
+        Candidate(SimpleTypeName name,
+                  long lastUse) {
+            this.name = name;
+            this.lastUse = lastUse;
+        }
+    }
+
+    private static int getMaxResident() {
+        int max = DEFAULT_MAX_RESIDENT;
+        String customMax = System.getProperty(MAX_RESIDENT);
+        if (customMax != null) {
+            max = Integer.parseInt(customMax);
+            log.debug("Keeping at most {} resident types", max);
+        }
+        return max;
+    }
+
+    private static long getIdleTimeout() {
+        long timeout = DEFAULT_IDLE_TIMEOUT;
+        String customTimeout = System.getProperty(IDLE_TIMEOUT);
+        if (customTimeout != null) {
+            timeout = Long.parseLong(customTimeout);
+            log.debug("Evicting types idle for {} ms", timeout);
+        }
+        return timeout;
+    }
+
     public void shutdown() {
+        sweeper.cancel();
         threadPool.shutdown();
     }
 }
@@ -17,31 +17,49 @@
 // $Id: TypeFetcher.java 7401 2016-03-25 20:18:20Z Chris Jones (E24486) $
 package com.sri.tasklearning.mediators;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 import com.sri.ai.lumen.atr.decl.ATRDecl;
 import com.sri.pal.common.SimpleTypeName;
+import com.sri.pal.common.TypeName;
+import com.sri.pal.common.TypeNameExpr;
 import com.sri.pal.common.TypeNameFactory;
 import com.sri.tasklearning.lumenpal.ExecutionHandler;
 import com.sri.tasklearning.spine.Spine;
 import com.sri.tasklearning.spine.SpineException;
-import com.sri.tasklearning.spine.messages.ExecutorListQuery;
-import com.sri.tasklearning.spine.messages.ExecutorListResult;
-import com.sri.tasklearning.spine.messages.Message;
+import com.sri.tasklearning.spine.messages.TypeBatchQuery;
+import com.sri.tasklearning.spine.messages.TypeBatchResult;
 import com.sri.tasklearning.spine.messages.TypeQuery;
 import com.sri.tasklearning.spine.messages.TypeResult;
+import com.sri.tasklearning.spine.messages.UserMessageType;
 import com.sri.tasklearning.spine.messages.contents.TransactionUID;
+import com.sri.tasklearning.spine.util.ExecutorDirectory;
 import com.sri.tasklearning.spine.util.ReplyWatcher;
 import com.sri.tasklearning.spine.util.TypeCache;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * Synchronously fetches types via the Spine.
  *
  * @author chris
  */
 public class TypeFetcher {
+    private static final Logger log = LoggerFactory
+            .getLogger(TypeFetcher.class);
+
     private final Spine spine;
     private final LockingActionModel actionModel;
     private final TypeCache cache;
+    private final ExecutorDirectory executors;
     private final ReplyWatcher<TypeResult> watcher;
+    private final ReplyWatcher<TypeBatchResult> batchWatcher;
+    private final DependencyGraph graph;
 
     public TypeFetcher(Spine spine,
                        LockingActionModel actionModel,
@@ -50,7 +68,32 @@ public class TypeFetcher {
         this.spine = spine;
         this.actionModel = actionModel;
         cache = new TypeCache(spine);
+        executors = new ExecutorDirectory(spine);
         watcher = typeQueryWatcher;
+        batchWatcher = new ReplyWatcher<TypeBatchResult>(
+                TypeBatchResult.class, spine, Spine.DEFAULT_TIMEOUT);
+        if (spine != null) {
+            spine.subscribe(batchWatcher, UserMessageType.TYPE_BATCH_RESULT);
+        }
+        graph = new DependencyGraph(spine, actionModel, this);
+    }
+
+    /**
+     * Creates a fetcher which isn't tied to any one action model, for a caller
+     * which keeps several of them. Types are looked up only in the cache and
+     * then over the Spine, and the caller expires its own models.
+     */
+    public TypeFetcher(Spine spine,
+                       ReplyWatcher<TypeResult> typeQueryWatcher)
+            throws SpineException {
+        this(spine, null, typeQueryWatcher);
+    }
+
+    /**
+     * @return the dependency closures of the types this fetcher provides
+     */
+    public DependencyGraph getDependencyGraph() {
+        return graph;
     }
 
     /**
@@ -74,7 +117,7 @@ public class TypeFetcher {
         if (TypeNameFactory.isPrimitive(typeName)) {
             throw new RuntimeException("Can't load primitive type " + typeName);
         }
-        ATRDecl result = actionModel.getRaw(typeName);
+        ATRDecl result = getLocal(typeName);
 
         if (result == null) {
             result = (ATRDecl) cache.get(typeName);
@@ -94,10 +137,78 @@ public class TypeFetcher {
         return result;
     }
 
+    /**
+     * Requests several types at once, optionally with everything they depend
+     * on, in a single round trip. Types we already have aren't requested. The
+     * fetched types are cached, so that subsequent calls to {@link #getType}
+     * for any of them don't need to ask again. If the batch request fails,
+     * nothing is fetched and those calls will fetch each type on its own.
+     *
+     * @param typeNames
+     *            the types to fetch; collection types stand for their element
+     *            types
+     * @param withDependencies
+     *            if {@code true}, also fetch every type the requested ones
+     *            depend on
+     * @return the fetched types, each after the types it depends on
+     * @throws SpineException
+     *             if a communication error occurs
+     */
+    public List<ATRDecl> getTypes(Collection<? extends TypeName> typeNames,
+                                  boolean withDependencies)
+            throws SpineException {
+        Set<SimpleTypeName> wanted = new LinkedHashSet<SimpleTypeName>();
+        for (TypeName name : typeNames) {
+            while (name instanceof TypeNameExpr) {
+                name = ((TypeNameExpr) name).getInner();
+            }
+            if (TypeNameFactory.isPrimitive(name)) {
+                continue;
+            }
+            SimpleTypeName simpleName = (SimpleTypeName) name;
+            if (actionModel != null && actionModel.isPredefined(simpleName)) {
+                continue;
+            }
+            if (getLocal(simpleName) == null && cache.get(simpleName) == null) {
+                wanted.add(simpleName);
+            }
+        }
+        if (wanted.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        TransactionUID uid = spine.getNextUid();
+        TypeBatchQuery query = new TypeBatchQuery(spine.getClientId(), uid,
+                wanted, withDependencies);
+        List<ATRDecl> result;
+        try {
+            result = batchWatcher.sendAndGetReply(query).getTypeAtrs();
+        } catch (IllegalStateException e) {
+            log.debug("Batch query for " + wanted + " failed", e);
+            return Collections.emptyList();
+        }
+        for (ATRDecl type : result) {
+            cache.add(type);
+        }
+        return result;
+    }
+
+    /**
+     * @return the action model's current definition of the named type, or
+     *         {@code null} if it has none or there is no action model
+     */
+    private ATRDecl getLocal(SimpleTypeName typeName) {
+        if (actionModel == null || actionModel.isStale(typeName)) {
+            return null;
+        }
+        return actionModel.getRaw(typeName);
+    }
+
     /**
      * Checks to see if the indicated action has a registered executor somewhere
      * in the system. If no executor is registered, then Lumen won't be able to
-     * successfully run any procedure that calls the action.
+     * successfully run any procedure that calls the action. Answers are
+     * remembered until the action's executor changes.
      *
      * @param actName
      *            the action to check
@@ -111,20 +222,24 @@ public class TypeFetcher {
             return true;
         }
 
-        TransactionUID uid = spine.getNextUid();
-        ExecutorListQuery elq = new ExecutorListQuery(spine.getClientId(), uid,
-                actName);
-        Message[] responses = spine.gather(elq, Spine.DEFAULT_TIMEOUT);
-        for (Message msg : responses) {
-            ExecutorListResult result = (ExecutorListResult) msg;
-            if (result.isExecutor()) {
-                return true;
-            }
-        }
-        return false;
+        return executors.hasExecutor(actName);
+    }
+
+    /**
+     * Drops the named type from the cache, so the next request for it will
+     * fetch it again.
+     *
+     * @param typeName
+     *            the type which changed
+     */
+    void expire(SimpleTypeName typeName) {
+        cache.remove(typeName);
     }
 
     public void shutdown() {
         cache.shutdown();
+        graph.shutdown();
+        executors.shutdown();
+        batchWatcher.shutdown();
     }
 }
@@ -70,8 +70,8 @@ public class WithLockedTypes {
                 for(Lock lock : locks) {
                     lock.unlock();
                 }
-                // Remove any types we can.
-                actionModel.maybeRemove(requiredTypes);
+                // Leave them loaded for next time, but let them be evicted.
+                actionModel.release(requiredTypes);
             }
         };
 
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.lumenpal;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+import com.sri.ai.lumen.atr.ATRParameter;
+import com.sri.ai.lumen.atr.ATRSyntax;
+import com.sri.ai.lumen.atr.decl.ATRDecl;
+import com.sri.ai.lumen.atr.decl.ATRTypeDeclaration;
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.pal.common.TypeNameFactory;
+import com.sri.tasklearning.lumenpal.mock.MockLumen;
+import com.sri.tasklearning.lumenpal.util.LumenMediatorTestCase;
+import com.sri.tasklearning.mediators.DependencyGraph;
+import com.sri.tasklearning.mediators.LockingActionModel;
+import com.sri.tasklearning.mediators.TypeFetcher;
+import com.sri.tasklearning.spine.SpineException;
+import com.sri.tasklearning.spine.impl.jms.util.MockSpine;
+import com.sri.tasklearning.spine.messages.CacheExpire;
+import com.sri.tasklearning.spine.messages.TypeResult;
+import com.sri.tasklearning.spine.messages.UserMessageType;
+import com.sri.tasklearning.spine.util.ATRTestUtil;
+import com.sri.tasklearning.spine.util.ReplyWatcher;
+import com.sri.tasklearning.spine.util.TypeUtil;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class DependencyGraph_Test extends LumenMediatorTestCase {
+    private MockSpine mockSpine;
+    private LockingActionModel actionModel;
+    private DependencyGraph graph;
+    private SimpleTypeName elemName;
+    private SimpleTypeName listName;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        mockSpine = new MockSpine();
+        ReplyWatcher<TypeResult> typeQueryWatcher = new ReplyWatcher<TypeResult>(
+                TypeResult.class, mockSpine);
+        mockSpine.subscribe(typeQueryWatcher, UserMessageType.TYPE_RESULT);
+        actionModel = new LockingActionModel(
+                new LumenTypeAdder(new MockLumen()));
+        TypeFetcher typeFetcher = new TypeFetcher(mockSpine, actionModel,
+                typeQueryWatcher);
+        graph = typeFetcher.getDependencyGraph();
+
+        elemName = (SimpleTypeName) TypeNameFactory.makeName("elem");
+        listName = (SimpleTypeName) TypeNameFactory.makeName("elemList");
+        ATRTypeDeclaration elem = ATRTestUtil.makeCustomType(elemName,
+                String.class);
+        mockSpine.addType(elemName, elem);
+        mockSpine.addType(listName, ATRTestUtil.makeList(listName, elem));
+    }
+
+    private List<ATRDecl> getClosure(SimpleTypeName name)
+            throws SpineException {
+        return graph.getClosure(Collections.singleton(name), false, true);
+    }
+
+    @Test
+    public void dependenciesComeFirst() throws Exception {
+        List<ATRDecl> closure = getClosure(listName);
+        assertEquals(2, closure.size());
+        assertEquals(elemName, TypeUtil.getName(closure.get(0)));
+        assertEquals(listName, TypeUtil.getName(closure.get(1)));
+
+        // Asking for both doesn't repeat anything.
+        closure = graph.getClosure(Arrays.asList(elemName, listName), false,
+                true);
+        assertEquals(2, closure.size());
+    }
+
+    @Test
+    public void closuresAreRemembered() throws Exception {
+        getClosure(listName);
+        int sent = mockSpine.getSentMessagesList().size();
+        assertTrue(graph.size() > 0);
+
+        assertEquals(2, getClosure(listName).size());
+        assertEquals(sent, mockSpine.getSentMessagesList().size());
+    }
+
+    @Test
+    public void expiringForgetsDependents() throws Exception {
+        getClosure(listName);
+        assertEquals(2, graph.size());
+
+        graph.handleMessage(new CacheExpire("test", mockSpine.getNextUid(),
+                elemName, null));
+        assertEquals(0, graph.size());
+
+        int sent = mockSpine.getSentMessagesList().size();
+        assertEquals(2, getClosure(listName).size());
+        assertTrue(mockSpine.getSentMessagesList().size() > sent);
+    }
+
+    /**
+     * Stores a Lumen action, runs it, stores a new version and runs again. The
+     * second run must get the new version, whether or not the old one was
+     * still in use when the new one was stored.
+     */
+    @Test
+    public void restoredTypeIsReplaced() throws Exception {
+        SimpleTypeName actionName = (SimpleTypeName) TypeNameFactory.makeName(
+                "action", "1.0", ExecutionHandler.NAMESPACE);
+        ATRDecl v1 = makeAction(actionName);
+        ATRDecl v2 = makeAction(actionName);
+        ATRDecl v3 = makeAction(actionName);
+
+        // Not in use when it changes: it's removed right away.
+        mockSpine.addType(actionName, v1);
+        run(actionName);
+        assertSame(v1, actionModel.getRaw(actionName));
+        mockSpine.addType(actionName, v2);
+        graph.handleMessage(new CacheExpire("test", mockSpine.getNextUid(),
+                actionName, null));
+        assertNull(actionModel.getRaw(actionName));
+        run(actionName);
+        assertSame(v2, actionModel.getRaw(actionName));
+
+        // Still running when it changes: the next run replaces it.
+        Lock running = actionModel.getReadLock(actionName);
+        mockSpine.addType(actionName, v3);
+        graph.handleMessage(new CacheExpire("test", mockSpine.getNextUid(),
+                actionName, null));
+        assertSame(v2, actionModel.getRaw(actionName));
+        assertTrue(actionModel.isStale(actionName));
+        run(actionName);
+        assertSame(v3, actionModel.getRaw(actionName));
+        assertFalse(actionModel.isStale(actionName));
+        running.unlock();
+    }
+
+    private ATRDecl makeAction(SimpleTypeName name) {
+        return ATRTestUtil.makeAction(name, new ATRParameter[0], null, null);
+    }
+
+    /**
+     * Locks and adds a type and its dependencies, like WithLockedTypes does
+     * for a run, then releases them.
+     */
+    private void run(SimpleTypeName name) throws Exception {
+        List<ATRDecl> closure = getClosure(name);
+        List<Lock> locks = new ArrayList<Lock>();
+        for (ATRDecl type : closure) {
+            locks.add(actionModel.getReadLock(TypeUtil.getName(type)));
+            actionModel.add(type);
+        }
+        for (Lock lock : locks) {
+            lock.unlock();
+        }
+        actionModel.release(closure);
+    }
+
+    /**
+     * A fetcher shared by several action models doesn't consult any of them,
+     * but still forgets what has changed.
+     */
+    @Test
+    public void withoutActionModel() throws Exception {
+        ReplyWatcher<TypeResult> typeQueryWatcher = new ReplyWatcher<TypeResult>(
+                TypeResult.class, mockSpine);
+        mockSpine.subscribe(typeQueryWatcher, UserMessageType.TYPE_RESULT);
+        TypeFetcher typeFetcher = new TypeFetcher(mockSpine, typeQueryWatcher);
+        DependencyGraph sharedGraph = typeFetcher.getDependencyGraph();
+        assertEquals(2, sharedGraph.getClosure(
+                Collections.singleton(listName), false, true).size());
+
+        ATRDecl elem2 = ATRTestUtil.makeCustomType(elemName, Integer.class);
+        mockSpine.addType(elemName, elem2);
+        sharedGraph.handleMessage(new CacheExpire("test",
+                mockSpine.getNextUid(), elemName, null));
+        assertEquals(0, sharedGraph.size());
+        assertEquals(ATRSyntax.toSource(elem2),
+                ATRSyntax.toSource(typeFetcher.getType(elemName)));
+        typeFetcher.shutdown();
+    }
+
+    @Test
+    public void missingTypes() throws Exception {
+        SimpleTypeName missing = (SimpleTypeName) TypeNameFactory
+                .makeName("missing");
+        assertEquals(0, graph.getClosure(Collections.singleton(missing),
+                false, false).size());
+        try {
+            getClosure(missing);
+            fail("Shouldn't be able to load " + missing);
+        } catch (SpineException e) {
+            // expected
+        }
+    }
+}
@@ -37,10 +37,10 @@ import com.sri.tasklearning.spine.MessageHandlerException;
 import com.sri.tasklearning.spine.SpineException;
 import com.sri.tasklearning.spine.impl.jms.util.MockSpine;
 import com.sri.tasklearning.spine.messages.ExecuteRequest;
-import com.sri.tasklearning.spine.messages.SerialNumberResponse;
 import com.sri.tasklearning.spine.messages.TypeResult;
 import com.sri.tasklearning.spine.messages.contents.TransactionUID;
 import com.sri.tasklearning.spine.util.ReplyWatcher;
+import com.sri.tasklearning.spine.util.SerialNumberAllocator;
 import com.sri.tasklearning.spine.util.TypeUtil;
 
 import org.testng.annotations.BeforeMethod;
@@ -60,7 +60,7 @@ public class ExecutionHandler_Test extends LumenMediatorTestCase {
     private SimpleTypeName nestedActionSpineType;
     private SimpleTypeName nestedActionSpineType2;
     private List<Object> inParams;
-    private ReplyWatcher<SerialNumberResponse> serialGetter;
+    private SerialNumberAllocator serialGetter;
 
     @BeforeMethod
     public void setUp() throws SpineException {
@@ -74,8 +74,7 @@ public class ExecutionHandler_Test extends LumenMediatorTestCase {
         complexTypeFetcher = new MockComplexTypeFetcher(
                 new ReplyWatcher<TypeResult>(TypeResult.class, mockSpine),
                 mockSpine, lockingActionModel);
-        serialGetter = new ReplyWatcher<SerialNumberResponse>(
-                SerialNumberResponse.class, mockSpine);
+        serialGetter = new SerialNumberAllocator(mockSpine);
 
         parentUid = null;
         uid = new TransactionUID(bridge, 0);
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.lumenpal;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+
+import com.sri.ai.lumen.atr.ATRParameter;
+import com.sri.ai.lumen.atr.decl.ATRActionDeclaration;
+import com.sri.ai.lumen.atr.decl.ATRDecl;
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.pal.common.TypeNameFactory;
+import com.sri.tasklearning.lumenpal.util.LumenMediatorTestCase;
+import com.sri.tasklearning.mediators.LockingActionModel;
+import com.sri.tasklearning.mediators.TypeAdder;
+import com.sri.tasklearning.spine.util.ATRTestUtil;
+import com.sri.tasklearning.spine.util.TypeUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+/**
+ * Many threads locking, adding, resolving, releasing, and occasionally
+ * removing the same small set of actions, the way Lumen task threads do when
+ * running procedures. Checks that nothing fails and that every lock is
+ * discarded at the end, and logs the throughput.
+ */
+public class LockingActionModel_PerfTest
+        extends LumenMediatorTestCase {
+    private static final Logger log = LoggerFactory
+            .getLogger(LockingActionModel_PerfTest.class);
+
+    private static final int THREADS = 16;
+    private static final int ITERATIONS = 20000;
+    private static final int ACTIONS = 64;
+
+    @Test
+    public void concurrentUse()
+            throws Exception {
+        final LockingActionModel actionModel = new LockingActionModel(
+                new NullTypeAdder(), ACTIONS / 2, 0);
+
+        // Chains of four actions, each inheriting from the one before.
+        final List<ATRActionDeclaration> actions = new ArrayList<ATRActionDeclaration>();
+        ATRActionDeclaration parent = null;
+        for (int i = 0; i < ACTIONS; i++) {
+            SimpleTypeName name = (SimpleTypeName) TypeNameFactory
+                    .makeName("PerfAction" + i);
+            if (i % 4 == 0) {
+                parent = null;
+            }
+            parent = ATRTestUtil.makeAction(name, new ATRParameter[0], null,
+                    parent);
+            actions.add(parent);
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        for (int t = 0; t < THREADS; t++) {
+            final Random random = new Random(t);
+            Thread thread = new Thread("PerfTest " + t) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < ITERATIONS; i++) {
+                            useChain(actionModel, actions, random.nextInt(ACTIONS / 4) * 4);
+                            if (i % 100 == 0) {
+                                int victim = random.nextInt(ACTIONS);
+                                actionModel.maybeRemove(TypeUtil.getName(actions.get(victim)));
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - startTime;
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        long ops = (long) THREADS * ITERATIONS;
+        log.info("{} chain uses on {} threads in {} ms ({} per second); {} loads, {} reuses, {} evictions",
+                new Object[] { ops, THREADS, elapsed / 1000000,
+                        ops * 1000000000L / Math.max(1, elapsed),
+                        actionModel.getLoadCount(),
+                        actionModel.getReuseCount(),
+                        actionModel.getEvictionCount() });
+
+        // Remove everything, children first, and no locks should remain.
+        boolean removed;
+        do {
+            removed = false;
+            for (ATRActionDeclaration action : actions) {
+                SimpleTypeName name = TypeUtil.getName(action);
+                if (actionModel.getRaw(name) != null
+                        && actionModel.maybeRemove(name)) {
+                    removed = true;
+                }
+            }
+        } while (removed);
+        assertEquals(0, actionModel.getResidentCount());
+        assertEquals(0, actionModel.getLockCount());
+        actionModel.shutdown();
+    }
+
+    /**
+     * Does what WithLockedTypes does for a procedure which uses the leaf of
+     * the chain starting at {@code first}.
+     */
+    private void useChain(LockingActionModel actionModel,
+                          List<ATRActionDeclaration> actions,
+                          int first)
+            throws Exception {
+        List<ATRDecl> required = new ArrayList<ATRDecl>();
+        List<Lock> locks = new ArrayList<Lock>();
+        for (int i = first; i < first + 4; i++) {
+            ATRActionDeclaration action = actions.get(i);
+            locks.add(actionModel.getReadLock(TypeUtil.getName(action)));
+            actionModel.add(action);
+            required.add(action);
+        }
+        ATRDecl leaf = actionModel.getInherited(TypeUtil.getName(actions
+                .get(first + 3)));
+        assertTrue(leaf instanceof ATRActionDeclaration);
+        for (Lock lock : locks) {
+            lock.unlock();
+        }
+        actionModel.release(Collections.unmodifiableList(required));
+    }
+
+    private static class NullTypeAdder
+            implements TypeAdder {
+        @Override
+        public void add(ATRDecl decl) {
+        }
+
+        @Override
+        public boolean remove(ATRDecl decl) {
+            return true;
+        }
+    }
+}
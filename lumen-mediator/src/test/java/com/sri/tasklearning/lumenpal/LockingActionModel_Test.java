@@ -16,13 +16,21 @@
 
 package com.sri.tasklearning.lumenpal;
 
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNotSame;
 import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
 import static org.testng.AssertJUnit.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.locks.Lock;
 
 import com.sri.ai.lumen.atr.ATRParameter;
+import com.sri.ai.lumen.atr.decl.ATRActionDeclaration;
 import com.sri.ai.lumen.atr.decl.ATRDecl;
 import com.sri.ai.lumen.atr.decl.ATRSigDecl;
 import com.sri.pal.common.SimpleTypeName;
@@ -30,7 +38,14 @@ import com.sri.pal.common.TypeNameFactory;
 import com.sri.tasklearning.lumenpal.mock.MockLumen;
 import com.sri.tasklearning.lumenpal.util.LumenMediatorTestCase;
 import com.sri.tasklearning.mediators.LockingActionModel;
+import com.sri.tasklearning.mediators.TypeAdder;
+import com.sri.tasklearning.mediators.TypeFetcher;
+import com.sri.tasklearning.spine.impl.jms.util.MockSpine;
+import com.sri.tasklearning.spine.messages.CacheExpire;
+import com.sri.tasklearning.spine.messages.TypeResult;
+import com.sri.tasklearning.spine.messages.UserMessageType;
 import com.sri.tasklearning.spine.util.ATRTestUtil;
+import com.sri.tasklearning.spine.util.ReplyWatcher;
 
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -100,6 +115,170 @@ public class LockingActionModel_Test extends LumenMediatorTestCase {
         }
     }
 
+    @Test
+    public void releasedTypeStaysResident() throws Exception {
+        LockingActionModel lockingActionModel = new LockingActionModel(
+                adder, 10, 0);
+
+        for (int i = 0; i < 3; i++) {
+            Lock lock = lockingActionModel.getReadLock(spineActionTypeName);
+            lockingActionModel.add(spineAction);
+            lock.unlock();
+            lockingActionModel.release(Collections.<ATRDecl> singletonList(spineAction));
+        }
+
+        assertNotNull(lockingActionModel.getRaw(spineActionTypeName));
+        assertEquals(1, lockingActionModel.getLoadCount());
+        assertEquals(2, lockingActionModel.getReuseCount());
+        assertEquals(1, lockingActionModel.getResidentCount());
+        lockingActionModel.shutdown();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedOverBudget() throws Exception {
+        LockingActionModel lockingActionModel = new LockingActionModel(
+                new RemovingTypeAdder(), 1, 0);
+        SimpleTypeName otherName = (SimpleTypeName) TypeNameFactory.makeName("OtherAction");
+        ATRSigDecl otherAction = ATRTestUtil.makeAction(otherName,
+                new ATRParameter[0], null, null);
+
+        Lock lock = lockingActionModel.getReadLock(spineActionTypeName);
+        lockingActionModel.add(spineAction);
+        lock.unlock();
+        lockingActionModel.release(Collections.<ATRDecl> singletonList(spineAction));
+        Thread.sleep(10);
+        lock = lockingActionModel.getReadLock(otherName);
+        lockingActionModel.add(otherAction);
+        lock.unlock();
+        lockingActionModel.release(Collections.<ATRDecl> singletonList(otherAction));
+
+        for (int i = 0; i < 100 && lockingActionModel.getResidentCount() > 1; i++) {
+            Thread.sleep(10);
+        }
+        assertNull(lockingActionModel.getRaw(spineActionTypeName));
+        assertNotNull(lockingActionModel.getRaw(otherName));
+        assertEquals(1, lockingActionModel.getEvictionCount());
+        lockingActionModel.shutdown();
+    }
+
+    @Test
+    public void expiredTypeIsRemovedWhenUnused() throws Exception {
+        LockingActionModel lockingActionModel = new LockingActionModel(
+                new RecordingTypeAdder(), 10, 0);
+        Lock lock = lockingActionModel.getReadLock(spineActionTypeName);
+        lockingActionModel.add(spineAction);
+        lock.unlock();
+        lockingActionModel.release(Collections.<ATRDecl> singletonList(spineAction));
+
+        assertTrue(lockingActionModel.expire(spineActionTypeName));
+        assertNull(lockingActionModel.getRaw(spineActionTypeName));
+        assertFalse(lockingActionModel.isStale(spineActionTypeName));
+        lockingActionModel.shutdown();
+    }
+
+    @Test
+    public void expiredTypeInUseIsReplaced() throws Exception {
+        RecordingTypeAdder recorder = new RecordingTypeAdder();
+        LockingActionModel lockingActionModel = new LockingActionModel(
+                recorder, 10, 0);
+        ATRSigDecl newAction = ATRTestUtil.makeAction(spineActionTypeName,
+                new ATRParameter[0], null, null);
+
+        Lock lock = lockingActionModel.getReadLock(spineActionTypeName);
+        lockingActionModel.add(spineAction);
+        assertFalse(lockingActionModel.expire(spineActionTypeName));
+        assertTrue(lockingActionModel.isStale(spineActionTypeName));
+        assertSame(spineAction, lockingActionModel.getRaw(spineActionTypeName));
+
+        // The next user brings the new definition, which replaces the old one.
+        Lock lock2 = lockingActionModel.getReadLock(spineActionTypeName);
+        lockingActionModel.add(newAction);
+        assertSame(newAction, lockingActionModel.getRaw(spineActionTypeName));
+        assertFalse(lockingActionModel.isStale(spineActionTypeName));
+        assertEquals(Collections.singletonList(spineAction), recorder.removed);
+        assertEquals(2, recorder.added.size());
+        assertSame(newAction, recorder.added.get(1));
+
+        // Adding it again is just a reuse.
+        lockingActionModel.add(newAction);
+        assertEquals(2, recorder.added.size());
+
+        lock2.unlock();
+        lock.unlock();
+        lockingActionModel.shutdown();
+    }
+
+    @Test
+    public void staleTypeIsRemovedOnRelease() throws Exception {
+        LockingActionModel lockingActionModel = new LockingActionModel(
+                new RecordingTypeAdder(), 10, 0);
+        Lock lock = lockingActionModel.getReadLock(spineActionTypeName);
+        lockingActionModel.add(spineAction);
+        assertFalse(lockingActionModel.expire(spineActionTypeName));
+        lock.unlock();
+        lockingActionModel.release(Collections.<ATRDecl> singletonList(spineAction));
+
+        for (int i = 0; i < 100 && lockingActionModel.getRaw(spineActionTypeName) != null; i++) {
+            Thread.sleep(10);
+        }
+        assertNull(lockingActionModel.getRaw(spineActionTypeName));
+        assertFalse(lockingActionModel.isStale(spineActionTypeName));
+        lockingActionModel.shutdown();
+    }
+
+    /**
+     * A CacheExpire from the Spine reaches the action model, so a re-stored
+     * type isn't kept loaded in its old form.
+     */
+    @Test
+    public void cacheExpireExpiresType() throws Exception {
+        MockSpine mockSpine = new MockSpine();
+        LockingActionModel lockingActionModel = new LockingActionModel(
+                new RecordingTypeAdder(), 10, 0);
+        ReplyWatcher<TypeResult> typeQueryWatcher = new ReplyWatcher<TypeResult>(
+                TypeResult.class, mockSpine);
+        TypeFetcher typeFetcher = new TypeFetcher(mockSpine,
+                lockingActionModel, typeQueryWatcher);
+        Lock lock = lockingActionModel.getReadLock(spineActionTypeName);
+        lockingActionModel.add(spineAction);
+
+        mockSpine.deliver(UserMessageType.CACHE_EXPIRE, new CacheExpire(
+                "test", mockSpine.getNextUid(), spineActionTypeName, null));
+        assertTrue(lockingActionModel.isStale(spineActionTypeName));
+        lock.unlock();
+        typeFetcher.shutdown();
+        lockingActionModel.shutdown();
+    }
+
+    @Test
+    public void inheritedActionIsMemoized() throws Exception {
+        LockingActionModel lockingActionModel = new LockingActionModel(
+                new RemovingTypeAdder());
+        SimpleTypeName childName = (SimpleTypeName) TypeNameFactory.makeName("ChildAction");
+        ATRSigDecl childAction = ATRTestUtil.makeAction(childName,
+                new ATRParameter[0], null, (ATRActionDeclaration) spineAction);
+
+        Lock parentLock = lockingActionModel.getReadLock(spineActionTypeName);
+        lockingActionModel.add(spineAction);
+        Lock childLock = lockingActionModel.getReadLock(childName);
+        lockingActionModel.add(childAction);
+
+        ATRDecl inherited = lockingActionModel.getInherited(childName);
+        assertNotSame(childAction, inherited);
+        assertSame(inherited, lockingActionModel.getInherited(childName));
+
+        // Replacing the child must not return the old merged declaration.
+        childLock.unlock();
+        assertTrue(lockingActionModel.maybeRemove(childName));
+        childLock = lockingActionModel.getReadLock(childName);
+        lockingActionModel.add(childAction);
+        assertNotSame(inherited, lockingActionModel.getInherited(childName));
+
+        childLock.unlock();
+        parentLock.unlock();
+        lockingActionModel.shutdown();
+    }
+
     @Test
     public void lockingCanStayLockedWithMultiThreadedPounding() throws InterruptedException {
         // Spawn a load of these adder remover threads and see if we can get it to
@@ -136,6 +315,41 @@ public class LockingActionModel_Test extends LumenMediatorTestCase {
         assertTrue(removedAtLeastOnce);
     }
 
+    /**
+     * Removes anything, and remembers what it was asked to do.
+     */
+    private static class RecordingTypeAdder
+            implements TypeAdder {
+        private final List<ATRDecl> added = new ArrayList<ATRDecl>();
+        private final List<ATRDecl> removed = new ArrayList<ATRDecl>();
+
+        @Override
+        public void add(ATRDecl decl) {
+            added.add(decl);
+        }
+
+        @Override
+        public boolean remove(ATRDecl decl) {
+            removed.add(decl);
+            return true;
+        }
+    }
+
+    /**
+     * LumenTypeAdder only removes Lumen procedures; this one removes anything.
+     */
+    private static class RemovingTypeAdder
+            implements TypeAdder {
+        @Override
+        public void add(ATRDecl decl) {
+        }
+
+        @Override
+        public boolean remove(ATRDecl decl) {
+            return true;
+        }
+    }
+
     class TypeAdderLockerAndRemover implements Runnable {
 
         @Override
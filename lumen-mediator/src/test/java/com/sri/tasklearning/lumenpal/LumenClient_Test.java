@@ -100,6 +100,10 @@ public class LumenClient_Test extends LumenMediatorTestCase {
         expectedLumenTopics.add(UserMessageType.CONSTRAINT_REQUEST);
         expectedLumenTopics.add(SystemMessageType.SERIAL_NUMBER_RESPONSE);
         expectedLumenTopics.add(UserMessageType.CACHE_EXPIRE);
+        expectedLumenTopics.add(UserMessageType.EXECUTOR_CHANGE);
+        expectedLumenTopics.add(UserMessageType.TYPE_BATCH_RESULT);
+        expectedLumenTopics.add(SystemMessageType.NEW_SUBSCRIPTION);
+        expectedLumenTopics.add(SystemMessageType.UNSUBSCRIBE);
         expectedLumenTopics.add(UserMessageType.BREAKPOINT_RESPONSE);
         expectedLumenTopics.add(UserMessageType.EXPR_EVAL_REQUEST);
         expectedLumenTopics.add(SystemMessageType.SPINE_CLOSING);
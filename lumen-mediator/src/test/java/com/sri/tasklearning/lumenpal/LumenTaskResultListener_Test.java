@@ -41,12 +41,12 @@ import com.sri.tasklearning.spine.SpineException;
 import com.sri.tasklearning.spine.impl.jms.util.MockSpine;
 import com.sri.tasklearning.spine.messages.ErrorExecutionStatus;
 import com.sri.tasklearning.spine.messages.Message;
-import com.sri.tasklearning.spine.messages.SerialNumberResponse;
 import com.sri.tasklearning.spine.messages.SuccessExecutionStatus;
 import com.sri.tasklearning.spine.messages.TypeResult;
 import com.sri.tasklearning.spine.messages.contents.TransactionUID;
 import com.sri.tasklearning.spine.util.ATRTestUtil;
 import com.sri.tasklearning.spine.util.ReplyWatcher;
+import com.sri.tasklearning.spine.util.SerialNumberAllocator;
 
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -60,7 +60,7 @@ public class LumenTaskResultListener_Test extends LumenMediatorTestCase {
     private MockExecutionHandler execHandler;
     private LockingActionModel actionModel;
     private SimpleTypeName spineActionTypeName;
-    private ReplyWatcher<SerialNumberResponse> serialGetter;
+    private SerialNumberAllocator serialGetter;
 
     @BeforeMethod
     public void setup() throws SpineException {
@@ -73,12 +73,10 @@ public class LumenTaskResultListener_Test extends LumenMediatorTestCase {
         MockLumen lumen = new MockLumen();
         LumenTypeAdder adder = new LumenTypeAdder(lumen);
         actionModel = new LockingActionModel(adder);
-        ReplyWatcher<SerialNumberResponse> serialGetter = new ReplyWatcher<SerialNumberResponse>(
-                SerialNumberResponse.class, spineFacade);
+        SerialNumberAllocator serialGetter = new SerialNumberAllocator(spineFacade);
         ReplyWatcher<TypeResult> typeResultGetter = new ReplyWatcher<TypeResult>(
                 TypeResult.class, spineFacade);
-        serialGetter = new ReplyWatcher<SerialNumberResponse>(
-                SerialNumberResponse.class, spineFacade);
+        serialGetter = new SerialNumberAllocator(spineFacade);
         TypeFetcher typeFetcher = new TypeFetcher(spineFacade, actionModel,
                 typeResultGetter);
         ProcedureDependencyFinder procDepFinder = new ProcedureDependencyFinder(
@@ -26,9 +26,9 @@ import com.sri.tasklearning.mediators.LockingActionModel;
 import com.sri.tasklearning.mediators.TypeFetcher;
 import com.sri.tasklearning.spine.SpineException;
 import com.sri.tasklearning.spine.impl.jms.util.MockSpine;
-import com.sri.tasklearning.spine.messages.SerialNumberResponse;
 import com.sri.tasklearning.spine.messages.TypeResult;
 import com.sri.tasklearning.spine.util.ReplyWatcher;
+import com.sri.tasklearning.spine.util.SerialNumberAllocator;
 
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -39,7 +39,7 @@ public class ServerConnectionImpl_Test extends LumenMediatorTestCase {
     private ExecutionWatcher executionWatcher;
     private LockingActionModel lockingActionModel;
     private MockSpine mockSpine;
-    private ReplyWatcher<SerialNumberResponse> serialGetter;
+    private SerialNumberAllocator serialGetter;
 
     @BeforeMethod
     public void setup() throws SpineException {
@@ -51,8 +51,7 @@ public class ServerConnectionImpl_Test extends LumenMediatorTestCase {
                 TypeResult.class, mockSpine);
         executionWatcher = new ExecutionWatcher(mockSpine);
         typeFetcher = new TypeFetcher(mockSpine, lockingActionModel, typeQueryWatcher);
-        serialGetter = new ReplyWatcher<SerialNumberResponse>(
-                SerialNumberResponse.class, mockSpine);
+        serialGetter = new SerialNumberAllocator(mockSpine);
         ProcedureDependencyFinder procDepFinder = new ProcedureDependencyFinder(
                 lockingActionModel, typeFetcher);
         RunOnce runOnce = new RunOnce(mockLumen, lockingActionModel, procDepFinder);
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.lumenpal;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.sri.ai.lumen.atr.ATRParameter;
+import com.sri.ai.lumen.atr.decl.ATRDecl;
+import com.sri.ai.lumen.atr.decl.ATRSigDecl;
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.pal.common.TypeNameFactory;
+import com.sri.tasklearning.lumenpal.mock.MockLumen;
+import com.sri.tasklearning.lumenpal.util.LumenMediatorTestCase;
+import com.sri.tasklearning.mediators.LockingActionModel;
+import com.sri.tasklearning.mediators.TypeFetcher;
+import com.sri.tasklearning.spine.impl.jms.util.MockSpine;
+import com.sri.tasklearning.spine.messages.Message;
+import com.sri.tasklearning.spine.messages.TypeBatchQuery;
+import com.sri.tasklearning.spine.messages.TypeQuery;
+import com.sri.tasklearning.spine.messages.TypeResult;
+import com.sri.tasklearning.spine.messages.UserMessageType;
+import com.sri.tasklearning.spine.util.ATRTestUtil;
+import com.sri.tasklearning.spine.util.ReplyWatcher;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TypeFetcher_Test extends LumenMediatorTestCase {
+    private MockSpine mockSpine;
+    private TypeFetcher typeFetcher;
+    private SimpleTypeName name1;
+    private SimpleTypeName name2;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        mockSpine = new MockSpine();
+        ReplyWatcher<TypeResult> typeQueryWatcher = new ReplyWatcher<TypeResult>(
+                TypeResult.class, mockSpine);
+        mockSpine.subscribe(typeQueryWatcher, UserMessageType.TYPE_RESULT);
+        LockingActionModel actionModel = new LockingActionModel(
+                new LumenTypeAdder(new MockLumen()));
+        typeFetcher = new TypeFetcher(mockSpine, actionModel, typeQueryWatcher);
+
+        name1 = (SimpleTypeName) TypeNameFactory.makeName("action1");
+        name2 = (SimpleTypeName) TypeNameFactory.makeName("action2");
+        ATRSigDecl action1 = ATRTestUtil.makeAction(name1,
+                new ATRParameter[0], null, null);
+        ATRSigDecl action2 = ATRTestUtil.makeAction(name2,
+                new ATRParameter[0], null, null);
+        mockSpine.addType(name1, action1);
+        mockSpine.addType(name2, action2);
+    }
+
+    private int countSent(Class<? extends Message> type) {
+        int result = 0;
+        for (Message msg : mockSpine.getSentMessagesList()) {
+            if (type.isInstance(msg)) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void batchFetchesInOneQuery() throws Exception {
+        List<ATRDecl> types = typeFetcher.getTypes(Arrays.asList(name1, name2),
+                false);
+        assertEquals(2, types.size());
+        assertEquals(1, countSent(TypeBatchQuery.class));
+
+        // Both are cached now.
+        assertEquals(types.get(0), typeFetcher.getType(name1));
+        assertEquals(types.get(1), typeFetcher.getType(name2));
+        assertEquals(0, countSent(TypeQuery.class));
+    }
+
+    @Test
+    public void batchSkipsKnownTypes() throws Exception {
+        typeFetcher.getType(name1);
+        assertEquals(1, countSent(TypeQuery.class));
+
+        typeFetcher.getTypes(Arrays.asList(name1), true);
+        assertEquals(0, countSent(TypeBatchQuery.class));
+        assertTrue(typeFetcher.getTypes(Arrays.asList(name1, name2), true)
+                .size() == 1);
+        assertEquals(1, countSent(TypeBatchQuery.class));
+    }
+}
@@ -24,14 +24,13 @@ import com.sri.tasklearning.mediators.TypeFetcher;
 import com.sri.tasklearning.spine.MessageHandlerException;
 import com.sri.tasklearning.spine.Spine;
 import com.sri.tasklearning.spine.messages.Message;
-import com.sri.tasklearning.spine.messages.SerialNumberResponse;
-import com.sri.tasklearning.spine.util.ReplyWatcher;
+import com.sri.tasklearning.spine.util.SerialNumberAllocator;
 
 public class MockExecutionHandler extends ExecutionHandler {
     public MockExecutionHandler(RunOnce runOnce,
                                 LockingActionModel actionModel,
                                 TypeFetcher typeFetcher,
-                                ReplyWatcher<SerialNumberResponse> serialGetter,
+                                SerialNumberAllocator serialGetter,
                                 Spine spine,
                                 ProcedureDependencyFinder finder) {
         super(runOnce, actionModel, typeFetcher, serialGetter, spine, finder);
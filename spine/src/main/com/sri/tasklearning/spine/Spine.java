@@ -17,6 +17,9 @@
 // $Id: Spine.java 7401 2016-03-25 20:18:20Z Chris Jones (E24486) $
 package com.sri.tasklearning.spine;
 
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
 import com.sri.tasklearning.spine.impl.jms.GatherCallback;
 import com.sri.tasklearning.spine.messages.*;
 import com.sri.tasklearning.spine.messages.contents.TransactionUID;
@@ -49,10 +52,14 @@ public interface Spine {
 
     public boolean send(Message message) throws SpineException;
 
+    public boolean sendBatch(Collection<? extends Message> messages) throws SpineException;
+
     public Message[] gather(Message message, long timeout) throws SpineException;
 
     public void gatherAsynchronous(Message message, long timeout, GatherCallback callback) throws SpineException;
 
+    public CompletableFuture<Message[]> gatherAsync(Message message, long timeout) throws SpineException;
+
     public void shutdown(boolean loud) throws Exception;
 
     public void shutdownMaster() throws Exception;
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.impl.jms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+
+import com.sri.tasklearning.spine.messages.ExecuteRequest;
+import com.sri.tasklearning.spine.messages.Message;
+import com.sri.tasklearning.spine.messages.MessageType;
+import com.sri.tasklearning.util.NamedThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Packs runs of messages for the same topic into {@link MessageBatch}es.
+ * Each sending lane of the {@link SenderPool} has its own pending batch, so
+ * threads on different lanes never wait for each other, and a thread's
+ * messages all go out through its lane in the order it sent them.
+ * Consecutive messages for the same topic on a lane are collected into one
+ * batch, which goes out when a message for another topic arrives, when it
+ * reaches the maximum batch size, or when the linger time has passed since
+ * its first message. Messages which may not be held back are sent
+ * immediately, after the lane's pending batch.
+ * <p>
+ * Execute requests addressed to one executor are never packed: the target is
+ * a JMS property the brokers select on, and a batch carries no such property.
+ * <p>
+ * With a linger time of 0, single messages are never held back and only
+ * explicit batches from {@link #sendBatch} are packed.
+ */
+class BatchingSender {
+    private static final Logger log = LoggerFactory.getLogger(BatchingSender.class);
+
+    private final JmsSpine spine;
+    private final long linger;
+    private final int maxSize;
+    private final ScheduledExecutorService timer;
+    private final Pending[] lanes;
+
+    /**
+     * @param spine the spine whose {@code transmit} method sends the batches
+     * @param linger how long, in milliseconds, a message may wait for others
+     *            to share its batch; 0 disables coalescing of single messages
+     * @param maxSize the most messages sent in one batch
+     * @param laneCount how many sending lanes the spine has
+     */
+    BatchingSender(JmsSpine spine,
+                   long linger,
+                   int maxSize,
+                   int laneCount) {
+        this.spine = spine;
+        this.linger = linger;
+        this.maxSize = (maxSize < 1) ? 1 : maxSize;
+        lanes = new Pending[(laneCount < 1) ? 1 : laneCount];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Pending(i);
+        }
+        if (linger > 0) {
+            timer = Executors.newSingleThreadScheduledExecutor(
+                    new NamedThreadFactory(spine.getClientId() + " " + getClass().getSimpleName()));
+        } else {
+            timer = null;
+        }
+    }
+
+    /**
+     * Send a single message, possibly holding it back to share a batch with
+     * the messages which follow it on the same lane.
+     * @param message the message to send
+     * @param messageType its topic
+     * @param coalesce false if the message must go out immediately
+     * @throws JMSException if this or a pending batch could not be sent
+     */
+    void send(Message message,
+              MessageType messageType,
+              boolean coalesce) throws JMSException {
+        if (timer == null) {
+            // Nothing is ever held back, so there is nothing to keep in order.
+            spine.transmit(message, messageType);
+            return;
+        }
+        Pending lane = lanes[spine.senderLane() % lanes.length];
+        if (!coalesce || isTargeted(message)) {
+            // Whatever is pending went out first; this message needn't wait
+            // for the lane's batch while it is sent.
+            lane.flush();
+            spine.transmit(lane.index, message, messageType);
+            return;
+        }
+        lane.add(message, messageType);
+    }
+
+    /**
+     * Send messages for one topic, packed into as few batches as the maximum
+     * batch size allows.
+     * @param messages the messages to send, all for the same topic
+     * @param messageType their topic
+     * @throws JMSException if the messages could not be sent
+     */
+    void sendBatch(List<Message> messages,
+                   MessageType messageType) throws JMSException {
+        Pending lane = lanes[spine.senderLane() % lanes.length];
+        synchronized (lane) {
+            lane.flush();
+            List<Message> run = new ArrayList<Message>();
+            for (Message message : messages) {
+                if (isTargeted(message)) {
+                    transmit(lane.index, run, messageType);
+                    run = new ArrayList<Message>();
+                    spine.transmit(lane.index, message, messageType);
+                    continue;
+                }
+                run.add(message);
+                if (run.size() >= maxSize) {
+                    transmit(lane.index, run, messageType);
+                    run = new ArrayList<Message>();
+                }
+            }
+            transmit(lane.index, run, messageType);
+        }
+    }
+
+    /**
+     * Send any messages being held back on any lane.
+     * @throws JMSException if they could not be sent
+     */
+    void flush() throws JMSException {
+        JMSException failure = null;
+        for (Pending lane : lanes) {
+            try {
+                lane.flush();
+            } catch (JMSException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    void shutdown() {
+        if (timer != null) {
+            timer.shutdown();
+        }
+    }
+
+    private void transmit(int lane,
+                          List<Message> batch,
+                          MessageType messageType) throws JMSException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (batch.size() == 1) {
+            spine.transmit(lane, batch.get(0), messageType);
+        } else {
+            log.trace("Sending batch of {} {} messages", batch.size(), messageType);
+            spine.transmit(lane, new MessageBatch(spine.getClientId(), batch.get(0).getUid(),
+                    messageType, batch), messageType);
+        }
+    }
+
+    private static boolean isTargeted(Message message) {
+        return message instanceof ExecuteRequest &&
+                ((ExecuteRequest) message).getTarget() != null;
+    }
+
+    /**
+     * The batch being collected for one sending lane. It is always sent on
+     * that lane, even when the timer flushes it.
+     */
+    private class Pending {
+        private final int index;
+        private List<Message> messages = new ArrayList<Message>();
+        private MessageType type;
+        private ScheduledFuture<?> flushTask;
+
+        Pending(int index) {
+            this.index = index;
+        }
+
+        synchronized void add(Message message,
+                              MessageType messageType) throws JMSException {
+            if (type != messageType) {
+                flush();
+            }
+            messages.add(message);
+            type = messageType;
+            if (messages.size() >= maxSize) {
+                flush();
+            } else if (flushTask == null) {
+                flushTask = timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            flush();
+                        } catch (JMSException e) {
+                            log.warn("Unable to send batched messages", e);
+                        }
+                    }
+                }, linger, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        synchronized void flush() throws JMSException {
+            if (flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+            if (messages.isEmpty()) {
+                return;
+            }
+            List<Message> batch = messages;
+            MessageType batchType = type;
+            messages = new ArrayList<Message>();
+            type = null;
+            BatchingSender.this.transmit(index, batch, batchType);
+        }
+    }
+}
@@ -0,0 +1,520 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.impl.jms;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import com.sri.pal.common.ErrorInfo;
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.tasklearning.spine.messages.CancelRequest;
+import com.sri.tasklearning.spine.messages.ErrorExecutionStatus;
+import com.sri.tasklearning.spine.messages.ExecuteRequest;
+import com.sri.tasklearning.spine.messages.IgnoredExecutionStatus;
+import com.sri.tasklearning.spine.messages.Message;
+import com.sri.tasklearning.spine.messages.MessageType;
+import com.sri.tasklearning.spine.messages.RequestIgnored;
+import com.sri.tasklearning.spine.messages.SerialNumberRequest;
+import com.sri.tasklearning.spine.messages.SerialNumberResponse;
+import com.sri.tasklearning.spine.messages.StartExecutionStatus;
+import com.sri.tasklearning.spine.messages.SuccessExecutionStatus;
+import com.sri.tasklearning.spine.messages.TypeQuery;
+import com.sri.tasklearning.spine.messages.TypeResult;
+import com.sri.tasklearning.spine.messages.contents.TransactionUID;
+import com.sri.tasklearning.spine.messages.contents.UID;
+
+/**
+ * Encodes the high traffic Spine messages (execution requests and statuses,
+ * type queries and results, serial numbers) and {@link MessageBatch}es as
+ * hand written binary frames in a JMS {@code BytesMessage}. This avoids the class descriptors and
+ * reflection which Java serialization spends on every message. Any other
+ * message is passed to an {@link ObjectMessageCodec}, as are individual
+ * parameter values which are not simple strings, numbers, booleans or
+ * lists of those.
+ * <p>
+ * Each frame starts with the format version and a tag identifying the
+ * message class. A frame with a version this codec does not know is
+ * rejected rather than guessed at.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    static final byte FORMAT_VERSION = 3;
+
+    // Message class tags. Never renumber these; add new ones at the end.
+    private static final byte EXECUTE_REQUEST = 1;
+    private static final byte START_EXECUTION_STATUS = 2;
+    private static final byte SUCCESS_EXECUTION_STATUS = 3;
+    private static final byte ERROR_EXECUTION_STATUS = 4;
+    private static final byte IGNORED_EXECUTION_STATUS = 5;
+    private static final byte REQUEST_IGNORED = 6;
+    private static final byte CANCEL_REQUEST = 7;
+    private static final byte TYPE_QUERY = 8;
+    private static final byte TYPE_RESULT = 9;
+    private static final byte SERIAL_NUMBER_REQUEST = 10;
+    private static final byte SERIAL_NUMBER_RESPONSE = 11;
+    private static final byte MESSAGE_BATCH = 12;
+
+    // Value tags, used for parameter values and nullable fields.
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte BOOLEAN = 2;
+    private static final byte INTEGER = 3;
+    private static final byte LONG = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte FLOAT = 6;
+    private static final byte LIST = 7;
+    private static final byte SERIALIZED = 8;
+
+    // UID tags.
+    private static final byte PLAIN_UID = 1;
+    private static final byte TRANSACTION_UID = 2;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final MessageCodec fallback;
+
+    public BinaryMessageCodec() {
+        this(new ObjectMessageCodec());
+    }
+
+    /**
+     * @param fallback the codec used for messages this codec has no binary
+     *            frame for
+     */
+    public BinaryMessageCodec(MessageCodec fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public javax.jms.Message encode(Session session, Message message) throws JMSException {
+        byte tag = tagFor(message);
+        if (tag == NULL) {
+            return fallback.encode(session, message);
+        }
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(buf);
+        try {
+            out.writeByte(FORMAT_VERSION);
+            writeFrame(out, tag, message);
+            out.flush();
+        } catch (IOException e) {
+            throw jmsException("Unable to encode " + message, e);
+        }
+        BytesMessage bytesMessage = session.createBytesMessage();
+        bytesMessage.writeBytes(buf.toByteArray());
+        return bytesMessage;
+    }
+
+    @Override
+    public Message decode(javax.jms.Message jmsMessage) throws JMSException {
+        if (!BytesMessage.class.isInstance(jmsMessage)) {
+            return fallback.decode(jmsMessage);
+        }
+        BytesMessage bytesMessage = (BytesMessage) jmsMessage;
+        byte[] bytes = new byte[(int) bytesMessage.getBodyLength()];
+        bytesMessage.readBytes(bytes);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            byte version = in.readByte();
+            if (version != FORMAT_VERSION) {
+                throw new JMSException("Unsupported binary message format version " + version);
+            }
+            return readFrame(in, in.readByte());
+        } catch (IOException e) {
+            throw jmsException("Unable to decode binary message", e);
+        }
+    }
+
+    /**
+     * Exact class matches only; a subclass might carry state this codec
+     * doesn't know about.
+     */
+    private static byte tagFor(Message message) {
+        Class<?> cls = message.getClass();
+        if (cls == ExecuteRequest.class) {
+            return EXECUTE_REQUEST;
+        } else if (cls == StartExecutionStatus.class) {
+            return START_EXECUTION_STATUS;
+        } else if (cls == SuccessExecutionStatus.class) {
+            return SUCCESS_EXECUTION_STATUS;
+        } else if (cls == ErrorExecutionStatus.class) {
+            return ERROR_EXECUTION_STATUS;
+        } else if (cls == IgnoredExecutionStatus.class) {
+            return IGNORED_EXECUTION_STATUS;
+        } else if (cls == RequestIgnored.class) {
+            return REQUEST_IGNORED;
+        } else if (cls == CancelRequest.class) {
+            return CANCEL_REQUEST;
+        } else if (cls == TypeQuery.class) {
+            return TYPE_QUERY;
+        } else if (cls == TypeResult.class) {
+            return TYPE_RESULT;
+        } else if (cls == SerialNumberRequest.class) {
+            return SERIAL_NUMBER_REQUEST;
+        } else if (cls == SerialNumberResponse.class) {
+            return SERIAL_NUMBER_RESPONSE;
+        } else if (cls == MessageBatch.class) {
+            return MESSAGE_BATCH;
+        }
+        return NULL;
+    }
+
+    private void writeFrame(DataOutputStream out, byte tag, Message message) throws IOException {
+        out.writeByte(tag);
+        writeString(out, message.getSender());
+        writeUid(out, message.getUid());
+        writeBody(out, tag, message);
+    }
+
+    private Message readFrame(DataInputStream in, byte tag) throws IOException, JMSException {
+        String sender = readString(in);
+        UID uid = readUid(in);
+        return readBody(in, tag, sender, uid);
+    }
+
+    /**
+     * Each message in a batch is written as a frame of its own, or serialized
+     * if it has no binary form.
+     */
+    private void writeBatch(DataOutputStream out, MessageBatch batch) throws IOException {
+        List<Message> messages = batch.getMessages();
+        out.writeInt(messages.size());
+        for (Message message : messages) {
+            byte tag = tagFor(message);
+            if (tag == NULL || tag == MESSAGE_BATCH) {
+                out.writeByte(NULL);
+                writeValue(out, message);
+            } else {
+                writeFrame(out, tag, message);
+            }
+        }
+    }
+
+    private MessageBatch readBatch(DataInputStream in, String sender, UID uid) throws IOException, JMSException {
+        int size = in.readInt();
+        List<Message> messages = new ArrayList<Message>(size);
+        for (int i = 0; i < size; i++) {
+            byte tag = in.readByte();
+            if (tag == NULL) {
+                messages.add((Message) readValue(in));
+            } else {
+                messages.add(readFrame(in, tag));
+            }
+        }
+        MessageType messageType = messages.isEmpty() ? null : messages.get(0).getMessageType();
+        return new MessageBatch(sender, uid, messageType, messages);
+    }
+
+    private void writeBody(DataOutputStream out, byte tag, Message message) throws IOException {
+        switch (tag) {
+        case EXECUTE_REQUEST: {
+            ExecuteRequest msg = (ExecuteRequest) message;
+            writeUid(out, msg.getParentUid());
+            writeTypeName(out, msg.getActionName());
+            writeValue(out, msg.getInParams());
+            out.writeBoolean(msg.isStepped());
+            writeString(out, msg.getTarget());
+            break;
+        }
+        case START_EXECUTION_STATUS: {
+            StartExecutionStatus msg = (StartExecutionStatus) message;
+            writeUid(out, msg.getParentUid());
+            writeTypeName(out, msg.getActionName());
+            out.writeLong(msg.getSerialNumber());
+            writeValue(out, msg.getInParams());
+            break;
+        }
+        case SUCCESS_EXECUTION_STATUS: {
+            SuccessExecutionStatus msg = (SuccessExecutionStatus) message;
+            writeUid(out, msg.getParentUid());
+            writeValue(out, msg.getInParams());
+            writeValue(out, msg.getOutParams());
+            break;
+        }
+        case ERROR_EXECUTION_STATUS: {
+            ErrorExecutionStatus msg = (ErrorExecutionStatus) message;
+            writeUid(out, msg.getParentUid());
+            writeValue(out, msg.getError());
+            break;
+        }
+        case IGNORED_EXECUTION_STATUS:
+            writeUid(out, ((IgnoredExecutionStatus) message).getParentUid());
+            break;
+        case REQUEST_IGNORED:
+            writeUid(out, ((RequestIgnored) message).getParentUid());
+            break;
+        case TYPE_QUERY:
+            writeTypeName(out, ((TypeQuery) message).getTypeName());
+            break;
+        case TYPE_RESULT: {
+            TypeResult msg = (TypeResult) message;
+            writeTypeName(out, msg.getTypeName());
+            writeString(out, msg.getTypeStr());
+            break;
+        }
+        case SERIAL_NUMBER_REQUEST:
+            out.writeInt(((SerialNumberRequest) message).getCount());
+            break;
+        case SERIAL_NUMBER_RESPONSE: {
+            SerialNumberResponse msg = (SerialNumberResponse) message;
+            out.writeLong(msg.getSerialNumber());
+            out.writeInt(msg.getCount());
+            break;
+        }
+        case MESSAGE_BATCH:
+            writeBatch(out, (MessageBatch) message);
+            break;
+        default:
+            // CancelRequest has no body.
+            break;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Message readBody(DataInputStream in, byte tag, String sender, UID uid) throws IOException, JMSException {
+        TransactionUID tuid = (tag == MESSAGE_BATCH) ? null : (TransactionUID) uid;
+        switch (tag) {
+        case EXECUTE_REQUEST: {
+            TransactionUID parentUid = (TransactionUID) readUid(in);
+            SimpleTypeName actionName = readTypeName(in);
+            List<Object> inParams = (List<Object>) readValue(in);
+            boolean stepped = in.readBoolean();
+            ExecuteRequest request = new ExecuteRequest(sender, tuid, parentUid, actionName, inParams, stepped);
+            request.setTarget(readString(in));
+            return request;
+        }
+        case START_EXECUTION_STATUS: {
+            TransactionUID parentUid = (TransactionUID) readUid(in);
+            SimpleTypeName actionName = readTypeName(in);
+            long serialNumber = in.readLong();
+            List<Object> inParams = (List<Object>) readValue(in);
+            return new StartExecutionStatus(sender, tuid, parentUid, actionName, serialNumber, inParams);
+        }
+        case SUCCESS_EXECUTION_STATUS: {
+            TransactionUID parentUid = (TransactionUID) readUid(in);
+            List<Object> inParams = (List<Object>) readValue(in);
+            List<Object> outParams = (List<Object>) readValue(in);
+            return new SuccessExecutionStatus(sender, tuid, parentUid, inParams, outParams);
+        }
+        case ERROR_EXECUTION_STATUS: {
+            TransactionUID parentUid = (TransactionUID) readUid(in);
+            ErrorInfo error = (ErrorInfo) readValue(in);
+            return new ErrorExecutionStatus(sender, tuid, parentUid, error);
+        }
+        case IGNORED_EXECUTION_STATUS:
+            return new IgnoredExecutionStatus(sender, tuid, (TransactionUID) readUid(in));
+        case REQUEST_IGNORED:
+            return new RequestIgnored(sender, tuid, (TransactionUID) readUid(in));
+        case CANCEL_REQUEST:
+            return new CancelRequest(sender, tuid);
+        case TYPE_QUERY:
+            return new TypeQuery(sender, readTypeName(in), tuid);
+        case TYPE_RESULT: {
+            SimpleTypeName typeName = readTypeName(in);
+            String typeStr = readString(in);
+            return new TypeResult(sender, typeName, typeStr, tuid);
+        }
+        case SERIAL_NUMBER_REQUEST:
+            return new SerialNumberRequest(sender, tuid, in.readInt());
+        case SERIAL_NUMBER_RESPONSE: {
+            long serialNumber = in.readLong();
+            return new SerialNumberResponse(sender, tuid, serialNumber, in.readInt());
+        }
+        case MESSAGE_BATCH:
+            return readBatch(in, sender, uid);
+        default:
+            throw new JMSException("Unknown binary message tag " + tag);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        if (str == null) {
+            out.writeInt(-1);
+            return;
+        }
+        // writeUTF is limited to 64k, which type definitions can exceed.
+        byte[] bytes = str.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static void writeUid(DataOutputStream out, UID uid) throws IOException {
+        if (uid == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        if (uid.getClass() == TransactionUID.class) {
+            out.writeByte(TRANSACTION_UID);
+        } else {
+            out.writeByte(PLAIN_UID);
+        }
+        writeString(out, uid.getOriginator());
+        out.writeInt(uid.getId());
+    }
+
+    private static UID readUid(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        if (kind == NULL) {
+            return null;
+        }
+        String originator = readString(in);
+        int id = in.readInt();
+        if (kind == TRANSACTION_UID) {
+            return new TransactionUID(originator, id);
+        } else {
+            return new UID(originator, id);
+        }
+    }
+
+    private static void writeTypeName(DataOutputStream out, SimpleTypeName name) throws IOException {
+        if (name == null) {
+            out.writeBoolean(false);
+            return;
+        }
+        out.writeBoolean(true);
+        writeString(out, name.getSimpleName());
+        writeString(out, name.getVersion());
+        writeString(out, name.getNamespace());
+    }
+
+    private static SimpleTypeName readTypeName(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        String name = readString(in);
+        String version = readString(in);
+        String namespace = readString(in);
+        return new SimpleTypeName(name, version, namespace);
+    }
+
+    /**
+     * Write a parameter value. Only exact classes are given a compact form
+     * so that the decoded value has the same class as the original;
+     * anything else is serialized.
+     */
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        Class<?> cls = value.getClass();
+        if (cls == String.class) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (cls == Boolean.class) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (cls == Integer.class) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (cls == Long.class) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (cls == Double.class) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (cls == Float.class) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (cls == ArrayList.class) {
+            List<?> list = (List<?>) value;
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for (Object element : list) {
+                writeValue(out, element);
+            }
+        } else {
+            out.writeByte(SERIALIZED);
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(buf);
+            oos.writeObject(value);
+            oos.close();
+            out.writeInt(buf.size());
+            buf.writeTo(out);
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        switch (kind) {
+        case NULL:
+            return null;
+        case STRING:
+            return readString(in);
+        case BOOLEAN:
+            return in.readBoolean();
+        case INTEGER:
+            return in.readInt();
+        case LONG:
+            return in.readLong();
+        case DOUBLE:
+            return in.readDouble();
+        case FLOAT:
+            return in.readFloat();
+        case LIST: {
+            int size = in.readInt();
+            List<Object> list = new ArrayList<Object>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(readValue(in));
+            }
+            return list;
+        }
+        case SERIALIZED: {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            try {
+                return ois.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Unable to deserialize parameter value", e);
+            } finally {
+                ois.close();
+            }
+        }
+        default:
+            throw new IOException("Unknown value tag " + kind);
+        }
+    }
+
+    private static JMSException jmsException(String reason, Exception cause) {
+        JMSException e = new JMSException(reason);
+        e.setLinkedException(cause);
+        e.initCause(cause);
+        return e;
+    }
+}
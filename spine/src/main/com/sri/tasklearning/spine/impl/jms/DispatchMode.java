@@ -0,0 +1,39 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.impl.jms;
+
+/**
+ * How a spine delivers the messages it receives to its subscribed handlers.
+ * System messages, which keep the spines' subscription and registration state
+ * in sync, are always delivered on the spine's own session in the order they
+ * arrive, whatever the mode.
+ */
+public enum DispatchMode {
+    // Every topic is delivered on the spine's one session, so one slow handler
+    // holds up all the others. This is the original behavior.
+    SINGLE,
+
+    // Each topic is delivered on a session of its own. Messages on one topic
+    // stay in order, but a slow handler only holds up its own topic.
+    TOPIC,
+
+    // Messages are received on the spine's session and handed to a fixed set
+    // of delivery threads, chosen by the message's UID. Messages belonging to
+    // one transaction are always delivered in order on the same thread, even
+    // across topics.
+    TRANSACTION
+}
@@ -38,17 +38,23 @@ import org.slf4j.LoggerFactory;
  * This class is used by the Master Spine to detect when an execution request
  * is being ignored by all of the potential executors. In this case, an execution
  * ignored status message is delivered to the client.
+ * <p>
+ * A request which was routed to a single executor and ignored by it is sent
+ * again to every executor before giving up, since the route may be stale.
  */
 public class ExecutionAcceptanceWatcher implements MessageHandler {
 
     private static final Logger log = LoggerFactory.getLogger(ExecutionAcceptanceWatcher.class);
     volatile private Map<UID, Integer> watchedExecutionMap;
+    // Routed requests being watched, kept so they can be broadcast if ignored
+    private Map<UID, ExecuteRequest> routedRequestMap;
     private JmsSpine jmsSpine;
 
     public ExecutionAcceptanceWatcher(JmsSpine jmsSpine) {
         log.debug("Starting Execution Acceptance Watcher for spine: {}", jmsSpine.getClientId());
         this.jmsSpine = jmsSpine;
         watchedExecutionMap = new HashMap<UID, Integer>();
+        routedRequestMap = new HashMap<UID, ExecuteRequest>();
     }
 
     /**
@@ -57,7 +63,15 @@ public class ExecutionAcceptanceWatcher implements MessageHandler {
      * @throws SpineException if something goes wrong
      */
     synchronized public void addWatch(ExecuteRequest executeRequest) throws SpineException {
-        int expectedResponses = jmsSpine.calculateExpectedResponderCount(executeRequest.getMessageType());
+        int expectedResponses;
+        if (executeRequest.getTarget() != null) {
+            // Only the targeted executor receives the request
+            expectedResponses = 1;
+            routedRequestMap.put(executeRequest.getUid(), executeRequest);
+        }
+        else {
+            expectedResponses = jmsSpine.calculateExpectedResponderCount(executeRequest.getMessageType());
+        }
         log.debug("Waiting for '{}' responses to execute request '{}'", expectedResponses, executeRequest.getUid());
         watchedExecutionMap.put(executeRequest.getUid(), expectedResponses);
     }
@@ -93,6 +107,7 @@ public class ExecutionAcceptanceWatcher implements MessageHandler {
             message instanceof ErrorExecutionStatus) {
             UID uid = message.getUid();
             watchedExecutionMap.remove(uid);
+            routedRequestMap.remove(uid);
         }
         // One of the executors ignored the request, if all of them did we have a problem
         else if (message instanceof RequestIgnored) {
@@ -103,8 +118,12 @@ public class ExecutionAcceptanceWatcher implements MessageHandler {
                 int count = watchedExecutionMap.get(uid);
                 count--;
                 if (count < 1) {
-                    log.info("Request {} was ignored by all executors, reporting back to requester.", uid);
                     watchedExecutionMap.remove(uid);
+                    ExecuteRequest routed = routedRequestMap.remove(uid);
+                    if (routed != null && broadcast(routed)) {
+                        return;
+                    }
+                    log.info("Request {} was ignored by all executors, reporting back to requester.", uid);
                     try {
                         jmsSpine.send(new IgnoredExecutionStatus(ignoredMessage.getSender(), ignoredMessage.getUid(),
                                       ignoredMessage.getParentUid()));
@@ -123,5 +142,25 @@ public class ExecutionAcceptanceWatcher implements MessageHandler {
 
     }
 
+    /**
+     * Sends a request which its routed executor ignored to every executor, and
+     * watches for their answers instead.
+     * @return false if the request couldn't be broadcast
+     */
+    private boolean broadcast(ExecuteRequest request) {
+        log.info("Request {} was ignored by {}, broadcasting it.", request.getUid(), request.getTarget());
+        try {
+            request.setTarget(null);
+            addWatch(request);
+            if (jmsSpine.broadcastExecuteRequest(request)) {
+                return true;
+            }
+        } catch (SpineException e) {
+            log.warn("Unable to broadcast ignored request " + request.getUid(), e);
+        }
+        watchedExecutionMap.remove(request.getUid());
+        return false;
+    }
+
 
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sri.tasklearning.spine.impl.jms;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.tasklearning.spine.messages.ExecuteRequest;
+import com.sri.tasklearning.spine.messages.ExecutionStatus;
+import com.sri.tasklearning.spine.messages.ExecutorChange;
+import com.sri.tasklearning.spine.messages.ExecutorListQuery;
+import com.sri.tasklearning.spine.messages.ExecutorListResult;
+import com.sri.tasklearning.spine.messages.IgnoredExecutionStatus;
+import com.sri.tasklearning.spine.messages.Message;
+import com.sri.tasklearning.spine.messages.RequestIgnored;
+import com.sri.tasklearning.spine.messages.contents.UID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers which spine client executes each action, so that an
+ * ExecuteRequest can be addressed to that one client instead of being
+ * broadcast to every executor, all but one of which would answer with a
+ * RequestIgnored.
+ * <p>
+ * Routes are learned from the answers to this spine's own ExecutorListQuery
+ * gathers, which clients make before registering an executor and when
+ * checking that an action can be run. A route is dropped when its client
+ * says it no longer executes the action, stops receiving execute requests,
+ * ignores a request addressed to it, or when any client announces an
+ * ExecutorChange for the action. Actions with no route are broadcast as
+ * before.
+ * <p>
+ * Ignored requests and executor changes are only noticed if this spine's
+ * client receives them. A request its target ignores is broadcast again by the
+ * master, so requesters normally see the status from the client which really
+ * executes the action, and route to that client from then on.
+ */
+class ExecutorRoutes {
+    private static final Logger log = LoggerFactory.getLogger(ExecutorRoutes.class);
+
+    private final Map<SimpleTypeName, String> routes = new ConcurrentHashMap<SimpleTypeName, String>();
+    // The action each of our outstanding ExecutorListQuery gathers asked about
+    private final Map<UID, SimpleTypeName> queries = new ConcurrentHashMap<UID, SimpleTypeName>();
+    // Routed requests which haven't been answered yet, so an ignored one can
+    // be traced back to its route. Bounded in case the answers never reach us.
+    private final Map<UID, ExecuteRequest> routed = new LinkedHashMap<UID, ExecuteRequest>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UID, ExecuteRequest> eldest) {
+            return size() > MAX_ROUTED;
+        }
+    };
+    private static final int MAX_ROUTED = 1000;
+
+    /**
+     * Called when this spine starts gathering the answers to an ExecutorListQuery.
+     */
+    void queryStarted(ExecutorListQuery query) {
+        queries.put(query.getUid(), query.getActionName());
+    }
+
+    /**
+     * Called when that gather is complete; later answers are not needed.
+     */
+    void queryFinished(UID uid) {
+        queries.remove(uid);
+    }
+
+    /**
+     * Learns from one client's answer to one of our ExecutorListQuery gathers.
+     */
+    void answered(ExecutorListResult result) {
+        SimpleTypeName actionName = queries.get(result.getUid());
+        if (actionName == null) {
+            return;
+        }
+        String client = result.getSender();
+        if (result.isExecutor()) {
+            String previous = routes.put(actionName, client);
+            if (!client.equals(previous)) {
+                log.debug("Routing execute requests for {} to {}", actionName, client);
+            }
+        } else if (routes.remove(actionName, client)) {
+            log.debug("{} no longer executes {}", client, actionName);
+        }
+    }
+
+    /**
+     * @return the client which executes the action, or null if it isn't known
+     */
+    String route(SimpleTypeName actionName) {
+        return routes.get(actionName);
+    }
+
+    /**
+     * Called when an execute request is sent to the client its route names.
+     */
+    void requestRouted(ExecuteRequest request) {
+        synchronized (routed) {
+            routed.put(request.getUid(), request);
+        }
+    }
+
+    /**
+     * Looks at each message this spine receives, dropping routes which the
+     * message shows to be stale.
+     */
+    void observe(Message message) {
+        if (message instanceof ExecutorChange) {
+            SimpleTypeName actionName = ((ExecutorChange) message).getActionName();
+            if (routes.remove(actionName) != null) {
+                log.debug("Executor for {} changed, broadcasting its requests", actionName);
+            }
+        } else if (message instanceof RequestIgnored || message instanceof ExecutionStatus) {
+            ExecuteRequest request;
+            synchronized (routed) {
+                request = routed.remove(message.getUid());
+            }
+            if (request == null) {
+                return;
+            }
+            boolean ignored = message instanceof RequestIgnored ||
+                    message instanceof IgnoredExecutionStatus;
+            if (ignored && request.getTarget().equals(message.getSender())) {
+                log.debug("{} ignored request {}, broadcasting requests for {}",
+                        new Object[] { message.getSender(), message.getUid(), request.getActionName() });
+                forget(request.getActionName(), request.getTarget());
+            } else if (!ignored && !request.getTarget().equals(message.getSender()) &&
+                    routes.replace(request.getActionName(), request.getTarget(), message.getSender())) {
+                // The master broadcast the request after its target ignored it
+                log.debug("{} answered request {}, routing requests for {} to it",
+                        new Object[] { message.getSender(), message.getUid(), request.getActionName() });
+            }
+        }
+    }
+
+    /**
+     * Forgets a route which turned out to be stale.
+     */
+    void forget(SimpleTypeName actionName, String client) {
+        routes.remove(actionName, client);
+    }
+
+    /**
+     * Forgets every route to a client which has stopped receiving execute requests.
+     */
+    void clientLeft(String client) {
+        for (Iterator<String> i = routes.values().iterator(); i.hasNext();) {
+            if (i.next().equals(client)) {
+                i.remove();
+            }
+        }
+    }
+}
@@ -17,57 +17,62 @@
 package com.sri.tasklearning.spine.impl.jms;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import com.sri.tasklearning.spine.messages.Message;
+import com.sri.tasklearning.spine.messages.MessageType;
 import com.sri.tasklearning.spine.messages.contents.UID;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * An instance that performs a gather request on behalf of the Spine Client. It runs
- * in a thread of its own to allow multiple simultaneous gathers and also to free up
- * the Spine Client to do other things.
+ * A gather request in progress on behalf of the Spine Client. The instance
+ * collects the responses to one request and completes its future once every
+ * expected responder has answered or gone away, or when the StateManager
+ * expires it. It has no thread of its own, so any number of gathers can be
+ * outstanding at once.
  */
-public class GatherInstance implements Runnable {
+public class GatherInstance {
 
     private static final Logger log = LoggerFactory.getLogger(GatherInstance.class);
-    private static final long DEFAULT_PATIENCE = 60000; // One minute
-    private final Object semaphore = new Object();
-    private boolean notified = false;
-    private long patience;
-    private UID gatherIdentifier;
-    private GatherCallback callback;
-    private ArrayList<Message> accumulatedResults;
+    private final UID gatherIdentifier;
+    private final MessageType messageType;
+    private final Set<String> outstandingResponders;
+    private final ArrayList<Message> accumulatedResults;
+    private final CompletableFuture<Message[]> result;
     private int expectedResponses;
 
     /**
-     * Constructs a new gather instance with the default time out.
-     * @param expectedResponses The number of responses that should be received
+     * Constructs a new gather instance.
      * @param gatherIdentifier The UID that uniquely identifies responses this instance requires
-     * @param callback The class that is invoked when the results have been gathered or an error occurs
+     * @param messageType The type of the request message
+     * @param responders The spines which are expected to respond
      */
-    public GatherInstance(int expectedResponses, UID gatherIdentifier, GatherCallback callback) {
-        this.expectedResponses = expectedResponses;
+    public GatherInstance(UID gatherIdentifier, MessageType messageType, Set<String> responders) {
         this.gatherIdentifier = gatherIdentifier;
-        this.callback = callback;
-        this.patience = DEFAULT_PATIENCE;
+        this.messageType = messageType;
+        outstandingResponders = new HashSet<String>(responders);
+        expectedResponses = responders.size();
         accumulatedResults = new ArrayList<Message>();
+        result = new CompletableFuture<Message[]>();
+    }
+
+    public UID getGatherIdentifier() {
+        return gatherIdentifier;
+    }
+
+    public MessageType getMessageType() {
+        return messageType;
     }
 
     /**
-     * Constructs a new gather instance with a specific time out.
-     * @param expectedResponses The number of responses that should be received
-     * @param patience The timeout to be used when waiting for responses
-     * @param gatherIdentifier The UID that uniquely identifies responses this instance requires
-     * @param callback The class that is invoked when the results have been gathered or an error occurs
+     * @return the future holding the gathered responses
      */
-    public GatherInstance(int expectedResponses, long patience, UID gatherIdentifier, GatherCallback callback) {
-        this.expectedResponses = expectedResponses;
-        this.gatherIdentifier = gatherIdentifier;
-        this.callback = callback;
-        this.patience = patience;
-        accumulatedResults = new ArrayList<Message>();
+    public CompletableFuture<Message[]> getResult() {
+        return result;
     }
 
     /**
@@ -77,44 +82,61 @@ public class GatherInstance implements Runnable {
      * @return true if this is that last response being waited on
      */
     public boolean signal(Message message) {
-        synchronized (semaphore) {
-            if (message.getUid().equals(gatherIdentifier)) {
-                accumulatedResults.add(message);
-                if (accumulatedResults.size() >= expectedResponses) {
-                    notified = true;
-                    semaphore.notify();
-                    return true;
-                }
+        synchronized (this) {
+            if (!message.getUid().equals(gatherIdentifier)) {
+                return false;
+            }
+            accumulatedResults.add(message);
+            outstandingResponders.remove(message.getSender());
+            if (!isSatisfied()) {
+                return false;
             }
-            return false;
         }
+        return complete(true);
     }
 
     /**
-     * Start the timer and wait to be notified when the responses have arrived.
+     * Called by the StateManager when a spine stops listening for this gather's request
+     * type, so that the gather doesn't wait out its timeout for an answer which won't come.
+     * @param spineId The client id of the spine which went away
+     * @return true if that spine was the last one being waited on
      */
-    public void run() {
-        synchronized (semaphore) {
-            // Keep track of how long the wait was
-            long start = System.currentTimeMillis();
-            long currentTime = System.currentTimeMillis();
-            // This 'while' is necessary to prevent phantom notify() calls to the Object.wait()
-            // check out the javadoc for that method for more details.
-            while (((currentTime - start) < patience) && !notified) {
-                try {
-                    semaphore.wait(patience);
-                } catch (InterruptedException e) {
-                    log.warn("Gather wait thread was interrupted by an exception");
-                }
-                currentTime = System.currentTimeMillis();
+    public boolean responderLeft(String spineId) {
+        synchronized (this) {
+            if (!outstandingResponders.remove(spineId)) {
+                return false;
+            }
+            expectedResponses--;
+            if (!isSatisfied()) {
+                return false;
             }
-            log.trace("GatherInstance wait complete, waited for: " + (currentTime - start) +" ms");
-            callback.result(accumulatedResults.toArray(new Message[accumulatedResults.size()]));
         }
-        if (!notified) {
+        log.debug("Gather {} stopped waiting for {}", gatherIdentifier, spineId);
+        return complete(true);
+    }
+
+    /**
+     * Called by the StateManager when the gather timed out, or the spine is shutting down.
+     * The responses received so far are delivered.
+     */
+    public void expire() {
+        if (complete(false)) {
             log.warn("The GatherInstance {} did not receive the expected responses.", gatherIdentifier);
         }
     }
 
+    private boolean isSatisfied() {
+        return outstandingResponders.isEmpty() || accumulatedResults.size() >= expectedResponses;
+    }
 
+    private boolean complete(boolean satisfied) {
+        Message[] messages;
+        synchronized (this) {
+            messages = accumulatedResults.toArray(new Message[accumulatedResults.size()]);
+        }
+        if (satisfied) {
+            log.trace("GatherInstance {} complete with {} responses", gatherIdentifier, messages.length);
+        }
+        return result.complete(messages);
+    }
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sri.tasklearning.spine.impl.jms;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.sri.tasklearning.util.NamedThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timing wheel: one thread and a ring of buckets, each bucket
+ * holding the timeouts which fall due on ticks mapping to that slot. Adding
+ * or cancelling a timeout is O(1) and never blocks on the timer thread, at
+ * the cost of firing up to one tick late. Gather deadlines are long and
+ * coarse, so that trade is a good one.
+ * <p>
+ * New timeouts are queued and moved into their buckets by the timer thread,
+ * so the buckets themselves are only ever touched by that thread.
+ */
+class HashedWheelTimer implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    private final long tickMillis;
+    private final List<List<Timeout>> wheel;
+    private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<Timeout>();
+    private final long startTime;
+    private final Thread worker;
+    private volatile boolean running = true;
+    // Only used by the timer thread
+    private long tick;
+
+    /**
+     * @param name the name of the timer thread
+     * @param tickMillis the resolution of the timer
+     * @param wheelSize the number of buckets; timeouts further away than
+     * {@code tickMillis * wheelSize} wait in their bucket for extra turns
+     */
+    HashedWheelTimer(String name, long tickMillis, int wheelSize) {
+        this.tickMillis = tickMillis;
+        wheel = new ArrayList<List<Timeout>>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            wheel.add(new ArrayList<Timeout>());
+        }
+        startTime = System.currentTimeMillis();
+        worker = new NamedThreadFactory(name).newThread(this);
+        worker.start();
+    }
+
+    /**
+     * Runs a task once the delay has passed, unless it is cancelled first.
+     * The task runs on the timer thread and must not block.
+     * @param task the task to run
+     * @param delay milliseconds from now
+     * @return a handle which can cancel the task
+     */
+    Timeout schedule(Runnable task, long delay) {
+        Timeout timeout = new Timeout(task, System.currentTimeMillis() + delay);
+        incoming.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops the timer thread. Outstanding timeouts never fire.
+     */
+    void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            long sleep = startTime + (tick + 1) * tickMillis - System.currentTimeMillis();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+            tick++;
+            transferIncoming();
+            expire(wheel.get((int) (tick % wheel.size())), startTime + tick * tickMillis);
+        }
+        incoming.clear();
+    }
+
+    private void transferIncoming() {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            // Round up, so a timeout never fires early; anything already due goes in this tick's bucket.
+            long due = (timeout.deadline - startTime + tickMillis - 1) / tickMillis;
+            if (due < tick) {
+                due = tick;
+            }
+            wheel.get((int) (due % wheel.size())).add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket, long now) {
+        for (Iterator<Timeout> i = bucket.iterator(); i.hasNext();) {
+            Timeout timeout = i.next();
+            if (timeout.cancelled) {
+                i.remove();
+            } else if (timeout.deadline <= now) {
+                i.remove();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    log.warn("Timer task threw an exception", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A scheduled task, which may be cancelled until it has run.
+     */
+    static class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import static com.sri.tasklearning.spine.messages.SystemMessageType.UNSUBSCRIBE;
 
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import javax.jms.Connection;
 import javax.jms.DeliveryMode;
@@ -28,11 +29,11 @@ import javax.jms.JMSException;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageListener;
 import javax.jms.MessageProducer;
-import javax.jms.ObjectMessage;
 import javax.jms.Session;
 import javax.jms.Topic;
 import javax.jms.TopicSubscriber;
 
+import com.sri.pal.common.SimpleTypeName;
 import com.sri.tasklearning.spine.MessageHandler;
 import com.sri.tasklearning.spine.Spine;
 import com.sri.tasklearning.spine.SpineException;
@@ -78,21 +79,41 @@ public class JmsSpine implements Spine {
     private static final Logger log = LoggerFactory.getLogger(JmsSpine.class);
     public static final String JMS_MESSAGE_BROKER_PORT = "PAL.JmsMessageBrokerPort";
     public static final String MAX_RECONNECT_ATTEMPTS = "PAL.MaxReconnectAttempts";
+    public static final String MESSAGE_CODEC = "PAL.SpineMessageCodec";
+    public static final String SENDER_SESSIONS = "PAL.SpineSenderSessions";
+    public static final String DISPATCH_MODE = "PAL.SpineDispatchMode";
+    public static final String DISPATCH_THREADS = "PAL.SpineDispatchThreads";
+    public static final String BATCH_LINGER = "PAL.SpineBatchLinger";
+    public static final String BATCH_SIZE = "PAL.SpineBatchSize";
+    public static final String BINARY_MESSAGE_CODEC = "binary";
+    public static final String OBJECT_MESSAGE_CODEC = "object";
     public static final int DEFAULT_JMS_MESSAGE_BROKER_PORT = 61616;
     public static final int DEFAULT_MAX_RECONNECT_ATTEMPTS = 20;
+    public static final int DEFAULT_SENDER_SESSIONS = 4;
+    public static final int DEFAULT_DISPATCH_THREADS = 4;
+    public static final long DEFAULT_BATCH_LINGER = 0;
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    // JMS property naming the one client an ExecuteRequest is addressed to
+    static final String TARGET_PROPERTY = "PALTarget";
     protected Session session;
     protected Connection connection;
     private HashMap<MessageType, Topic> messageTypeToTopicMap;
     private HashMap<MessageType, MessageProducer> messageTypeToProducerMap;
+    private SenderPool senderPool;
+    private BatchingSender batchingSender;
+    private Map<MessageType, Session> messageTypeToSessionMap = new HashMap<MessageType, Session>();
+    private TransactionDispatcher transactionDispatcher;
+    private final ExecutorRoutes executorRoutes = new ExecutorRoutes();
     private HashMap<DurableMessageType, TopicSubscriber> messageTypeToDurableTopicMap;
     protected JmsClient clientType;
+    protected MessageCodec codec;
+    protected DispatchMode dispatchMode;
     protected String clientId;
     protected BrokerService broker;
     protected int transactionUidIndex;
     protected int internalTransactionUidIndex;
     private boolean spineReady = false;
     private final Object internalIdLock = new Object();
-    private final Object sendLock = new Object();
     private final Object consumerLock = new Object();
     private final Object shutdownLock = new Object();
     protected StateManager stateManager;
@@ -116,6 +137,10 @@ public class JmsSpine implements Spine {
         int port = getBrokerPort();
         // Get the Number of Reconnect Attempts to use
         int maxReconnectAttempts = getMaxReconnectAttempts();
+        // How messages are packed into JMS messages
+        codec = getMessageCodec();
+        // How received messages are handed to the subscribers
+        dispatchMode = getDispatchMode();
 
         // REMOTE or LOCAL
         this.clientType = clientType;
@@ -270,6 +295,8 @@ public class JmsSpine implements Spine {
      * Used to support an over-riding Functional Test, it is not used in practise.
      */
     protected JmsSpine() {
+        codec = getMessageCodec();
+        dispatchMode = getDispatchMode();
     }
 
     /**
@@ -312,8 +339,25 @@ public class JmsSpine implements Spine {
                 log.trace("Spine '{}', the shutdown method was unable to deliver the SpineClosing method in time", clientId);
             }
         }
+        if (batchingSender != null) {
+            try {
+                batchingSender.flush();
+            } catch (JMSException e) {
+                log.trace("Spine '{}' was unable to send its pending batched messages", clientId);
+            }
+            batchingSender.shutdown();
+        }
+        if (stateManager != null) {
+            // Outstanding gathers return what they have; no more responses will arrive
+            stateManager.shutdown();
+        }
         try {
             connection.close();
+            synchronized (consumerLock) {
+                if (transactionDispatcher != null) {
+                    transactionDispatcher.shutdown();
+                }
+            }
             if (clientType.equals(JmsClient.LOCAL)) {
                 // LOCAL Spine is shutting down, stop sending Heartbeat messages.
                 heartbeatTimer.cancel();
@@ -597,7 +641,42 @@ public class JmsSpine implements Spine {
             throw new JMSException("Attempting to Subscribe to unsupported topic type, there is no " +
                     "destination channel for '" + messageType + "' message type");
         }
-        MessageConsumer consumer = session.createConsumer(destination);
+        // System messages keep the spines in sync with each other, so they are always
+        // delivered in arrival order on the spine's own session.
+        final boolean systemMessage = SystemMessageType.class.isInstance(messageType);
+        final TransactionDispatcher dispatcher;
+        Session consumerSession = session;
+        synchronized (consumerLock) {
+            if (dispatchMode == DispatchMode.TRANSACTION && !systemMessage) {
+                if (transactionDispatcher == null) {
+                    transactionDispatcher = new TransactionDispatcher(clientId, getDispatchThreads());
+                }
+                dispatcher = transactionDispatcher;
+            }
+            else {
+                dispatcher = null;
+            }
+            if (dispatchMode == DispatchMode.TOPIC && !systemMessage) {
+                // Each session has its own delivery thread, so give this topic a session of its own.
+                consumerSession = messageTypeToSessionMap.get(messageType);
+                if (consumerSession == null) {
+                    consumerSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                    messageTypeToSessionMap.put(messageType, consumerSession);
+                }
+            }
+        }
+        MessageConsumer consumer;
+        if (messageType == UserMessageType.EXECUTE_REQUEST &&
+                !ExecutionAcceptanceWatcher.class.isInstance(handler)) {
+            // Executors only see the requests which are broadcast or addressed to them.
+            // The acceptance watcher has to see all of them.
+            String selector = TARGET_PROPERTY + " IS NULL OR " + TARGET_PROPERTY + " = '" +
+                    clientId.replace("'", "''") + "'";
+            consumer = consumerSession.createConsumer(destination, selector);
+        }
+        else {
+            consumer = consumerSession.createConsumer(destination);
+        }
         consumer.setMessageListener(new MessageListener() {
             public void onMessage(javax.jms.Message message) {
                 Message spineMessage;
@@ -605,14 +684,21 @@ public class JmsSpine implements Spine {
                     // this is called when a message of this type is posted to the spine. The client
                     // must be able to filter the Message instance to determine which type of message
                     // was caught - ExecutionRequest for instance.
-                    spineMessage = (Message)((ObjectMessage)message).getObject();
-                    log.trace("SpineInstance '{}', Sending message '{}'", clientId, messageType);
-                    handler.handleMessage(spineMessage);
-                    log.trace("Returned from SpineInstance '{}' handler, freeing delivery thread", clientId);
+                    spineMessage = codec.decode(message);
                 }
                 catch (Exception e) {
-                    log.warn("Exception while handling message for '"
+                    log.warn("Exception while decoding message for '"
                             + clientId + "', messageType: '" + messageType + "'", e);
+                    return;
+                }
+                // A batch is unpacked here so the handler only ever sees the messages it contains.
+                if (MessageBatch.class.isInstance(spineMessage)) {
+                    for (Message batchedMessage : ((MessageBatch) spineMessage).getMessages()) {
+                        deliver(handler, messageType, dispatcher, batchedMessage);
+                    }
+                }
+                else {
+                    deliver(handler, messageType, dispatcher, spineMessage);
                 }
             }
         });
@@ -621,6 +707,31 @@ public class JmsSpine implements Spine {
         }
     }
 
+    /**
+     * Hand a received message to the handler subscribed to its topic, either
+     * directly on the delivery thread or through the dispatcher.
+     */
+    private void deliver(MessageHandler handler,
+                         MessageType messageType,
+                         TransactionDispatcher dispatcher,
+                         Message spineMessage) {
+        executorRoutes.observe(spineMessage);
+        if (dispatcher != null) {
+            log.trace("SpineInstance '{}', Queueing message '{}'", clientId, messageType);
+            dispatcher.dispatch(handler, messageType, spineMessage);
+            return;
+        }
+        try {
+            log.trace("SpineInstance '{}', Sending message '{}'", clientId, messageType);
+            handler.handleMessage(spineMessage);
+            log.trace("Returned from SpineInstance '{}' handler, freeing delivery thread", clientId);
+        }
+        catch (Exception e) {
+            log.warn("Exception while handling message for '"
+                    + clientId + "', messageType: '" + messageType + "'", e);
+        }
+    }
+
     private boolean isATestSpine() {
         return clientType.equals(JmsClient.TEST) || clientType.equals(JmsClient.DURABLE_TEST);
     }
@@ -638,7 +749,7 @@ public class JmsSpine implements Spine {
      * @return true if there exists a subscriber (excluding this spine) in the network of JmsSpine instances
      * @throws SpineException if something goes wrong
      */
-    synchronized private boolean sendMessage(Message message, MessageType messageType) throws SpineException {
+    private boolean sendMessage(Message message, MessageType messageType) throws SpineException {
         // This suppresses uninteresting logging generated by the test spine instances which are used to
         // check the upstate of the master spine.
         if (!isATestSpine() && !isARequestFromATestSpine(message)) {
@@ -652,9 +763,11 @@ public class JmsSpine implements Spine {
             return false;
         }
         try {
-            // Get the topic end point for sending messages into.
-            MessageProducer producer = messageTypeToProducerMap.get(messageType);
-            producer.send(session.createObjectMessage(message));
+            // Only the messages clients send may be held back to share a batch; the spines'
+            // own messages always go straight out.
+            boolean coalesce = !SystemMessageType.class.isInstance(messageType) &&
+                    !DurableMessageType.class.isInstance(messageType);
+            batchingSender.send(message, messageType, coalesce);
         }
         catch (JMSException e) {
             if (messageType != UNSUBSCRIBE) {
@@ -679,6 +792,37 @@ public class JmsSpine implements Spine {
         return true;
     }
 
+    /**
+     * Hands a message, or a batch of messages, to the JMS session used by the calling
+     * thread. Called by the BatchingSender, which keeps the messages in order.
+     * @param message the message to send
+     * @param messageType the topic to send it on
+     * @throws JMSException if the send fails
+     */
+    void transmit(Message message, MessageType messageType) throws JMSException {
+        // Send on this thread's lane; other threads can send concurrently on the other lanes.
+        senderPool.send(message, messageType);
+    }
+
+    /**
+     * Hands a message, or a batch of messages, to the JMS session of one sending lane.
+     * Called by the BatchingSender when it sends a lane's pending batch from its timer.
+     * @param lane the lane to send on
+     * @param message the message to send
+     * @param messageType the topic to send it on
+     * @throws JMSException if the send fails
+     */
+    void transmit(int lane, Message message, MessageType messageType) throws JMSException {
+        senderPool.send(lane, message, messageType);
+    }
+
+    /**
+     * @return the sending lane the calling thread uses
+     */
+    int senderLane() {
+        return senderPool.lane();
+    }
+
     /**
      * Called by one of the system clients to request a message be sent through the spine
      * to other subscribed clients. The class of the Message determines which type of
@@ -691,20 +835,117 @@ public class JmsSpine implements Spine {
      * @throws SpineException if something goes wrong
      */
     public boolean send(Message message) throws SpineException {
-        synchronized (sendLock) {
-            MessageType messageType = message.getMessageType();
-            if (SystemMessageType.class.isInstance(messageType) ||
-                    DurableMessageType.class.isInstance(messageType)) {
-                log.warn("Attempt to send unauthorized messageType: '{}'", messageType);
-                throw new SpineException("Attempt to send unauthorized MessageType: " + message);
-            }
-            if (messageTypeToProducerMap.get(messageType) == null) {
-                log.warn("Attempt to send unsupported MessageType: {}", messageType);
-                throw new SpineException("Attempt to send unsupported MessageType: " + message);
+        MessageType messageType = message.getMessageType();
+        checkSendable(message);
+        if (ExecuteRequest.class.isInstance(message)) {
+            routeExecuteRequest((ExecuteRequest) message);
+        }
+        return sendMessage(message, messageType);
+    }
+
+    /**
+     * Address an execute request to the client known to execute its action, if that
+     * client is still receiving execute requests. Otherwise it is broadcast.
+     */
+    private void routeExecuteRequest(ExecuteRequest request) {
+        SimpleTypeName actionName = request.getActionName();
+        String target = executorRoutes.route(actionName);
+        if (target != null &&
+                !getExpectedResponders(UserMessageType.EXECUTE_REQUEST).contains(target)) {
+            executorRoutes.forget(actionName, target);
+            target = null;
+        }
+        request.setTarget(target);
+        if (target != null) {
+            log.trace("Routing execute request {} to {}", request.getUid(), target);
+            executorRoutes.requestRouted(request);
+        }
+    }
+
+    /**
+     * Sends an execute request again, this time to every executor. Used by the master's
+     * ExecutionAcceptanceWatcher when the client a request was routed to ignores it,
+     * which means the route was stale.
+     * @param request the request to broadcast; its target is cleared
+     * @return true if there is at least one executor to receive it
+     * @throws SpineException if something goes wrong
+     */
+    boolean broadcastExecuteRequest(ExecuteRequest request) throws SpineException {
+        request.setTarget(null);
+        return sendMessage(request, request.getMessageType());
+    }
+
+    /**
+     * Called by one of the system clients to send several messages at once. Consecutive
+     * messages for the same topic are packed into as few JMS messages as the maximum
+     * batch size allows; the receiving spines unpack them and deliver them one at a
+     * time, in order. The same restrictions apply as for the send method, and every
+     * message is checked before any is sent.
+     * @param messages the messages to be sent through the spine, in order
+     * @return true if every message had at least one subscriber (excluding the sender)
+     * @throws SpineException if something goes wrong
+     */
+    public boolean sendBatch(Collection<? extends Message> messages) throws SpineException {
+        for (Message message : messages) {
+            checkSendable(message);
+            // A batch carries a single set of JMS properties, so its requests are broadcast
+            if (ExecuteRequest.class.isInstance(message)) {
+                ((ExecuteRequest) message).setTarget(null);
             }
-            else {
-                return sendMessage(message, messageType);
+        }
+        boolean allSent = true;
+        List<Message> run = new ArrayList<Message>();
+        MessageType runType = null;
+        for (Message message : messages) {
+            MessageType messageType = message.getMessageType();
+            if (messageType != runType && !run.isEmpty()) {
+                allSent &= sendRun(run, runType);
+                run = new ArrayList<Message>();
             }
+            run.add(message);
+            runType = messageType;
+        }
+        if (!run.isEmpty()) {
+            allSent &= sendRun(run, runType);
+        }
+        return allSent;
+    }
+
+    /**
+     * Send consecutive messages for one topic as a batch.
+     * @return true if there exists a subscriber (excluding this spine) for the topic
+     */
+    private boolean sendRun(List<Message> run, MessageType messageType) throws SpineException {
+        if (subscriptionManager.calculateExpectedResponderCount(messageType) == 0) {
+            log.warn("Send of {} {} messages failed - no subscribers found.", run.size(), messageType);
+            return false;
+        }
+        try {
+            batchingSender.sendBatch(run, messageType);
+        }
+        catch (JMSException e) {
+            log.warn("Exception thrown when sending batch of type '" + messageType + "'", e);
+            throw new SpineException(e);
+        }
+        log.trace("{} '{}' messages just posted into Spine", run.size(), messageType);
+        return true;
+    }
+
+    /**
+     * Makes sure a message is one the Spine clients are permitted to send.
+     * @param message the message a client wants to send
+     * @throws SpineException if the message may not be sent
+     */
+    private void checkSendable(Message message) throws SpineException {
+        MessageType messageType = message.getMessageType();
+        if (SystemMessageType.class.isInstance(messageType) ||
+                DurableMessageType.class.isInstance(messageType)) {
+            log.warn("Attempt to send unauthorized messageType: '{}'", messageType);
+            throw new SpineException("Attempt to send unauthorized MessageType: " + message);
+        }
+        if (messageTypeToProducerMap.get(messageType) == null) {
+            log.warn("Attempt to send unsupported MessageType: {}", messageType);
+            throw new SpineException("Attempt to send unsupported MessageType: " + message);
         }
     }
 
@@ -716,21 +957,19 @@ public class JmsSpine implements Spine {
      * @throws SpineException if something goes wrong
      */
     void sendSystemMessage(Message message) throws SpineException {
-        synchronized (sendLock) {
-            MessageType messageType = message.getMessageType();
+        MessageType messageType = message.getMessageType();
 
-            if (!SystemMessageType.class.isInstance(messageType) &&
-                    !DurableMessageType.class.isInstance(messageType)) {
-                log.warn("Attempt to send unsupported Durable or System MessageType: {}", message);
-                throw new SpineException("Attempt to send unsupported Durable or SystemMessageType: " + message);
-            }
-            if (messageTypeToProducerMap.get(messageType) == null) {
-                log.warn("Attempt to send unsupported MessageType: {}", message);
-                throw new SpineException("Attempt to send unsupported MessageType: " + message);
-            }
-            else {
-                sendMessage(message, messageType);
-            }
+        if (!SystemMessageType.class.isInstance(messageType) &&
+                !DurableMessageType.class.isInstance(messageType)) {
+            log.warn("Attempt to send unsupported Durable or System MessageType: {}", message);
+            throw new SpineException("Attempt to send unsupported Durable or SystemMessageType: " + message);
+        }
+        if (messageTypeToProducerMap.get(messageType) == null) {
+            log.warn("Attempt to send unsupported MessageType: {}", message);
+            throw new SpineException("Attempt to send unsupported MessageType: " + message);
+        }
+        else {
+            sendMessage(message, messageType);
         }
     }
 
@@ -745,6 +984,37 @@ public class JmsSpine implements Spine {
         return subscriptionManager.calculateExpectedResponderCount(messageType);
     }
 
+    /**
+     * Return the spines (excluding this one) that are registered to receive messages of this type
+     * @param messageType that we want the subscribers for
+     * @return The client ids of the subscribers (excluding this one)
+     */
+    Set<String> getExpectedResponders(MessageType messageType) {
+        return subscriptionManager.getExpectedResponders(messageType);
+    }
+
+    /**
+     * @return where this spine routes execute requests
+     */
+    ExecutorRoutes getExecutorRoutes() {
+        return executorRoutes;
+    }
+
+    /**
+     * Called by the SubscriptionManager when another spine stops receiving a message type, so
+     * that gathers stop waiting for its response.
+     * @param spineId the client id of the other spine
+     * @param messageType the type it no longer receives, or null if it closed
+     */
+    void responderLeft(String spineId, MessageType messageType) {
+        if (messageType == null || messageType == UserMessageType.EXECUTE_REQUEST) {
+            executorRoutes.clientLeft(spineId);
+        }
+        if (stateManager != null) {
+            stateManager.responderLeft(spineId, messageType);
+        }
+    }
+
     /**
      * This method allows the calling Spine Client to issue a request to every (excluding itself)
      * spine in the system. This is a synchronous call that will block until the results have been gathered.
@@ -768,6 +1038,18 @@ public class JmsSpine implements Spine {
         stateManager.gatherAsynchronous(message, timeout, callback);
     }
 
+    /**
+     * This method is a future based version of the gather method. It returns straight
+     * away, and the future completes when the responses have been gathered or the
+     * timeout expires.
+     * @param message The gather request message
+     * @param timeout The timeout that should be used before giving up the gather request
+     * @return the future responses
+     */
+    public CompletableFuture<Message[]> gatherAsync(Message message, long timeout) throws SpineException {
+        return stateManager.gatherAsync(message, timeout);
+    }
+
 
     /**
      * Get the Port to use for the Message Broker - the default may be overridden by
@@ -799,6 +1081,117 @@ public class JmsSpine implements Spine {
         return reconnectAttempts;
     }
 
+    /**
+     * Get the number of sessions messages are sent on - the default may be
+     * overridden by a system property. Each sending thread always uses the same
+     * session, so raising this lets more threads send at once.
+     * @return the number of sender sessions to use
+     */
+    protected final int getSenderSessions() {
+        int senderSessions = DEFAULT_SENDER_SESSIONS;
+        String customSenderSessions = System.getProperty(SENDER_SESSIONS);
+        if (customSenderSessions != null) {
+            senderSessions = Integer.parseInt(customSenderSessions);
+            log.debug("Starting Jms Spine with custom sender session count: {}", senderSessions);
+        }
+        return senderSessions;
+    }
+
+    /**
+     * Get the mode used to deliver received messages to their handlers - the
+     * default (SINGLE) may be overridden by a system property. The other modes
+     * deliver different topics or transactions concurrently, so handlers
+     * subscribed to several message types must be thread safe.
+     * @return the dispatch mode to use
+     */
+    protected final DispatchMode getDispatchMode() {
+        DispatchMode mode = DispatchMode.SINGLE;
+        String customMode = System.getProperty(DISPATCH_MODE);
+        if (customMode != null) {
+            try {
+                mode = DispatchMode.valueOf(customMode.toUpperCase());
+                log.debug("Starting Jms Spine with custom dispatch mode: {}", mode);
+            } catch (IllegalArgumentException e) {
+                log.warn("Unknown {} '{}', using {}", DISPATCH_MODE, customMode, mode);
+            }
+        }
+        return mode;
+    }
+
+    /**
+     * Get the number of delivery threads used by the TRANSACTION dispatch mode -
+     * the default may be overridden by a system property.
+     * @return the number of delivery threads to use
+     */
+    protected final int getDispatchThreads() {
+        int dispatchThreads = DEFAULT_DISPATCH_THREADS;
+        String customDispatchThreads = System.getProperty(DISPATCH_THREADS);
+        if (customDispatchThreads != null) {
+            dispatchThreads = Integer.parseInt(customDispatchThreads);
+            log.debug("Starting Jms Spine with custom dispatch thread count: {}", dispatchThreads);
+        }
+        return dispatchThreads;
+    }
+
+    /**
+     * Get how long, in milliseconds, a message may be held back to share a batch with
+     * the messages sent after it - the default (0, never) may be overridden by a
+     * system property.
+     * @return the batch linger time to use
+     */
+    protected final long getBatchLinger() {
+        long batchLinger = DEFAULT_BATCH_LINGER;
+        String customBatchLinger = System.getProperty(BATCH_LINGER);
+        if (customBatchLinger != null) {
+            batchLinger = Long.parseLong(customBatchLinger);
+            log.debug("Starting Jms Spine with custom batch linger time: {}", batchLinger);
+        }
+        return batchLinger;
+    }
+
+    /**
+     * Get the maximum number of messages sent in one batch - the default may be
+     * overridden by a system property.
+     * @return the maximum batch size to use
+     */
+    protected final int getBatchSize() {
+        int batchSize = DEFAULT_BATCH_SIZE;
+        String customBatchSize = System.getProperty(BATCH_SIZE);
+        if (customBatchSize != null) {
+            batchSize = Integer.parseInt(customBatchSize);
+            log.debug("Starting Jms Spine with custom batch size: {}", batchSize);
+        }
+        return batchSize;
+    }
+
+    /**
+     * Get the codec used to pack Spine messages into JMS messages - the default
+     * (binary) may be overridden by a system property. Every codec can decode
+     * both the ObjectMessages of the original encoding and binary frames, so
+     * spines configured differently can still talk to each other as long as
+     * they agree on the binary format version.
+     * @return the message codec to use
+     */
+    protected final MessageCodec getMessageCodec() {
+        String codecName = System.getProperty(MESSAGE_CODEC, BINARY_MESSAGE_CODEC);
+        if (OBJECT_MESSAGE_CODEC.equalsIgnoreCase(codecName)) {
+            log.debug("Using Java serialization for Spine messages");
+            return new ObjectMessageCodec();
+        }
+        if (!BINARY_MESSAGE_CODEC.equalsIgnoreCase(codecName)) {
+            log.warn("Unknown {} '{}', using binary", MESSAGE_CODEC, codecName);
+        }
+        return new BinaryMessageCodec();
+    }
+
+    /**
+     * Get the codec used to pack Spine messages into JMS messages.
+     * @return the message codec in use by this spine
+     */
+    MessageCodec getCodec() {
+        return codec;
+    }
+
     /**
      * Create topics for messages to be sent on. Some topics are special and are there
      * to allow the JmsSpine Instances to communicate with each other, such as the
@@ -880,6 +1273,12 @@ public class JmsSpine implements Spine {
         // if it is lost in transit.
         producer.setDeliveryMode(DeliveryMode.PERSISTENT);
         messageTypeToProducerMap.put(DurableMessageType.REGISTER, producer);
+
+        // Messages are sent through a set of sessions rather than just this one, so
+        // that threads sending at the same time don't have to queue up behind each other.
+        senderPool = new SenderPool(connection, session, messageTypeToProducerMap, codec, getSenderSessions());
+        // Consecutive messages for the same topic may share one JMS message.
+        batchingSender = new BatchingSender(this, getBatchLinger(), getBatchSize(), senderPool.size());
     }
 
 }
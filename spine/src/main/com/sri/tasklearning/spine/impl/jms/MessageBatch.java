@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.impl.jms;
+
+import java.util.List;
+
+import com.sri.tasklearning.spine.messages.Message;
+import com.sri.tasklearning.spine.messages.MessageType;
+import com.sri.tasklearning.spine.messages.contents.UID;
+
+/**
+ * Several messages for the same topic travelling through the broker as one
+ * JMS message. Batches only exist between two JmsSpine instances: the
+ * receiving spine unpacks them and hands the contained messages to its
+ * handlers one at a time, in order.
+ */
+public class MessageBatch
+        extends Message {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Message> messages;
+
+    public MessageBatch(String sender,
+                        UID uid,
+                        MessageType messageType,
+                        List<Message> messages) {
+        super(sender, uid, messageType);
+        this.messages = messages;
+    }
+
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + " of " + messages.size() + " " + messageType;
+    }
+}
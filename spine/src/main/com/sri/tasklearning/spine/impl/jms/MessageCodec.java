@@ -0,0 +1,50 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.impl.jms;
+
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import com.sri.tasklearning.spine.messages.Message;
+
+/**
+ * Converts Spine messages to and from the JMS messages which actually travel
+ * through the broker. Every JmsSpine instance in a cloud must be able to
+ * decode whatever the other instances encode, so implementations should
+ * always accept the {@code ObjectMessage} form produced by
+ * {@link ObjectMessageCodec} in addition to their own.
+ */
+public interface MessageCodec {
+
+    /**
+     * Create a JMS message carrying the given Spine message.
+     * @param session the session the JMS message will be sent on
+     * @param message the Spine message to encode
+     * @return a JMS message ready to be handed to a producer
+     * @throws JMSException if the message cannot be encoded
+     */
+    public javax.jms.Message encode(Session session, Message message) throws JMSException;
+
+    /**
+     * Recover the Spine message carried by a received JMS message.
+     * @param jmsMessage the message delivered by the broker
+     * @return the Spine message it contains
+     * @throws JMSException if the message cannot be decoded
+     */
+    public Message decode(javax.jms.Message jmsMessage) throws JMSException;
+
+}
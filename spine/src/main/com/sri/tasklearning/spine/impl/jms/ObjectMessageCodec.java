@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.impl.jms;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+
+import com.sri.tasklearning.spine.messages.Message;
+
+/**
+ * The original message encoding: every Spine message is carried whole by a
+ * JMS {@code ObjectMessage} using Java serialization. It handles any message,
+ * so it is also the fallback for the more compact codecs. It still decodes the
+ * {@code BytesMessage}s of {@link BinaryMessageCodec}, so a spine using this
+ * codec can read messages from spines which don't.
+ */
+public class ObjectMessageCodec implements MessageCodec {
+    private final BinaryMessageCodec binary;
+
+    public ObjectMessageCodec() {
+        binary = new BinaryMessageCodec(this);
+    }
+
+    @Override
+    public javax.jms.Message encode(Session session, Message message) throws JMSException {
+        return session.createObjectMessage(message);
+    }
+
+    @Override
+    public Message decode(javax.jms.Message jmsMessage) throws JMSException {
+        if (BytesMessage.class.isInstance(jmsMessage)) {
+            return binary.decode(jmsMessage);
+        }
+        if (!ObjectMessage.class.isInstance(jmsMessage)) {
+            throw new JMSException("Unable to decode JMS message of type " + jmsMessage.getClass().getName());
+        }
+        return (Message)((ObjectMessage)jmsMessage).getObject();
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.impl.jms;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import com.sri.tasklearning.spine.messages.ExecuteRequest;
+import com.sri.tasklearning.spine.messages.Message;
+import com.sri.tasklearning.spine.messages.MessageType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed set of sending lanes, each with its own JMS session and producers.
+ * JMS sessions are single threaded, so sending used to be serialized through
+ * one lock around the spine's only session. Here a sending thread is always
+ * mapped to the same lane, so threads only contend when they share a lane,
+ * and the messages sent by any one thread still go out through one session
+ * in the order they were sent.
+ * <p>
+ * Lane 0 reuses the spine's own session and producers. The other lanes open
+ * their sessions the first time a thread sends on them, copying destination
+ * and delivery mode from the spine's producers.
+ */
+class SenderPool {
+    private static final Logger log = LoggerFactory.getLogger(SenderPool.class);
+
+    private final Lane[] lanes;
+
+    /**
+     * @param connection the connection additional lane sessions are opened on
+     * @param session the spine's session, used by the first lane
+     * @param producers the spine's producers, one per sendable message type
+     * @param codec how messages are packed into JMS messages
+     * @param size the number of lanes, at least 1
+     */
+    SenderPool(Connection connection,
+               Session session,
+               Map<MessageType, MessageProducer> producers,
+               MessageCodec codec,
+               int size) {
+        if (size < 1) {
+            size = 1;
+        }
+        lanes = new Lane[size];
+        lanes[0] = new Lane(connection, codec, producers);
+        lanes[0].session = session;
+        lanes[0].producers.putAll(producers);
+        for (int i = 1; i < size; i++) {
+            lanes[i] = new Lane(connection, codec, producers);
+        }
+    }
+
+    /**
+     * Send a message on the calling thread's lane.
+     * @param message the message to send
+     * @param messageType the topic to send it on
+     * @throws JMSException if the lane cannot be set up or the send fails
+     */
+    void send(Message message, MessageType messageType) throws JMSException {
+        send(lane(), message, messageType);
+    }
+
+    /**
+     * Send a message on a given lane, whichever thread is calling.
+     * @param lane the lane's index, from {@link #lane}
+     * @param message the message to send
+     * @param messageType the topic to send it on
+     * @throws JMSException if the lane cannot be set up or the send fails
+     */
+    void send(int lane, Message message, MessageType messageType) throws JMSException {
+        lanes[lane].send(message, messageType);
+    }
+
+    /**
+     * @return the index of the lane the calling thread sends on
+     */
+    int lane() {
+        return (int) (Thread.currentThread().getId() % lanes.length);
+    }
+
+    int size() {
+        return lanes.length;
+    }
+
+    private static class Lane {
+        private final Connection connection;
+        private final MessageCodec codec;
+        private final Map<MessageType, MessageProducer> templates;
+        private final Map<MessageType, MessageProducer> producers;
+        private Session session;
+
+        Lane(Connection connection,
+             MessageCodec codec,
+             Map<MessageType, MessageProducer> templates) {
+            this.connection = connection;
+            this.codec = codec;
+            this.templates = templates;
+            producers = new HashMap<MessageType, MessageProducer>();
+        }
+
+        synchronized void send(Message message, MessageType messageType) throws JMSException {
+            if (session == null) {
+                log.trace("Opening new sender session");
+                session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            }
+            MessageProducer producer = producers.get(messageType);
+            if (producer == null) {
+                MessageProducer template = templates.get(messageType);
+                producer = session.createProducer(template.getDestination());
+                producer.setDeliveryMode(template.getDeliveryMode());
+                producers.put(messageType, producer);
+            }
+            javax.jms.Message jmsMessage = codec.encode(session, message);
+            if (ExecuteRequest.class.isInstance(message)) {
+                String target = ((ExecuteRequest) message).getTarget();
+                if (target != null) {
+                    jmsMessage.setStringProperty(JmsSpine.TARGET_PROPERTY, target);
+                }
+            }
+            producer.send(jmsMessage);
+        }
+    }
+}
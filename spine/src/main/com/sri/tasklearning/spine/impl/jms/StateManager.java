@@ -27,14 +27,19 @@ import static com.sri.tasklearning.spine.messages.UserMessageType.TYPE_LIST_RESU
 import static com.sri.tasklearning.spine.messages.UserMessageType.TYPE_QUERY;
 import static com.sri.tasklearning.spine.messages.UserMessageType.TYPE_RESULT;
 
-import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import javax.jms.JMSException;
 import javax.jms.MessageListener;
-import javax.jms.ObjectMessage;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +48,7 @@ import com.sri.tasklearning.spine.MessageHandler;
 import com.sri.tasklearning.spine.MessageHandlerException;
 import com.sri.tasklearning.spine.SpineException;
 import com.sri.tasklearning.spine.messages.DurableMessageType;
+import com.sri.tasklearning.spine.messages.ExecutorListQuery;
 import com.sri.tasklearning.spine.messages.ExecutorListResult;
 import com.sri.tasklearning.spine.messages.GatherIssues;
 import com.sri.tasklearning.spine.messages.JmsSpineClosing;
@@ -63,6 +69,7 @@ import com.sri.tasklearning.spine.messages.UserMessageType;
 import com.sri.tasklearning.spine.messages.contents.TransactionUID;
 import com.sri.tasklearning.spine.messages.contents.UID;
 import com.sri.tasklearning.spine.util.SpineStatus;
+import com.sri.tasklearning.util.NamedThreadFactory;
 
 /**
  * The StateManager is responsible for managing multi-step spine calls such as the
@@ -71,28 +78,33 @@ import com.sri.tasklearning.spine.util.SpineStatus;
 public class StateManager implements MessageHandler, MessageListener {
 
     private static final Logger log = LoggerFactory.getLogger(StateManager.class);
+    // Gather deadlines are kept to within GATHER_TICK ms; one turn of the wheel is about 5 seconds
+    private static final long GATHER_TICK = 10;
+    private static final int GATHER_WHEEL_SIZE = 512;
     private JmsSpine spine;
     private JmsClient clientType;
     private String clientId;
-    private ArrayList<GatherInstance> gatheringThreads;
+    // Gathers in progress, by the UID of the request and therefore of its responses
+    private final ConcurrentHashMap<UID, GatherInstance> gathers = new ConcurrentHashMap<UID, GatherInstance>();
+    private final HashedWheelTimer gatherTimer;
+    private final ExecutorService gatherCallbacks;
     protected BlockingMessageSemaphore registrationSemaphore;
     private boolean registered;
     private boolean registrationPermissionMessageReceived;
     volatile private Set<String> watchingSpines;
     private boolean watching = false;
-    private int serialNumber = 0;
+    private final AtomicLong serialNumber = new AtomicLong();
     protected Set<String> spineInstanceList;
-    private final Object gatherLock = new Object();
-    // These are used to support the synchronous gather method
-    private final Message[][] responseMessages = {new Message[0]};
-    private final Object semaphore = new Object();
-    private boolean notified = false;
+    // Watch requests may be delivered on different threads, see DispatchMode
+    private final Object watchLock = new Object();
 
     public StateManager(JmsSpine parentSpine) throws SpineException {
         this.spine = parentSpine;
         this.clientType = spine.getClientType();
         this.clientId = spine.getClientId();
-        gatheringThreads = new ArrayList<GatherInstance>();
+        gatherTimer = new HashedWheelTimer(clientId + " gather timer", GATHER_TICK, GATHER_WHEEL_SIZE);
+        // Callbacks may block, or even gather themselves, so they run off the JMS delivery thread
+        gatherCallbacks = Executors.newCachedThreadPool(new NamedThreadFactory(clientId + " gather callback"));
 
         // Used to coordinate the registration between the remote and local spines.
         registrationSemaphore = new BlockingMessageSemaphore(5000, spine);
@@ -176,79 +188,81 @@ public class StateManager implements MessageHandler, MessageListener {
      * @param callback called when the gather call completes or fails
      * @throws SpineException if something goes wrong
      */
-    public void gatherAsynchronous(Message message, long timeout, GatherCallback callback) throws SpineException {
-        synchronized(gatherLock) {
-            UID gatherIdentifier = message.getUid();
-
-            MessageType messageType = message.getMessageType();
-            // It would be trivial to make all message types gatherable but it does not make sense as there are
-            // many message that cannot and/or should not be used in a gather call, such as response messages
-            // themselves.
-            if (messageType != TYPE_LIST_QUERY && messageType != TYPE_QUERY && messageType != EXECUTOR_LIST_QUERY) {
-                log.info("The '{}' message type is not currently supported by the gather command", messageType);
-                callback.warning(GatherIssues.NOT_GATHERABLE);
-                return;
-            }
-
-            int expectedResponses = spine.calculateExpectedResponderCount(messageType);
-            if (expectedResponses == 0) {
-                log.debug("No subscribers to send the gather request to. The other spines may have gone down or " +
-                        "have not subscribed to this message type yet.");
-                callback.warning(GatherIssues.NO_SUBSCRIBERS);
-                return;
+    public void gatherAsynchronous(Message message, long timeout, final GatherCallback callback) throws SpineException {
+        Set<String> responders = spine.getExpectedResponders(message.getMessageType());
+        GatherIssues issue = checkGatherable(message.getMessageType(), responders);
+        if (issue != null) {
+            callback.warning(issue);
+            return;
+        }
+        startGather(message, responders, timeout).thenAcceptAsync(new Consumer<Message[]>() {
+            @Override
+            public void accept(Message[] messages) {
+                callback.result(messages);
             }
+        }, gatherCallbacks);
+    }
 
-            // Create the gather instance - this new thread will keep track of the incoming messages
-            GatherInstance gatherInstance = new GatherInstance(expectedResponses, timeout, gatherIdentifier, callback);
-            gatheringThreads.add(gatherInstance);
-            Thread thread = new Thread(gatherInstance);
-            thread.start();
-
-            // Send the request message that will ask all the other spines to respond
-            if (SystemMessageType.class.isInstance(messageType) ||
-                    DurableMessageType.class.isInstance(messageType)) {
-                spine.sendSystemMessage(message);
-            }
-            else {
-                spine.send(message);
-            }
+    /**
+     * Future based version of the gather request. The future completes with the
+     * responses once all the expected responders have answered or gone away, or
+     * with whatever has arrived when the timeout expires. It may be completed on the
+     * spine's message delivery thread, so dependent actions which block must use the
+     * async variants of the CompletableFuture methods.
+     * @param message the request message to be issued
+     * @param timeout the maximum time to wait for all responses
+     * @return the future responses; empty if there is no one to ask
+     * @throws SpineException if the request message can't be sent
+     */
+    public CompletableFuture<Message[]> gatherAsync(Message message, long timeout) throws SpineException {
+        Set<String> responders = spine.getExpectedResponders(message.getMessageType());
+        GatherIssues issue = checkGatherable(message.getMessageType(), responders);
+        if (issue == GatherIssues.NOT_GATHERABLE) {
+            CompletableFuture<Message[]> result = new CompletableFuture<Message[]>();
+            result.completeExceptionally(new SpineException("The '" + message.getMessageType()
+                    + "' message type is not currently supported by the gather command"));
+            return result;
+        }
+        if (issue != null) {
+            return CompletableFuture.completedFuture(new Message[0]);
         }
+        return startGather(message, responders, timeout);
     }
 
     /**
      * Blocking gather request. When called this method does not return to the caller until
-     * all the expected responses are received or the timeout is reached. This gather request
-     * calls the Asynchronous gather and blocks until it is complete. It will likely be removed
-     * in the future but will be kept here for now to support the expected behavior of the
-     * gather mechanism. If this method is ever removed, the sanity check for the TypeQueryResults
-     * below should be moved to the calling spine client.
+     * all the expected responses are received or the timeout is reached. It will likely be
+     * removed in the future but will be kept here for now to support the expected behavior
+     * of the gather mechanism. If this method is ever removed, the sanity check for the
+     * TypeQueryResults below should be moved to the calling spine client.
      * @param message The gather request message
      * @param timeout The patience of the gather requester
      * @return The responses
      * @throws SpineException if something goes wrong
      */
     public Message[] gather(Message message, long timeout) throws SpineException {
-        GatherCallbackImpl callback = new GatherCallbackImpl();
-        synchronized (semaphore) {
-            notified = false;
-
-            // Call gather asynchronously
-            gatherAsynchronous(message, timeout, callback);
+        Set<String> responders = spine.getExpectedResponders(message.getMessageType());
+        if (checkGatherable(message.getMessageType(), responders) != null) {
+            return new Message[0];
+        }
+        CompletableFuture<Message[]> result = startGather(message, responders, timeout);
 
-            // And then wait for a response.
-            while (!notified) {
-                try {
-                    semaphore.wait(100);
-                } catch (InterruptedException e) {
-                    log.warn("Synchronous Gather wait thread was interrupted by an exception");
-                }
+        // Wait for the responses; the gather timer guarantees the future completes.
+        Message[] responseMessages = null;
+        while (responseMessages == null) {
+            try {
+                responseMessages = result.get();
+            } catch (InterruptedException e) {
+                log.warn("Synchronous Gather wait thread was interrupted by an exception");
+            } catch (ExecutionException e) {
+                throw new SpineException(e.getCause());
             }
         }
         // Sanity check the TypeQueryResults. Make sure all positive
         // responses are the same.
         if (message.getMessageType() == TYPE_QUERY) {
             String type = null;
-            for (Message replyMsg : responseMessages[0]) {
+            for (Message replyMsg : responseMessages) {
                 if (replyMsg != null && replyMsg instanceof TypeResult) {
                     String thisType = ((TypeResult) replyMsg).getTypeStr();
                     if (thisType == null) {
@@ -259,48 +273,85 @@ public class StateManager implements MessageHandler, MessageListener {
                     }
                     if (!type.equals(thisType)) {
                         log.warn("Action models are out of sync! Query was {}, responses are {}",
-                                message, responseMessages[0]);
+                                message, responseMessages);
                         break;
                     }
                 }
             }
         }
-        return responseMessages[0];
+        return responseMessages;
     }
 
     /**
-     * This class is invoked when the Asynchronous gather request completes when called
-     * by the synchronous gather below. Eventually the synchronous gather request may
-     * be removed but currently it is needed for backward compatibility with how the
-     * spine clients expect the gather mechanism to work (blocking, not asynchronous)
+     * Checks that a gather request can be made.
+     * @param messageType the type of the request message
+     * @param responders the spines which would respond
+     * @return the reason the gather can't go ahead, or null if it can
      */
-    private class GatherCallbackImpl implements GatherCallback {
+    private GatherIssues checkGatherable(MessageType messageType, Set<String> responders) {
+        // It would be trivial to make all message types gatherable but it does not make sense as there are
+        // many message that cannot and/or should not be used in a gather call, such as response messages
+        // themselves.
+        if (messageType != TYPE_LIST_QUERY && messageType != TYPE_QUERY && messageType != EXECUTOR_LIST_QUERY) {
+            log.info("The '{}' message type is not currently supported by the gather command", messageType);
+            return GatherIssues.NOT_GATHERABLE;
+        }
+        if (responders.isEmpty()) {
+            log.debug("No subscribers to send the gather request to. The other spines may have gone down or " +
+                    "have not subscribed to this message type yet.");
+            return GatherIssues.NO_SUBSCRIBERS;
+        }
+        return null;
+    }
 
-        /**
-         * Called when the gather request gets the appropriate number of responses
-         * @param messages
-         */
-        @Override
-        public void result(Message[] messages) {
-            synchronized (semaphore) {
-                responseMessages[0] = messages;
-                notified = true;
-                semaphore.notifyAll();
-            }
+    /**
+     * Registers a new gather, arms its deadline and sends the request.
+     */
+    private CompletableFuture<Message[]> startGather(Message message, Set<String> responders, long timeout)
+            throws SpineException {
+        final UID gatherIdentifier = message.getUid();
+        MessageType messageType = message.getMessageType();
+        final GatherInstance gatherInstance = new GatherInstance(gatherIdentifier, messageType, responders);
+        gathers.put(gatherIdentifier, gatherInstance);
+        final boolean executorQuery = ExecutorListQuery.class.isInstance(message);
+        if (executorQuery) {
+            // The answers tell the spine where to route execute requests for the action
+            spine.getExecutorRoutes().queryStarted((ExecutorListQuery) message);
         }
+        final HashedWheelTimer.Timeout deadline = gatherTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (gathers.remove(gatherIdentifier, gatherInstance)) {
+                    gatherInstance.expire();
+                }
+            }
+        }, timeout);
+        CompletableFuture<Message[]> result = gatherInstance.getResult();
+        result.whenComplete(new BiConsumer<Message[], Throwable>() {
+            @Override
+            public void accept(Message[] messages, Throwable error) {
+                deadline.cancel();
+                if (executorQuery) {
+                    spine.getExecutorRoutes().queryFinished(gatherIdentifier);
+                }
+            }
+        });
 
-        /**
-         * Called when the gather request times out and does not get enough responses
-         * @param warningType
-         */
-        @Override
-        public void warning(com.sri.tasklearning.spine.messages.GatherIssues warningType) {
-            synchronized (semaphore) {
-                notified = true;
-                semaphore.notifyAll();
+        // Send the request message that will ask all the other spines to respond
+        try {
+            if (SystemMessageType.class.isInstance(messageType) ||
+                    DurableMessageType.class.isInstance(messageType)) {
+                spine.sendSystemMessage(message);
             }
+            else {
+                spine.send(message);
+            }
+        } catch (SpineException e) {
+            gathers.remove(gatherIdentifier, gatherInstance);
+            result.completeExceptionally(e);
+            throw e;
         }
-
+        return result;
     }
 
     public void onMessage(javax.jms.Message message) {
@@ -308,7 +359,7 @@ public class StateManager implements MessageHandler, MessageListener {
         // instance to register themselves and ask for permission to transmit
         // messages
         try {
-            Serializable objectMessage =  ((ObjectMessage)message).getObject();
+            Message objectMessage = spine.getCodec().decode(message);
             if (Register.class.isInstance(objectMessage)) {
                 Register registerMsg = (Register) objectMessage;
 
@@ -382,45 +433,52 @@ public class StateManager implements MessageHandler, MessageListener {
         // This message is sent by a Spine Client to request that the START_WATCHING
         // command be issued.
         else if (RequestStartWatching.class.isInstance(message)) {
-            try {
-                if (!watching) {
-                    TransactionUID uid = ((RequestStartWatching)message).getUid();
-                    spine.sendSystemMessage(new StartWatching(clientId, uid));
-                    watching = true;
-                    watchingSpines = new HashSet<String>();
-                    watchingSpines.add(message.getSender());
-                }
-                else {
-                    watchingSpines.add(message.getSender());
-                    log.trace("Watching has already been initiated by another client");
+            synchronized (watchLock) {
+                try {
+                    if (!watching) {
+                        TransactionUID uid = ((RequestStartWatching)message).getUid();
+                        spine.sendSystemMessage(new StartWatching(clientId, uid));
+                        watching = true;
+                        watchingSpines = new HashSet<String>();
+                        watchingSpines.add(message.getSender());
+                    }
+                    else {
+                        watchingSpines.add(message.getSender());
+                        log.trace("Watching has already been initiated by another client");
+                    }
+                } catch (Exception e) {
+                    log.warn("Exception while sending Start Watching Message", e);
                 }
-            } catch (Exception e) {
-                log.warn("Exception while sending Start Watching Message", e);
             }
         }
 
         // This message is sent by a Spine Client to request that the STOP_WATCHING
         // command be issued.
         else if (RequestStopWatching.class.isInstance(message)) {
-            try {
-                if (watchingSpines != null && watchingSpines.remove(message.getSender())) {
-                    if (watchingSpines.size() == 0) {
-                        TransactionUID uid = ((RequestStopWatching)message).getUid();
-                        spine.sendSystemMessage(new StopWatching(clientId, uid));
-                        watching = false;
+            synchronized (watchLock) {
+                try {
+                    if (watchingSpines != null && watchingSpines.remove(message.getSender())) {
+                        if (watchingSpines.size() == 0) {
+                            TransactionUID uid = ((RequestStopWatching)message).getUid();
+                            spine.sendSystemMessage(new StopWatching(clientId, uid));
+                            watching = false;
+                        }
                     }
+                } catch (Exception e) {
+                    log.warn("Exception while sending Stop Watching Message", e);
                 }
-            } catch (Exception e) {
-                log.warn("Exception while sending Stop Watching Message", e);
             }
         }
 
-        // This message is sent by a Spine Client to request a Serial Number. This
-        // function is managed by the LOCAL Spine instance
+        // This message is sent by a Spine Client to request a block of Serial Numbers.
+        // This function is managed by the LOCAL Spine instance
         else if (SerialNumberRequest.class.isInstance(message)) {
             try {
-                TransactionUID uid = ((SerialNumberRequest)message).getUid();
-                spine.sendSystemMessage(new SerialNumberResponse(clientId, uid, serialNumber++));
+                SerialNumberRequest request = (SerialNumberRequest) message;
+                TransactionUID uid = request.getUid();
+                int count = Math.max(1, request.getCount());
+                spine.sendSystemMessage(new SerialNumberResponse(clientId, uid,
+                        serialNumber.getAndAdd(count), count));
             } catch (Exception e) {
                 log.warn("Exception while sending SerialNumberResponse Message", e);
             }
@@ -445,6 +503,7 @@ public class StateManager implements MessageHandler, MessageListener {
          * return to the Spine client.
          */
         else if (ExecutorListResult.class.isInstance(message)) {
+            spine.getExecutorRoutes().answered((ExecutorListResult) message);
             informGatheringThreads(message);
         }
 
@@ -457,15 +516,17 @@ public class StateManager implements MessageHandler, MessageListener {
                 String closingSpine = message.getSender();
                 log.trace("Spine closing received from: {}", closingSpine);
                 spineInstanceList.remove(closingSpine);
-                if (watchingSpines != null && watchingSpines.remove(message.getSender())) {
-                    if (watchingSpines.size() == 0) {
-                        TransactionUID uid =  ((JmsSpineClosing)message).getUid();
-                        try {
-                            spine.sendSystemMessage(new StopWatching(clientId, uid));
-                        } catch (Exception e) {
-                            log.warn("Exception while sending Stop Watching Message", e);
+                synchronized (watchLock) {
+                    if (watchingSpines != null && watchingSpines.remove(message.getSender())) {
+                        if (watchingSpines.size() == 0) {
+                            TransactionUID uid =  ((JmsSpineClosing)message).getUid();
+                            try {
+                                spine.sendSystemMessage(new StopWatching(clientId, uid));
+                            } catch (Exception e) {
+                                log.warn("Exception while sending Stop Watching Message", e);
+                            }
+                            watching = false;
                         }
-                        watching = false;
                     }
                 }
             }
@@ -482,16 +543,42 @@ public class StateManager implements MessageHandler, MessageListener {
      * @param message The message received
      */
     private void informGatheringThreads(Message message) {
-        synchronized (gatherLock) {
-            // For each of the gathering threads, show them the message and let them decide if they
-            // want it. The signal method will return true if that is the last message it was waiting
-            // on so remove it from the list of active gather threads.
-            for (int i = 0; i < gatheringThreads.size(); i++) {
-                if (gatheringThreads.get(i).signal(message)) {
-                    gatheringThreads.remove(i);
-                }
+        // Responses carry the UID of the request, which identifies the gather. The signal method
+        // will return true if that is the last message it was waiting on so stop tracking it.
+        GatherInstance gatherInstance = gathers.get(message.getUid());
+        if (gatherInstance != null && gatherInstance.signal(message)) {
+            gathers.remove(message.getUid(), gatherInstance);
+        }
+    }
+
+    /**
+     * Called when another spine unsubscribes from a message type, or closes. Gathers
+     * which were waiting on that spine stop doing so, and complete if it was the last.
+     * @param spineId the client id of the spine
+     * @param messageType the type it unsubscribed from, or null if it closed
+     */
+    void responderLeft(String spineId, MessageType messageType) {
+        for (GatherInstance gatherInstance : gathers.values()) {
+            if (messageType != null && messageType != gatherInstance.getMessageType()) {
+                continue;
             }
+            if (gatherInstance.responderLeft(spineId)) {
+                gathers.remove(gatherInstance.getGatherIdentifier(), gatherInstance);
+            }
+        }
+    }
+
+    /**
+     * Completes any outstanding gathers with the responses they have so far, and
+     * stops the gather timer.
+     */
+    void shutdown() {
+        gatherTimer.stop();
+        for (GatherInstance gatherInstance : gathers.values()) {
+            gathers.remove(gatherInstance.getGatherIdentifier(), gatherInstance);
+            gatherInstance.expire();
         }
+        gatherCallbacks.shutdown();
     }
 
     /**
@@ -23,6 +23,7 @@ import static com.sri.tasklearning.spine.messages.SystemMessageType.PRIVILEGED_S
 import static com.sri.tasklearning.spine.messages.SystemMessageType.PRIVILEGED_SUBSCRIPION_RESPONSE;
 import static com.sri.tasklearning.spine.messages.SystemMessageType.SHUTDOWN_MASTER;
 import static com.sri.tasklearning.spine.messages.SystemMessageType.SPINE_CLOSING;
+import static com.sri.tasklearning.spine.messages.SystemMessageType.UNSUBSCRIBE;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -101,7 +102,7 @@ public class SubscriptionManager implements MessageHandler {
             clientType.equals(JmsClient.DURABLE_TEST)) {
             // Subscribe to the subscription notification messages.
             subscribe(this, NEW_SUBSCRIPTION, EXISTING_SUBSCRIPTIONS,
-                    PRIVILEGED_SUBSCRIPION_RESPONSE, SPINE_CLOSING);
+                    PRIVILEGED_SUBSCRIPION_RESPONSE, SPINE_CLOSING, UNSUBSCRIBE);
 
             log.trace("Request for existing subscriptions sent for client '{}'", clientId);
             try {
@@ -123,7 +124,7 @@ public class SubscriptionManager implements MessageHandler {
             // SubscriptionManager for individual special handling.
             subscribe(this, NEW_SUBSCRIPTION, EXISTING_SUBSCRIPTIONS_REQUEST,
                     SPINE_CLOSING, PRIVILEGED_SUBSCRIPION_REQUEST,
-                    SHUTDOWN_MASTER);
+                    SHUTDOWN_MASTER, UNSUBSCRIBE);
         }
     }
 
@@ -338,6 +339,25 @@ public class SubscriptionManager implements MessageHandler {
         return expectedResponders;
     }
 
+    /**
+     * Inspects the subscription records to see which Spine Clients should be expected to
+     * respond to this gather query.
+     * @param messageType The message to be submitted to the gather function
+     * @return the client ids of the expected responders
+     */
+    public Set<String> getExpectedResponders(MessageType messageType) {
+        Set<String> responders;
+        synchronized (subscriberSemaphore) {
+            if (!subscriberCountMap.containsKey(messageType)) {
+                return new HashSet<String>();
+            }
+            responders = new HashSet<String>(subscriberCountMap.get(messageType));
+        }
+        // We will not answer ourselves.
+        responders.remove(clientId);
+        return responders;
+    }
+
     /**
      * Get the message types that this client is subscribed to.
      * @return The message types this client is subscribed to
@@ -406,6 +426,25 @@ public class SubscriptionManager implements MessageHandler {
             }
         }
 
+        // This message can be sent by any Spine instance to indicate it is no longer
+        // subscribed to a MessageType
+        else if (Unsubscribe.class.isInstance(message)) {
+            Unsubscribe unsubscribe = (Unsubscribe) message;
+            // Don't process messages from self, subscription was already removed
+            if (unsubscribe.getUnSubscriber().equals(clientId)) {
+                return;
+            }
+            MessageType messageType = unsubscribe.getUnSubscriptionType();
+            log.trace("Spine {} Received Unsubscribe notification from: '{}'", clientId, message);
+            synchronized (subscriberSemaphore) {
+                if (subscriberCountMap.containsKey(messageType)) {
+                    subscriberCountMap.get(messageType).remove(unsubscribe.getUnSubscriber());
+                }
+            }
+            // Gathers waiting on this spine's response won't get one now
+            spine.responderLeft(unsubscribe.getUnSubscriber(), messageType);
+        }
+
         // This message is sent by the REMOTE Spines during startup to the LOCAL Spine
         // in order to synchronize their knowledge of which messages have subscribers.
         else if (ExistingSubscriptionsRequest.class.isInstance(message)) {
@@ -466,6 +505,7 @@ public class SubscriptionManager implements MessageHandler {
                     subscriberCountMap.get(messageType).remove(closingSpine);
                 }
             }
+            spine.responderLeft(closingSpine, null);
         }
 
         // This message is sent by a REMOTE Spine instance to ask the LOCAL Spine
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.impl.jms;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.sri.tasklearning.spine.MessageHandler;
+import com.sri.tasklearning.spine.messages.Message;
+import com.sri.tasklearning.spine.messages.MessageType;
+import com.sri.tasklearning.spine.messages.contents.UID;
+import com.sri.tasklearning.util.NamedThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers received messages for {@link DispatchMode#TRANSACTION}. Each
+ * message is queued on one of a fixed number of single threaded lanes,
+ * picked by hashing its UID, so that messages of one transaction are handled
+ * in the order they arrived while unrelated transactions proceed in
+ * parallel.
+ */
+class TransactionDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(TransactionDispatcher.class);
+
+    private final String clientId;
+    private final ExecutorService[] lanes;
+
+    TransactionDispatcher(String clientId, int size) {
+        this.clientId = clientId;
+        if (size < 1) {
+            size = 1;
+        }
+        ThreadFactory tf = new NamedThreadFactory(clientId + " " + getClass().getSimpleName());
+        lanes = new ExecutorService[size];
+        for (int i = 0; i < size; i++) {
+            lanes[i] = Executors.newSingleThreadExecutor(tf);
+        }
+    }
+
+    void dispatch(final MessageHandler handler,
+                  final MessageType messageType,
+                  final Message message) {
+        lanes[laneFor(message.getUid())].execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    handler.handleMessage(message);
+                } catch (Exception e) {
+                    log.warn("Exception while handling message for '"
+                            + clientId + "', messageType: '" + messageType + "'", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the index of the lane which handles messages with this UID
+     */
+    int laneFor(UID uid) {
+        int hash = (uid == null) ? 0 : uid.hashCode();
+        // Spread the bits so UIDs differing only in their counter use all lanes.
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    void shutdown() {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+    }
+}
@@ -29,6 +29,7 @@ public class ExecuteRequest
     private final SimpleTypeName actionName;
     private final List<Object> inParams;
     private final boolean stepped;
+    private String target;
 
     public ExecuteRequest(String sender,
                           TransactionUID uid,
@@ -63,6 +64,22 @@ public class ExecuteRequest
         return stepped;
     }
 
+    /**
+     * @return the client the spine routed this request to, or {@code null}
+     *         if it was broadcast to every executor
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * Set by the spine when it knows which client executes the action. This
+     * is routing information only, so it takes no part in equality.
+     */
+    public void setTarget(String target) {
+        this.target = target;
+    }
+
     @Override
     public String toString() {
         String steppedStr = " normal";
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.messages;
+
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.tasklearning.spine.messages.contents.TransactionUID;
+
+/**
+ * Message sent when a client registers or unregisters the executor for an
+ * action, so that anyone remembering who executes it can update what they
+ * know.
+ */
+public class ExecutorChange
+        extends BroadcastMessage {
+    private static final long serialVersionUID = 1L;
+
+    private final SimpleTypeName actionName;
+    private final boolean registered;
+
+    /**
+     * Creates an executor change message.
+     *
+     * @param sender
+     *            the client id of the sender, which is the client whose
+     *            executor changed
+     * @param uid
+     *            a new transaction uid
+     * @param actionName
+     *            the action whose executor changed
+     * @param registered
+     *            {@code true} if the sender now executes the action,
+     *            {@code false} if it no longer does
+     */
+    public ExecutorChange(String sender,
+                          TransactionUID uid,
+                          SimpleTypeName actionName,
+                          boolean registered) {
+        super(sender, uid, UserMessageType.EXECUTOR_CHANGE);
+        this.actionName = actionName;
+        this.registered = registered;
+    }
+
+    @Override
+    public TransactionUID getUid() {
+        return (TransactionUID) uid;
+    }
+
+    public SimpleTypeName getActionName() {
+        return actionName;
+    }
+
+    public boolean isRegistered() {
+        return registered;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + " for " + actionName + " (" + registered
+                + ")";
+    }
+}
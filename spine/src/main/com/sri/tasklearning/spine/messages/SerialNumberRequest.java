@@ -21,14 +21,32 @@ import com.sri.tasklearning.spine.messages.contents.TransactionUID;
 public class SerialNumberRequest
         extends BroadcastMessage {
     private static final long serialVersionUID = 1L;
+    private int count = 1;
 
     public SerialNumberRequest(String sender,
                                TransactionUID uid) {
         super(sender, uid, UserMessageType.SERIAL_NUMBER_REQUEST);
     }
 
+    /**
+     * Requests a block of consecutive serial numbers.
+     *
+     * @param count
+     *            how many serial numbers the sender wants
+     */
+    public SerialNumberRequest(String sender,
+                               TransactionUID uid,
+                               int count) {
+        this(sender, uid);
+        this.count = count;
+    }
+
     public TransactionUID getUid() {
         return (TransactionUID)uid;
     }
 
+    public int getCount() {
+        return count;
+    }
+
 }
\ No newline at end of file
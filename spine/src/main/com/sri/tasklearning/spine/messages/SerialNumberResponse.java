@@ -22,6 +22,7 @@ public class SerialNumberResponse
         extends BroadcastMessage {
     private static final long serialVersionUID = 1L;
     private long serialNumber;
+    private int count = 1;
 
     public SerialNumberResponse(String sender,
                                 TransactionUID uid,
@@ -30,6 +31,18 @@ public class SerialNumberResponse
         this.serialNumber = serialNumber;
     }
 
+    /**
+     * Grants a block of consecutive serial numbers, starting at
+     * {@code serialNumber}.
+     */
+    public SerialNumberResponse(String sender,
+                                TransactionUID uid,
+                                long serialNumber,
+                                int count) {
+        this(sender, uid, serialNumber);
+        this.count = count;
+    }
+
     public TransactionUID getUid() {
         return (TransactionUID) uid;
     }
@@ -38,6 +51,14 @@ public class SerialNumberResponse
         return serialNumber;
     }
 
+    /**
+     * @return how many serial numbers, starting at {@link #getSerialNumber},
+     *         were granted
+     */
+    public int getCount() {
+        return count;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o)
@@ -51,6 +72,8 @@ public class SerialNumberResponse
 
         if (serialNumber != that.serialNumber)
             return false;
+        if (count != that.count)
+            return false;
 
         return true;
     }
@@ -59,6 +82,7 @@ public class SerialNumberResponse
     public int hashCode() {
         int result = super.hashCode();
         result = 31 * result + (int) (serialNumber ^ (serialNumber >>> 32));
+        result = 31 * result + count;
         return result;
     }
 }
\ No newline at end of file
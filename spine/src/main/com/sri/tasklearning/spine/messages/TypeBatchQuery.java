@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.messages;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.tasklearning.spine.messages.contents.TransactionUID;
+
+/**
+ * Asks for several types at once, and optionally everything they depend on,
+ * so that the whole set arrives in a single {@link TypeBatchResult} instead
+ * of one {@link TypeQuery} round trip per type.
+ */
+public class TypeBatchQuery
+        extends BroadcastMessage {
+    private static final long serialVersionUID = 1L;
+
+    private final Set<SimpleTypeName> typeNames;
+    private final boolean withDependencies;
+
+    /**
+     * @param sender
+     *            who's asking
+     * @param uid
+     *            a new transaction uid, which the answer will copy
+     * @param typeNames
+     *            the types to fetch
+     * @param withDependencies
+     *            if {@code true}, also fetch every type the requested ones
+     *            depend on, directly or indirectly
+     */
+    public TypeBatchQuery(String sender,
+                          TransactionUID uid,
+                          Collection<SimpleTypeName> typeNames,
+                          boolean withDependencies) {
+        super(sender, uid, UserMessageType.TYPE_BATCH_QUERY);
+        this.typeNames = new LinkedHashSet<SimpleTypeName>(typeNames);
+        this.withDependencies = withDependencies;
+    }
+
+    public Set<SimpleTypeName> getTypeNames() {
+        return Collections.unmodifiableSet(typeNames);
+    }
+
+    public boolean isWithDependencies() {
+        return withDependencies;
+    }
+
+    @Override
+    public TransactionUID getUid() {
+        return (TransactionUID) uid;
+    }
+
+    @Override
+    public String toString() {
+        String deps = withDependencies ? " with dependencies" : "";
+        return super.toString() + " for " + typeNames + deps;
+    }
+}
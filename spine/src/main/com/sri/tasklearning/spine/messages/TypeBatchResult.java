@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.messages;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sri.ai.lumen.atr.decl.ATRDecl;
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.tasklearning.spine.messages.contents.TransactionUID;
+
+/**
+ * Answers a {@link TypeBatchQuery}. Types are listed so that each one comes
+ * after everything it depends on, except where types depend on each other.
+ */
+public class TypeBatchResult
+        extends BroadcastMessage {
+    private static final long serialVersionUID = 1L;
+
+    private final LinkedHashMap<SimpleTypeName, String> types;
+
+    /**
+     * @param sender
+     *            who's sending the answer to the question
+     * @param types
+     *            the string representation of each type, in dependency order,
+     *            or {@code null} for a requested type which wasn't found
+     * @param uid
+     *            copied UID from the question to the answer
+     */
+    public TypeBatchResult(String sender,
+                           Map<SimpleTypeName, String> types,
+                           TransactionUID uid) {
+        super(sender, uid, UserMessageType.TYPE_BATCH_RESULT);
+        this.types = new LinkedHashMap<SimpleTypeName, String>(types);
+    }
+
+    /**
+     * Provides the string representation of each type, in dependency order.
+     * Types which weren't found map to {@code null}.
+     */
+    public Map<SimpleTypeName, String> getTypeStrs() {
+        return Collections.unmodifiableMap(types);
+    }
+
+    /**
+     * Parses the types which were found, in dependency order.
+     */
+    public List<ATRDecl> getTypeAtrs()
+            throws RuntimeException {
+        List<ATRDecl> result = new ArrayList<ATRDecl>();
+        for (String typeStr : types.values()) {
+            if (typeStr != null) {
+                result.add(TypeResult.parse(typeStr));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Provides the names of types which weren't found.
+     */
+    public Set<SimpleTypeName> getMissing() {
+        Set<SimpleTypeName> result = new LinkedHashSet<SimpleTypeName>();
+        for (Map.Entry<SimpleTypeName, String> entry : types.entrySet()) {
+            if (entry.getValue() == null) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public TransactionUID getUid() {
+        return (TransactionUID) uid;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + " " + types.size() + " types, "
+                + getMissing().size() + " not found";
+    }
+}
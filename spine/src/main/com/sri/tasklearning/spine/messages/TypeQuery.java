@@ -20,10 +20,9 @@ package com.sri.tasklearning.spine.messages;
 import com.sri.pal.common.SimpleTypeName;
 import com.sri.tasklearning.spine.messages.contents.TransactionUID;
 
-/*
- * TODO For a huge performance improvement, we should allow TypeQuery to contain
- * Set<TypeName> instead of a single TypeName. TypeResult would be modified to
- * suit.
+/**
+ * Asks for a single type. To fetch several types, or a type and everything it
+ * depends on, in one round trip, use {@link TypeBatchQuery}.
  */
 public class TypeQuery
         extends BroadcastMessage {
@@ -63,6 +63,11 @@ public class TypeResult
         if (typeStr == null) {
             return null;
         }
+        return parse(typeStr);
+    }
+
+    static ATRDecl parse(String typeStr)
+            throws RuntimeException {
         CTRConstructor ctrCon = new CTRConstructor();
         @SuppressWarnings({ "rawtypes", "unchecked" })
         ATRSyntax atrUtil = new ATRSyntax(ctrCon);
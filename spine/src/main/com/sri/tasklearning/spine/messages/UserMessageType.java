@@ -90,6 +90,19 @@ public enum UserMessageType implements MessageType {
      */
     TYPE_RESULT,
 
+    /**
+     * This message is sent from Lumen, Lapdog, or a Bridge without local type
+     * storage to the Bridge which holds it, to request several types at once,
+     * optionally together with everything they depend on.
+     */
+    TYPE_BATCH_QUERY,
+
+    /**
+     * This message is sent in response to a TYPE_BATCH_QUERY, with the same
+     * TransactionUID, and carries all of the requested types.
+     */
+    TYPE_BATCH_RESULT,
+
     /**
      * This message is sent from one of the Spine clients to the LOCAL Spine to request
      * an issue of the START_WATCHING system message (command). This supports the
@@ -185,6 +198,12 @@ public enum UserMessageType implements MessageType {
      */
     EXECUTOR_LIST_RESULT,
 
+    /**
+     * Sent by a client when it registers or unregisters the executor for an
+     * action.
+     */
+    EXECUTOR_CHANGE,
+
     /**
      * Indicates that a particular type or action should be flushed from any
      * caches.
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.tasklearning.spine.MessageHandler;
+import com.sri.tasklearning.spine.MessageHandlerException;
+import com.sri.tasklearning.spine.Spine;
+import com.sri.tasklearning.spine.SpineException;
+import com.sri.tasklearning.spine.messages.ExecutorChange;
+import com.sri.tasklearning.spine.messages.ExecutorListQuery;
+import com.sri.tasklearning.spine.messages.ExecutorListResult;
+import com.sri.tasklearning.spine.messages.JmsSpineClosing;
+import com.sri.tasklearning.spine.messages.Message;
+import com.sri.tasklearning.spine.messages.MessageType;
+import com.sri.tasklearning.spine.messages.NewSubscription;
+import com.sri.tasklearning.spine.messages.SystemMessageType;
+import com.sri.tasklearning.spine.messages.Unsubscribe;
+import com.sri.tasklearning.spine.messages.UserMessageType;
+import com.sri.tasklearning.spine.messages.contents.TransactionUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers which actions have a registered executor somewhere in the system,
+ * so that asking again doesn't cost another {@link ExecutorListQuery} gather.
+ * <p>
+ * What we know about an action is forgotten when a client sends an
+ * {@link ExecutorChange} for it, when a client which executed it unsubscribes
+ * from execution requests or closes its spine, and, for actions with no
+ * executor, when a new client subscribes to executor queries. The next lookup
+ * after that asks the other clients again.
+ */
+public class ExecutorDirectory
+        implements MessageHandler {
+    private static final Logger log = LoggerFactory
+            .getLogger(ExecutorDirectory.class);
+
+    /**
+     * Stands in for the owner of an action which nobody executes. Client ids
+     * are never empty.
+     */
+    private static final String NO_EXECUTOR = "";
+
+    private final Spine spine;
+    /** The client which executes each action, or NO_EXECUTOR. */
+    private final Map<SimpleTypeName, String> owners;
+    /**
+     * Bumped by every change, so that a gather which raced with one doesn't
+     * store an answer which may already be stale. Guarded by changeLock,
+     * which also covers storing an answer, so no change can come between the
+     * check and the store.
+     */
+    private long generation;
+    private final Object changeLock = new Object();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ExecutorDirectory(Spine spine)
+            throws SpineException {
+        this.spine = spine;
+        owners = new ConcurrentHashMap<SimpleTypeName, String>();
+
+        if (spine != null) {
+            spine.subscribe(this, UserMessageType.EXECUTOR_CHANGE);
+            spine.subscribe(this, SystemMessageType.NEW_SUBSCRIPTION,
+                    SystemMessageType.UNSUBSCRIBE,
+                    SystemMessageType.SPINE_CLOSING);
+        }
+    }
+
+    /**
+     * Checks to see if the indicated action has a registered executor
+     * somewhere in the system, asking the other clients only if we don't
+     * already know.
+     *
+     * @param actionName
+     *            the action to check
+     * @return {@code true} iff an executor is registered
+     * @throws SpineException
+     *             if a communication error occurs
+     */
+    public boolean hasExecutor(SimpleTypeName actionName)
+            throws SpineException {
+        String owner = owners.get(actionName);
+        if (owner != null) {
+            hits.incrementAndGet();
+            return !NO_EXECUTOR.equals(owner);
+        }
+        misses.incrementAndGet();
+
+        long before;
+        synchronized (changeLock) {
+            before = generation;
+        }
+        TransactionUID uid = spine.getNextUid();
+        ExecutorListQuery elq = new ExecutorListQuery(spine.getClientId(),
+                uid, actionName);
+        Message[] responses = spine.gather(elq, Spine.DEFAULT_TIMEOUT);
+        owner = NO_EXECUTOR;
+        for (Message msg : responses) {
+            ExecutorListResult result = (ExecutorListResult) msg;
+            if (result.isExecutor()) {
+                owner = result.getSender();
+                break;
+            }
+        }
+        synchronized (changeLock) {
+            if (generation == before) {
+                owners.put(actionName, owner);
+            }
+        }
+        log.debug("Executor for {} is {}", actionName, owner);
+        return !NO_EXECUTOR.equals(owner);
+    }
+
+    /**
+     * Forgets what we know about the named action.
+     *
+     * @param actionName
+     *            the action whose executor may have changed
+     */
+    public void remove(SimpleTypeName actionName) {
+        synchronized (changeLock) {
+            generation++;
+            owners.remove(actionName);
+        }
+    }
+
+    /**
+     * Forgets every action executed by the given client.
+     */
+    private void clientLeft(String client) {
+        synchronized (changeLock) {
+            generation++;
+            for (Iterator<String> i = owners.values().iterator(); i.hasNext();) {
+                if (i.next().equals(client)) {
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets every action which had no executor, since the new client may
+     * provide one.
+     */
+    private void clientJoined() {
+        synchronized (changeLock) {
+            generation++;
+            for (Iterator<String> i = owners.values().iterator(); i.hasNext();) {
+                if (NO_EXECUTOR.equals(i.next())) {
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    private static boolean isExecutorTopic(MessageType messageType) {
+        return messageType == UserMessageType.EXECUTOR_LIST_QUERY
+                || messageType == UserMessageType.EXECUTE_REQUEST;
+    }
+
+    /**
+     * @return the number of lookups answered without asking the other clients
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups which had to ask the other clients
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public void handleMessage(Message message)
+            throws MessageHandlerException {
+        if (message instanceof ExecutorChange) {
+            ExecutorChange change = (ExecutorChange) message;
+            log.debug("Executor changed: {}", change);
+            remove(change.getActionName());
+        } else if (message instanceof NewSubscription) {
+            NewSubscription sub = (NewSubscription) message;
+            if (sub.getSubscriptionType() == UserMessageType.EXECUTOR_LIST_QUERY) {
+                clientJoined();
+            }
+        } else if (message instanceof Unsubscribe) {
+            Unsubscribe unsub = (Unsubscribe) message;
+            if (isExecutorTopic(unsub.getUnSubscriptionType())) {
+                clientLeft(unsub.getUnSubscriber());
+            }
+        } else if (message instanceof JmsSpineClosing) {
+            clientLeft(message.getSender());
+        } else {
+            log.warn("Unexpected message ({}): {}", message.getClass(), message);
+        }
+    }
+
+    public void shutdown() {
+        log.debug("Executor directory shutdown: {} hits, {} misses",
+                hits.get(), misses.get());
+        owners.clear();
+    }
+}
@@ -17,13 +17,22 @@
 // $Id: ReplyWatcher.java 7401 2016-03-25 20:18:20Z Chris Jones (E24486) $
 package com.sri.tasklearning.spine.util;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
 import com.sri.pal.common.CallbackHandler;
+import com.sri.pal.common.ErrorInfo;
 import com.sri.pal.common.RequestCanceler;
 import com.sri.tasklearning.spine.MessageHandler;
 import com.sri.tasklearning.spine.MessageHandlerException;
@@ -48,6 +57,17 @@ import org.slf4j.LoggerFactory;
  * Message reply = replyWatcher.get(uid);
  * </pre>
  * <p>
+ * Callers which don't want to block a thread can use {@link #sendAsync}
+ * instead, which returns a future completed by the reply itself.
+ * <p>
+ * Each outstanding request is a {@code CompletableFuture} keyed by its UID, so
+ * a reply wakes only the thread waiting for it. If a timeout was given at
+ * construction, requests which go unanswered for that long fail with a
+ * {@code TimeoutException}. While requests are outstanding, a single shared
+ * timer thread checks once a second that the spine master is still running
+ * and fails every outstanding request if it isn't; waiting threads don't
+ * poll.
+ * <p>
  * The ReplyWatcher must be subscribed to the appropriate topic in order to
  * receive the desired messages.
  *
@@ -58,33 +78,66 @@ import org.slf4j.LoggerFactory;
  */
 public class ReplyWatcher<E extends Message>
         implements MessageHandler {
+    private static final long LIVENESS_INTERVAL = 1000;
+    private static final ScheduledThreadPoolExecutor timer;
+    static {
+        timer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory(
+                ReplyWatcher.class.getSimpleName() + " timer"));
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
     private final Logger log;
     private final Class<E> type;
-    private final Map<TransactionUID, E> watchers;
-    private final Map<TransactionUID, CallbackHandler<E>> callbacks;
+    /** Replies retained until {@link #get} collects them. */
+    private final Map<TransactionUID, CompletableFuture<E>> watchers;
+    /** Replies handed straight to a future or callback on arrival. */
+    private final Map<TransactionUID, CompletableFuture<E>> callbacks;
     private final Spine spine;
-    private ExecutorService threadPool;
+    private final long timeout;
+    private final ExecutorService threadPool;
+    private volatile ScheduledFuture<?> livenessCheck;
 
     /**
      * Builds a new watcher which will handle a particular Java class of reply
-     * message.
+     * message. Requests wait for their replies until the spine shuts down.
      *
      * @param messageType
      *            the class of reply messages to handle
      */
     public ReplyWatcher(Class<E> messageType,
                         Spine spine) {
+        this(messageType, spine, 0);
+    }
+
+    /**
+     * Builds a new watcher which will handle a particular Java class of reply
+     * message, failing requests which haven't been answered in time.
+     *
+     * @param messageType
+     *            the class of reply messages to handle
+     * @param timeout
+     *            milliseconds to wait for each reply, or 0 to wait until the
+     *            spine shuts down
+     */
+    public ReplyWatcher(Class<E> messageType,
+                        Spine spine,
+                        long timeout) {
         // Logger name of the form: com.sri.pal.ReplyWatcher<TypeQuery>
         log = LoggerFactory.getLogger(getClass().getName() + "<"
                 + messageType.getSimpleName() + ">");
         type = messageType;
-        watchers = new HashMap<TransactionUID, E>();
-        callbacks = new HashMap<TransactionUID, CallbackHandler<E>>();
+        watchers = new ConcurrentHashMap<TransactionUID, CompletableFuture<E>>();
+        callbacks = new ConcurrentHashMap<TransactionUID, CompletableFuture<E>>();
         this.spine = spine;
+        this.timeout = timeout;
+        String name = getClass().getSimpleName() + "<"
+                + type.getSimpleName() + ">";
+        ThreadFactory tf = new NamedThreadFactory(name);
+        threadPool = Executors.newCachedThreadPool(tf);
     }
 
     @Override
-    public synchronized void handleMessage(Message message)
+    public void handleMessage(Message message)
             throws MessageHandlerException {
         if (!type.isInstance(message)) {
             log.warn("Unexpected message ({}): {}", message.getClass(), message);
@@ -97,16 +150,19 @@ public class ReplyWatcher<E extends Message>
         @SuppressWarnings("unchecked")
         E msg = (E) message;
         TransactionUID uid = (TransactionUID) msg.getUid();
-        if (watchers.containsKey(uid)) {
+        CompletableFuture<E> future = watchers.get(uid);
+        if (future != null) {
             log.debug("Got {} -- keeping it", msg);
-            watchers.put(uid, msg);
-            notifyAll();
-        } else if (callbacks.containsKey(uid)) {
-            log.debug("Got {} -- sending to callback", msg);
-            startCallback(uid, msg);
         } else {
-            log.debug("Got {} -- but I don't care", msg);
+            future = callbacks.remove(uid);
+            if (future != null) {
+                log.debug("Got {} -- sending to callback", msg);
+            } else {
+                log.debug("Got {} -- but I don't care", msg);
+                return;
+            }
         }
+        future.complete(msg);
     }
 
     /**
@@ -117,9 +173,9 @@ public class ReplyWatcher<E extends Message>
      * @param uid
      *            the uid of the reply message to retain
      */
-    public synchronized void watchFor(TransactionUID uid) {
-        watchers.put(uid, null);
-        notifyAll();
+    public void watchFor(TransactionUID uid) {
+        watchers.put(uid, newFuture(uid));
+        ensureLivenessCheck();
     }
 
     /**
@@ -135,27 +191,43 @@ public class ReplyWatcher<E extends Message>
      * @return a message with the requested UID
      * @throws IllegalStateException
      *             if the {@link #watchFor} method was never called for this
-     *             UID, or if {@link #stopWatching} is called while this call is
-     *             pending
+     *             UID, if {@link #stopWatching} is called while this call is
+     *             pending, if the spine shuts down, or if the reply doesn't
+     *             arrive within this watcher's timeout
      */
-    public synchronized E get(TransactionUID uid)
+    public E get(TransactionUID uid)
             throws IllegalStateException {
-        while (watchers.get(uid) == null) {
-            if (!watchers.containsKey(uid)) {
-                throw new IllegalStateException("No entry for " + uid);
-            }
-            try {
-                wait(1000);
-            } catch (InterruptedException e) {
-                // Ignore
+        CompletableFuture<E> future = watchers.get(uid);
+        if (future == null) {
+            throw new IllegalStateException("No entry for " + uid);
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    E result = future.get();
+                    log.debug("Got result {}", result);
+                    return result;
+                } catch (InterruptedException e) {
+                    // Keep waiting, as we always have; restore the flag below.
+                    interrupted = true;
+                } catch (CancellationException e) {
+                    throw new IllegalStateException("No entry for " + uid);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IllegalStateException) {
+                        throw (IllegalStateException) cause;
+                    }
+                    throw new IllegalStateException("No reply for " + uid,
+                            cause);
+                }
             }
-            if (!spine.isMasterRunning()) {
-                throw new IllegalStateException("Spine has shut down");
+        } finally {
+            watchers.remove(uid, future);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
             }
         }
-        E result = watchers.remove(uid);
-        log.debug("Got result {}", result);
-        return result;
     }
 
     /**
@@ -165,10 +237,15 @@ public class ReplyWatcher<E extends Message>
      * @param uid
      *            the UID to stop watching for
      */
-    public synchronized void stopWatching(TransactionUID uid) {
-        watchers.remove(uid);
-        callbacks.remove(uid);
-        notifyAll();
+    public void stopWatching(TransactionUID uid) {
+        CompletableFuture<E> future = watchers.remove(uid);
+        if (future != null) {
+            future.cancel(false);
+        }
+        future = callbacks.remove(uid);
+        if (future != null) {
+            future.cancel(false);
+        }
     }
 
     public E sendAndGetReply(Message msg)
@@ -186,11 +263,42 @@ public class ReplyWatcher<E extends Message>
         return get(uid);
     }
 
-    public RequestCanceler sendAndGetReply(CallbackHandler<E> callbackHandler,
+    public RequestCanceler sendAndGetReply(final CallbackHandler<E> callbackHandler,
                                            Message msg)
             throws SpineException {
         final TransactionUID uid = (TransactionUID) msg.getUid();
-        callbacks.put(uid, callbackHandler);
+        final CompletableFuture<E> future = newFuture(uid);
+        future.whenComplete(new BiConsumer<E, Throwable>() {
+            @Override
+            public void accept(E response,
+                               Throwable error) {
+                callbacks.remove(uid, future);
+            }
+        });
+        future.whenCompleteAsync(new BiConsumer<E, Throwable>() {
+            @Override
+            public void accept(E response,
+                               Throwable error) {
+                if (error instanceof CancellationException) {
+                    return;
+                }
+                try {
+                    if (error == null) {
+                        callbackHandler.result(response);
+                    } else {
+                        log.warn("No reply for " + uid, error);
+                        ErrorInfo err = ErrorFactory.error(
+                                spine.getClientId(), ErrorType.INTERNAL_COMMS);
+                        callbackHandler.error(err);
+                    }
+                } catch (Exception e) {
+                    log.warn("Callback handler for " + uid
+                            + " threw exception", e);
+                }
+            }
+        }, threadPool);
+        callbacks.put(uid, future);
+        ensureLivenessCheck();
         try {
             // TODO Check the return value from send().
             spine.send(msg);
@@ -207,52 +315,135 @@ public class ReplyWatcher<E extends Message>
         };
     }
 
-    private void startCallback(TransactionUID uid,
-                               E message) {
-        // Start the thread pool if necessary.
-        if (threadPool == null) {
-            String name = getClass().getSimpleName() + "<"
-                    + type.getSimpleName() + ">";
-            log.debug("Starting thread pool for " + name);
-            ThreadFactory tf = new NamedThreadFactory(name);
-            threadPool = Executors.newCachedThreadPool(tf);
+    /**
+     * Sends a request and returns without waiting for the reply. The returned
+     * future completes with the reply, or exceptionally if the request can't
+     * be delivered, times out, or the spine shuts down. Cancelling the future
+     * is equivalent to calling {@link #stopWatching}.
+     *
+     * @param msg
+     *            the request to send; its UID identifies the reply
+     * @return a future which will hold the reply
+     * @throws SpineException
+     *             if the spine refuses the request
+     */
+    public CompletableFuture<E> sendAsync(Message msg)
+            throws SpineException {
+        final TransactionUID uid = (TransactionUID) msg.getUid();
+        final CompletableFuture<E> future = newFuture(uid);
+        future.whenComplete(new BiConsumer<E, Throwable>() {
+            @Override
+            public void accept(E response,
+                               Throwable error) {
+                callbacks.remove(uid, future);
+            }
+        });
+        callbacks.put(uid, future);
+        ensureLivenessCheck();
+        try {
+            if (!spine.send(msg)) {
+                future.completeExceptionally(new SpineException(
+                        "No subscribers"));
+            }
+        } catch (SpineException e) {
+            stopWatching(uid);
+            throw e;
         }
-
-        // Send the callback job to the thread pool.
-        CallbackJob callbackJob = new CallbackJob(uid, message);
-        threadPool.execute(callbackJob);
+        return future;
     }
 
-    private class CallbackJob
-            implements Runnable {
-        private final TransactionUID uid;
-        private final E response;
+    /**
+     * Creates the future for a new request, arming its timeout if this
+     * watcher has one.
+     */
+    private CompletableFuture<E> newFuture(final TransactionUID uid) {
+        final CompletableFuture<E> future = new CompletableFuture<E>();
+        if (timeout > 0) {
+            final ScheduledFuture<?> expiry = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    future.completeExceptionally(new TimeoutException(
+                            "No reply for " + uid + " after " + timeout
+                                    + " ms"));
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+            future.whenComplete(new BiConsumer<E, Throwable>() {
+                @Override
+                public void accept(E response,
+                                   Throwable error) {
+                    expiry.cancel(false);
+                }
+            });
+        }
+        return future;
+    }
 
-        public CallbackJob(TransactionUID uid,
-                           E message) {
-            this.uid = uid;
-            response = message;
+    /**
+     * Starts the periodic spine liveness check if it isn't already running.
+     * Must be called after the new request has been added to its map, so
+     * that a concurrent {@link #checkLiveness} which finds the maps empty
+     * either sees the new entry or leaves this method to restart the check.
+     */
+    private void ensureLivenessCheck() {
+        if (livenessCheck == null) {
+            startLivenessCheck();
         }
+    }
 
-        @Override
-        public void run() {
-            CallbackHandler<E> handler = callbacks.remove(uid);
-            if (handler == null) {
-                log.warn("A null handler was registered for {}", uid);
-                return;
+    private synchronized void startLivenessCheck() {
+        if (livenessCheck != null) {
+            return;
+        }
+        livenessCheck = timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkLiveness();
             }
+        }, LIVENESS_INTERVAL, LIVENESS_INTERVAL, TimeUnit.MILLISECONDS);
+    }
 
-            try {
-                handler.result(response);
-            } catch (Exception e) {
-                log.warn("Callback handler for " + uid + " threw exception", e);
+    private void checkLiveness() {
+        if (watchers.isEmpty() && callbacks.isEmpty()) {
+            synchronized (this) {
+                if (livenessCheck != null) {
+                    livenessCheck.cancel(false);
+                    livenessCheck = null;
+                }
+                if (watchers.isEmpty() && callbacks.isEmpty()) {
+                    return;
+                }
+                startLivenessCheck();
             }
         }
+        if (!spine.isMasterRunning()) {
+            failAll(new IllegalStateException("Spine has shut down"));
+        }
+    }
+
+    private void failAll(Throwable error) {
+        for (CompletableFuture<E> future : watchers.values()) {
+            future.completeExceptionally(error);
+        }
+        for (CompletableFuture<E> future : callbacks.values()) {
+            future.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Reports how many callback requests are still waiting for a reply.
+     */
+    int pendingCallbacks() {
+        return callbacks.size();
     }
 
     public void shutdown() {
-        if (threadPool != null) {
-            threadPool.shutdown();
+        synchronized (this) {
+            if (livenessCheck != null) {
+                livenessCheck.cancel(false);
+                livenessCheck = null;
+            }
         }
+        failAll(new IllegalStateException("ReplyWatcher has shut down"));
+        threadPool.shutdown();
     }
 }
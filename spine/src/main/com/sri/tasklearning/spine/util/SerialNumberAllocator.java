@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongBinaryOperator;
+
+import com.sri.tasklearning.spine.MessageHandlerException;
+import com.sri.tasklearning.spine.Spine;
+import com.sri.tasklearning.spine.SpineException;
+import com.sri.tasklearning.spine.messages.Message;
+import com.sri.tasklearning.spine.messages.SerialNumberRequest;
+import com.sri.tasklearning.spine.messages.SerialNumberResponse;
+import com.sri.tasklearning.spine.messages.contents.TransactionUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands out serial numbers to a spine client without asking the serial
+ * number authority (the LOCAL spine) for each one. The authority grants a
+ * block of consecutive numbers at a time, and the client draws from its
+ * current block locally.
+ * <p>
+ * Serial numbers order the events observed across applications, so a client
+ * must not keep drawing from an old block once another client has been
+ * granted a later one. Every grant is broadcast to every client, so when
+ * this allocator sees a grant made to another client it abandons the rest of
+ * its own block and asks for a new one on the next call. A single client
+ * which is busy on its own therefore only goes to the authority once per
+ * block, while clients which take turns still get numbers in the order they
+ * asked for them.
+ * <p>
+ * Like the ReplyWatcher it extends, the allocator must be subscribed to
+ * {@code SERIAL_NUMBER_RESPONSE}.
+ */
+public class SerialNumberAllocator
+        extends ReplyWatcher<SerialNumberResponse> {
+    private static final Logger log = LoggerFactory
+            .getLogger(SerialNumberAllocator.class);
+
+    public static final String BLOCK_SIZE = "PAL.SerialNumberBlockSize";
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left,
+                                long right) {
+            return Math.max(left, right);
+        }
+    };
+
+    private final Spine spine;
+    private final int blockSize;
+    private final Object refillLock = new Object();
+    /** The start of the latest block granted to any other client. */
+    private final AtomicLong foreignGrant = new AtomicLong(-1);
+    private volatile Block block;
+
+    public SerialNumberAllocator(Spine spine) {
+        super(SerialNumberResponse.class, spine);
+        this.spine = spine;
+        blockSize = getBlockSize();
+    }
+
+    @Override
+    public void handleMessage(Message message)
+            throws MessageHandlerException {
+        if (message instanceof SerialNumberResponse) {
+            SerialNumberResponse grant = (SerialNumberResponse) message;
+            String requester = grant.getUid().getOriginator();
+            if (!spine.getClientId().equals(requester)) {
+                foreignGrant.accumulateAndGet(grant.getSerialNumber(), MAX);
+            }
+        }
+        super.handleMessage(message);
+    }
+
+    /**
+     * Provides the next serial number for this client. This only blocks when
+     * a new block has to be requested from the authority.
+     *
+     * @return a serial number no other call, in this or any other client,
+     *         will return
+     * @throws SpineException
+     *             if a new block is needed and can't be obtained
+     */
+    public long nextSerialNumber()
+            throws SpineException {
+        while (true) {
+            Block current = block;
+            if (current != null && current.start > foreignGrant.get()) {
+                long serial = current.next.getAndIncrement();
+                if (serial < current.end) {
+                    return serial;
+                }
+            }
+            refill(current);
+        }
+    }
+
+    /**
+     * Replaces a used up or superseded block, unless another thread already
+     * has.
+     */
+    private void refill(Block used)
+            throws SpineException {
+        synchronized (refillLock) {
+            if (block != used) {
+                return;
+            }
+            TransactionUID uid = spine.getNextUid();
+            Message msg = new SerialNumberRequest(spine.getClientId(), uid,
+                    blockSize);
+            SerialNumberResponse grant;
+            try {
+                grant = sendAndGetReply(msg);
+            } catch (IllegalStateException e) {
+                throw new SpineException(e);
+            }
+            log.debug("Granted serial numbers {} to {}",
+                    grant.getSerialNumber(), grant.getSerialNumber()
+                            + grant.getCount() - 1);
+            block = new Block(grant.getSerialNumber(), grant.getCount());
+        }
+    }
+
+    /**
+     * Get the number of serial numbers to request at a time - the default may
+     * be overridden by a system property
+     *
+     * @return the block size to use
+     */
+    protected final int getBlockSize() {
+        int size = DEFAULT_BLOCK_SIZE;
+        String customSize = System.getProperty(BLOCK_SIZE);
+        if (customSize != null) {
+            size = Math.max(1, Integer.parseInt(customSize));
+            log.debug("Using custom serial number block size: {}", size);
+        }
+        return size;
+    }
+
+    private static class Block {
+        private final long start;
+        private final long end;
+        private final AtomicLong next;
+
+        Block(long start,
+              int count) {
+            this.start = start;
+            end = start + count;
+            next = new AtomicLong(start);
+        }
+    }
+}
@@ -17,15 +17,17 @@
 // $Id: TypeCache.java 7401 2016-03-25 20:18:20Z Chris Jones (E24486) $
 package com.sri.tasklearning.spine.util;
 
-import java.lang.ref.Reference;
-import java.lang.ref.ReferenceQueue;
-import java.lang.ref.SoftReference;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.sri.ai.lumen.atr.ATR;
+import com.sri.ai.lumen.atr.ATRSyntax;
 import com.sri.ai.lumen.atr.decl.ATRDecl;
 import com.sri.pal.common.TypeName;
 import com.sri.tasklearning.spine.MessageHandler;
@@ -42,22 +44,55 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Caches types to minimize chattiness when retrieving types via the Spine.
+ * <p>
+ * The cache is bounded by the total size of the cached types' source, which
+ * may be set with the {@code PAL.TypeCacheMaxWeight} system property. When it
+ * grows past that bound, the least recently used types are evicted until it
+ * is comfortably below it again. Evicted types are simply fetched again the
+ * next time they're needed. Types which have been pinned are never evicted,
+ * though they are still removed when a {@link CacheExpire} says they have
+ * changed.
  */
 public class TypeCache
         implements MessageHandler {
     private static final Logger log = LoggerFactory.getLogger(TypeCache.class);
 
-    private final Map<TypeName, Reference<ATR>> map;
-    private final Map<Reference<ATR>, TypeName> refMap;
-    private final ReferenceQueue<ATR> refQueue;
-    private final Set<ATR> allTypes;
+    public static final String MAX_WEIGHT = "PAL.TypeCacheMaxWeight";
+    public static final long DEFAULT_MAX_WEIGHT = 8 * 1024 * 1024;
+
+    private static final Comparator<Candidate> LEAST_RECENT = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate c1,
+                           Candidate c2) {
+            return Long.compare(c1.lastUse, c2.lastUse);
+        }
+    };
+
+    private final Map<TypeName, Entry> map;
+    private final Set<TypeName> pinned;
+    private final long maxWeight;
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final Object evictLock = new Object();
 
     public TypeCache(Spine spine)
             throws SpineException {
-        map = new HashMap<TypeName, Reference<ATR>>();
-        refMap = new HashMap<Reference<ATR>, TypeName>();
-        refQueue = new ReferenceQueue<ATR>();
-        allTypes = new HashSet<ATR>();
+        this(spine, getMaxWeight());
+    }
+
+    /**
+     * @param maxWeight
+     *            the total length of type source the cache may hold
+     */
+    public TypeCache(Spine spine,
+                     long maxWeight)
+            throws SpineException {
+        map = new ConcurrentHashMap<TypeName, Entry>();
+        pinned = Collections.newSetFromMap(new ConcurrentHashMap<TypeName, Boolean>());
+        this.maxWeight = maxWeight;
 
         if(spine != null) {
             spine.subscribe(this, UserMessageType.CACHE_EXPIRE);
@@ -66,8 +101,7 @@ public class TypeCache
     }
 
     /**
-     * Adds the given type to the cache. If the type is a transient action, it
-     * will not be added.
+     * Adds the given type to the cache, replacing any type of the same name.
      *
      * @param atr
      *            the object to be cached
@@ -80,33 +114,35 @@ public class TypeCache
          */
 
         TypeName name = TypeUtil.getName(atr);
+        Entry old = map.get(name);
+        if (old != null && old.atr == atr) {
+            // Callers often add what they just got from us.
+            old.lastUse = clock.incrementAndGet();
+            return;
+        }
         log.debug("Cache add: {}", name);
-        SoftReference<ATR> ref = new SoftReference<ATR>(atr,
-                refQueue);
-        synchronized (this) {
-            map.put(name, ref);
-            refMap.put(ref, name);
+        Entry entry = new Entry(atr, ATRSyntax.toSource(atr).length(),
+                clock.incrementAndGet());
+        old = map.put(name, entry);
+        long total = weight.addAndGet(entry.weight
+                - (old == null ? 0 : old.weight));
+        if (total > maxWeight) {
+            evict();
         }
-
-        /* This is a deliberate memory leak: */
-        allTypes.add(atr);
     }
 
     /**
-     * Removes the named item from the cache. This is not necessary from a
-     * perspective of avoiding memory leaks. It's only needed for the sake of
-     * data consistency.
+     * Removes the named item from the cache. This is only needed for the sake
+     * of data consistency, when the named type has changed.
      *
      * @param name
      *            the name of the item to remove
      */
     public void remove(TypeName name) {
         log.debug("Cache remove: {}", name);
-        synchronized(this) {
-            Reference<ATR> ref = map.remove(name);
-            if (ref != null) {
-                refMap.remove(ref);
-            }
+        Entry entry = map.remove(name);
+        if (entry != null) {
+            weight.addAndGet(-entry.weight);
         }
     }
 
@@ -118,33 +154,142 @@ public class TypeCache
      * @return the requested type, or {@code null} if none is currently cached
      */
     public ATR get(TypeName name) {
-        ATR result = null;
-        Reference<ATR> ref;
-        synchronized(this) {
-            ref = map.get(name);
+        Entry entry = map.get(name);
+        if (entry == null) {
+            misses.incrementAndGet();
+            log.debug("Cache miss: {}", name);
+            return null;
+        }
+        entry.lastUse = clock.incrementAndGet();
+        hits.incrementAndGet();
+        log.debug("Cache hit: {}", name);
+        return entry.atr;
+    }
+
+    /**
+     * Retrieves whatever was last attached to the named type with
+     * {@link #attach}. Attachments go away along with the type they belong to,
+     * whether it's replaced, removed, expired, or evicted.
+     *
+     * @param name
+     *            the name of the type
+     * @return the attachment, or {@code null} if the type isn't cached or has
+     *         nothing attached to it
+     */
+    public Object getAttachment(TypeName name) {
+        Entry entry = map.get(name);
+        if (entry == null || entry.attachment == null) {
+            return null;
         }
-        if (ref != null) {
-            result = ref.get();
+        entry.lastUse = clock.incrementAndGet();
+        hits.incrementAndGet();
+        return entry.attachment;
+    }
+
+    /**
+     * Attaches an object built from the given type, such as a wrapper around
+     * it, so that later lookups can reuse it instead of building another. If
+     * the cache no longer holds this particular instance, nothing happens.
+     *
+     * @param atr
+     *            the cached type the attachment was built from
+     * @param attachment
+     *            the object to attach
+     */
+    public void attach(ATR atr,
+                       Object attachment) {
+        Entry entry = map.get(TypeUtil.getName(atr));
+        if (entry != null && entry.atr == atr) {
+            entry.attachment = attachment;
         }
-        log.debug("Cache {}: {}", result == null ? "miss" : "hit", name);
+    }
 
-        cleanCache();
+    /**
+     * Keeps the named type in the cache once it has been added, no matter how
+     * long it goes unused. The name stays pinned until {@link #unpin} is
+     * called, even if the type is removed and added again.
+     *
+     * @param name
+     *            the name of the type to keep
+     */
+    public void pin(TypeName name) {
+        pinned.add(name);
+    }
 
-        return result;
+    /**
+     * Allows the named type to be evicted again.
+     *
+     * @param name
+     *            the name of a type previously passed to {@link #pin}
+     */
+    public void unpin(TypeName name) {
+        pinned.remove(name);
     }
 
-    private void cleanCache() {
-        Reference<? extends ATR> ref;
-        while ((ref = refQueue.poll()) != null) {
-            TypeName name = refMap.get(ref);
-            log.debug("Cache clean: {}", name);
-            synchronized (this) {
-                map.remove(name);
-                refMap.remove(ref);
+    /**
+     * Evicts the least recently used unpinned types until the cache is back
+     * below three quarters of its maximum weight, so that evictions happen in
+     * batches rather than on every add.
+     */
+    private void evict() {
+        synchronized (evictLock) {
+            if (weight.get() <= maxWeight) {
+                return;
+            }
+            // Other threads keep using entries, so sort on a snapshot of their last use.
+            List<Candidate> candidates = new ArrayList<Candidate>();
+            for (Map.Entry<TypeName, Entry> mapEntry : map.entrySet()) {
+                if (!pinned.contains(mapEntry.getKey())) {
+                    candidates.add(new Candidate(mapEntry.getKey(), mapEntry.getValue()));
+                }
+            }
+            Collections.sort(candidates, LEAST_RECENT);
+            long target = maxWeight / 4 * 3;
+            int evicted = 0;
+            for (Candidate candidate : candidates) {
+                if (weight.get() <= target) {
+                    break;
+                }
+                Entry entry = candidate.entry;
+                if (map.remove(candidate.name, entry)) {
+                    weight.addAndGet(-entry.weight);
+                    evicted++;
+                }
             }
+            evictions.addAndGet(evicted);
+            log.debug("Cache evicted {} types, {} remain with weight {}",
+                    new Object[] { evicted, map.size(), weight.get() });
         }
     }
 
+    /**
+     * @return the number of lookups which found their type in the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups which didn't find their type in the cache
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of types evicted to keep the cache within its bound
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the total length of the source of the cached types
+     */
+    public long getWeight() {
+        return weight.get();
+    }
+
     @Override
     public void handleMessage(Message message)
             throws MessageHandlerException {
@@ -166,8 +311,54 @@ public class TypeCache
     }
 
     public void shutdown() {
-        map.clear();
-        refMap.clear();
-        cleanCache();
+        log.debug("Cache shutdown: {} hits, {} misses, {} evictions",
+                new Object[] { hits.get(), misses.get(), evictions.get() });
+        for (TypeName name : map.keySet()) {
+            remove(name);
+        }
+    }
+
+    /**
+     * Get the maximum weight of the cache - the default may be overridden by
+     * a system property
+     *
+     * @return the maximum weight to use
+     */
+    private static long getMaxWeight() {
+        long max = DEFAULT_MAX_WEIGHT;
+        String customMax = System.getProperty(MAX_WEIGHT);
+        if (customMax != null) {
+            max = Long.parseLong(customMax);
+            log.debug("Using custom type cache weight: {}", max);
+        }
+        return max;
+    }
+
+    private static class Entry {
+        private final ATR atr;
+        private final long weight;
+        private volatile long lastUse;
+        private volatile Object attachment;
+
+        Entry(ATR atr,
+              long weight,
+              long lastUse) {
+            this.atr = atr;
+            this.weight = weight;
+            this.lastUse = lastUse;
+        }
+    }
+
+    private static class Candidate {
+        private final TypeName name;
+        private final Entry entry;
+        private final long lastUse;
+
+        Candidate(TypeName name,
+                  Entry entry) {
+            this.name = name;
+            this.entry = entry;
+            lastUse = entry.lastUse;
+        }
     }
 }
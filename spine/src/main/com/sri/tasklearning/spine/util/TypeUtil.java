@@ -51,6 +51,7 @@ import com.sri.pal.common.SimpleTypeName;
 import com.sri.pal.common.TypeName;
 import com.sri.pal.common.TypeNameExpr;
 import com.sri.pal.common.TypeNameFactory;
+import com.sri.tasklearning.spine.messages.TypeListQuery;
 
 public class TypeUtil {
     public static final String DESCRIPTION = "description";
@@ -109,15 +110,20 @@ public class TypeUtil {
     public static final List<String> TYPE_RESERVED_KEYS = Arrays
             .asList(TYPE_RESERVED_KEYS_ARRAY);
 
+    /* What scanTypeString found in a type string: */
+    private static final int TASK_MODEL_ROOT = 1;
+    private static final int HAS_ACTION = 2;
+    private static final int HAS_FAMILY = 4;
+    private static final int HAS_IDIOM = 8;
+    private static final int HAS_CONSTRAINT = 16;
+
     /**
      * If the string contains an XML action model which contains at least one
      * action definition.
      */
     public static boolean isActionString(String typeStr) {
-        if (isIdiomString(typeStr)) {
-            return false;
-        }
-        return typeStr.matches("(?s).*<actionModel\\b.*<action\\b.*");
+        int kinds = scanTypeString(typeStr);
+        return (kinds & HAS_ACTION) != 0 && (kinds & HAS_IDIOM) == 0;
     }
 
     /**
@@ -125,19 +131,185 @@ public class TypeUtil {
      * ActionModel.xsd).
      */
     public static boolean isProcedureString(String typeStr) {
-        return typeStr.matches("(?s).*<TaskModel\\b.*");
+        return (scanTypeString(typeStr) & TASK_MODEL_ROOT) != 0;
     }
 
     public static boolean isActionFamilyString(String typeStr) {
-        return typeStr.matches("(?s).*<actionModel\\b.*<family\\b.*");
+        return (scanTypeString(typeStr) & HAS_FAMILY) != 0;
     }
 
     public static boolean isIdiomString(String typeStr) {
-        return typeStr.matches("(?s).*<actionModel\\b.*<idiom\\b.*");
+        return (scanTypeString(typeStr) & HAS_IDIOM) != 0;
     }
 
     public static boolean isConstraintString(String typeStr) {
-        return typeStr.matches("(?s).*<actionModel\\b.*<constraintDecl\\b.*");
+        return (scanTypeString(typeStr) & HAS_CONSTRAINT) != 0;
+    }
+
+    /**
+     * Determines which subset of the action model an XML type string belongs
+     * to, in a single pass over the string. This gives the same answer as
+     * trying {@link #isProcedureString}, {@link #isActionString},
+     * {@link #isActionFamilyString}, {@link #isIdiomString}, and
+     * {@link #isConstraintString} in that order.
+     *
+     * @param typeStr
+     *            an XML action model or TaskModel
+     * @return the subset, or {@code null} if the string is null or empty
+     */
+    public static TypeListQuery.Subset getSubset(String typeStr) {
+        if (typeStr == null || typeStr.isEmpty()) {
+            return null;
+        }
+        int kinds = scanTypeString(typeStr);
+        if ((kinds & TASK_MODEL_ROOT) != 0) {
+            return TypeListQuery.Subset.PROCEDURE;
+        } else if ((kinds & HAS_ACTION) != 0 && (kinds & HAS_IDIOM) == 0) {
+            return TypeListQuery.Subset.ACTION;
+        } else if ((kinds & HAS_FAMILY) != 0) {
+            return TypeListQuery.Subset.FAMILY;
+        } else if ((kinds & HAS_IDIOM) != 0) {
+            return TypeListQuery.Subset.IDIOM;
+        } else if ((kinds & HAS_CONSTRAINT) != 0) {
+            return TypeListQuery.Subset.CONSTRAINT;
+        } else {
+            return TypeListQuery.Subset.TYPE;
+        }
+    }
+
+    /**
+     * Determines which subset of the action model an already-parsed type
+     * belongs to.
+     *
+     * @param atr
+     *            a type, action, procedure, family, idiom, or constraint
+     *            declaration
+     * @return the subset the declaration belongs to
+     */
+    public static TypeListQuery.Subset getSubset(ATR atr) {
+        if (isActionFamily(atr)) {
+            return TypeListQuery.Subset.FAMILY;
+        } else if (isIdiom(atr)) {
+            return TypeListQuery.Subset.IDIOM;
+        } else if (isProcedure(atr)) {
+            return TypeListQuery.Subset.PROCEDURE;
+        } else if (isAction(atr)) {
+            return TypeListQuery.Subset.ACTION;
+        } else if (isConstraintDecl(atr)) {
+            return TypeListQuery.Subset.CONSTRAINT;
+        } else {
+            return TypeListQuery.Subset.TYPE;
+        }
+    }
+
+    /**
+     * Looks at the root element of an XML type string and, if it's an
+     * actionModel, at the root's children. Nothing deeper counts, so the
+     * actions inside an idiom's templates don't make it look like an action.
+     *
+     * @return a combination of the {@code TASK_MODEL_ROOT} and {@code HAS_*}
+     *         flags
+     */
+    private static int scanTypeString(String str) {
+        int result = 0;
+        int depth = 0;
+        int pos = str.indexOf('<');
+        while (pos >= 0 && pos + 1 < str.length()) {
+            char c = str.charAt(pos + 1);
+            int end;
+            if (c == '?') {
+                end = indexAfter(str, "?>", pos);
+            } else if (str.startsWith("<!--", pos)) {
+                end = indexAfter(str, "-->", pos);
+            } else if (str.startsWith("<![CDATA[", pos)) {
+                end = indexAfter(str, "]]>", pos);
+            } else if (c == '!') {
+                end = indexAfter(str, ">", pos);
+            } else if (c == '/') {
+                depth--;
+                end = indexAfter(str, ">", pos);
+            } else {
+                int nameStart = pos + 1;
+                int nameEnd = nameStart;
+                while (nameEnd < str.length()
+                        && !isTagNameEnd(str.charAt(nameEnd))) {
+                    nameEnd++;
+                }
+                end = tagEnd(str, nameEnd);
+                if (depth == 0) {
+                    if (nameEquals(str, nameStart, nameEnd, "TaskModel")) {
+                        return TASK_MODEL_ROOT;
+                    } else if (!nameEquals(str, nameStart, nameEnd,
+                            "actionModel")) {
+                        return 0;
+                    }
+                } else if (depth == 1) {
+                    if (nameEquals(str, nameStart, nameEnd, "action")) {
+                        result |= HAS_ACTION;
+                    } else if (nameEquals(str, nameStart, nameEnd, "family")) {
+                        result |= HAS_FAMILY;
+                    } else if (nameEquals(str, nameStart, nameEnd, "idiom")) {
+                        result |= HAS_IDIOM;
+                    } else if (nameEquals(str, nameStart, nameEnd,
+                            "constraintDecl")) {
+                        result |= HAS_CONSTRAINT;
+                    }
+                }
+                if (end > 0 && str.charAt(end - 2) != '/') {
+                    depth++;
+                }
+            }
+            if (end < 0) {
+                break;
+            }
+            pos = str.indexOf('<', end);
+        }
+        return result;
+    }
+
+    private static boolean isTagNameEnd(char c) {
+        return c == '>' || c == '/' || Character.isWhitespace(c);
+    }
+
+    private static boolean nameEquals(String str,
+                                      int start,
+                                      int end,
+                                      String name) {
+        return end - start == name.length()
+                && str.regionMatches(start, name, 0, name.length());
+    }
+
+    /**
+     * Returns the index just past the first occurrence of {@code token} at or
+     * after {@code from}, or -1.
+     */
+    private static int indexAfter(String str,
+                                  String token,
+                                  int from) {
+        int index = str.indexOf(token, from);
+        return index < 0 ? -1 : index + token.length();
+    }
+
+    /**
+     * Returns the index just past the {@code >} which closes the tag, skipping
+     * over quoted attribute values, or -1.
+     */
+    private static int tagEnd(String str,
+                              int from) {
+        char quote = 0;
+        for (int i = from; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i + 1;
+            }
+        }
+        return -1;
     }
 
     /**
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.impl.jms;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+
+import com.sri.pal.common.ErrorInfo;
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.pal.common.TypeNameFactory;
+import com.sri.tasklearning.spine.impl.jms.util.SpineTestCase;
+import com.sri.tasklearning.spine.messages.ErrorExecutionStatus;
+import com.sri.tasklearning.spine.messages.ExecuteRequest;
+import com.sri.tasklearning.spine.messages.Heartbeat;
+import com.sri.tasklearning.spine.messages.Message;
+import com.sri.tasklearning.spine.messages.SerialNumberRequest;
+import com.sri.tasklearning.spine.messages.SerialNumberResponse;
+import com.sri.tasklearning.spine.messages.StartExecutionStatus;
+import com.sri.tasklearning.spine.messages.SuccessExecutionStatus;
+import com.sri.tasklearning.spine.messages.TypeResult;
+import com.sri.tasklearning.spine.messages.UserMessageType;
+import com.sri.tasklearning.spine.messages.contents.TransactionUID;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class BinaryMessageCodec_Test extends SpineTestCase {
+    private Connection connection;
+    private Session session;
+    private BinaryMessageCodec codec;
+    private SimpleTypeName actionName;
+    private TransactionUID uid;
+    private TransactionUID parentUid;
+
+    @BeforeMethod
+    public void setUp() throws JMSException {
+        connection = new ActiveMQConnectionFactory("vm://codec?broker.persistent=false&broker.useJmx=false")
+                .createConnection();
+        session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        codec = new BinaryMessageCodec();
+        actionName = (SimpleTypeName) TypeNameFactory.makeName("ns^1.0^action");
+        uid = new TransactionUID("Bridge", 7);
+        parentUid = new TransactionUID("Lumen", 3);
+    }
+
+    @AfterMethod
+    public void tearDown() throws JMSException {
+        connection.close();
+    }
+
+    private Message roundTrip(Message message) throws JMSException {
+        javax.jms.Message jmsMessage = codec.encode(session, message);
+        if (jmsMessage instanceof BytesMessage) {
+            // Received messages are read-only; a freshly built one must be reset first.
+            ((BytesMessage) jmsMessage).reset();
+        }
+        return codec.decode(jmsMessage);
+    }
+
+    @Test
+    public void executeRequest() throws JMSException {
+        List<Object> inParams = new ArrayList<Object>();
+        inParams.add("a string");
+        inParams.add(42);
+        inParams.add(42L);
+        inParams.add(null);
+        inParams.add(new ArrayList<Object>(Arrays.asList("x", 1.5d)));
+        inParams.add(new HashSet<Object>(Arrays.asList("y", "z")));
+        ExecuteRequest request = new ExecuteRequest("Bridge", uid, parentUid, actionName, inParams, true);
+
+        assertTrue(codec.encode(session, request) instanceof BytesMessage);
+        ExecuteRequest decoded = (ExecuteRequest) roundTrip(request);
+        assertEquals(request, decoded);
+        assertEquals("Bridge", decoded.getSender());
+        assertEquals(uid, decoded.getUid());
+        assertEquals(parentUid, decoded.getParentUid());
+        assertEquals(actionName, decoded.getActionName());
+        assertEquals(inParams, decoded.getInParams());
+        assertEquals(HashSet.class, decoded.getInParams().get(5).getClass());
+        assertTrue(decoded.isStepped());
+        assertNull(decoded.getTarget());
+
+        request.setTarget("Lumen");
+        assertEquals("Lumen", ((ExecuteRequest) roundTrip(request)).getTarget());
+    }
+
+    @Test
+    public void executionStatuses() throws JMSException {
+        List<Object> inParams = new ArrayList<Object>(Arrays.asList((Object) "in"));
+        List<Object> outParams = new ArrayList<Object>(Arrays.asList((Object) Boolean.TRUE));
+
+        StartExecutionStatus start = new StartExecutionStatus("Lumen", uid, parentUid, actionName, 99, inParams);
+        StartExecutionStatus decodedStart = (StartExecutionStatus) roundTrip(start);
+        assertEquals(start, decodedStart);
+        assertEquals(99, decodedStart.getSerialNumber());
+
+        SuccessExecutionStatus success = new SuccessExecutionStatus("Lumen", uid, null, inParams, outParams);
+        SuccessExecutionStatus decodedSuccess = (SuccessExecutionStatus) roundTrip(success);
+        assertEquals(success, decodedSuccess);
+        assertNull(decodedSuccess.getParentUid());
+
+        ErrorInfo error = new ErrorInfo("Lumen", 1, "terse", "verbose", new ArrayList<ErrorInfo.PALStackFrame>());
+        ErrorExecutionStatus failure = new ErrorExecutionStatus("Lumen", uid, parentUid, error);
+        assertEquals(failure, roundTrip(failure));
+    }
+
+    @Test
+    public void largeTypeResult() throws JMSException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append("\u00e9type ");
+        }
+        TypeResult result = new TypeResult("Lumen", actionName, sb.toString(), uid);
+        TypeResult decoded = (TypeResult) roundTrip(result);
+        assertEquals(sb.toString(), decoded.getTypeStr());
+        assertEquals(actionName, decoded.getTypeName());
+
+        TypeResult notFound = new TypeResult("Lumen", actionName, null, uid);
+        assertNull(((TypeResult) roundTrip(notFound)).getTypeStr());
+    }
+
+    @Test
+    public void serialNumber() throws JMSException {
+        SerialNumberResponse response = new SerialNumberResponse("Shell", uid, Long.MAX_VALUE);
+        SerialNumberResponse decoded = (SerialNumberResponse) roundTrip(response);
+        assertEquals(response, decoded);
+        assertEquals(Long.MAX_VALUE, decoded.getSerialNumber());
+        assertEquals(1, decoded.getCount());
+
+        SerialNumberRequest request = new SerialNumberRequest("Bridge", uid, 1024);
+        assertEquals(1024, ((SerialNumberRequest) roundTrip(request)).getCount());
+        response = new SerialNumberResponse("Shell", uid, 2048, 1024);
+        decoded = (SerialNumberResponse) roundTrip(response);
+        assertEquals(response, decoded);
+        assertEquals(1024, decoded.getCount());
+    }
+
+    @Test
+    public void messageBatch() throws JMSException {
+        List<Object> inParams = new ArrayList<Object>(Arrays.asList((Object) "in"));
+        List<Message> messages = new ArrayList<Message>();
+        messages.add(new StartExecutionStatus("Lumen", uid, parentUid, actionName, 1, inParams));
+        messages.add(new SuccessExecutionStatus("Lumen", uid, parentUid, inParams, inParams));
+        messages.add(new ErrorExecutionStatus("Lumen", parentUid, null, null));
+        MessageBatch batch = new MessageBatch("Lumen", uid, UserMessageType.EXECUTION_STATUS, messages);
+
+        assertTrue(codec.encode(session, batch) instanceof BytesMessage);
+        MessageBatch decoded = (MessageBatch) roundTrip(batch);
+        assertEquals(UserMessageType.EXECUTION_STATUS, decoded.getMessageType());
+        assertEquals(messages, decoded.getMessages());
+        assertEquals(1, ((StartExecutionStatus) decoded.getMessages().get(0)).getSerialNumber());
+    }
+
+    @Test
+    public void fallsBackToObjectMessage() throws JMSException {
+        Heartbeat heartbeat = new Heartbeat("Shell", new TransactionUID("Shell", -1));
+        javax.jms.Message jmsMessage = codec.encode(session, heartbeat);
+        assertTrue(jmsMessage instanceof ObjectMessage);
+        assertEquals(heartbeat, codec.decode(jmsMessage));
+    }
+
+    @Test
+    public void decodesObjectMessages() throws JMSException {
+        ExecuteRequest request = new ExecuteRequest("Bridge", uid, parentUid, actionName,
+                new ArrayList<Object>(), false);
+        javax.jms.Message jmsMessage = new ObjectMessageCodec().encode(session, request);
+        assertEquals(request, codec.decode(jmsMessage));
+    }
+
+    @Test
+    public void objectCodecDecodesBinaryFrames() throws JMSException {
+        ExecuteRequest request = new ExecuteRequest("Bridge", uid, parentUid, actionName,
+                new ArrayList<Object>(), false);
+        javax.jms.Message jmsMessage = codec.encode(session, request);
+        assertTrue(jmsMessage instanceof BytesMessage);
+        ((BytesMessage) jmsMessage).reset();
+        assertEquals(request, new ObjectMessageCodec().decode(jmsMessage));
+
+        // Messages the binary codec doesn't handle still come through whole.
+        Heartbeat heartbeat = new Heartbeat("Shell", new TransactionUID("Shell", -1));
+        assertEquals(heartbeat, new ObjectMessageCodec().decode(codec.encode(session, heartbeat)));
+    }
+}
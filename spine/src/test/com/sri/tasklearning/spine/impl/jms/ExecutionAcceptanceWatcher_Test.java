@@ -19,6 +19,7 @@ package com.sri.tasklearning.spine.impl.jms;
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
 import static org.testng.AssertJUnit.assertTrue;
 
 import java.util.ArrayList;
@@ -260,6 +261,59 @@ public class ExecutionAcceptanceWatcher_Test extends SpineTestCase {
         assertFalse(informedRequestIgnored[0]);
     }
 
+    @Test
+    public void willBroadcast_ForMultipleSubscribers_WhenTargetIgnores() throws SpineException, MessageHandlerException, InterruptedException {
+        masterSpine = new JmsSpine(JmsClient.LOCAL, shell);
+        bridgeSpine = new JmsSpine(JmsClient.REMOTE, bridge);
+
+        // Set up the executors
+        lumenSpine = new JmsSpine(JmsClient.REMOTE, lumen);
+        lumenSpine.subscribe(new MockClientMessageHandler(lumenSpine, false), UserMessageType.EXECUTE_REQUEST);
+        otherBridgeSpine = new JmsSpine(JmsClient.REMOTE, otherBridge);
+        otherBridgeSpine.subscribe(new MockClientMessageHandler(otherBridgeSpine, false), UserMessageType.EXECUTE_REQUEST);
+
+        final boolean[] informedRequestIgnored = new boolean[]{false};
+        bridgeSpine.subscribe(new MessageHandler() {
+            @Override
+            public void handleMessage(Message message) throws MessageHandlerException {
+                if (message instanceof IgnoredExecutionStatus) {
+                    informedRequestIgnored[0] = true;
+                }
+            }
+        }, UserMessageType.EXECUTION_STATUS);
+
+        // Allow subscriptions to propagate
+        Thread.sleep(100);
+
+        TransactionUID uid = bridgeSpine.getNextUid();
+        ExecuteRequest executeRequest = new ExecuteRequest(bridge, uid, null,
+                actionName, inParams, false);
+        executeRequest.setTarget(lumen);
+
+        ExecutionAcceptanceWatcher executionWatcher = new ExecutionAcceptanceWatcher(masterSpine);
+        executionWatcher.addWatch(executeRequest);
+        assertEquals(1, executionWatcher.watchCount());
+
+        // Only Lumen received the request, so its answer is the only one coming.
+        // Its route may be stale, so the request is broadcast rather than failed.
+        RequestIgnored requestIgnored = new RequestIgnored(lumen, uid, null);
+        executionWatcher.handleMessage(requestIgnored);
+
+        assertEquals(1, executionWatcher.watchCount());
+        assertNull(executeRequest.getTarget());
+        // Sleep for a tad to allow any ignore messages to propagate
+        Thread.sleep(500);
+        assertFalse(informedRequestIgnored[0]);
+
+        // Both executors received the broadcast; once both ignore it, the requester is told
+        executionWatcher.handleMessage(new RequestIgnored(lumen, uid, null));
+        assertEquals(1, executionWatcher.watchCount());
+        executionWatcher.handleMessage(new RequestIgnored(otherBridge, uid, null));
+        assertEquals(0, executionWatcher.watchCount());
+        Thread.sleep(500);
+        assertTrue(informedRequestIgnored[0]);
+    }
+
     public void willIssueIgnoredExecutionStatus_ForMultipleSubscribers_WhenAllIgnore() throws SpineException, MessageHandlerException, InterruptedException {
         masterSpine = new JmsSpine(JmsClient.LOCAL, shell);
         bridgeSpine = new JmsSpine(JmsClient.REMOTE, bridge);
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sri.tasklearning.spine.impl.jms;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.pal.common.TypeNameFactory;
+import com.sri.tasklearning.spine.MessageHandler;
+import com.sri.tasklearning.spine.MessageHandlerException;
+import com.sri.tasklearning.spine.impl.jms.util.SpineTestCase;
+import com.sri.tasklearning.spine.messages.ExecuteRequest;
+import com.sri.tasklearning.spine.messages.ExecutorChange;
+import com.sri.tasklearning.spine.messages.ExecutorListQuery;
+import com.sri.tasklearning.spine.messages.ExecutorListResult;
+import com.sri.tasklearning.spine.messages.IgnoredExecutionStatus;
+import com.sri.tasklearning.spine.messages.Message;
+import com.sri.tasklearning.spine.messages.RequestIgnored;
+import com.sri.tasklearning.spine.messages.StartExecutionStatus;
+import com.sri.tasklearning.spine.messages.UserMessageType;
+import com.sri.tasklearning.spine.messages.contents.TransactionUID;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ExecutorRoutes_Test extends SpineTestCase {
+    private SimpleTypeName actionName;
+    private JmsSpine masterSpine;
+    private JmsSpine bridgeSpine;
+    private JmsSpine lumenSpine;
+    private JmsSpine otherLumenSpine;
+
+    @BeforeMethod
+    public void setUp() {
+        actionName = (SimpleTypeName) TypeNameFactory.makeName("action");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (bridgeSpine != null) {
+            bridgeSpine.shutdown(true);
+        }
+        if (lumenSpine != null) {
+            lumenSpine.shutdown(true);
+        }
+        if (otherLumenSpine != null) {
+            otherLumenSpine.shutdown(true);
+        }
+        if (masterSpine != null) {
+            masterSpine.shutdown(true);
+        }
+    }
+
+    @Test
+    public void learnsFromAnswers() {
+        ExecutorRoutes routes = new ExecutorRoutes();
+        TransactionUID uid = new TransactionUID("Bridge", 1);
+        routes.queryStarted(new ExecutorListQuery("Bridge", uid, actionName));
+        routes.answered(new ExecutorListResult("OtherLumen", uid, false));
+        assertNull(routes.route(actionName));
+        routes.answered(new ExecutorListResult("Lumen", uid, true));
+        assertEquals("Lumen", routes.route(actionName));
+
+        // Answers to gathers which are over, or which weren't ours, are ignored
+        routes.queryFinished(uid);
+        routes.answered(new ExecutorListResult("Lumen", uid, false));
+        assertEquals("Lumen", routes.route(actionName));
+        routes.answered(new ExecutorListResult("OtherLumen", new TransactionUID("Shell", 1), true));
+        assertEquals("Lumen", routes.route(actionName));
+    }
+
+    @Test
+    public void forgetsDepartedExecutor() {
+        ExecutorRoutes routes = new ExecutorRoutes();
+        TransactionUID uid = new TransactionUID("Bridge", 1);
+        routes.queryStarted(new ExecutorListQuery("Bridge", uid, actionName));
+        routes.answered(new ExecutorListResult("Lumen", uid, true));
+        routes.clientLeft("OtherLumen");
+        assertEquals("Lumen", routes.route(actionName));
+        routes.clientLeft("Lumen");
+        assertNull(routes.route(actionName));
+
+        routes.answered(new ExecutorListResult("Lumen", uid, true));
+        routes.answered(new ExecutorListResult("Lumen", uid, false));
+        assertNull(routes.route(actionName));
+    }
+
+    @Test
+    public void forgetsIgnoringTarget() {
+        ExecutorRoutes routes = learnedRoutes();
+
+        // Ignored by some other client: the route stands
+        ExecuteRequest request = routedRequest(routes, 2);
+        routes.observe(new RequestIgnored("OtherLumen", request.getUid(), null));
+        assertEquals("Lumen", routes.route(actionName));
+
+        // Ignored by the target: broadcast from now on
+        request = routedRequest(routes, 3);
+        routes.observe(new RequestIgnored("Lumen", request.getUid(), null));
+        assertNull(routes.route(actionName));
+
+        // The master's IgnoredExecutionStatus has the same effect
+        routes = learnedRoutes();
+        request = routedRequest(routes, 4);
+        routes.observe(new IgnoredExecutionStatus("Lumen", request.getUid(), null));
+        assertNull(routes.route(actionName));
+    }
+
+    @Test
+    public void followsBroadcastAnswer() {
+        ExecutorRoutes routes = learnedRoutes();
+
+        // The target ran it: the route stands
+        ExecuteRequest request = routedRequest(routes, 2);
+        routes.observe(new StartExecutionStatus("Lumen", request.getUid(), null, actionName, 1l,
+                new ArrayList<Object>()));
+        assertEquals("Lumen", routes.route(actionName));
+
+        // The master broadcast it after Lumen ignored it, and OtherLumen ran it
+        request = routedRequest(routes, 3);
+        routes.observe(new StartExecutionStatus("OtherLumen", request.getUid(), null, actionName, 1l,
+                new ArrayList<Object>()));
+        assertEquals("OtherLumen", routes.route(actionName));
+    }
+
+    @Test
+    public void forgetsChangedExecutor() {
+        ExecutorRoutes routes = learnedRoutes();
+        SimpleTypeName otherAction = (SimpleTypeName) TypeNameFactory.makeName("otherAction");
+        routes.observe(new ExecutorChange("OtherLumen", new TransactionUID("OtherLumen", 1),
+                otherAction, true));
+        assertEquals("Lumen", routes.route(actionName));
+        routes.observe(new ExecutorChange("OtherLumen", new TransactionUID("OtherLumen", 2),
+                actionName, true));
+        assertNull(routes.route(actionName));
+    }
+
+    private ExecutorRoutes learnedRoutes() {
+        ExecutorRoutes routes = new ExecutorRoutes();
+        TransactionUID uid = new TransactionUID("Bridge", 1);
+        routes.queryStarted(new ExecutorListQuery("Bridge", uid, actionName));
+        routes.answered(new ExecutorListResult("Lumen", uid, true));
+        routes.queryFinished(uid);
+        return routes;
+    }
+
+    private ExecuteRequest routedRequest(ExecutorRoutes routes,
+                                         int id) {
+        ExecuteRequest request = new ExecuteRequest("Bridge", new TransactionUID("Bridge", id), null,
+                actionName, new ArrayList<Object>(), false);
+        request.setTarget(routes.route(actionName));
+        routes.requestRouted(request);
+        return request;
+    }
+
+    @Test
+    public void sendsOnlyToTheExecutor() throws Exception {
+        masterSpine = new JmsSpine(JmsClient.LOCAL, "Shell");
+        bridgeSpine = new JmsSpine(JmsClient.REMOTE, "Bridge");
+        lumenSpine = new JmsSpine(JmsClient.REMOTE, "Lumen");
+        otherLumenSpine = new JmsSpine(JmsClient.REMOTE, "OtherLumen");
+        final AtomicInteger lumenRequests = new AtomicInteger();
+        final AtomicInteger otherLumenRequests = new AtomicInteger();
+        lumenSpine.subscribe(new CountingHandler(lumenRequests), UserMessageType.EXECUTE_REQUEST);
+        otherLumenSpine.subscribe(new CountingHandler(otherLumenRequests), UserMessageType.EXECUTE_REQUEST);
+
+        // Allow subscriptions to propagate.
+        Thread.sleep(500);
+
+        // Unknown actions are broadcast
+        bridgeSpine.send(new ExecuteRequest("Bridge", bridgeSpine.getNextUid(), null,
+                actionName, new ArrayList<Object>(), false));
+        Thread.sleep(500);
+        assertEquals(1, lumenRequests.get());
+        assertEquals(1, otherLumenRequests.get());
+
+        TransactionUID queryUid = bridgeSpine.getNextUid();
+        ExecutorRoutes routes = bridgeSpine.getExecutorRoutes();
+        routes.queryStarted(new ExecutorListQuery("Bridge", queryUid, actionName));
+        routes.answered(new ExecutorListResult("OtherLumen", queryUid, true));
+        routes.queryFinished(queryUid);
+
+        ExecuteRequest request = new ExecuteRequest("Bridge", bridgeSpine.getNextUid(), null,
+                actionName, new ArrayList<Object>(), false);
+        bridgeSpine.send(request);
+        Thread.sleep(500);
+        assertEquals("OtherLumen", request.getTarget());
+        assertEquals(1, lumenRequests.get());
+        assertEquals(2, otherLumenRequests.get());
+    }
+
+    private static class CountingHandler implements MessageHandler {
+        private final AtomicInteger count;
+
+        CountingHandler(AtomicInteger count) {
+            this.count = count;
+        }
+
+        @Override
+        public void handleMessage(Message message) throws MessageHandlerException {
+            if (message instanceof ExecuteRequest) {
+                count.incrementAndGet();
+            }
+        }
+    }
+}
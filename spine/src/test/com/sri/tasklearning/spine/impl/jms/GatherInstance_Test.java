@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sri.tasklearning.spine.impl.jms;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.tasklearning.spine.impl.jms.util.SpineTestCase;
+import com.sri.tasklearning.spine.messages.TypeListResult;
+import com.sri.tasklearning.spine.messages.UserMessageType;
+import com.sri.tasklearning.spine.messages.contents.TransactionUID;
+
+import org.testng.annotations.Test;
+
+public class GatherInstance_Test extends SpineTestCase {
+    private final TransactionUID uid = new TransactionUID("Bridge", 1);
+
+    private GatherInstance newGather() {
+        return new GatherInstance(uid, UserMessageType.TYPE_LIST_QUERY,
+                new HashSet<String>(Arrays.asList("Lumen", "Lapdog")));
+    }
+
+    private TypeListResult response(String sender, TransactionUID responseUid) {
+        return new TypeListResult(sender, new HashSet<SimpleTypeName>(), responseUid);
+    }
+
+    @Test
+    public void completesWhenAllRespond() throws Exception {
+        GatherInstance gather = newGather();
+        assertFalse(gather.signal(response("Lumen", uid)));
+        assertFalse(gather.signal(response("Lumen", new TransactionUID("Bridge", 2))));
+        assertFalse(gather.getResult().isDone());
+        assertTrue(gather.signal(response("Lapdog", uid)));
+        assertEquals(2, gather.getResult().get().length);
+    }
+
+    @Test
+    public void completesWhenResponderLeaves() throws Exception {
+        GatherInstance gather = newGather();
+        assertFalse(gather.signal(response("Lumen", uid)));
+        assertFalse(gather.responderLeft("Adept"));
+        assertTrue(gather.responderLeft("Lapdog"));
+        assertEquals(1, gather.getResult().get().length);
+    }
+
+    @Test
+    public void expireReturnsPartialResults() throws Exception {
+        GatherInstance gather = newGather();
+        gather.signal(response("Lumen", uid));
+        gather.expire();
+        assertEquals(1, gather.getResult().get().length);
+        // Late responses are ignored
+        assertFalse(gather.signal(response("Lapdog", uid)));
+        assertEquals(1, gather.getResult().get().length);
+    }
+
+    @Test
+    public void timerFiresAndCancels() throws Exception {
+        HashedWheelTimer timer = new HashedWheelTimer("test timer", 10, 8);
+        final CountDownLatch fired = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        // Longer than one turn of the wheel
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                fired.countDown();
+            }
+        }, 200);
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                cancelled.countDown();
+            }
+        }, 50).cancel();
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 200);
+        assertFalse(cancelled.await(100, TimeUnit.MILLISECONDS));
+        timer.stop();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.impl.jms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.pal.common.TypeNameFactory;
+import com.sri.tasklearning.spine.MessageHandler;
+import com.sri.tasklearning.spine.MessageHandlerException;
+import com.sri.tasklearning.spine.impl.jms.util.SpineTestCase;
+import com.sri.tasklearning.spine.messages.Message;
+import com.sri.tasklearning.spine.messages.StartExecutionStatus;
+import com.sri.tasklearning.spine.messages.UserMessageType;
+import com.sri.tasklearning.util.LogUtil;
+
+/**
+ * Measures how many execution status messages per second a spine can send
+ * from 1, 4 and 16 concurrent threads. This is not run as part of the test
+ * suite; run it by hand, optionally with {@code -DPAL.SpineSenderSessions=n}
+ * to compare lane counts.
+ */
+public class JmsSpine_SendBenchmark {
+    private static final int MESSAGES_PER_RUN = 20000;
+    private static final int[] THREAD_COUNTS = {1, 4, 16};
+
+    public static void main(String[] args) throws Throwable {
+        LogUtil.configureLogging(SpineTestCase.LOG_CONFIG_BASE, SpineTestCase.class);
+        final JmsSpine shellSpine = new JmsSpine(JmsClient.LOCAL, "Shell");
+        JmsSpine bridgeSpine = new JmsSpine(JmsClient.REMOTE, "Bridge");
+        final CountingHandler handler = new CountingHandler();
+        bridgeSpine.subscribe(handler, UserMessageType.EXECUTION_STATUS);
+        // Allow subscriptions to propagate
+        Thread.sleep(500);
+
+        final SimpleTypeName actionName = (SimpleTypeName) TypeNameFactory.makeName("action");
+        final List<Object> inParams = new ArrayList<Object>();
+        inParams.add("value");
+
+        // Warm up, then measure each thread count.
+        run(shellSpine, handler, actionName, inParams, 4);
+        for (int threads : THREAD_COUNTS) {
+            long elapsed = run(shellSpine, handler, actionName, inParams, threads);
+            System.out.println(threads + " sending threads: " + (MESSAGES_PER_RUN * 1000000000L / elapsed)
+                    + " messages/second");
+        }
+
+        bridgeSpine.shutdown(true);
+        shellSpine.shutdown(true);
+        System.exit(0);
+    }
+
+    private static long run(final JmsSpine spine,
+                            CountingHandler handler,
+                            final SimpleTypeName actionName,
+                            final List<Object> inParams,
+                            int threads) throws InterruptedException {
+        handler.expect(MESSAGES_PER_RUN);
+        // Every thread count used divides MESSAGES_PER_RUN evenly.
+        final int perThread = MESSAGES_PER_RUN / threads;
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> senders = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < perThread; j++) {
+                            spine.send(new StartExecutionStatus("Shell", spine.getNextUid(), null,
+                                    actionName, j, inParams));
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            thread.start();
+            senders.add(thread);
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : senders) {
+            thread.join();
+        }
+        if (!handler.await()) {
+            System.out.println("Not all messages arrived");
+        }
+        return System.nanoTime() - begin;
+    }
+
+    private static class CountingHandler implements MessageHandler {
+        private volatile CountDownLatch done;
+
+        void expect(int count) {
+            done = new CountDownLatch(count);
+        }
+
+        boolean await() throws InterruptedException {
+            return done.await(60, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public void handleMessage(Message message) throws MessageHandlerException {
+            done.countDown();
+        }
+    }
+}
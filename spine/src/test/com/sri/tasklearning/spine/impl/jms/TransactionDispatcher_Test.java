@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.impl.jms;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.sri.tasklearning.spine.MessageHandler;
+import com.sri.tasklearning.spine.MessageHandlerException;
+import com.sri.tasklearning.spine.impl.jms.util.SpineTestCase;
+import com.sri.tasklearning.spine.messages.Message;
+import com.sri.tasklearning.spine.messages.SerialNumberRequest;
+import com.sri.tasklearning.spine.messages.UserMessageType;
+import com.sri.tasklearning.spine.messages.contents.TransactionUID;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TransactionDispatcher_Test extends SpineTestCase {
+    private TransactionDispatcher dispatcher;
+
+    @BeforeMethod
+    public void setUp() {
+        dispatcher = new TransactionDispatcher("test", 4);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    /**
+     * Messages are numbered by their count, so handlers can tell which one
+     * they got.
+     */
+    private static Message message(TransactionUID uid,
+                                   int count) {
+        return new SerialNumberRequest("test", uid, count);
+    }
+
+    /**
+     * Finds a UID which the dispatcher puts on a different lane than
+     * {@code uid}.
+     */
+    private TransactionUID otherLane(TransactionUID uid) {
+        for (int i = 0; ; i++) {
+            TransactionUID other = new TransactionUID("other", i);
+            if (dispatcher.laneFor(other) != dispatcher.laneFor(uid)) {
+                return other;
+            }
+        }
+    }
+
+    @Test
+    public void sameTransactionInOrder() throws Exception {
+        final int count = 200;
+        final List<Integer> seen = Collections
+                .synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(count);
+        MessageHandler handler = new MessageHandler() {
+            @Override
+            public void handleMessage(Message message)
+                    throws MessageHandlerException {
+                seen.add(((SerialNumberRequest) message).getCount());
+                done.countDown();
+            }
+        };
+
+        TransactionUID uid = new TransactionUID("test", 1);
+        for (int i = 0; i < count; i++) {
+            dispatcher.dispatch(handler, UserMessageType.SERIAL_NUMBER_REQUEST,
+                    message(uid, i));
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, seen.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void otherTransactionsProceed() throws Exception {
+        final TransactionUID slowUid = new TransactionUID("test", 1);
+        TransactionUID fastUid = otherLane(slowUid);
+        final CountDownLatch fastDone = new CountDownLatch(1);
+        final CountDownLatch slowDone = new CountDownLatch(1);
+        MessageHandler handler = new MessageHandler() {
+            @Override
+            public void handleMessage(Message message)
+                    throws MessageHandlerException {
+                if (slowUid.equals(message.getUid())) {
+                    // Held up until the other transaction has been handled.
+                    try {
+                        if (fastDone.await(10, TimeUnit.SECONDS)) {
+                            slowDone.countDown();
+                        }
+                    } catch (InterruptedException e) {
+                        throw new MessageHandlerException(e);
+                    }
+                } else {
+                    fastDone.countDown();
+                }
+            }
+        };
+
+        dispatcher.dispatch(handler, UserMessageType.SERIAL_NUMBER_REQUEST,
+                message(slowUid, 0));
+        dispatcher.dispatch(handler, UserMessageType.SERIAL_NUMBER_REQUEST,
+                message(fastUid, 0));
+        assertTrue(slowDone.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void laneSurvivesHandlerException() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        MessageHandler handler = new MessageHandler() {
+            @Override
+            public void handleMessage(Message message)
+                    throws MessageHandlerException {
+                if (((SerialNumberRequest) message).getCount() == 0) {
+                    throw new RuntimeException("expected by the test");
+                }
+                done.countDown();
+            }
+        };
+
+        TransactionUID uid = new TransactionUID("test", 1);
+        dispatcher.dispatch(handler, UserMessageType.SERIAL_NUMBER_REQUEST,
+                message(uid, 0));
+        dispatcher.dispatch(handler, UserMessageType.SERIAL_NUMBER_REQUEST,
+                message(uid, 1));
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+}
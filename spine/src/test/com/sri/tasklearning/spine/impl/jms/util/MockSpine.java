@@ -18,11 +18,14 @@
 package com.sri.tasklearning.spine.impl.jms.util;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import com.sri.ai.lumen.atr.ATRSyntax;
 import com.sri.ai.lumen.atr.decl.ATRDecl;
@@ -41,6 +44,8 @@ import com.sri.tasklearning.spine.messages.PrivilegedMessageType;
 import com.sri.tasklearning.spine.messages.SerialNumberRequest;
 import com.sri.tasklearning.spine.messages.SerialNumberResponse;
 import com.sri.tasklearning.spine.messages.SystemMessageType;
+import com.sri.tasklearning.spine.messages.TypeBatchQuery;
+import com.sri.tasklearning.spine.messages.TypeBatchResult;
 import com.sri.tasklearning.spine.messages.TypeListQuery;
 import com.sri.tasklearning.spine.messages.TypeListResult;
 import com.sri.tasklearning.spine.messages.TypeQuery;
@@ -51,6 +56,7 @@ import com.sri.tasklearning.spine.messages.contents.UID;
 public class MockSpine
         implements Spine {
     private int nextUid = 0;
+    private long nextSerial = 0;
     private final Map<String, ATRDecl> actions;
     private final Map<MessageType, List<MessageHandler>> messageHandlers;
     private final Map<MessageType, Message> lastMessages;
@@ -111,6 +117,8 @@ public class MockSpine
 
         if(message instanceof TypeQuery) {
             handleTypeQuery((TypeQuery) message);
+        } else if (message instanceof TypeBatchQuery) {
+            handleTypeBatchQuery((TypeBatchQuery) message);
         } else if (message instanceof TypeListQuery) {
             handleTypeListQuery((TypeListQuery) message);
         } else if(message instanceof SerialNumberRequest) {
@@ -120,6 +128,16 @@ public class MockSpine
         return true;
     }
 
+    @Override
+    public boolean sendBatch(Collection<? extends Message> messages)
+            throws SpineException {
+        boolean allSent = true;
+        for (Message message : messages) {
+            allSent &= send(message);
+        }
+        return allSent;
+    }
+
     @Override
     public Message[] gather(Message message, long timeout) throws SpineException {
         gatherResults = new Message[0];
@@ -144,6 +162,11 @@ public class MockSpine
 
     }
 
+    @Override
+    public CompletableFuture<Message[]> gatherAsync(Message message, long timeout) throws SpineException {
+        return CompletableFuture.completedFuture(gather(message, timeout));
+    }
+
     @Override
     public final void subscribe(
             MessageHandler messageHandler,
@@ -267,6 +290,24 @@ public class MockSpine
         }
     }
 
+    /**
+     * Answers with just the requested types; dependencies aren't resolved.
+     */
+    private void handleTypeBatchQuery(TypeBatchQuery query) {
+        Map<SimpleTypeName, String> types = new LinkedHashMap<SimpleTypeName, String>();
+        for (SimpleTypeName name : query.getTypeNames()) {
+            ATRDecl type = actions.get(name.getFullName());
+            types.put(name, type == null ? null : ATRSyntax.toSource(type));
+        }
+        TypeBatchResult result = new TypeBatchResult("mockspine", types,
+                query.getUid());
+        try {
+            deliver(UserMessageType.TYPE_BATCH_RESULT, result);
+        } catch (MessageHandlerException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private void handleTypeListQuery(TypeListQuery query) {
         TransactionUID uid = query.getUid();
         Set<SimpleTypeName> types = new HashSet<SimpleTypeName>();
@@ -280,9 +321,10 @@ public class MockSpine
 
     private void handleSerialNumberRequest(SerialNumberRequest query) {
         TransactionUID uid = query.getUid();
-        long serial = 0;
+        long serial = nextSerial;
+        nextSerial += query.getCount();
         SerialNumberResponse response = new SerialNumberResponse("mockspine",
-                uid, serial);
+                uid, serial, query.getCount());
         try {
             deliver(SystemMessageType.SERIAL_NUMBER_RESPONSE, response);
         } catch (MessageHandlerException e) {
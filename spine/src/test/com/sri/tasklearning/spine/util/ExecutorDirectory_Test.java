@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.util;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.pal.common.TypeNameFactory;
+import com.sri.tasklearning.spine.MessageHandlerException;
+import com.sri.tasklearning.spine.SpineException;
+import com.sri.tasklearning.spine.impl.jms.util.MockSpine;
+import com.sri.tasklearning.spine.impl.jms.util.SpineTestCase;
+import com.sri.tasklearning.spine.messages.ExecutorChange;
+import com.sri.tasklearning.spine.messages.ExecutorListQuery;
+import com.sri.tasklearning.spine.messages.ExecutorListResult;
+import com.sri.tasklearning.spine.messages.Message;
+import com.sri.tasklearning.spine.messages.NewSubscription;
+import com.sri.tasklearning.spine.messages.SystemMessageType;
+import com.sri.tasklearning.spine.messages.Unsubscribe;
+import com.sri.tasklearning.spine.messages.UserMessageType;
+import com.sri.tasklearning.spine.messages.contents.TransactionUID;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for {@link ExecutorDirectory}.
+ */
+public class ExecutorDirectory_Test
+        extends SpineTestCase {
+    private SimpleTypeName action;
+    private ExecutorSpine spine;
+    private ExecutorDirectory directory;
+
+    @BeforeMethod
+    public void setup()
+            throws Exception {
+        action = (SimpleTypeName) TypeNameFactory.makeName("test^1.0^action1");
+        spine = new ExecutorSpine();
+        directory = new ExecutorDirectory(spine);
+    }
+
+    @Test
+    public void remembersAnswers()
+            throws Exception {
+        spine.executor = "Bridge";
+        assertTrue(directory.hasExecutor(action));
+        assertTrue(directory.hasExecutor(action));
+        assertEquals(1, spine.gathers);
+        assertEquals(1, directory.getHitCount());
+        assertEquals(1, directory.getMissCount());
+    }
+
+    @Test
+    public void executorChangeForgets()
+            throws Exception {
+        assertFalse(directory.hasExecutor(action));
+        spine.executor = "Bridge";
+        spine.deliver(UserMessageType.EXECUTOR_CHANGE, new ExecutorChange(
+                "Bridge", new TransactionUID("Bridge", 1), action, true));
+        assertTrue(directory.hasExecutor(action));
+        assertEquals(2, spine.gathers);
+    }
+
+    @Test
+    public void newSubscriberForgetsMissingExecutors()
+            throws Exception {
+        assertFalse(directory.hasExecutor(action));
+        spine.deliver(SystemMessageType.NEW_SUBSCRIPTION, new NewSubscription(
+                "Bridge", new TransactionUID("Bridge", 1),
+                UserMessageType.EXECUTOR_LIST_QUERY));
+        assertFalse(directory.hasExecutor(action));
+        assertEquals(2, spine.gathers);
+    }
+
+    @Test
+    public void unsubscribeForgetsClientsExecutors()
+            throws Exception {
+        spine.executor = "Bridge";
+        assertTrue(directory.hasExecutor(action));
+        spine.deliver(SystemMessageType.UNSUBSCRIBE, new Unsubscribe("Other",
+                new TransactionUID("Other", 1),
+                UserMessageType.EXECUTE_REQUEST));
+        assertTrue(directory.hasExecutor(action));
+        assertEquals(1, spine.gathers);
+
+        spine.executor = null;
+        spine.deliver(SystemMessageType.UNSUBSCRIBE, new Unsubscribe("Bridge",
+                new TransactionUID("Bridge", 2),
+                UserMessageType.EXECUTE_REQUEST));
+        assertFalse(directory.hasExecutor(action));
+        assertEquals(2, spine.gathers);
+    }
+
+    @Test
+    public void changeDuringGatherIsNotRemembered()
+            throws Exception {
+        spine.executor = "Bridge";
+        spine.changeDuringGather = true;
+        assertTrue(directory.hasExecutor(action));
+        spine.changeDuringGather = false;
+        assertTrue(directory.hasExecutor(action));
+        assertTrue(directory.hasExecutor(action));
+        assertEquals(2, spine.gathers);
+    }
+
+    /**
+     * Answers every executor query with whoever {@code executor} names,
+     * optionally announcing an executor change while the query is out.
+     */
+    private static class ExecutorSpine
+            extends MockSpine {
+        private String executor;
+        private int gathers;
+        private boolean changeDuringGather;
+
+        ExecutorSpine()
+                throws SpineException {
+            super();
+        }
+
+        @Override
+        public Message[] gather(Message message,
+                                long timeout)
+                throws SpineException {
+            gathers++;
+            TransactionUID uid = (TransactionUID) message.getUid();
+            if (changeDuringGather) {
+                ExecutorListQuery query = (ExecutorListQuery) message;
+                try {
+                    deliver(UserMessageType.EXECUTOR_CHANGE, new ExecutorChange(
+                            "Other", new TransactionUID("Other", gathers),
+                            query.getActionName(), true));
+                } catch (MessageHandlerException e) {
+                    throw new SpineException(e);
+                }
+            }
+            if (executor == null) {
+                return new Message[] { new ExecutorListResult("Bridge", uid,
+                        false) };
+            }
+            return new Message[] { new ExecutorListResult(executor, uid, true) };
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.util;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.sri.pal.common.CallbackHandler;
+import com.sri.pal.common.ErrorInfo;
+import com.sri.tasklearning.spine.impl.jms.util.MockSpine;
+import com.sri.tasklearning.spine.impl.jms.util.SpineTestCase;
+import com.sri.tasklearning.spine.messages.SerialNumberRequest;
+import com.sri.tasklearning.spine.messages.SerialNumberResponse;
+import com.sri.tasklearning.spine.messages.SystemMessageType;
+import com.sri.tasklearning.spine.messages.contents.TransactionUID;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for {@link ReplyWatcher}.
+ */
+public class ReplyWatcher_Test
+        extends SpineTestCase {
+    private MockSpine spine;
+    private ReplyWatcher<SerialNumberResponse> watcher;
+
+    @BeforeMethod
+    public void setup()
+            throws Exception {
+        spine = new MockSpine();
+        watcher = new ReplyWatcher<SerialNumberResponse>(
+                SerialNumberResponse.class, spine);
+        spine.subscribe(watcher, SystemMessageType.SERIAL_NUMBER_RESPONSE);
+    }
+
+    @Test
+    public void sendAndGetReply()
+            throws Exception {
+        TransactionUID uid = spine.getNextUid();
+        SerialNumberResponse reply = watcher
+                .sendAndGetReply(new SerialNumberRequest(spine.getClientId(),
+                        uid));
+        assertEquals(uid, reply.getUid());
+    }
+
+    @Test
+    public void sendAsync()
+            throws Exception {
+        TransactionUID uid = spine.getNextUid();
+        CompletableFuture<SerialNumberResponse> future = watcher
+                .sendAsync(new SerialNumberRequest(spine.getClientId(), uid));
+        assertEquals(uid, future.get(5, TimeUnit.SECONDS).getUid());
+    }
+
+    @Test
+    public void callback()
+            throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final SerialNumberResponse[] result = new SerialNumberResponse[1];
+        TransactionUID uid = spine.getNextUid();
+        watcher.sendAndGetReply(new CallbackHandler<SerialNumberResponse>() {
+            @Override
+            public void result(SerialNumberResponse response) {
+                result[0] = response;
+                latch.countDown();
+            }
+
+            @Override
+            public void error(ErrorInfo error) {
+                latch.countDown();
+            }
+        }, new SerialNumberRequest(spine.getClientId(), uid));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(uid, result[0].getUid());
+    }
+
+    @Test
+    public void stopWatchingWakesGet()
+            throws Exception {
+        final TransactionUID uid = spine.getNextUid();
+        watcher.watchFor(uid);
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // Stop early.
+                }
+                watcher.stopWatching(uid);
+            }
+        }.start();
+        try {
+            watcher.get(uid);
+            fail("get() should have thrown");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void timeout()
+            throws Exception {
+        // Not subscribed, so the reply never arrives.
+        ReplyWatcher<SerialNumberResponse> deaf = new ReplyWatcher<SerialNumberResponse>(
+                SerialNumberResponse.class, spine, 50);
+        TransactionUID uid = spine.getNextUid();
+        CompletableFuture<SerialNumberResponse> future = deaf
+                .sendAsync(new SerialNumberRequest(spine.getClientId(), uid));
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Request should have timed out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        deaf.shutdown();
+    }
+
+    @Test
+    public void callbackTimeoutIsForgotten()
+            throws Exception {
+        // Not subscribed, so the reply never arrives.
+        ReplyWatcher<SerialNumberResponse> deaf = new ReplyWatcher<SerialNumberResponse>(
+                SerialNumberResponse.class, spine, 50);
+        final CountDownLatch latch = new CountDownLatch(1);
+        deaf.sendAndGetReply(new CallbackHandler<SerialNumberResponse>() {
+            @Override
+            public void result(SerialNumberResponse response) {
+            }
+
+            @Override
+            public void error(ErrorInfo error) {
+                latch.countDown();
+            }
+        }, new SerialNumberRequest(spine.getClientId(), spine.getNextUid()));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        // The handler runs on another thread, so the entry may outlive it briefly.
+        for (int i = 0; i < 50 && deaf.pendingCallbacks() > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, deaf.pendingCallbacks());
+        deaf.shutdown();
+    }
+}
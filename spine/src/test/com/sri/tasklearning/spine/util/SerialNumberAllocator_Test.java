@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.util;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import com.sri.tasklearning.spine.impl.jms.util.MockSpine;
+import com.sri.tasklearning.spine.impl.jms.util.SpineTestCase;
+import com.sri.tasklearning.spine.messages.SerialNumberResponse;
+import com.sri.tasklearning.spine.messages.SystemMessageType;
+import com.sri.tasklearning.spine.messages.contents.TransactionUID;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for {@link SerialNumberAllocator}.
+ */
+public class SerialNumberAllocator_Test
+        extends SpineTestCase {
+    private MockSpine spine;
+    private SerialNumberAllocator allocator;
+
+    @BeforeMethod
+    public void setup()
+            throws Exception {
+        System.setProperty(SerialNumberAllocator.BLOCK_SIZE, "4");
+        spine = new MockSpine();
+        allocator = new SerialNumberAllocator(spine);
+        spine.subscribe(allocator, SystemMessageType.SERIAL_NUMBER_RESPONSE);
+    }
+
+    @AfterMethod
+    public void teardown() {
+        System.clearProperty(SerialNumberAllocator.BLOCK_SIZE);
+    }
+
+    @Test
+    public void drawsFromBlock()
+            throws Exception {
+        for (long i = 0; i < 10; i++) {
+            assertEquals(i, allocator.nextSerialNumber());
+        }
+        // One request per block of 4
+        assertEquals(3, spine.getSentMessagesList().size());
+    }
+
+    @Test
+    public void abandonsBlockAfterOtherGrant()
+            throws Exception {
+        assertEquals(0, allocator.nextSerialNumber());
+        assertEquals(1, allocator.nextSerialNumber());
+
+        // Another client was granted a later block, so ours is out of date.
+        allocator.handleMessage(new SerialNumberResponse("Shell",
+                new TransactionUID("Bridge", 0), 100, 4));
+        // The mock authority doesn't know about that grant, so the allocator
+        // has to keep asking until it gets a block after it.
+        long serial = allocator.nextSerialNumber();
+        assertTrue(serial > 100);
+        assertEquals(serial + 1, allocator.nextSerialNumber());
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 SRI International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sri.tasklearning.spine.util;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+
+import com.sri.ai.lumen.atr.ATRSyntax;
+import com.sri.ai.lumen.atr.decl.ATRTypeDeclaration;
+import com.sri.pal.common.SimpleTypeName;
+import com.sri.pal.common.TypeName;
+import com.sri.tasklearning.spine.impl.jms.util.SpineTestCase;
+import com.sri.tasklearning.spine.messages.CacheExpire;
+import com.sri.tasklearning.spine.messages.TypeListQuery.Subset;
+import com.sri.tasklearning.spine.messages.contents.TransactionUID;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for {@link TypeCache}.
+ */
+public class TypeCache_Test
+        extends SpineTestCase {
+    private ATRTypeDeclaration type1;
+    private ATRTypeDeclaration type2;
+    private ATRTypeDeclaration type3;
+    private TypeName name1;
+    private TypeName name2;
+    private TypeName name3;
+    private TypeCache cache;
+
+    @BeforeMethod
+    public void setup()
+            throws Exception {
+        type1 = ATRTestUtil.makeCustomType("test^1.0^type1", String.class);
+        type2 = ATRTestUtil.makeCustomType("test^1.0^type2", String.class);
+        type3 = ATRTestUtil.makeCustomType("test^1.0^type3", String.class);
+        name1 = TypeUtil.getName(type1);
+        name2 = TypeUtil.getName(type2);
+        name3 = TypeUtil.getName(type3);
+        // Room for two of them, but not three.
+        long weight = ATRSyntax.toSource(type1).length();
+        cache = new TypeCache(null, 3 * weight - 1);
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        assertNull(cache.get(name1));
+        cache.add(type1);
+        assertSame(type1, cache.get(name1));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(ATRSyntax.toSource(type1).length(), cache.getWeight());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        cache.add(type1);
+        cache.add(type2);
+        cache.get(name1);
+        cache.add(type3);
+        assertSame(type1, cache.get(name1));
+        assertNull(cache.get(name2));
+        assertSame(type3, cache.get(name3));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void keepsPinned() {
+        cache.pin(name2);
+        cache.add(type1);
+        cache.add(type2);
+        cache.get(name1);
+        cache.add(type3);
+        assertNull(cache.get(name1));
+        assertSame(type2, cache.get(name2));
+    }
+
+    @Test
+    public void attachmentFollowsItsType() {
+        Object wrapper = new Object();
+        cache.attach(type1, wrapper);
+        assertNull(cache.getAttachment(name1));
+
+        cache.add(type1);
+        cache.attach(type1, wrapper);
+        assertSame(wrapper, cache.getAttachment(name1));
+
+        // Replacing the type drops what was built from the old one.
+        ATRTypeDeclaration newType1 = ATRTestUtil.makeCustomType(
+                "test^1.0^type1", Integer.class);
+        cache.add(newType1);
+        assertNull(cache.getAttachment(name1));
+        cache.attach(type1, wrapper);
+        assertNull(cache.getAttachment(name1));
+    }
+
+    @Test
+    public void expires()
+            throws Exception {
+        cache.pin(name1);
+        cache.add(type1);
+        cache.handleMessage(new CacheExpire("Bridge", new TransactionUID(
+                "Bridge", 0), (SimpleTypeName) name1, Subset.TYPE));
+        assertNull(cache.get(name1));
+        assertEquals(0, cache.getWeight());
+    }
+}